@@ -0,0 +1,90 @@
+package com.machnev.sleepdevice;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Binds {@link RemoteDeviceService} in its :ble process the way {@link DeviceServiceBinding}
+ * does and checks that messages reach it and replies come back.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RemoteDeviceServiceTest {
+    private static final String ADDRESS = "00:00:00:00:00:00";
+
+    private final BlockingQueue<IBinder> binders = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Integer> replies = new LinkedBlockingQueue<>();
+    private Context context;
+    private HandlerThread replyThread;
+    private ServiceConnection connection;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        replyThread = new HandlerThread("RemoteDeviceServiceTest");
+        replyThread.start();
+        connection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+                binders.add(service);
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        context.unbindService(connection);
+        replyThread.quit();
+    }
+
+    @Test
+    public void localBindingGetsMessenger() throws Exception {
+        Intent intent = new Intent(context, RemoteDeviceService.class);
+        // Even a client asking for the LocalBinder must get a binder that works across processes.
+        intent.setAction(DeviceService.ACTION_BIND_LOCAL);
+        assertTrue(context.bindService(intent, connection, Context.BIND_AUTO_CREATE));
+
+        IBinder binder = binders.poll(5, TimeUnit.SECONDS);
+        assertNotNull(binder);
+        assertFalse(binder instanceof DeviceService.LocalBinder);
+
+        // A night report needs no connected device, the reply is sent even if none was recorded.
+        Message request = Message.obtain(null, DeviceService.REQUEST_NIGHT_REPORT);
+        Bundle data = new Bundle();
+        data.putString(DeviceService.DEVICE_ADDRESS, ADDRESS);
+        request.setData(data);
+        request.replyTo = new Messenger(new Handler(replyThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                replies.add(msg.what);
+            }
+        });
+        new Messenger(binder).send(request);
+
+        assertEquals(Integer.valueOf(DeviceService.NIGHT_REPORT), replies.poll(5, TimeUnit.SECONDS));
+    }
+}
@@ -1,37 +1,52 @@
 package com.machnev.sleepdevice;
 
-import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
+import com.machnev.sleepdevice.core.ScanResultList;
+import com.machnev.sleepdevice.core.ScanResultTable;
+
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+
+/**
+ * Lists scanned devices while results stream in.
+ *
+ * Insertions and removals are queued and applied at most once per frame, right before the
+ * list is notified, so the count seen by the list never changes behind its back. A device whose
+ * signal strength changed only rebinds its own row, if the row is on screen.
+ */
 public class DeviceLIstAdapter extends BaseAdapter {
 
-    private final Context context;
-    private final List<BluetoothDevice> devices;
+    private final LayoutInflater inflater;
+    private final ScanResultList devices = new ScanResultList();
+    private final Map<String, ViewHolder> boundHolders = new HashMap<>();
+    private final Choreographer.FrameCallback notifyChanged = new NotifyChangedCallback();
+    private final List<PendingChange> pendingChanges = new ArrayList<>();
 
     public DeviceLIstAdapter(@NonNull Context context)
     {
-        this(context, Collections.<BluetoothDevice>emptyList());
+        this.inflater = LayoutInflater.from(context);
     }
 
-    public DeviceLIstAdapter(@NonNull Context context, Collection<BluetoothDevice> devices)
+    public DeviceLIstAdapter(@NonNull Context context, Collection<ScanResultTable.Entry> devices)
     {
-        this.context = context;
-        this.devices = new ArrayList<>(devices);
+        this(context);
+        for(ScanResultTable.Entry device : devices) {
+            this.devices.update(device);
+        }
     }
 
-
     @Override
     public int getCount() {
         return devices.size();
@@ -44,33 +59,117 @@ public class DeviceLIstAdapter extends BaseAdapter {
 
     @Override
     public long getItemId(int position) {
-        return position;
+        return devices.getId(position);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     @NonNull
     @Override
     public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View rootView = inflater.inflate(R.layout.device_list_item, parent, false);
-
-        TextView nameView = rootView.findViewById(R.id.deviceName);
-        TextView addrView = rootView.findViewById(R.id.deviceAddr);
-
-        BluetoothDevice device = devices.get(position);
+        View rootView = convertView;
+        ViewHolder holder;
+        if(rootView == null) {
+            rootView = inflater.inflate(R.layout.device_list_item, parent, false);
+            holder = new ViewHolder(rootView);
+            rootView.setTag(holder);
+        } else {
+            holder = (ViewHolder) rootView.getTag();
+        }
 
-        nameView.setText(device.getName());
-        addrView.setText(device.getAddress());
+        ScanResultTable.Entry device = devices.get(position);
+        if(holder.address != null && boundHolders.get(holder.address) == holder) {
+            boundHolders.remove(holder.address);
+        }
+        boundHolders.put(device.address, holder);
+        holder.bind(device);
 
         return  rootView;
     }
 
-    public boolean addDevice(BluetoothDevice device) {
-        if(!this.devices.contains(device)) {
-            this.devices.add(device);
-            notifyDataSetChanged();
+    /**
+     * Adds the device with the next frame or updates its row right away.
+     * @return true if the device is added
+     */
+    public boolean addDevice(ScanResultTable.Entry device) {
+        if(devices.indexOf(device.address) < 0) {
+            scheduleChange(new PendingChange(device, null));
             return true;
-        } else {
-            return false;
+        }
+
+        // Positions stay the same, so the row can be rebound before the queued changes are applied.
+        ViewHolder holder = boundHolders.get(device.address);
+        if(devices.update(device) == ScanResultList.CHANGED && holder != null) {
+            holder.bind(device);
+        }
+        return false;
+    }
+
+    /**
+     * Removes the devices not found by the last scan with the next frame.
+     */
+    public void retainDevices(Collection<ScanResultTable.Entry> found) {
+        scheduleChange(new PendingChange(null, new ArrayList<>(found)));
+    }
+
+    private void scheduleChange(PendingChange change) {
+        if(pendingChanges.isEmpty()) {
+            Choreographer.getInstance().postFrameCallback(notifyChanged);
+        }
+        pendingChanges.add(change);
+    }
+
+    private class NotifyChangedCallback implements Choreographer.FrameCallback {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            boolean changed = false;
+            for(PendingChange change : pendingChanges) {
+                if(change.device != null) {
+                    changed |= devices.update(change.device) == ScanResultList.INSERTED;
+                } else {
+                    changed |= devices.retain(change.found) > 0;
+                }
+            }
+            pendingChanges.clear();
+            if(changed) {
+                notifyDataSetChanged();
+            }
+        }
+    }
+
+    // Either a device to add or the devices to keep, applied in the order they were queued.
+    private static class PendingChange {
+        private final ScanResultTable.Entry device;
+        private final Collection<ScanResultTable.Entry> found;
+
+        private PendingChange(ScanResultTable.Entry device, Collection<ScanResultTable.Entry> found) {
+            this.device = device;
+            this.found = found;
+        }
+    }
+
+    private static class ViewHolder {
+        private final TextView nameView;
+        private final TextView addrView;
+        private final TextView rssiView;
+        private String address;
+
+        private ViewHolder(View rootView) {
+            nameView = rootView.findViewById(R.id.deviceName);
+            addrView = rootView.findViewById(R.id.deviceAddr);
+            rssiView = rootView.findViewById(R.id.deviceRssi);
+        }
+
+        private void bind(ScanResultTable.Entry device) {
+            if(!device.address.equals(address)) {
+                address = device.address;
+                addrView.setText(device.address);
+            }
+            nameView.setText(device.getName());
+            rssiView.setText(device.getRssi() + " dBm");
         }
     }
 }
@@ -3,7 +3,6 @@ package com.machnev.sleepdevice;
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.Intent;
@@ -18,8 +17,9 @@ import android.widget.ProgressBar;
 import android.widget.Toast;
 
 import com.machnev.sleepdevice.core.BLEScanner;
+import com.machnev.sleepdevice.core.ScanResultTable;
 
-import java.util.Collection;
+import java.util.List;
 
 public class DeviceListActivity extends Activity {
 
@@ -30,6 +30,7 @@ public class DeviceListActivity extends Activity {
 
     private ListView listView;
     private DeviceLIstAdapter adapter;
+    private BLEScanner scanner;
 
     private ProgressDialog scanningForDevicesDialog;
 
@@ -49,6 +50,16 @@ public class DeviceListActivity extends Activity {
         scanBLE();
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        if(scanner != null) {
+            scanner.stop();
+        }
+        dismissScanningDialog();
+    }
+
     private void configureRootView()
     {
         rootView = findViewById(R.id.device_list_root);
@@ -59,6 +70,8 @@ public class DeviceListActivity extends Activity {
     private void configureListView()
     {
         listView = findViewById(R.id.listView);
+        adapter = new DeviceLIstAdapter(this);
+        listView.setAdapter(adapter);
         listView.setOnItemClickListener(new ListViewItemClick());
     }
 
@@ -66,7 +79,7 @@ public class DeviceListActivity extends Activity {
     {
         BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
         BluetoothAdapter bluetoothAdapter = bluetoothManager.getAdapter();
-        BLEScanner scanner = new BLEScanner(bluetoothAdapter);
+        scanner = new BLEScanner(bluetoothAdapter);
 
         scanningForDevicesDialog = ProgressDialog.show(this, "Scanning for devices..",
                 "", true,
@@ -75,29 +88,38 @@ public class DeviceListActivity extends Activity {
         scanner.scan(new BleScanningEndedCallback());
     }
 
-    private class BleScanningEndedCallback implements BLEScanner.ScanEndedCallback {
+    private void dismissScanningDialog()
+    {
+        if(scanningForDevicesDialog != null) {
+            scanningForDevicesDialog.dismiss();
+            scanningForDevicesDialog = null;
+        }
+    }
+
+    private class BleScanningEndedCallback implements BLEScanner.ScanListener {
+
+        @Override
+        public void onDeviceFound(ScanResultTable.Entry device) {
+            // The list is usable as soon as the first device shows up.
+            adapter.addDevice(device);
+            dismissScanningDialog();
+        }
 
         @Override
-        public void onScanningResult(Collection<BluetoothDevice> devices) {
-            adapter = new DeviceLIstAdapter(DeviceListActivity.this, devices);
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    listView.setAdapter(adapter);
-                    scanningForDevicesDialog.dismiss();
-                }
-            });
+        public void onScanFinished(List<ScanResultTable.Entry> devices) {
+            dismissScanningDialog();
+            // Devices listed by an earlier scan may be gone by now.
+            adapter.retainDevices(devices);
+            if(devices.isEmpty()) {
+                Toast.makeText(DeviceListActivity.this, "No devices found", Toast.LENGTH_LONG).show();
+            }
         }
 
         @Override
-        public void onException(final Exception e) {
+        public void onException(Exception e) {
             Log.e(DeviceListActivity.class.getName(), e.getMessage(), e);
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(DeviceListActivity.this,"Exception: " + e.getMessage(), Toast.LENGTH_LONG);
-                }
-            });
+            dismissScanningDialog();
+            Toast.makeText(DeviceListActivity.this,"Exception: " + e.getMessage(), Toast.LENGTH_LONG).show();
         }
     }
 
@@ -105,10 +127,10 @@ public class DeviceListActivity extends Activity {
 
         @Override
         public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-            BluetoothDevice device = (BluetoothDevice) adapter.getItem(position);
+            ScanResultTable.Entry device = (ScanResultTable.Entry) adapter.getItem(position);
 
             Intent intent = new Intent();
-            intent.putExtra(DEVICE_ADDRESS_RESULT, device.getAddress());
+            intent.putExtra(DEVICE_ADDRESS_RESULT, device.address);
             intent.putExtra(DEVICE_NAME_RESULT, device.getName());
             setResult(RESULT_OK, intent);
             finish();
@@ -1,54 +1,232 @@
 package com.machnev.sleepdevice;
 
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothManager;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.PowerManager;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
-import com.machnev.sleepdevice.core.BLEController;
-import com.machnev.sleepdevice.core.StatusSettingsData;
+import com.machnev.sleepdevice.core.OccupancyClassifier;
+import com.machnev.sleepdevice.core.SampleHandoff;
+import com.machnev.sleepdevice.core.WakeLockBudget;
+import com.machnev.sleepdevice.core.metrics.ConcurrentHistogram;
+import com.machnev.sleepdevice.core.recording.SessionRecorder;
+import com.machnev.sleepdevice.core.report.NightReport;
+import com.machnev.sleepdevice.core.report.NightReportGenerator;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class DeviceService extends Service {
 
+    // Every message between clients and the service carries the address of its device in data.
     public static final String DEVICE_ADDRESS = "com.machnev.sleepdevice.DeviceService.DEVICE_ADDRESS";
-
+    // SystemClock.elapsedRealtime() when the user asked to connect.
+    public static final String CONNECT_REQUESTED_AT = "com.machnev.sleepdevice.DeviceService.CONNECT_REQUESTED_AT";
+    // Binding action of clients in the service process, they get a LocalBinder.
+    public static final String ACTION_BIND_LOCAL = "com.machnev.sleepdevice.DeviceService.BIND_LOCAL";
+    // Whether SleepMode is on, sent with every start so a service in another process does not use stale preferences.
+    public static final String SLEEP_MODE_ENABLED = "com.machnev.sleepdevice.DeviceService.SLEEP_MODE_ENABLED";
+
+    public static final String HISTORY_TIMESTAMPS = "com.machnev.sleepdevice.DeviceService.HISTORY_TIMESTAMPS";
+    public static final String HISTORY_VALUES = "com.machnev.sleepdevice.DeviceService.HISTORY_VALUES";
+    public static final String HISTORY_STATUSES = "com.machnev.sleepdevice.DeviceService.HISTORY_STATUSES";
+
+    public static final String BATCH_TIMESTAMPS = "com.machnev.sleepdevice.DeviceService.BATCH_TIMESTAMPS";
+    public static final String BATCH_VALUES = "com.machnev.sleepdevice.DeviceService.BATCH_VALUES";
+    public static final String BATCH_STATUSES = "com.machnev.sleepdevice.DeviceService.BATCH_STATUSES";
+    public static final String BATCH_MIN = "com.machnev.sleepdevice.DeviceService.BATCH_MIN";
+    public static final String BATCH_MAX = "com.machnev.sleepdevice.DeviceService.BATCH_MAX";
+
+    public static final String STATUS_ON_BED_VALUE = "com.machnev.sleepdevice.DeviceService.STATUS_ON_BED_VALUE";
+    public static final String STATUS_NOT_ON_BED_VALUE = "com.machnev.sleepdevice.DeviceService.STATUS_NOT_ON_BED_VALUE";
+
+    public static final String RENDER_TIMESTAMP = "com.machnev.sleepdevice.DeviceService.RENDER_TIMESTAMP";
+
+    public static final String LATENCY_COUNTS = "com.machnev.sleepdevice.DeviceService.LATENCY_COUNTS";
+    public static final String LATENCY_MEDIANS = "com.machnev.sleepdevice.DeviceService.LATENCY_MEDIANS";
+    public static final String LATENCY_P90 = "com.machnev.sleepdevice.DeviceService.LATENCY_P90";
+    public static final String LATENCY_P99 = "com.machnev.sleepdevice.DeviceService.LATENCY_P99";
+    public static final String LATENCY_TOTAL_MEDIANS = "com.machnev.sleepdevice.DeviceService.LATENCY_TOTAL_MEDIANS";
+    public static final String LATENCY_TOTAL_P90 = "com.machnev.sleepdevice.DeviceService.LATENCY_TOTAL_P90";
+
+    public static final String SLEEP_TOTALS = "com.machnev.sleepdevice.DeviceService.SLEEP_TOTALS";
+    public static final String SLEEP_RESTLESSNESS = "com.machnev.sleepdevice.DeviceService.SLEEP_RESTLESSNESS";
+
+    public static final String NIGHT_TOTALS = "com.machnev.sleepdevice.DeviceService.NIGHT_TOTALS";
+    public static final String NIGHT_MOVEMENT = "com.machnev.sleepdevice.DeviceService.NIGHT_MOVEMENT";
+
+    public static final String METRICS_TIMESTAMP = "com.machnev.sleepdevice.DeviceService.METRICS_TIMESTAMP";
+    public static final String METRICS_COUNTERS = "com.machnev.sleepdevice.DeviceService.METRICS_COUNTERS";
+    public static final String METRICS_DECODE_TIME = "com.machnev.sleepdevice.DeviceService.METRICS_DECODE_TIME";
+    public static final String METRICS_QUEUE_DELAY = "com.machnev.sleepdevice.DeviceService.METRICS_QUEUE_DELAY";
+    public static final String METRICS_CLIENTS = "com.machnev.sleepdevice.DeviceService.METRICS_CLIENTS";
+    public static final String METRICS_POWER = "com.machnev.sleepdevice.DeviceService.METRICS_POWER";
+
+    public static final String SAMPLE_RING_MEMORY = "com.machnev.sleepdevice.DeviceService.SAMPLE_RING_MEMORY";
+
+    // arg1 is the batch interval in milliseconds, 0 means DEFAULT_BATCH_INTERVAL.
     public static final int REQUEST_SENSORS_NOTIFICATIONS = 0;
     public static final int STOP_LISTEN_SENSOR_NOTIFICATIONS = 1;
+    // data holds STATUS_ON_BED_VALUE and STATUS_NOT_ON_BED_VALUE, the levels measured by a manual calibration.
     public static final int SET_STATUS_SETTINGS = 2;
+    // arg1 is the maximum number of samples to return, 0 means HISTORY_BACKFILL_SIZE.
+    public static final int REQUEST_HISTORY = 3;
+    public static final int REQUEST_LATENCY_REPORT = 4;
+    // data holds RENDER_TIMESTAMP, the SystemClock.elapsedRealtime() of the first frame showing a sample.
+    public static final int REPORT_FIRST_RENDER = 5;
+    // Stops and forgets the device, the service stops with its last device.
+    public static final int DISCONNECT_DEVICE = 6;
+    public static final int REQUEST_METRICS = 7;
+    // arg1 is the number of nights to go back, 0 is the latest recorded session of the device.
+    public static final int REQUEST_NIGHT_REPORT = 8;
+    // arg1 is the drift margin in percent of the calibrated range, 0 turns automatic calibration off.
+    public static final int SET_AUTO_CALIBRATION = 9;
+    // Subscribes a client in another process, its samples are read from a SharedSampleRing instead of
+    // SENSOR_BATCH messages. arg1 is the batch interval used if the ring can not be shared.
+    public static final int REQUEST_SAMPLE_RING = 10;
+    // arg1 is 1 to turn SleepMode on for all devices, 0 to turn it off.
+    public static final int SET_SLEEP_MODE = 11;
 
     public static final int DEVICE_CONNECTED = 12;
     public static final int DEVICE_DISCONNECTED = 13;
     public static final int DEVICE_NOT_SUPPORTED = 14;
     public static final int CONNECTION_TIMEOUT = 15;
-    public static final int SENSOR_VALUE_AND_ONBED_STATUS = 16;
+    // data holds BATCH_TIMESTAMPS, BATCH_VALUES and BATCH_STATUSES arrays, oldest first, and BATCH_MIN and BATCH_MAX.
+    public static final int SENSOR_BATCH = 16;
     public static final int STATUS_VALUES_SET = 17;
-
-    public static final int STATUS_NOT_INITIALIZED = -1;
-    public static final int STATUS_NOT_ON_BED = 0;
-    public static final int STATUS_ON_BED = 1;
+    // data holds HISTORY_TIMESTAMPS, HISTORY_VALUES and HISTORY_STATUSES arrays, oldest first.
+    public static final int SENSOR_HISTORY = 18;
+    // arg1 is the on bed status. Sent when the status changes and when a client subscribes.
+    public static final int ONBED_STATUS = 19;
+    // data holds the LATENCY_* arrays, indexed by ConnectionTimeline phase.
+    public static final int LATENCY_REPORT = 20;
+    // data holds the METRICS_* values of a MetricsReport.
+    public static final int METRICS_REPORT = 21;
+    // arg1 is the epoch that just ended, data holds SLEEP_TOTALS indexed by SleepSummary and SLEEP_RESTLESSNESS.
+    public static final int SLEEP_EPOCH = 22;
+    // data holds NIGHT_TOTALS indexed by NightReport and NIGHT_MOVEMENT, or nothing if there is no such night.
+    public static final int NIGHT_REPORT = 23;
+    // data holds SAMPLE_RING_MEMORY, the read only SharedMemory of the SharedSampleRing of the device.
+    public static final int SAMPLE_RING = 24;
+    // arg1 is 1 when the client is visible, 0 when it is not. Sample batches and status
+    // messages of a device in sleep mode are suspended while none of its clients is visible.
+    public static final int SET_CLIENT_VISIBLE = 25;
+
+    public static final int STATUS_NOT_INITIALIZED = OccupancyClassifier.STATUS_NOT_INITIALIZED;
+    public static final int STATUS_NOT_ON_BED = OccupancyClassifier.STATUS_NOT_ON_BED;
+    public static final int STATUS_ON_BED = OccupancyClassifier.STATUS_ON_BED;
+
+    // About 7 hours at 10 samples per second, 13 bytes per sample.
+    public static final int HISTORY_CAPACITY = 1 << 18;
+    public static final int HISTORY_BACKFILL_SIZE = 1024;
+
+    public static final String SESSIONS_DIRECTORY = "sessions";
+    public static final String LATENCY_DIRECTORY = "connection_latency";
+    public static final long LATENCY_SAVE_INTERVAL = 60000;
+
+    // Automatic calibration writes the device at most this often.
+    public static final long AUTO_CALIBRATION_INTERVAL = 10 * 60000;
+
+    public static final int FRAME_INTERVAL = 16;
+    public static final int DEFAULT_BATCH_INTERVAL = FRAME_INTERVAL;
+
+    // Samples buffered in sleep mode are processed and recorded this often, one sleep epoch.
+    public static final long SLEEP_MODE_INTERVAL = 30000;
+    // Samples buffered per device, a late batch keeps the newest.
+    public static final int SLEEP_MODE_BUFFER = 4096;
+    // Milliseconds per hour the sleep mode may hold its wake lock, and per batch.
+    public static final long WAKE_LOCK_BUDGET = 60000;
+    public static final long WAKE_LOCK_MAX_HOLD = 5000;
+    public static final int SLEEP_MODE_NOTIFICATION = 1;
+    public static final String SLEEP_MODE_CHANNEL = "com.machnev.sleepdevice.DeviceService.SLEEP_MODE";
+
+    private static final String PREFERENCES = "com.machnev.sleepdevice.DeviceService";
+    private static final String ACTIVE_DEVICES = "activeDevices";
+    private static final String SLEEP_MODE = "sleepMode";
+    private static final String SEPARATE_PROCESS_PREFERENCES = ".ble";
 
     private final Handler handler = new DeviceServiceHandler();
     private final Messenger messenger = new Messenger(handler);
-    private BLEController controller;
-    private final List<Messenger> listeners = new ArrayList<>();
+    private final LocalBinder localBinder = new LocalBinder();
+    // Milliseconds between a client request being sent and handled.
+    private final ConcurrentHistogram queueDelay = new ConcurrentHistogram();
+    // Accessed only from the main thread, the sample path of a device never looks sessions up.
+    private final Map<String, DeviceSession> sessions = new HashMap<>();
+    private final DeviceSession.SessionListener sessionListener = new FailedSessionListener();
     private BluetoothAdapter adapter;
+    private File sessionsDirectory;
+    private File latencyDirectory;
+    private SleepMode sleepMode;
+
+    private HandlerThread fanoutThread;
+    private Handler fanoutHandler;
+
+    // Timeouts, retries and reconnects of all controllers run on this one thread.
+    private ScheduledExecutorService scheduler;
+
+    // Night reports are requested one at a time, their segments are aggregated on the pool.
+    private ExecutorService reportExecutor;
+    private ExecutorService reportPool;
+    private NightReportGenerator reportGenerator;
 
     @Override
     public void onCreate() {
 
         BluetoothManager manager = (BluetoothManager) getSystemService(BLUETOOTH_SERVICE);
         adapter = manager.getAdapter();
+        sessionsDirectory = new File(getFilesDir(), SESSIONS_DIRECTORY);
+        latencyDirectory = new File(getFilesDir(), LATENCY_DIRECTORY);
+        if(!latencyDirectory.mkdirs() && !latencyDirectory.isDirectory()) {
+            Log.e(DeviceService.class.getName(), "Could not create " + latencyDirectory);
+        }
+
+        fanoutThread = new HandlerThread("DeviceServiceFanout");
+        fanoutThread.start();
+        fanoutHandler = new Handler(fanoutThread.getLooper());
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(new SaveLatencyTask(), LATENCY_SAVE_INTERVAL, LATENCY_SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+
+        reportExecutor = Executors.newSingleThreadExecutor();
+        // ForkJoinPool is only available from Lollipop.
+        reportPool = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? new ForkJoinPool()
+                : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        reportGenerator = new NightReportGenerator(reportPool);
+
+        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+        PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "sleepdevice:SleepMode");
+        wakeLock.setReferenceCounted(false);
+        sleepMode = new SleepMode(wakeLock, new WakeLockBudget(WAKE_LOCK_BUDGET, WAKE_LOCK_MAX_HOLD));
+        if(preferences(PREFERENCES).getBoolean(SLEEP_MODE, false)) {
+            setSleepMode(true);
+        }
 
         Log.i(DeviceService.class.getName(), "onCreate: DeviceService");
 
@@ -57,65 +235,279 @@ public class DeviceService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        initializeController(intent);
+        if(intent != null) {
+            if(intent.hasExtra(SLEEP_MODE_ENABLED)) {
+                setSleepMode(intent.getBooleanExtra(SLEEP_MODE_ENABLED, false));
+            }
+            obtainSession(intent.getStringExtra(DEVICE_ADDRESS), intent.getLongExtra(CONNECT_REQUESTED_AT, 0));
+        } else {
+            // A sticky restart after the process was killed delivers no intent, carry on with the last devices.
+            for(String address : activeDevices()) {
+                obtainSession(address, 0);
+            }
+        }
 
         return START_STICKY;
     }
 
     @Override
     public IBinder onBind(Intent intent) {
-        initializeController(intent);
+        // The binder is shared by all devices, clients address them in their messages.
+        // A LocalBinder reaching another process is a plain Binder, messages sent to it are lost.
+        if(ACTION_BIND_LOCAL.equals(intent.getAction()) && !isSeparateProcess()) {
+            return localBinder;
+        }
         return messenger.getBinder();
     }
 
+    /**
+     * Whether the service runs in a process of its own, apart from all its clients.
+     */
+    protected boolean isSeparateProcess() {
+        return false;
+    }
+
+    /**
+     * Preferences written only by this service. SharedPreferences are cached per process, so
+     * the services in the two processes keep their state in files of their own.
+     */
+    SharedPreferences preferences(String name) {
+        return getSharedPreferences(isSeparateProcess() ? name + SEPARATE_PROCESS_PREFERENCES : name, MODE_PRIVATE);
+    }
+
     @Override
     public boolean onUnbind(Intent intent) {
         return true;
     }
 
     @Override
-    public void onRebind(Intent intent) {
-        super.onRebind(intent);
+    public void onDestroy() {
+        for(DeviceSession session : sessions.values()) {
+            session.stop();
+        }
+        sessions.clear();
+        if(sleepMode.isEnabled()) {
+            stopForeground(true);
+        }
+        fanoutThread.quit();
+        scheduler.shutdownNow();
+        reportExecutor.shutdownNow();
+        reportPool.shutdownNow();
 
-        initializeController(intent);
+        super.onDestroy();
     }
 
-    @Override
-    public void onDestroy() {
-        freeController();
+    private DeviceSession obtainSession(String address, long requestedAt) {
+        if(address == null) {
+            return null;
+        }
 
-        super.onDestroy();
+        DeviceSession session = sessions.get(address);
+        if(session == null) {
+            session = new DeviceSession(address, this, preferences(DeviceSession.SETTINGS_PREFERENCES), adapter, scheduler,
+                    messenger, fanoutHandler, sessionsDirectory, latencyDirectory, sleepMode, sessionListener);
+            sessions.put(address, session);
+            saveActiveDevices();
+            session.start(requestedAt);
+        }
+        return session;
+    }
+
+    private void freeSession(String address) {
+        DeviceSession session = sessions.remove(address);
+        if(session != null) {
+            session.stop();
+            saveActiveDevices();
+        }
+        if(sessions.isEmpty()) {
+            stopSelf();
+        }
+    }
+
+    private void setSleepMode(boolean enabled) {
+        if(enabled == sleepMode.isEnabled()) {
+            return;
+        }
+        sleepMode.setEnabled(enabled);
+        preferences(PREFERENCES).edit()
+                .putBoolean(SLEEP_MODE, enabled)
+                .apply();
+        // Keeps the process and its Bluetooth connection alive for the night.
+        if(enabled) {
+            startForeground(SLEEP_MODE_NOTIFICATION, sleepModeNotification());
+        } else {
+            stopForeground(true);
+        }
+        for(DeviceSession session : sessions.values()) {
+            session.applySleepMode();
+        }
+    }
+
+    private Notification sleepModeNotification() {
+        Notification.Builder builder;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(new NotificationChannel(SLEEP_MODE_CHANNEL, "Sleep mode", NotificationManager.IMPORTANCE_LOW));
+            builder = new Notification.Builder(this, SLEEP_MODE_CHANNEL);
+        } else {
+            builder = new Notification.Builder(this);
+        }
+        return builder
+                .setContentTitle("Sleep mode")
+                .setContentText("Recording the night with low battery use")
+                .setSmallIcon(android.R.drawable.ic_lock_idle_alarm)
+                .setOngoing(true)
+                .setContentIntent(PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0))
+                .build();
     }
 
-    private void initializeController(Intent intent) {
-        String deviceAddress = intent.getStringExtra(DEVICE_ADDRESS);
+    private void sendNightReport(final Messenger client, final String address, final int nightsBack) {
+        if(client == null || address == null) {
+            return;
+        }
+
+        reportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bundle data = new Bundle();
+                data.putString(DEVICE_ADDRESS, address);
+
+                File[] nights = SessionRecorder.listSessions(new File(sessionsDirectory, DeviceSession.fileName(address)));
+                int night = nights.length - 1 - nightsBack;
+                if(night >= 0 && night < nights.length) {
+                    try {
+                        NightReport report = reportGenerator.report(nights[night]);
+                        data.putLongArray(NIGHT_TOTALS, report.totals);
+                        data.putFloatArray(NIGHT_MOVEMENT, report.movement);
+                    } catch (IOException e) {
+                        Log.e(DeviceService.class.getName(), e.getMessage(), e);
+                    }
+                }
+
+                Message message = Message.obtain(null, NIGHT_REPORT);
+                message.setData(data);
+                message.replyTo = messenger;
+                try {
+                    client.send(message);
+                } catch (RemoteException e) {
+                    Log.e(DeviceService.class.getName(), e.getMessage(), e);
+                }
+            }
+        });
+    }
 
-        if(controller == null) {
-            controller = new BLEController(adapter, deviceAddress, this, new ClientNotificationValueListener());
-            controller.connect();
+    private List<String> activeDevices() {
+        String devices = preferences(PREFERENCES).getString(ACTIVE_DEVICES, "");
+        List<String> addresses = new ArrayList<>();
+        for(String address : devices.split(",")) {
+            if(!address.isEmpty()) {
+                addresses.add(address);
+            }
         }
+        return addresses;
     }
 
-    private void freeController() {
-        if(controller != null) {
-            controller.disconnect();
-            controller = null;
+    private void saveActiveDevices() {
+        preferences(PREFERENCES).edit()
+                .putString(ACTIVE_DEVICES, TextUtils.join(",", sessions.keySet()))
+                .apply();
+    }
+
+    /**
+     * Binder of clients in the service process. Samples are handed to them directly and
+     * everything else goes through the messenger, as for other clients.
+     */
+    public class LocalBinder extends Binder {
+
+        public Messenger getMessenger() {
+            return messenger;
+        }
+
+        /**
+         * Must be called on the main thread.
+         *
+         * The history is sent to the client before the subscription, so it arrives ahead of the first batch.
+         *
+         * @param client messenger of the client, used instead of a REQUEST_SENSORS_NOTIFICATIONS message
+         */
+        public void subscribe(String address, Messenger client, SampleHandoff handoff, int batchInterval) {
+            DeviceSession session = obtainSession(address, 0);
+            if(session != null) {
+                session.sendHistory(client, HISTORY_BACKFILL_SIZE);
+                session.subscribeLocal(client, handoff, batchInterval > 0 ? batchInterval : DEFAULT_BATCH_INTERVAL);
+            }
         }
     }
 
     private class DeviceServiceHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
+            queueDelay.record(SystemClock.uptimeMillis() - msg.getWhen());
+            String address = msg.peekData() != null ? msg.getData().getString(DEVICE_ADDRESS) : null;
+            DeviceSession session = address != null ? sessions.get(address) : null;
+
             switch (msg.what) {
                 case REQUEST_SENSORS_NOTIFICATIONS:
-                    listeners.add(msg.replyTo);
+                    session = obtainSession(address, 0);
+                    if(session != null) {
+                        session.subscribe(msg.replyTo, msg.arg1 > 0 ? msg.arg1 : DEFAULT_BATCH_INTERVAL);
+                    }
+                    break;
+                case REQUEST_SAMPLE_RING:
+                    session = obtainSession(address, 0);
+                    if(session != null) {
+                        session.subscribeRing(msg.replyTo, msg.arg1 > 0 ? msg.arg1 : DEFAULT_BATCH_INTERVAL);
+                    }
                     break;
                 case STOP_LISTEN_SENSOR_NOTIFICATIONS:
-                    listeners.remove(msg.replyTo);
+                    if(session != null) {
+                        session.unsubscribe(msg.replyTo);
+                    }
                     break;
                 case SET_STATUS_SETTINGS:
-                    StatusSettingsData data = (StatusSettingsData) msg.obj;
-                    controller.setStatusValues(data.onBedValue, data.notBedValue);
+                    if(session != null) {
+                        Bundle data = msg.getData();
+                        session.setStatusValues(data.getFloat(STATUS_ON_BED_VALUE), data.getFloat(STATUS_NOT_ON_BED_VALUE));
+                    }
+                    break;
+                case REQUEST_HISTORY:
+                    if(session != null) {
+                        session.sendHistory(msg.replyTo, msg.arg1 > 0 ? msg.arg1 : HISTORY_BACKFILL_SIZE);
+                    }
+                    break;
+                case REQUEST_LATENCY_REPORT:
+                    if(session != null) {
+                        session.sendLatencyReport(msg.replyTo);
+                    }
+                    break;
+                case REPORT_FIRST_RENDER:
+                    if(session != null) {
+                        session.reportFirstRender(msg.getData().getLong(RENDER_TIMESTAMP));
+                    }
+                    break;
+                case REQUEST_METRICS:
+                    if(session != null) {
+                        session.sendMetrics(msg.replyTo, queueDelay.snapshot());
+                    }
+                    break;
+                case SET_AUTO_CALIBRATION:
+                    if(session != null) {
+                        session.setAutoCalibration(msg.arg1 / 100f);
+                    }
+                    break;
+                case REQUEST_NIGHT_REPORT:
+                    sendNightReport(msg.replyTo, address, msg.arg1);
+                    break;
+                case SET_SLEEP_MODE:
+                    setSleepMode(msg.arg1 != 0);
+                    break;
+                case SET_CLIENT_VISIBLE:
+                    if(session != null) {
+                        session.setClientVisible(msg.replyTo, msg.arg1 != 0);
+                    }
+                    break;
+                case DISCONNECT_DEVICE:
+                    freeSession(address);
                     break;
                     default:
                         break;
@@ -124,66 +516,40 @@ public class DeviceService extends Service {
         }
     }
 
-    private class ClientNotificationValueListener implements BLEController.IDeviceListener {
-
+    private class FailedSessionListener implements DeviceSession.SessionListener {
         @Override
-        public void onValueChanged(float newValue) {
-            int onBedStatus;
-            if(controller.isOnBedInitialized()) {
-                if (controller.isOnBed(newValue)) {
-                    onBedStatus = STATUS_ON_BED;
-                } else {
-                    onBedStatus = STATUS_NOT_ON_BED;
+        public void onSessionFailed(final DeviceSession session) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(sessions.get(session.getAddress()) == session) {
+                        freeSession(session.getAddress());
+                    }
                 }
-            } else {
-                onBedStatus = STATUS_NOT_INITIALIZED;
-            }
-
-            sendMessage(SENSOR_VALUE_AND_ONBED_STATUS, onBedStatus, newValue);
-        }
-
-        @Override
-        public void onNewStatusSettings(float onBedValue, float notOnBedValue) {
-            Log.i(DeviceService.class.getName(), "New values: " + onBedValue + ", " + notOnBedValue);
-            sendMessage(STATUS_VALUES_SET, 0, null);
-        }
-
-        @Override
-        public void onConnected() {
-            sendMessage(DEVICE_CONNECTED, 0, null);
-        }
-
-        @Override
-        public void onDisconnected() {
-            sendMessage(DEVICE_DISCONNECTED, 0, null);
-            stopSelf();
-        }
-
-        @Override
-        public void deviceNotSupported() {
-            sendMessage(DEVICE_NOT_SUPPORTED, 0, null);
-            stopSelf();
+            });
         }
+    }
 
+    private class SaveLatencyTask implements Runnable {
         @Override
-        public void couldNotConnect() {
-            sendMessage(CONNECTION_TIMEOUT, 0, null);
-            stopSelf();
-        }
-
-        private void sendMessage(int what, int arg, Object obj) {
-            for(Messenger client : listeners) {
-                Message message = Message.obtain(null, what);
-                message.arg1  = arg;
-                message.obj = obj;
-                message.replyTo = messenger;
-                try {
-                    client.send(message);
-                } catch (RemoteException e) {
-                    Log.e(DeviceService.class.getName(), e.getMessage(), e);
+        public void run() {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(scheduler.isShutdown()) {
+                        return;
+                    }
+                    final List<DeviceSession> active = new ArrayList<>(sessions.values());
+                    scheduler.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            for(DeviceSession session : active) {
+                                session.saveLatency();
+                            }
+                        }
+                    });
                 }
-            }
+            });
         }
     }
-
 }
@@ -1,67 +1,245 @@
 package com.machnev.sleepdevice;
 
+import android.annotation.TargetApi;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.system.ErrnoException;
 import android.util.Log;
 
-import com.machnev.sleepdevice.core.StatusSettingsData;
-
+import com.machnev.sleepdevice.core.SampleBatch;
+import com.machnev.sleepdevice.core.SampleFanout;
+import com.machnev.sleepdevice.core.SampleHandoff;
+import com.machnev.sleepdevice.core.SharedSampleRing;
+import com.machnev.sleepdevice.core.SleepSummary;
+import com.machnev.sleepdevice.core.metrics.ConnectionLatencyReport;
+import com.machnev.sleepdevice.core.metrics.MetricsReport;
+import com.machnev.sleepdevice.core.report.NightReport;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Client side of {@link DeviceService}. In the service process sensor batches are handed over
+ * directly through a {@link DeviceService.LocalBinder}. When the service runs in its own
+ * process, see {@link #setSeparateProcess}, the samples are polled from a shared ring every
+ * batch interval. Everything else comes as messages.
+ */
 public class DeviceServiceBinding {
+    private static final String PREFERENCES = "com.machnev.sleepdevice.DeviceServiceBinding";
+    private static final String SEPARATE_PROCESS = "separateProcess";
+    private static final String SLEEP_MODE = "sleepMode";
+    // Longest wait between two polls of an empty sample ring.
+    private static final long MAX_RING_POLL_INTERVAL = 1000;
+
     private final DeviceServiceCallbacks callbacks;
+    private final int batchInterval;
+    private final Looper looper;
 
     private Context context;
     private DeviceServiceConnection serviceConnection;
     private boolean isBound;
 
     private boolean notifiedConnected;
+    private boolean firstRenderPending;
+    private boolean visible = true;
 
     public DeviceServiceBinding(DeviceServiceCallbacks callbacks) {
+        this(callbacks, DeviceService.DEFAULT_BATCH_INTERVAL);
+    }
+
+    /**
+     * @param batchInterval milliseconds between sensor batches sent to this client
+     */
+    public DeviceServiceBinding(DeviceServiceCallbacks callbacks, int batchInterval) {
+        this(callbacks, batchInterval, Looper.getMainLooper());
+    }
+
+    /**
+     * @param looper looper the callbacks are called on
+     */
+    public DeviceServiceBinding(DeviceServiceCallbacks callbacks, int batchInterval, Looper looper) {
         this.callbacks = callbacks;
+        this.batchInterval = batchInterval;
+        this.looper = looper;
     }
 
 
     public void connect(Context context, String deviceAddress) {
         this.context = context;
+        long requestedAt = SystemClock.elapsedRealtime();
 
-        Intent startIntet = new Intent(context, DeviceService.class);
+        Class<? extends DeviceService> serviceClass = serviceClass(context);
+        Intent startIntet = new Intent(context, serviceClass);
         startIntet.putExtra(DeviceService.DEVICE_ADDRESS, deviceAddress);
+        startIntet.putExtra(DeviceService.CONNECT_REQUESTED_AT, requestedAt);
+        startIntet.putExtra(DeviceService.SLEEP_MODE_ENABLED, isSleepMode(context));
         context.startService(startIntet);
 
         if(!isBound) {
-            Intent bindingIntent = new Intent(context, DeviceService.class);
+            Intent bindingIntent = new Intent(context, serviceClass);
+            if(serviceClass == DeviceService.class) {
+                // Only a service in this process can hand over its LocalBinder.
+                bindingIntent.setAction(DeviceService.ACTION_BIND_LOCAL);
+            }
             bindingIntent.putExtra(DeviceService.DEVICE_ADDRESS, deviceAddress);
+            bindingIntent.putExtra(DeviceService.CONNECT_REQUESTED_AT, requestedAt);
 
             serviceConnection = new DeviceServiceConnection(deviceAddress);
             context.bindService(bindingIntent, serviceConnection, 0);
             isBound = true;
             notifiedConnected = false;
+            firstRenderPending = true;
+        }
+    }
+
+    /**
+     * @return whether the service runs in its own process
+     */
+    public static boolean isSeparateProcess(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).getBoolean(SEPARATE_PROCESS, false);
+    }
+
+    /**
+     * Chooses the process of the service for the following connections. Clients should be
+     * disconnected first, the service in the other process is stopped.
+     */
+    public static void setSeparateProcess(Context context, boolean separateProcess) {
+        context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+                .putBoolean(SEPARATE_PROCESS, separateProcess)
+                .apply();
+        // Only one of the services may talk to the devices.
+        context.stopService(new Intent(context, separateProcess ? DeviceService.class : RemoteDeviceService.class));
+    }
+
+    private static Class<? extends DeviceService> serviceClass(Context context) {
+        return isSeparateProcess(context) ? RemoteDeviceService.class : DeviceService.class;
+    }
+
+    /**
+     * @return whether the service was last told to be in sleep mode
+     */
+    public static boolean isSleepMode(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).getBoolean(SLEEP_MODE, false);
+    }
+
+    /**
+     * Turns the sleep mode of the service on or off for all devices. The choice is sent again
+     * on every connection.
+     */
+    public void setSleepMode(Context context, boolean sleepMode) {
+        context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+                .putBoolean(SLEEP_MODE, sleepMode)
+                .apply();
+        if(serviceConnection != null && isBound && serviceConnection.deviceServiceMessenger != null) {
+            serviceConnection.sendRequest(DeviceService.SET_SLEEP_MODE, sleepMode ? 1 : 0, null);
+        }
+    }
+
+    /**
+     * Call when the client is shown and hidden. A hidden client stops reading the shared ring
+     * and, in sleep mode, the service stops sending it samples until it is visible again.
+     */
+    public void setVisible(boolean visible) {
+        if(this.visible == visible) {
+            return;
+        }
+        this.visible = visible;
+        if(serviceConnection != null && isBound && serviceConnection.deviceServiceMessenger != null) {
+            serviceConnection.sendVisibility();
+        }
+    }
+
+    public void requestLatencyReport() {
+        if(serviceConnection != null) {
+            serviceConnection.sendRequest(DeviceService.REQUEST_LATENCY_REPORT);
+        }
+    }
+
+    /**
+     * @param nightsBack 0 for the latest recorded night of the device
+     */
+    public void requestNightReport(int nightsBack) {
+        if(serviceConnection != null) {
+            serviceConnection.sendRequest(DeviceService.REQUEST_NIGHT_REPORT, nightsBack, null);
+        }
+    }
+
+    /**
+     * Does nothing until the service is connected.
+     */
+    public void requestMetrics() {
+        if(serviceConnection != null && isBound && serviceConnection.deviceServiceMessenger != null) {
+            serviceConnection.sendRequest(DeviceService.REQUEST_METRICS);
+        }
+    }
+
+    /**
+     * Whether the client should call {@link #reportFirstRender(long)} after drawing a sample.
+     */
+    public boolean isFirstRenderPending() {
+        return firstRenderPending;
+    }
+
+    /**
+     * @param timestamp {@link SystemClock#elapsedRealtime()} of the first frame that shows a sample
+     */
+    public void reportFirstRender(long timestamp) {
+        if(serviceConnection != null && firstRenderPending) {
+            firstRenderPending = false;
+            Bundle data = new Bundle();
+            data.putLong(DeviceService.RENDER_TIMESTAMP, timestamp);
+            serviceConnection.sendData(DeviceService.REPORT_FIRST_RENDER, data);
+        }
+    }
+
+    /**
+     * @param marginPercent drift of the levels, in percent of the calibrated range, that makes
+     *                      the service calibrate the device again, 0 to turn it off
+     */
+    public void setAutoCalibration(int marginPercent) {
+        if(serviceConnection != null) {
+            serviceConnection.sendRequest(DeviceService.SET_AUTO_CALIBRATION, marginPercent, null);
         }
     }
 
     public void setStatusSettings(float onBedValue, float notOnBedValue) {
         if(serviceConnection != null) {
-            StatusSettingsData data = new StatusSettingsData(serviceConnection.deviceAddress, onBedValue, notOnBedValue);
-            serviceConnection.sendRequest(DeviceService.SET_STATUS_SETTINGS, data);
+            Bundle data = new Bundle();
+            data.putFloat(DeviceService.STATUS_ON_BED_VALUE, onBedValue);
+            data.putFloat(DeviceService.STATUS_NOT_ON_BED_VALUE, notOnBedValue);
+            serviceConnection.sendData(DeviceService.SET_STATUS_SETTINGS, data);
         }
     }
 
+    /**
+     * @param isFinishing whether the device should be disconnected too, not only this client.
+     *                    The service stops when its last device is disconnected.
+     */
     public void disconnect(boolean isFinishing) {
         if(serviceConnection != null) {
             if(isBound) {
+                serviceConnection.stopDirectDelivery();
                 serviceConnection.sendRequest(DeviceService.STOP_LISTEN_SENSOR_NOTIFICATIONS);
+                if (isFinishing) {
+                    serviceConnection.sendRequest(DeviceService.DISCONNECT_DEVICE);
+                }
                 context.unbindService(serviceConnection);
                 isBound = false;
 
                 if (isFinishing) {
                     serviceConnection = null;
-                    context.stopService(new Intent(context, DeviceService.class));
                     callbacks.onDeviceDisconnected();
                 }
             }
@@ -69,10 +247,26 @@ public class DeviceServiceBinding {
     }
 
     public static interface DeviceServiceCallbacks {
-        public void onReceivedSensorValue(float value);
+        /**
+         * The batch may be reused after the call returns.
+         */
+        public void onReceivedSensorBatch(SampleBatch batch);
 
         public void onReceivedOnBedStatus(int status);
 
+        public void onReceivedHistory(long[] timestamps, float[] values, byte[] statuses);
+
+        public void onReceivedLatencyReport(ConnectionLatencyReport report);
+
+        public void onReceivedMetrics(MetricsReport report);
+
+        public void onReceivedSleepEpoch(SleepSummary summary);
+
+        /**
+         * @param report null if the night was not recorded
+         */
+        public void onReceivedNightReport(NightReport report);
+
         public void onStatusSet();
 
         public void onDeviceConnected();
@@ -84,51 +278,134 @@ public class DeviceServiceBinding {
         public void onConnectionTimeout();
     }
 
+    private void onSensorBatch(SampleBatch batch) {
+        if(!notifiedConnected) {
+            callbacks.onDeviceConnected();
+            notifiedConnected = true;
+        }
+        callbacks.onReceivedSensorBatch(batch);
+    }
+
     private class SensorValueHandler extends Handler {
+        private SensorValueHandler(Looper looper) {
+            super(looper);
+        }
+
         @Override
         public void handleMessage(Message msg) {
+            String address = msg.peekData() != null ? msg.getData().getString(DeviceService.DEVICE_ADDRESS) : null;
+            if(serviceConnection == null || (address != null && !address.equals(serviceConnection.deviceAddress))) {
+                super.handleMessage(msg);
+                return;
+            }
 
-                    if(msg.what == DeviceService.SENSOR_VALUE_AND_ONBED_STATUS) {
-                        Float value = (Float) msg.obj;
-                        int status = msg.arg1;
-
-                        if(!notifiedConnected) {
-                            callbacks.onDeviceConnected();
-                            notifiedConnected = true;
-                        }
-                        callbacks.onReceivedSensorValue(value);
-                        callbacks.onReceivedOnBedStatus(status);
-                    }
-                    if(msg.what == DeviceService.STATUS_VALUES_SET) {
-                        callbacks.onStatusSet();
-                    }
-                    if(msg.what == DeviceService.DEVICE_CONNECTED) {
-                        callbacks.onDeviceConnected();
-                        notifiedConnected = true;
-                    }
-                    if(msg.what == DeviceService.DEVICE_DISCONNECTED) {
-                        callbacks.onDeviceDisconnected();
-                        notifiedConnected = false;
-                        disconnect(false);
-                    }
-                    if (msg.what == DeviceService.DEVICE_NOT_SUPPORTED) {
-                        callbacks.onDeviceNotSupported();
-                        disconnect(false);
-                    }
-                    if(msg.what == DeviceService.CONNECTION_TIMEOUT) {
-                        callbacks.onConnectionTimeout();
-                        disconnect(false);
+            Bundle data;
+            switch (msg.what) {
+                case DeviceService.SENSOR_BATCH:
+                    data = msg.getData();
+                    float[] values = data.getFloatArray(DeviceService.BATCH_VALUES);
+                    onSensorBatch(new SampleBatch(data.getLongArray(DeviceService.BATCH_TIMESTAMPS), values,
+                            data.getByteArray(DeviceService.BATCH_STATUSES), values.length));
+                    break;
+                case DeviceService.ONBED_STATUS:
+                    callbacks.onReceivedOnBedStatus(msg.arg1);
+                    break;
+                case DeviceService.SENSOR_HISTORY:
+                    data = msg.getData();
+                    callbacks.onReceivedHistory(
+                            data.getLongArray(DeviceService.HISTORY_TIMESTAMPS),
+                            data.getFloatArray(DeviceService.HISTORY_VALUES),
+                            data.getByteArray(DeviceService.HISTORY_STATUSES));
+                    break;
+                case DeviceService.LATENCY_REPORT:
+                    data = msg.getData();
+                    callbacks.onReceivedLatencyReport(new ConnectionLatencyReport(
+                            data.getLongArray(DeviceService.LATENCY_COUNTS),
+                            data.getLongArray(DeviceService.LATENCY_MEDIANS),
+                            data.getLongArray(DeviceService.LATENCY_P90),
+                            data.getLongArray(DeviceService.LATENCY_P99),
+                            data.getLongArray(DeviceService.LATENCY_TOTAL_MEDIANS),
+                            data.getLongArray(DeviceService.LATENCY_TOTAL_P90)));
+                    break;
+                case DeviceService.METRICS_REPORT:
+                    data = msg.getData();
+                    callbacks.onReceivedMetrics(new MetricsReport(
+                            data.getLong(DeviceService.METRICS_TIMESTAMP),
+                            data.getLongArray(DeviceService.METRICS_COUNTERS),
+                            data.getLongArray(DeviceService.METRICS_DECODE_TIME),
+                            data.getLongArray(DeviceService.METRICS_QUEUE_DELAY),
+                            data.getLongArray(DeviceService.METRICS_CLIENTS),
+                            data.getLongArray(DeviceService.METRICS_POWER)));
+                    break;
+                case DeviceService.SLEEP_EPOCH:
+                    data = msg.getData();
+                    callbacks.onReceivedSleepEpoch(new SleepSummary(msg.arg1,
+                            data.getFloat(DeviceService.SLEEP_RESTLESSNESS),
+                            data.getLongArray(DeviceService.SLEEP_TOTALS)));
+                    break;
+                case DeviceService.NIGHT_REPORT:
+                    data = msg.getData();
+                    long[] totals = data.getLongArray(DeviceService.NIGHT_TOTALS);
+                    callbacks.onReceivedNightReport(totals != null
+                            ? new NightReport(totals, data.getFloatArray(DeviceService.NIGHT_MOVEMENT))
+                            : null);
+                    break;
+                case DeviceService.SAMPLE_RING:
+                    // Only sent from O_MR1, which has SharedMemory.
+                    if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                        serviceConnection.startRingReader(msg.getData().getParcelable(DeviceService.SAMPLE_RING_MEMORY), this);
                     }
+                    break;
+                case DeviceService.STATUS_VALUES_SET:
+                    callbacks.onStatusSet();
+                    break;
+                case DeviceService.DEVICE_CONNECTED:
+                    callbacks.onDeviceConnected();
+                    notifiedConnected = true;
+                    firstRenderPending = true;
+                    serviceConnection.setDeviceConnected(true);
+                    break;
+                case DeviceService.DEVICE_DISCONNECTED:
+                    // Stay bound, the service reconnects and sends DEVICE_CONNECTED again.
+                    serviceConnection.setDeviceConnected(false);
+                    callbacks.onDeviceDisconnected();
+                    notifiedConnected = false;
+                    break;
+                case DeviceService.DEVICE_NOT_SUPPORTED:
+                    callbacks.onDeviceNotSupported();
+                    disconnect(false);
+                    break;
+                case DeviceService.CONNECTION_TIMEOUT:
+                    callbacks.onConnectionTimeout();
+                    break;
+                default:
+                    break;
+            }
 
             super.handleMessage(msg);
         }
     }
 
+    private static class HandlerExecutor implements Executor {
+        private final Handler handler;
+
+        private HandlerExecutor(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    }
+
     private class DeviceServiceConnection implements ServiceConnection {
         public final String deviceAddress;
 
         private Messenger deviceServiceMessenger;
         private Messenger source;
+        private SampleHandoff handoff;
+        private RingReader ringReader;
 
         private DeviceServiceConnection(String deviceAddress) {
             this.deviceAddress = deviceAddress;
@@ -136,19 +413,98 @@ public class DeviceServiceBinding {
 
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
-            deviceServiceMessenger = new Messenger(service);
-            source = new Messenger(new SensorValueHandler());
+            Handler handler = new SensorValueHandler(looper);
+            source = new Messenger(handler);
             isBound = true;
 
-            sendRequest(DeviceService.REQUEST_SENSORS_NOTIFICATIONS);
+            if(service instanceof DeviceService.LocalBinder) {
+                DeviceService.LocalBinder binder = (DeviceService.LocalBinder) service;
+                deviceServiceMessenger = binder.getMessenger();
+                stopDirectDelivery();
+                handoff = new SampleHandoff(new HandlerExecutor(handler), new LocalSampleConsumer(this));
+                // Sends the history to the handler before the first batch.
+                binder.subscribe(deviceAddress, source, handoff, batchInterval);
+            } else {
+                deviceServiceMessenger = new Messenger(service);
+                // The service handles the requests in order, so the history is received before any live sample.
+                sendRequest(DeviceService.REQUEST_HISTORY);
+                sendRequest(DeviceService.REQUEST_SAMPLE_RING, batchInterval, null);
+            }
+            sendRequest(DeviceService.SET_SLEEP_MODE, isSleepMode(context) ? 1 : 0, null);
+            if(!visible) {
+                sendVisibility();
+            }
         }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
+            stopDirectDelivery();
             callbacks.onDeviceDisconnected();
             isBound = false;
         }
 
+        public void stopDirectDelivery() {
+            if(handoff != null) {
+                handoff.close();
+                handoff = null;
+            }
+            if(ringReader != null) {
+                ringReader.stop();
+                ringReader = null;
+            }
+        }
+
+        public void sendVisibility() {
+            sendRequest(DeviceService.SET_CLIENT_VISIBLE, visible ? 1 : 0, null);
+            if(ringReader != null) {
+                if(visible) {
+                    ringReader.resume();
+                } else {
+                    ringReader.pause();
+                }
+            }
+        }
+
+        public void setDeviceConnected(boolean connected) {
+            if(ringReader != null) {
+                if(connected) {
+                    ringReader.deviceConnected();
+                } else {
+                    ringReader.deviceDisconnected();
+                }
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.O_MR1)
+        public void startRingReader(SharedMemory memory, Handler handler) {
+            if(memory == null) {
+                return;
+            }
+            stopDirectDelivery();
+            SharedSampleRing ring = null;
+            try {
+                // The mapping stays valid after the memory is closed.
+                ring = SharedSampleRing.open(memory.mapReadOnly());
+            } catch (ErrnoException e) {
+                Log.e(DeviceServiceBinding.class.getName(), e.getMessage(), e);
+            } catch (IllegalArgumentException e) {
+                Log.e(DeviceServiceBinding.class.getName(), e.getMessage(), e);
+            } finally {
+                memory.close();
+            }
+
+            if(ring == null) {
+                sendRequest(DeviceService.REQUEST_SENSORS_NOTIFICATIONS, batchInterval, null);
+                return;
+            }
+            ringReader = new RingReader(this, ring.cursor(), handler);
+            if(visible) {
+                ringReader.run();
+            } else {
+                ringReader.pause();
+            }
+        }
+
         @Override
         public void onBindingDied(ComponentName name) {
             Log.i(DeviceServiceBinding.class.getName(), "Binding " + name + " died");
@@ -159,8 +515,28 @@ public class DeviceServiceBinding {
             sendRequest(what, null);
         }
 
-        public void sendRequest(int what, Object obj){
+        public void sendRequest(int what, Object obj) {
+            sendRequest(what, 0, obj);
+        }
+
+        public void sendData(int what, Bundle data) {
+            Message message = Message.obtain(null, what);
+            data.putString(DeviceService.DEVICE_ADDRESS, deviceAddress);
+            message.setData(data);
+            message.replyTo = source;
+            try {
+                deviceServiceMessenger.send(message);
+            } catch (RemoteException e) {
+                Log.e(MainActivity.class.getName(), e.getMessage(), e);
+            }
+        }
+
+        public void sendRequest(int what, int arg, Object obj){
             Message message = Message.obtain(null, what, obj);
+            Bundle data = new Bundle();
+            data.putString(DeviceService.DEVICE_ADDRESS, deviceAddress);
+            message.setData(data);
+            message.arg1 = arg;
             message.replyTo = source;
             try {
                 deviceServiceMessenger.send(message);
@@ -169,4 +545,97 @@ public class DeviceServiceBinding {
             }
         }
     }
+
+    /**
+     * Polls the ring at the batch interval while samples arrive. While it stays empty, for
+     * example while the device is connecting, the interval doubles up to
+     * MAX_RING_POLL_INTERVAL. Nothing is polled while the device is disconnected.
+     */
+    private class RingReader implements Runnable {
+        private final DeviceServiceConnection connection;
+        private final SharedSampleRing.Cursor cursor;
+        private final Handler handler;
+        private final SampleBatch batch = new SampleBatch(SampleFanout.MAX_BATCH_SIZE);
+        private boolean stopped;
+        private boolean paused;
+        private boolean disconnected;
+        private int emptyPolls;
+
+        private RingReader(DeviceServiceConnection connection, SharedSampleRing.Cursor cursor, Handler handler) {
+            this.connection = connection;
+            this.cursor = cursor;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            if(stopped || paused || disconnected) {
+                return;
+            }
+            boolean read = drain();
+            // A callback may have disconnected or hidden the client.
+            if(!stopped && !paused && !disconnected) {
+                emptyPolls = read ? 0 : Math.min(emptyPolls + 1, 16);
+                long interval = batchInterval > 0 ? batchInterval : DeviceService.DEFAULT_BATCH_INTERVAL;
+                handler.postDelayed(this, Math.min(interval << emptyPolls, MAX_RING_POLL_INTERVAL));
+            }
+        }
+
+        private boolean drain() {
+            boolean read = false;
+            while (serviceConnection == connection && cursor.poll(batch) > 0) {
+                onSensorBatch(batch);
+                read = true;
+            }
+            return read;
+        }
+
+        private void deviceConnected() {
+            disconnected = false;
+            emptyPolls = 0;
+            handler.removeCallbacks(this);
+            run();
+        }
+
+        private void deviceDisconnected() {
+            // The samples appended before the disconnection are still delivered.
+            handler.removeCallbacks(this);
+            if(!stopped && !paused) {
+                drain();
+            }
+            disconnected = true;
+        }
+
+        private void stop() {
+            stopped = true;
+            handler.removeCallbacks(this);
+        }
+
+        private void pause() {
+            paused = true;
+            handler.removeCallbacks(this);
+        }
+
+        private void resume() {
+            paused = false;
+            emptyPolls = 0;
+            handler.removeCallbacks(this);
+            run();
+        }
+    }
+
+    private class LocalSampleConsumer implements SampleHandoff.Consumer {
+        private final DeviceServiceConnection connection;
+
+        private LocalSampleConsumer(DeviceServiceConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void onSamples(SampleBatch batch) {
+            if(serviceConnection == connection) {
+                onSensorBatch(batch);
+            }
+        }
+    }
 }
@@ -0,0 +1,744 @@
+package com.machnev.sleepdevice;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.machnev.sleepdevice.core.BLEController;
+import com.machnev.sleepdevice.core.OccupancyClassifier;
+import com.machnev.sleepdevice.core.OnlineCalibrator;
+import com.machnev.sleepdevice.core.SampleBatch;
+import com.machnev.sleepdevice.core.SampleFanout;
+import com.machnev.sleepdevice.core.SampleHandoff;
+import com.machnev.sleepdevice.core.SampleRingBuffer;
+import com.machnev.sleepdevice.core.SharedSampleRing;
+import com.machnev.sleepdevice.core.SleepEpochAnalyzer;
+import com.machnev.sleepdevice.core.SleepSummary;
+import com.machnev.sleepdevice.core.metrics.ConnectionLatencyReport;
+import com.machnev.sleepdevice.core.metrics.ClientMetrics;
+import com.machnev.sleepdevice.core.metrics.ConnectionTimeline;
+import com.machnev.sleepdevice.core.metrics.LatencyHistogram;
+import com.machnev.sleepdevice.core.metrics.MetricsReport;
+import com.machnev.sleepdevice.core.metrics.PipelineMetrics;
+import com.machnev.sleepdevice.core.recording.SessionRecorder;
+import com.machnev.sleepdevice.core.transport.AndroidGattTransport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Everything {@link DeviceService} keeps for one device: the controller, recent samples, the
+ * recording, the classifier and the clients subscribed to the device.
+ *
+ * Samples of a device are handled entirely by its own session, so devices streaming at the
+ * same time do not share any lock. Every message sent to clients carries the device address.
+ *
+ * In {@link SleepMode}, while none of the clients is visible, the samples are only buffered
+ * on the Bluetooth thread and processed in batches on the fan-out thread, without messages.
+ */
+class DeviceSession implements BLEController.IDeviceListener {
+
+    static final String SETTINGS_PREFERENCES = "com.machnev.sleepdevice.DeviceSession.STATUS_SETTINGS";
+
+    private final String address;
+    private final Messenger messenger;
+    private final Handler fanoutHandler;
+    private final SessionListener sessionListener;
+    private final SleepMode sleepMode;
+    private final File latencyFile;
+
+    private final SampleRingBuffer history = new SampleRingBuffer(DeviceService.HISTORY_CAPACITY);
+    private final OccupancyClassifier classifier = new OccupancyClassifier();
+    private final SleepEpochAnalyzer sleepAnalyzer = new SleepEpochAnalyzer();
+    // Updated with the classifier, under processLock.
+    private final OnlineCalibrator calibrator = new OnlineCalibrator();
+    private final AtomicBoolean manualCalibration = new AtomicBoolean();
+    private volatile float autoCalibrationMargin = OnlineCalibrator.DEFAULT_MARGIN;
+    private long lastAutoCalibration;
+    private final ConnectionTimeline timeline = new ConnectionTimeline();
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final ConcurrentMap<Messenger, ClientMetrics> clientMetrics = new ConcurrentHashMap<>();
+    private final List<Messenger> listeners = new CopyOnWriteArrayList<>();
+    private final SampleFanout<Messenger> fanout = new SampleFanout<>(history, new MessengerBatchSink());
+    // Clients in the service process get their samples directly, other messages still go through their messenger.
+    private final ConcurrentMap<Messenger, SampleHandoff> localClients = new ConcurrentHashMap<>();
+    private final SampleFanout<SampleHandoff> localFanout = new SampleFanout<>(history, new HandoffBatchSink());
+    // Created on the main thread for the first client in another process, appended to with the history.
+    private volatile SharedSampleRing sampleRing;
+    // Shared memory of the ring, not backed by a file.
+    private SharedMemory sampleRingMemory;
+    private final AtomicBoolean fanoutScheduled = new AtomicBoolean();
+    private final Runnable flushFanout = new FlushFanoutTask();
+    // Held while samples are classified, so buffered batches and live samples are processed in order.
+    private final Object processLock = new Object();
+    private final Object deferredLock = new Object();
+    private DeferredSamples deferred = new DeferredSamples(DeviceService.SLEEP_MODE_BUFFER);
+    private DeferredSamples processing = new DeferredSamples(DeviceService.SLEEP_MODE_BUFFER);
+    private final AtomicBoolean batchScheduled = new AtomicBoolean();
+    private final Runnable processBatch = new ProcessBatchTask();
+    private final Set<Messenger> hiddenClients = Collections.newSetFromMap(new ConcurrentHashMap<Messenger, Boolean>());
+    // Whether samples are buffered instead of processed, updated on the main thread.
+    private volatile boolean deferring;
+    private final SessionRecorder recorder;
+    private final BLEController controller;
+
+    /**
+     * @param settings preferences of the service caching the status settings of devices
+     * @param messenger messenger of the service, set as replyTo of every message
+     * @param fanoutHandler handler of the thread that sends sample batches to clients
+     */
+    DeviceSession(String address, Context context, SharedPreferences settings, BluetoothAdapter adapter,
+                  ScheduledExecutorService scheduler, Messenger messenger, Handler fanoutHandler, File sessionsDirectory,
+                  File latencyDirectory, SleepMode sleepMode, SessionListener sessionListener) {
+        this.address = address;
+        this.messenger = messenger;
+        this.fanoutHandler = fanoutHandler;
+        this.sleepMode = sleepMode;
+        this.sessionListener = sessionListener;
+        this.latencyFile = new File(latencyDirectory, fileName(address));
+        this.recorder = new SessionRecorder(history, new File(sessionsDirectory, fileName(address)), new RecordingErrorCallback());
+        this.controller = new BLEController(new AndroidGattTransport(adapter, address, context), scheduler, timeline,
+                metrics, new PreferencesSettingsCache(settings), this);
+    }
+
+    /**
+     * Name of the directories and files of a device, the address without separators.
+     */
+    static String fileName(String address) {
+        return address.replace(":", "");
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    /**
+     * @param requestedAt {@link SystemClock#elapsedRealtime()} of the connect request, 0 if unknown
+     */
+    void start(long requestedAt) {
+        try {
+            timeline.load(latencyFile);
+        } catch (IOException e) {
+            Log.e(DeviceService.class.getName(), e.getMessage(), e);
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        timeline.start(requestedAt > 0 && requestedAt <= now ? requestedAt : now);
+        timeline.mark(ConnectionTimeline.PHASE_SERVICE_STARTED, now);
+
+        controller.connect();
+        applySleepMode();
+        recorder.start();
+    }
+
+    /**
+     * Must be called on the main thread when {@link SleepMode} is turned on or off.
+     */
+    void applySleepMode() {
+        recorder.setFlushInterval(sleepMode.isEnabled() ? DeviceService.SLEEP_MODE_INTERVAL : SessionRecorder.DEFAULT_FLUSH_INTERVAL);
+        updateDeferring();
+    }
+
+    /**
+     * Clients are visible until they tell otherwise. Must be called on the main thread.
+     */
+    void setClientVisible(Messenger client, boolean visible) {
+        if(client == null || !listeners.contains(client)) {
+            return;
+        }
+        if(!visible) {
+            hiddenClients.add(client);
+            updateDeferring();
+            return;
+        }
+        if(hiddenClients.remove(client)) {
+            updateDeferring();
+            // Messages were skipped while it was hidden.
+            sendStatus(client);
+            sendSleepEpoch(client);
+        }
+    }
+
+    private void updateDeferring() {
+        boolean visible = false;
+        for(Messenger client : listeners) {
+            if(!hiddenClients.contains(client)) {
+                visible = true;
+                break;
+            }
+        }
+        boolean wasDeferring = deferring;
+        deferring = sleepMode.isEnabled() && !visible;
+        if(wasDeferring && !deferring) {
+            // The fan-out was suspended, clients get the latest samples instead of the whole night.
+            fanout.limitBacklog(DeviceService.HISTORY_BACKFILL_SIZE);
+            localFanout.limitBacklog(DeviceService.HISTORY_BACKFILL_SIZE);
+            scheduleBatch(0);
+        }
+    }
+
+    void stop() {
+        controller.disconnect();
+        recorder.stop();
+        saveLatency();
+        if(sampleRingMemory != null) {
+            // Only the descriptor, a late sample may still be appended. The mapping is
+            // released with the ring.
+            sampleRingMemory.close();
+            sampleRingMemory = null;
+        }
+    }
+
+    void subscribe(Messenger client, int batchInterval) {
+        if(client == null) {
+            return;
+        }
+        if(!listeners.contains(client)) {
+            listeners.add(client);
+        }
+        fanout.subscribe(client, batchInterval, SystemClock.uptimeMillis());
+        hiddenClients.remove(client);
+        updateDeferring();
+        sendStatus(client);
+    }
+
+    /**
+     * Subscribes a client in the service process, its samples are handed off without messages.
+     *
+     * @param client messenger that receives everything but the samples
+     */
+    void subscribeLocal(Messenger client, SampleHandoff handoff, int batchInterval) {
+        if(client == null || handoff == null) {
+            return;
+        }
+        if(!listeners.contains(client)) {
+            listeners.add(client);
+        }
+        fanout.unsubscribe(client);
+        SampleHandoff previous = localClients.put(client, handoff);
+        if(previous != null) {
+            localFanout.unsubscribe(previous);
+        }
+        localFanout.subscribe(handoff, batchInterval, SystemClock.uptimeMillis());
+        hiddenClients.remove(client);
+        updateDeferring();
+        sendStatus(client);
+    }
+
+    /**
+     * Subscribes a client in another process, it reads the samples from the shared ring.
+     * Falls back to sample batches if the ring can not be shared.
+     */
+    void subscribeRing(Messenger client, int batchInterval) {
+        if(client == null) {
+            return;
+        }
+        // SharedMemory is only available from O_MR1.
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1 || !openSampleRing()) {
+            subscribe(client, batchInterval);
+            return;
+        }
+
+        if(!listeners.contains(client)) {
+            listeners.add(client);
+        }
+        fanout.unsubscribe(client);
+        Bundle data = newData();
+        // The client process gets its own descriptor of the memory.
+        data.putParcelable(DeviceService.SAMPLE_RING_MEMORY, sampleRingMemory);
+        send(client, DeviceService.SAMPLE_RING, 0, data);
+        hiddenClients.remove(client);
+        updateDeferring();
+        sendStatus(client);
+    }
+
+    @TargetApi(Build.VERSION_CODES.O_MR1)
+    private boolean openSampleRing() {
+        if(sampleRingMemory != null) {
+            return true;
+        }
+        SharedMemory memory = null;
+        try {
+            memory = SharedMemory.create(fileName(address), SharedSampleRing.sizeFor(SharedSampleRing.DEFAULT_CAPACITY));
+            SharedSampleRing ring = SharedSampleRing.create(memory.mapReadWrite(), SharedSampleRing.DEFAULT_CAPACITY);
+            // Clients can only map it for reading, the mapping of the session stays writable.
+            memory.setProtect(OsConstants.PROT_READ);
+            sampleRingMemory = memory;
+            sampleRing = ring;
+            return true;
+        } catch (ErrnoException e) {
+            Log.e(DeviceService.class.getName(), e.getMessage(), e);
+            if(memory != null) {
+                memory.close();
+            }
+            return false;
+        }
+    }
+
+    void unsubscribe(Messenger client) {
+        listeners.remove(client);
+        fanout.unsubscribe(client);
+        SampleHandoff handoff = localClients.remove(client);
+        if(handoff != null) {
+            localFanout.unsubscribe(handoff);
+        }
+        clientMetrics.remove(client);
+        hiddenClients.remove(client);
+        updateDeferring();
+    }
+
+    /**
+     * Manual calibration, it also restarts the automatic calibration from these values.
+     */
+    void setStatusValues(float onBedValue, float notOnBedValue) {
+        manualCalibration.set(true);
+        controller.setStatusValues(onBedValue, notOnBedValue);
+    }
+
+    /**
+     * @param margin drift that makes a new calibration, as a fraction of the calibrated range, 0 to turn it off
+     */
+    void setAutoCalibration(float margin) {
+        autoCalibrationMargin = margin;
+    }
+
+    void reportFirstRender(long timestamp) {
+        // A render only counts once the current connection delivered its first sample.
+        if(timeline.isMarked(ConnectionTimeline.PHASE_FIRST_SAMPLE)) {
+            timeline.mark(ConnectionTimeline.PHASE_FIRST_RENDER, timestamp);
+        }
+    }
+
+    void saveLatency() {
+        try {
+            timeline.save(latencyFile);
+        } catch (IOException e) {
+            Log.e(DeviceService.class.getName(), e.getMessage(), e);
+        }
+    }
+
+    void sendHistory(Messenger client, int count) {
+        if(client == null) {
+            return;
+        }
+
+        count = Math.min(count, history.size());
+        long[] timestamps = new long[count];
+        float[] values = new float[count];
+        byte[] statuses = new byte[count];
+        int read = history.readLast(count, timestamps, values, statuses);
+        if(read < count) {
+            timestamps = Arrays.copyOf(timestamps, read);
+            values = Arrays.copyOf(values, read);
+            statuses = Arrays.copyOf(statuses, read);
+        }
+
+        Bundle data = newData();
+        data.putLongArray(DeviceService.HISTORY_TIMESTAMPS, timestamps);
+        data.putFloatArray(DeviceService.HISTORY_VALUES, values);
+        data.putByteArray(DeviceService.HISTORY_STATUSES, statuses);
+        send(client, DeviceService.SENSOR_HISTORY, 0, data);
+    }
+
+    void sendLatencyReport(Messenger client) {
+        if(client == null) {
+            return;
+        }
+
+        ConnectionLatencyReport report = ConnectionLatencyReport.of(timeline);
+        Bundle data = newData();
+        data.putLongArray(DeviceService.LATENCY_COUNTS, report.counts);
+        data.putLongArray(DeviceService.LATENCY_MEDIANS, report.medians);
+        data.putLongArray(DeviceService.LATENCY_P90, report.p90);
+        data.putLongArray(DeviceService.LATENCY_P99, report.p99);
+        data.putLongArray(DeviceService.LATENCY_TOTAL_MEDIANS, report.totalMedians);
+        data.putLongArray(DeviceService.LATENCY_TOTAL_P90, report.totalP90);
+        send(client, DeviceService.LATENCY_REPORT, 0, data);
+    }
+
+    /**
+     * @param queueDelay milliseconds requests waited in the queue of the service
+     */
+    void sendMetrics(Messenger client, LatencyHistogram queueDelay) {
+        if(client == null) {
+            return;
+        }
+
+        MetricsReport report = MetricsReport.of(SystemClock.elapsedRealtime(), metrics, queueDelay, clientMetrics.values(),
+                sleepMode.metrics());
+        Bundle data = newData();
+        data.putLong(DeviceService.METRICS_TIMESTAMP, report.timestamp);
+        data.putLongArray(DeviceService.METRICS_COUNTERS, report.counters);
+        data.putLongArray(DeviceService.METRICS_DECODE_TIME, report.decodeTime);
+        data.putLongArray(DeviceService.METRICS_QUEUE_DELAY, report.queueDelay);
+        data.putLongArray(DeviceService.METRICS_CLIENTS, report.clients);
+        data.putLongArray(DeviceService.METRICS_POWER, report.power);
+        send(client, DeviceService.METRICS_REPORT, 0, data);
+    }
+
+    private void sendStatus(Messenger client) {
+        send(client, DeviceService.ONBED_STATUS, classifier.status(), newData());
+    }
+
+    private void sendSleepEpoch() {
+        SleepSummary summary = SleepSummary.of(sleepAnalyzer);
+        for(Messenger client : listeners) {
+            sendSleepEpoch(client, summary);
+        }
+    }
+
+    private void sendSleepEpoch(Messenger client) {
+        SleepSummary summary;
+        synchronized (processLock) {
+            summary = SleepSummary.of(sleepAnalyzer);
+        }
+        sendSleepEpoch(client, summary);
+    }
+
+    private void sendSleepEpoch(Messenger client, SleepSummary summary) {
+        Bundle data = newData();
+        data.putLongArray(DeviceService.SLEEP_TOTALS, summary.totals);
+        data.putFloat(DeviceService.SLEEP_RESTLESSNESS, summary.restlessness);
+        send(client, DeviceService.SLEEP_EPOCH, summary.epoch, data);
+    }
+
+    private void sendToListeners(int what, int arg1) {
+        for(Messenger client : listeners) {
+            send(client, what, arg1, newData());
+        }
+    }
+
+    private void send(Messenger client, int what, int arg1, Bundle data) {
+        Message message = Message.obtain(null, what);
+        message.arg1 = arg1;
+        message.setData(data);
+        message.replyTo = messenger;
+        ClientMetrics sent = clientMetrics(client);
+        sleepMode.metrics().onMessage();
+        long start = System.nanoTime();
+        try {
+            client.send(message);
+            sent.onSent(System.nanoTime() - start);
+        } catch (RemoteException e) {
+            sent.onFailed();
+            Log.e(DeviceService.class.getName(), e.getMessage(), e);
+        }
+    }
+
+    private ClientMetrics clientMetrics(Messenger client) {
+        ClientMetrics found = clientMetrics.get(client);
+        if(found == null) {
+            ClientMetrics created = new ClientMetrics();
+            found = clientMetrics.putIfAbsent(client, created);
+            if(found == null) {
+                found = created;
+            }
+        }
+        return found;
+    }
+
+    private Bundle newData() {
+        Bundle data = new Bundle();
+        data.putString(DeviceService.DEVICE_ADDRESS, address);
+        return data;
+    }
+
+    private void scheduleFanout() {
+        if(fanoutScheduled.compareAndSet(false, true)) {
+            fanoutHandler.post(flushFanout);
+        }
+    }
+
+    private void scheduleBatch(long delay) {
+        if(batchScheduled.compareAndSet(false, true)) {
+            fanoutHandler.postDelayed(processBatch, delay);
+        } else if(delay == 0) {
+            fanoutHandler.removeCallbacks(processBatch);
+            fanoutHandler.post(processBatch);
+        }
+    }
+
+    @Override
+    public void onValueChanged(float newValue) {
+        long start = System.nanoTime();
+        long timestamp = System.currentTimeMillis();
+        if(deferring) {
+            boolean full;
+            synchronized (deferredLock) {
+                full = deferred.add(timestamp, newValue);
+            }
+            scheduleBatch(full ? 0 : DeviceService.SLEEP_MODE_INTERVAL);
+            sleepMode.metrics().onProcessing(System.nanoTime() - start);
+            return;
+        }
+
+        synchronized (processLock) {
+            processDeferred(true);
+            process(timestamp, newValue, true);
+        }
+        scheduleFanout();
+        sleepMode.metrics().onWakeup(System.nanoTime() - start);
+    }
+
+    /**
+     * Processes the buffered samples, must hold processLock.
+     */
+    private void processDeferred(boolean notify) {
+        DeferredSamples batch;
+        synchronized (deferredLock) {
+            if(deferred.count == 0) {
+                return;
+            }
+            batch = deferred;
+            deferred = processing;
+            processing = batch;
+        }
+        for(int i = 0; i < batch.count; i++) {
+            int index = batch.index(i);
+            process(batch.timestamps[index], batch.values[index], notify);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Must hold processLock.
+     *
+     * @param notify whether status changes and sleep epochs are sent to the clients
+     */
+    private void process(long timestamp, float newValue, boolean notify) {
+        boolean statusChanged = classifier.update(timestamp, newValue);
+        int onBedStatus = classifier.status();
+
+        history.append(timestamp, newValue, (byte) onBedStatus);
+        SharedSampleRing ring = sampleRing;
+        if(ring != null) {
+            ring.append(timestamp, newValue, (byte) onBedStatus);
+        }
+        if(statusChanged && notify) {
+            sendToListeners(DeviceService.ONBED_STATUS, onBedStatus);
+        }
+        if(sleepAnalyzer.update(timestamp, newValue, onBedStatus == OccupancyClassifier.STATUS_ON_BED) && notify) {
+            sendSleepEpoch();
+        }
+        calibrate(newValue);
+    }
+
+    private void calibrate(float value) {
+        float margin = autoCalibrationMargin;
+        if(margin <= 0) {
+            return;
+        }
+        calibrator.update(value);
+
+        long now = SystemClock.elapsedRealtime();
+        if(lastAutoCalibration != 0 && now - lastAutoCalibration < DeviceService.AUTO_CALIBRATION_INTERVAL) {
+            return;
+        }
+        calibrator.setMargin(margin);
+        if(calibrator.shouldRecalibrate()) {
+            lastAutoCalibration = now;
+            Log.i(DeviceService.class.getName(), address + " recalibrated: "
+                    + calibrator.onBedValue() + ", " + calibrator.notOnBedValue());
+            controller.setStatusValues(calibrator.onBedValue(), calibrator.notOnBedValue());
+        }
+    }
+
+    @Override
+    public void onNewStatusSettings(float onBedValue, float notOnBedValue) {
+        Log.i(DeviceService.class.getName(), address + " new values: " + onBedValue + ", " + notOnBedValue);
+        synchronized (processLock) {
+            // Buffered samples belong to the previous settings.
+            processDeferred(false);
+            classifier.configure(onBedValue, notOnBedValue);
+            sleepAnalyzer.configure(onBedValue, notOnBedValue);
+            if(manualCalibration.getAndSet(false) || !calibrator.isSeeded()) {
+                calibrator.seed(onBedValue, notOnBedValue);
+            }
+            calibrator.setApplied(onBedValue, notOnBedValue);
+        }
+        sendToListeners(DeviceService.STATUS_VALUES_SET, 0);
+    }
+
+    @Override
+    public void onConnected() {
+        sendToListeners(DeviceService.DEVICE_CONNECTED, 0);
+    }
+
+    @Override
+    public void onDisconnected() {
+        // The controller reconnects by itself and the session keeps recording.
+        sendToListeners(DeviceService.DEVICE_DISCONNECTED, 0);
+    }
+
+    @Override
+    public void deviceNotSupported() {
+        sendToListeners(DeviceService.DEVICE_NOT_SUPPORTED, 0);
+        sessionListener.onSessionFailed(this);
+    }
+
+    @Override
+    public void couldNotConnect() {
+        sendToListeners(DeviceService.CONNECTION_TIMEOUT, 0);
+    }
+
+    static interface SessionListener {
+        /**
+         * Called from any thread when the device turned out to be unusable.
+         */
+        public void onSessionFailed(DeviceSession session);
+    }
+
+    private class FlushFanoutTask implements Runnable {
+        @Override
+        public void run() {
+            // Samples appended from now on schedule another flush themselves.
+            fanoutScheduled.set(false);
+            long now = SystemClock.uptimeMillis();
+            long nextFlush = Math.min(fanout.flush(now), localFanout.flush(now));
+            if(nextFlush != Long.MAX_VALUE && fanoutScheduled.compareAndSet(false, true)) {
+                fanoutHandler.postAtTime(this, nextFlush);
+            }
+        }
+    }
+
+    private class ProcessBatchTask implements Runnable {
+        @Override
+        public void run() {
+            batchScheduled.set(false);
+            boolean locked = sleepMode.acquireWakeLock();
+            long start = System.nanoTime();
+            try {
+                synchronized (processLock) {
+                    processDeferred(!deferring);
+                }
+                if(!deferring) {
+                    scheduleFanout();
+                }
+            } finally {
+                sleepMode.metrics().onWakeup(System.nanoTime() - start);
+                if(locked) {
+                    sleepMode.releaseWakeLock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Circular buffer, the oldest sample is at head.
+     */
+    private static class DeferredSamples {
+        private final long[] timestamps;
+        private final float[] values;
+        private int head;
+        private int count;
+
+        private DeferredSamples(int capacity) {
+            timestamps = new long[capacity];
+            values = new float[capacity];
+        }
+
+        /**
+         * @return whether the buffer is full now
+         */
+        private boolean add(long timestamp, float value) {
+            int capacity = timestamps.length;
+            int index;
+            if(count == capacity) {
+                // The batch is late, the newest sample replaces the oldest.
+                index = head;
+                head = head + 1 == capacity ? 0 : head + 1;
+            } else {
+                index = head + count < capacity ? head + count : head + count - capacity;
+                count++;
+            }
+            timestamps[index] = timestamp;
+            values[index] = value;
+            return count == capacity;
+        }
+
+        /**
+         * @param i 0 for the oldest sample
+         */
+        private int index(int i) {
+            int index = head + i;
+            return index < timestamps.length ? index : index - timestamps.length;
+        }
+
+        private void clear() {
+            head = 0;
+            count = 0;
+        }
+    }
+
+    private class MessengerBatchSink implements SampleFanout.BatchSink<Messenger> {
+        @Override
+        public void onBatch(Messenger client, SampleBatch batch) {
+            Bundle data = newData();
+            data.putLongArray(DeviceService.BATCH_TIMESTAMPS, Arrays.copyOf(batch.timestamps, batch.count()));
+            data.putFloatArray(DeviceService.BATCH_VALUES, Arrays.copyOf(batch.values, batch.count()));
+            data.putByteArray(DeviceService.BATCH_STATUSES, Arrays.copyOf(batch.statuses, batch.count()));
+            data.putFloat(DeviceService.BATCH_MIN, batch.min());
+            data.putFloat(DeviceService.BATCH_MAX, batch.max());
+            send(client, DeviceService.SENSOR_BATCH, 0, data);
+        }
+    }
+
+    private class HandoffBatchSink implements SampleFanout.BatchSink<SampleHandoff> {
+        @Override
+        public void onBatch(SampleHandoff client, SampleBatch batch) {
+            client.offer(batch);
+        }
+    }
+
+    private class PreferencesSettingsCache implements BLEController.StatusSettingsCache {
+        private final SharedPreferences preferences;
+
+        private PreferencesSettingsCache(SharedPreferences preferences) {
+            this.preferences = preferences;
+        }
+
+        @Override
+        public float[] load() {
+            if(!preferences.contains(address + ".onBed") || !preferences.contains(address + ".notOnBed")) {
+                return null;
+            }
+            return new float[] {preferences.getFloat(address + ".onBed", 0), preferences.getFloat(address + ".notOnBed", 0)};
+        }
+
+        @Override
+        public void save(float onBedValue, float notOnBedValue) {
+            preferences.edit()
+                    .putFloat(address + ".onBed", onBedValue)
+                    .putFloat(address + ".notOnBed", notOnBedValue)
+                    .apply();
+        }
+    }
+
+    private class RecordingErrorCallback implements SessionRecorder.ErrorCallback {
+        @Override
+        public void onRecordingError(IOException e) {
+            Log.e(DeviceService.class.getName(), e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.machnev.sleepdevice;
+
+import com.machnev.sleepdevice.core.SampleBatch;
+import com.machnev.sleepdevice.core.SleepSummary;
+import com.machnev.sleepdevice.core.metrics.ConnectionLatencyReport;
+import com.machnev.sleepdevice.core.metrics.MetricsReport;
+import com.machnev.sleepdevice.core.report.NightReport;
+import com.machnev.sleepdevice.core.stream.BufferedPublisher;
+import com.machnev.sleepdevice.core.stream.Publisher;
+import com.machnev.sleepdevice.core.stream.Streams;
+
+import java.util.Arrays;
+
+/**
+ * Callbacks of a {@link DeviceServiceBinding} as streams with backpressure.
+ *
+ * Subscribe through {@link Streams#observeOn} with the executor of the thread that consumes
+ * the items, the binding may call back on another looper. A subscriber that falls behind
+ * loses its oldest batches instead of filling that thread's queue. The callbacks that are
+ * not streams go to the delegate.
+ */
+public class DeviceStreams implements DeviceServiceBinding.DeviceServiceCallbacks {
+
+    private final DeviceServiceBinding.DeviceServiceCallbacks delegate;
+    private final BufferedPublisher<SampleBatch> samples;
+    private final BufferedPublisher<Integer> onBedStatus;
+    private final BufferedPublisher<ConnectionState> connectionState;
+
+    /**
+     * @param delegate may be null
+     */
+    public DeviceStreams(DeviceServiceBinding.DeviceServiceCallbacks delegate) {
+        this(delegate, BufferedPublisher.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity batches kept for a subscriber that has not requested them
+     */
+    public DeviceStreams(DeviceServiceBinding.DeviceServiceCallbacks delegate, int capacity) {
+        this.delegate = delegate;
+        this.samples = new BufferedPublisher<>(capacity);
+        this.onBedStatus = new BufferedPublisher<>(capacity);
+        this.connectionState = new BufferedPublisher<>(capacity);
+    }
+
+    /**
+     * Sample batches, copies the subscribers may keep. Statuses are always set.
+     */
+    public Publisher<SampleBatch> samples() {
+        return samples;
+    }
+
+    /**
+     * Transitions of the on bed status, {@link DeviceService#STATUS_ON_BED} and the other statuses.
+     */
+    public Publisher<Integer> occupancy() {
+        return Streams.distinctUntilChanged(onBedStatus);
+    }
+
+    /**
+     * Every connection event, a repeated one too: each timeout ends a connection attempt.
+     */
+    public Publisher<ConnectionState> connectionState() {
+        return connectionState;
+    }
+
+    /**
+     * Completes the streams, after the binding is disconnected.
+     */
+    public void close() {
+        samples.complete();
+        onBedStatus.complete();
+        connectionState.complete();
+    }
+
+    @Override
+    public void onReceivedSensorBatch(SampleBatch batch) {
+        if(samples.hasSubscribers() && !batch.isEmpty()) {
+            samples.emit(copy(batch));
+        }
+        if(delegate != null) {
+            delegate.onReceivedSensorBatch(batch);
+        }
+    }
+
+    @Override
+    public void onReceivedOnBedStatus(int status) {
+        onBedStatus.emit(status);
+        if(delegate != null) {
+            delegate.onReceivedOnBedStatus(status);
+        }
+    }
+
+    @Override
+    public void onReceivedHistory(long[] timestamps, float[] values, byte[] statuses) {
+        if(delegate != null) {
+            delegate.onReceivedHistory(timestamps, values, statuses);
+        }
+    }
+
+    @Override
+    public void onReceivedLatencyReport(ConnectionLatencyReport report) {
+        if(delegate != null) {
+            delegate.onReceivedLatencyReport(report);
+        }
+    }
+
+    @Override
+    public void onReceivedMetrics(MetricsReport report) {
+        if(delegate != null) {
+            delegate.onReceivedMetrics(report);
+        }
+    }
+
+    @Override
+    public void onReceivedSleepEpoch(SleepSummary summary) {
+        if(delegate != null) {
+            delegate.onReceivedSleepEpoch(summary);
+        }
+    }
+
+    @Override
+    public void onReceivedNightReport(NightReport report) {
+        if(delegate != null) {
+            delegate.onReceivedNightReport(report);
+        }
+    }
+
+    @Override
+    public void onStatusSet() {
+        if(delegate != null) {
+            delegate.onStatusSet();
+        }
+    }
+
+    @Override
+    public void onDeviceConnected() {
+        connectionState.emit(ConnectionState.CONNECTED);
+        if(delegate != null) {
+            delegate.onDeviceConnected();
+        }
+    }
+
+    @Override
+    public void onDeviceDisconnected() {
+        connectionState.emit(ConnectionState.DISCONNECTED);
+        if(delegate != null) {
+            delegate.onDeviceDisconnected();
+        }
+    }
+
+    @Override
+    public void onDeviceNotSupported() {
+        connectionState.emit(ConnectionState.NOT_SUPPORTED);
+        if(delegate != null) {
+            delegate.onDeviceNotSupported();
+        }
+    }
+
+    @Override
+    public void onConnectionTimeout() {
+        connectionState.emit(ConnectionState.TIMEOUT);
+        if(delegate != null) {
+            delegate.onConnectionTimeout();
+        }
+    }
+
+    /**
+     * The binding reuses its batch after the callback, one copy is shared by all subscribers.
+     */
+    private static SampleBatch copy(SampleBatch batch) {
+        int count = batch.count();
+        byte[] statuses;
+        if(batch.statuses != null) {
+            statuses = Arrays.copyOf(batch.statuses, count);
+        } else {
+            statuses = new byte[count];
+            Arrays.fill(statuses, (byte) DeviceService.STATUS_NOT_INITIALIZED);
+        }
+        return new SampleBatch(Arrays.copyOf(batch.timestamps, count), Arrays.copyOf(batch.values, count), statuses, count);
+    }
+
+    public static enum ConnectionState {
+        CONNECTED,
+        DISCONNECTED,
+        NOT_SUPPORTED,
+        TIMEOUT
+    }
+}
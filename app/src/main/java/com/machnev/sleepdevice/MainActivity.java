@@ -13,14 +13,29 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.machnev.sleepdevice.core.BLEDeviceViewModel;
+import com.machnev.sleepdevice.core.SampleBatch;
+import com.machnev.sleepdevice.core.SleepSummary;
+import com.machnev.sleepdevice.core.metrics.ConnectionLatencyReport;
+import com.machnev.sleepdevice.core.metrics.MetricsReport;
+import com.machnev.sleepdevice.core.report.NightReport;
+import com.machnev.sleepdevice.core.stream.Streams;
+import com.machnev.sleepdevice.core.stream.Subscription;
+
+import java.util.concurrent.Executor;
 
 public class MainActivity extends Activity {
 
@@ -37,15 +52,24 @@ public class MainActivity extends Activity {
     private static final String SHOULD_BE_CONNECTED_KEY = "com.machnev.sleepdevice.MainActivity.SHOULD_BE_CONNECTED_KEY";
     private static final String IS_CONNECTED_KEY = "com.machnev.sleepdevice.MainActivity.IS_CONNECTED_KEY";
 
+    // Sample batches taken by one task on the main thread.
+    private static final int SAMPLE_BUFFER = 16;
+
 
     private TextView connectionStatus;
     private TextView sensorValue;
+    private SensorChartView sensorChart;
     private TextView onBedStatus;
+    private TextView sleepSummary;
 
     private Button connectToThisDeviceButton;
     private Button connectToOtherDeviceButton;
     private Button disconnectButton;
     private Button configureOnBedButton;
+    private Button showMetricsButton;
+    private Button nightReportButton;
+    private CheckBox separateProcessCheckBox;
+    private CheckBox sleepModeCheckBox;
 
     private boolean permissionGranted;
     private BLEDeviceViewModel device;
@@ -55,6 +79,10 @@ public class MainActivity extends Activity {
     private ProgressDialog connectingToDeviceDialog;
 
     private DeviceServiceBinding serviceBinding;
+    private DeviceStreams streams;
+    private Subscription samplesSubscription;
+    private Subscription occupancySubscription;
+    private Subscription connectionSubscription;
 
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
@@ -86,6 +114,9 @@ public class MainActivity extends Activity {
     @Override
     protected void onStart() {
         super.onStart();
+        if(serviceBinding != null) {
+            serviceBinding.setVisible(true);
+        }
     }
 
     @Override
@@ -111,6 +142,9 @@ public class MainActivity extends Activity {
 
     @Override
     protected void onStop() {
+        if(serviceBinding != null) {
+            serviceBinding.setVisible(false);
+        }
         if(device != null) {
             SharedPreferences preferences = getPreferences(MODE_PRIVATE);
             preferences.edit()
@@ -125,6 +159,12 @@ public class MainActivity extends Activity {
     @Override
     protected void onDestroy() {
         disconnect(isFinishing());
+        if(streams != null) {
+            samplesSubscription.cancel();
+            occupancySubscription.cancel();
+            connectionSubscription.cancel();
+            streams.close();
+        }
 
         super.onDestroy();
     }
@@ -171,11 +211,16 @@ public class MainActivity extends Activity {
         configureConnectionStatus();
         configureValue();
         configureOnBedStatus();
+        configureSleepSummary();
 
         configureConnectToThisDeviceButton();
         configureConnectToOtherDeviceButton();
         configureDisconnectButton();
         configureOnBedButton();
+        configureShowMetricsButton();
+        configureNightReportButton();
+        configureSeparateProcessCheckBox();
+        configureSleepModeCheckBox();
     }
 
     private void configureConnectionStatus()
@@ -186,6 +231,7 @@ public class MainActivity extends Activity {
     private void configureValue()
     {
         sensorValue = (TextView) findViewById(R.id.sensor_value);
+        sensorChart = findViewById(R.id.sensor_chart);
     }
 
     private void configureOnBedStatus()
@@ -193,6 +239,11 @@ public class MainActivity extends Activity {
         onBedStatus = (TextView) findViewById(R.id.on_bed_status);
     }
 
+    private void configureSleepSummary()
+    {
+        sleepSummary = (TextView) findViewById(R.id.sleep_summary);
+    }
+
     private void configureConnectToThisDeviceButton() {
         connectToThisDeviceButton = findViewById(R.id.connect_to_this_device);
         if(device != null) {
@@ -239,15 +290,73 @@ public class MainActivity extends Activity {
         });
     }
 
+    private void configureShowMetricsButton()
+    {
+        showMetricsButton = findViewById(R.id.show_metrics);
+        showMetricsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                startMetricsActivity();
+            }
+        });
+    }
+
+    private void configureNightReportButton()
+    {
+        nightReportButton = findViewById(R.id.night_report);
+        nightReportButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                serviceBinding.requestNightReport(0);
+            }
+        });
+    }
+
+    private void configureSeparateProcessCheckBox()
+    {
+        separateProcessCheckBox = findViewById(R.id.separate_process);
+        separateProcessCheckBox.setChecked(DeviceServiceBinding.isSeparateProcess(this));
+        separateProcessCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton button, boolean checked) {
+                // The device moves to the service in the other process.
+                boolean reconnect = shouldBeConnected && device != null;
+                disconnect(true);
+                DeviceServiceBinding.setSeparateProcess(MainActivity.this, checked);
+                if(reconnect) {
+                    shouldBeConnected = true;
+                    connectToDevice(device.address);
+                }
+            }
+        });
+    }
+
+    private void configureSleepModeCheckBox()
+    {
+        sleepModeCheckBox = findViewById(R.id.sleep_mode);
+        sleepModeCheckBox.setChecked(DeviceServiceBinding.isSleepMode(this));
+        sleepModeCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton button, boolean checked) {
+                // Sent now if connected, otherwise with the next connection.
+                obtainServiceBinding().setSleepMode(MainActivity.this, checked);
+            }
+        });
+    }
+
     private void setNotConnectedState(){
         isConnected = false;
         connectionStatus.setText("Not connected");
         sensorValue.setVisibility(View.GONE);
+        sensorChart.setVisibility(View.GONE);
         onBedStatus.setVisibility(View.GONE);
+        sleepSummary.setVisibility(View.GONE);
         connectToThisDeviceButton.setVisibility(View.GONE);
         connectToOtherDeviceButton.setEnabled(true);
         disconnectButton.setEnabled(false);
         configureOnBedButton.setEnabled(false);
+        showMetricsButton.setEnabled(false);
+        nightReportButton.setEnabled(false);
     }
 
     private void setNotConnectedStateWithSavedDevice() {
@@ -275,11 +384,15 @@ public class MainActivity extends Activity {
             connectingToDeviceDialog = null;
         }
         sensorValue.setVisibility(View.VISIBLE);
+        sensorChart.setVisibility(View.VISIBLE);
         onBedStatus.setVisibility(View.VISIBLE);
+        sleepSummary.setVisibility(View.VISIBLE);
         connectToThisDeviceButton.setEnabled(false);
         connectToOtherDeviceButton.setEnabled(true);
         disconnectButton.setEnabled(true);
         configureOnBedButton.setEnabled(true);
+        showMetricsButton.setEnabled(true);
+        nightReportButton.setEnabled(true);
     }
 
     private boolean configureBluetooth() {
@@ -353,6 +466,13 @@ public class MainActivity extends Activity {
         startActivityForResult(intent, REQUEST_STATUS_SETTINGS);
     }
 
+    private void startMetricsActivity()
+    {
+        Intent intent = new Intent(this, MetricsActivity.class);
+        intent.putExtra(MetricsActivity.DEVICE_ADDRESS, device.address);
+        startActivity(intent);
+    }
+
     private void statusSettingActivityResultCallback(int resultCode, Intent data) {
         if(resultCode == RESULT_OK) {
             float onBed = data.getFloatExtra(StatusSettingsActivity.ON_BED, 0.0f);
@@ -365,10 +485,30 @@ public class MainActivity extends Activity {
             setConnectingState();
         }
 
+        obtainServiceBinding().connect(this, deviceAddress);
+    }
+
+    private DeviceServiceBinding obtainServiceBinding() {
         if(serviceBinding == null) {
-            serviceBinding = new DeviceServiceBinding(new DeviceServiceCallbacks());
+            DeviceServiceCallbacks callbacks = new DeviceServiceCallbacks();
+            streams = new DeviceStreams(callbacks);
+            final Handler handler = new Handler(Looper.getMainLooper());
+            Executor mainThread = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+            // Batches arriving together are drawn by one task, the oldest are dropped if the
+            // main thread falls behind.
+            samplesSubscription = Streams.forEach(Streams.observeOn(streams.samples(), mainThread, SAMPLE_BUFFER),
+                    callbacks.sampleConsumer);
+            // The binding calls back on the main thread already.
+            occupancySubscription = Streams.forEach(streams.occupancy(), callbacks.occupancyConsumer);
+            connectionSubscription = Streams.forEach(streams.connectionState(), callbacks.connectionConsumer);
+            serviceBinding = new DeviceServiceBinding(streams);
         }
-        serviceBinding.connect(this, deviceAddress);
+        return serviceBinding;
     }
 
     private void disconnect(boolean isFinishing) {
@@ -379,32 +519,114 @@ public class MainActivity extends Activity {
     }
 
     private class DeviceServiceCallbacks implements DeviceServiceBinding.DeviceServiceCallbacks {
+        private final Choreographer.FrameCallback sensorValueFrame = new SensorValueFrame();
+        private float latestValue;
+        private boolean sensorValuePending;
+
+        private final Streams.Consumer<SampleBatch> sampleConsumer = new Streams.Consumer<SampleBatch>() {
+            @Override
+            public void accept(SampleBatch batch) {
+                sensorChart.append(batch);
+                showSensorValue(batch.last());
+                if(serviceBinding.isFirstRenderPending()) {
+                    reportFirstRender();
+                }
+            }
+        };
+
+        private final Streams.Consumer<Integer> occupancyConsumer = new Streams.Consumer<Integer>() {
+            @Override
+            public void accept(Integer status) {
+                showOnBedStatus(status);
+            }
+        };
+
+        private final Streams.Consumer<DeviceStreams.ConnectionState> connectionConsumer = new Streams.Consumer<DeviceStreams.ConnectionState>() {
+            @Override
+            public void accept(DeviceStreams.ConnectionState state) {
+                switch (state) {
+                    case CONNECTED:
+                        setConnectedState();
+                        serviceBinding.requestLatencyReport();
+                        break;
+                    case DISCONNECTED:
+                        CommonMessages.deviceDisconnected(MainActivity.this);
+                        setNotConnectedStateWithSavedDevice();
+                        break;
+                    case TIMEOUT:
+                        setNotConnectedStateWithSavedDevice();
+                        CommonMessages.connectionTimeout(MainActivity.this);
+                        break;
+                    case NOT_SUPPORTED:
+                        CommonMessages.deviceIsNotSupported(MainActivity.this);
+                        break;
+                }
+            }
+        };
+
+        @Override
+        public void onReceivedSensorBatch(SampleBatch batch) {
+            // Taken from DeviceStreams#samples.
+        }
+
+        @Override
+        public void onReceivedOnBedStatus(int status) {
+            // Taken from DeviceStreams#occupancy.
+        }
+
+        private void showOnBedStatus(int status) {
+            if(status == DeviceService.STATUS_ON_BED) {
+                onBedStatus.setText("On bed");
+            } else if (status == DeviceService.STATUS_NOT_ON_BED) {
+                onBedStatus.setText("Not on bed");
+            } else if (status == DeviceService.STATUS_NOT_INITIALIZED) {
+                onBedStatus.setText("Please configure on bed / not on bed values to see if human is on bed or not on bed");
+            } else {
+                Log.i(MainActivity.class.getName(), "So strange on bed status: " + status);
+                onBedStatus.setText("Undefined");
+            }
+        }
+
+        @Override
+        public void onReceivedHistory(long[] timestamps, float[] values, byte[] statuses) {
+            if(values != null && values.length > 0) {
+                int last = values.length - 1;
+                sensorChart.append(timestamps, values, values.length);
+                showSensorValue(values[last]);
+                showOnBedStatus(statuses[last]);
+            }
+        }
+
+        @Override
+        public void onReceivedLatencyReport(ConnectionLatencyReport report) {
+            Log.i(MainActivity.class.getName(), "Connection latency\n" + report);
+        }
+
+        @Override
+        public void onReceivedMetrics(MetricsReport report) {
+
+        }
 
         @Override
-        public void onReceivedSensorValue(float value) {
+        public void onReceivedSleepEpoch(final SleepSummary summary) {
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    sensorValue.setText(String.valueOf(value));
+                    sleepSummary.setText(summary.toString());
                 }
             });
         }
 
         @Override
-        public void onReceivedOnBedStatus(int status) {
+        public void onReceivedNightReport(final NightReport report) {
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    if(status == DeviceService.STATUS_ON_BED) {
-                        onBedStatus.setText("On bed");
-                    } else if (status == DeviceService.STATUS_NOT_ON_BED) {
-                        onBedStatus.setText("Not on bed");
-                    } else if (status == DeviceService.STATUS_NOT_INITIALIZED) {
-                        onBedStatus.setText("Please configure on bed / not on bed values to see if human is on bed or not on bed");
-                    } else {
-                        Log.i(MainActivity.class.getName(), "So strange on bed status: " + status);
-                        onBedStatus.setText("Undefined");
-                    }
+                    new AlertDialog.Builder(MainActivity.this)
+                            .setTitle("Last night")
+                            .setMessage(report != null ? report.toString() : "No night was recorded yet")
+                            .setPositiveButton("OK", null)
+                            .show();
                 }
             });
         }
@@ -414,26 +636,58 @@ public class MainActivity extends Activity {
 
         }
 
+        /**
+         * The binding calls back on the main thread. The text is set at most once per frame.
+         */
+        private void showSensorValue(float value) {
+            latestValue = value;
+            if(!sensorValuePending) {
+                sensorValuePending = true;
+                Choreographer.getInstance().postFrameCallback(sensorValueFrame);
+            }
+        }
+
+        private class SensorValueFrame implements Choreographer.FrameCallback {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                sensorValuePending = false;
+                sensorValue.setText(String.valueOf(latestValue));
+            }
+        }
+
+        private void reportFirstRender() {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    // The next frame is the one that draws the value set above.
+                    Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                        @Override
+                        public void doFrame(long frameTimeNanos) {
+                            serviceBinding.reportFirstRender(SystemClock.elapsedRealtime());
+                        }
+                    });
+                }
+            });
+        }
+
         @Override
         public void onDeviceConnected() {
-            setConnectedState();
+            // Taken from DeviceStreams#connectionState.
         }
 
         @Override
         public void onDeviceDisconnected() {
-            CommonMessages.deviceDisconnected(MainActivity.this);
-            setNotConnectedStateWithSavedDevice();
+            // Taken from DeviceStreams#connectionState.
         }
 
         @Override
         public void onConnectionTimeout() {
-            setNotConnectedStateWithSavedDevice();
-            CommonMessages.connectionTimeout(MainActivity.this);
+            // Taken from DeviceStreams#connectionState.
         }
 
         @Override
         public void onDeviceNotSupported() {
-            CommonMessages.deviceIsNotSupported(MainActivity.this);
+            // Taken from DeviceStreams#connectionState.
         }
     }
 }
@@ -0,0 +1,155 @@
+package com.machnev.sleepdevice;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.widget.TextView;
+
+import com.machnev.sleepdevice.core.SampleBatch;
+import com.machnev.sleepdevice.core.SleepSummary;
+import com.machnev.sleepdevice.core.metrics.ConnectionLatencyReport;
+import com.machnev.sleepdevice.core.metrics.MetricsReport;
+import com.machnev.sleepdevice.core.report.NightReport;
+
+/**
+ * Debug screen polling the runtime metrics of a device from {@link DeviceService}.
+ */
+public class MetricsActivity extends Activity {
+
+    public static final String DEVICE_ADDRESS = "com.machnev.sleepdevice.MetricsActivity.DEVICE_ADDRESS";
+
+    private static final long POLL_INTERVAL = 1000;
+    // The screen only subscribes to stay bound, it does not need samples often.
+    private static final int BATCH_INTERVAL = 1000;
+
+    private final Handler handler = new Handler();
+    private final Runnable poll = new PollTask();
+
+    private TextView metricsText;
+
+    private String deviceAddress;
+    private DeviceServiceBinding serviceBinding;
+    private MetricsReport previousReport;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        metricsText = findViewById(R.id.metrics_text);
+
+        serviceBinding = new DeviceServiceBinding(new DeviceServiceCallbacks(), BATCH_INTERVAL);
+        if(savedInstanceState != null) {
+            deviceAddress = savedInstanceState.getString(DEVICE_ADDRESS);
+        } else {
+            Intent startingIntent = getIntent();
+            deviceAddress = startingIntent.getStringExtra(DEVICE_ADDRESS);
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        serviceBinding.connect(this, deviceAddress);
+        handler.post(poll);
+    }
+
+    @Override
+    protected void onStop() {
+        handler.removeCallbacks(poll);
+        serviceBinding.disconnect(false);
+        previousReport = null;
+
+        super.onStop();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        outState.putString(DEVICE_ADDRESS, deviceAddress);
+
+        super.onSaveInstanceState(outState);
+    }
+
+    private void showReport(final MetricsReport report) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                metricsText.setText(deviceAddress + "\n\n" + report.toString(previousReport));
+                previousReport = report;
+            }
+        });
+    }
+
+    private class PollTask implements Runnable {
+        @Override
+        public void run() {
+            serviceBinding.requestMetrics();
+            handler.postDelayed(this, POLL_INTERVAL);
+        }
+    }
+
+    private class DeviceServiceCallbacks implements DeviceServiceBinding.DeviceServiceCallbacks {
+
+        @Override
+        public void onReceivedSensorBatch(SampleBatch batch) {
+
+        }
+
+        @Override
+        public void onReceivedOnBedStatus(int status) {
+
+        }
+
+        @Override
+        public void onReceivedHistory(long[] timestamps, float[] values, byte[] statuses) {
+
+        }
+
+        @Override
+        public void onReceivedLatencyReport(ConnectionLatencyReport report) {
+
+        }
+
+        @Override
+        public void onReceivedMetrics(MetricsReport report) {
+            showReport(report);
+        }
+
+        @Override
+        public void onReceivedSleepEpoch(SleepSummary summary) {
+
+        }
+
+        @Override
+        public void onReceivedNightReport(NightReport report) {
+
+        }
+
+        @Override
+        public void onStatusSet() {
+
+        }
+
+        @Override
+        public void onDeviceConnected() {
+
+        }
+
+        @Override
+        public void onDeviceDisconnected() {
+
+        }
+
+        @Override
+        public void onDeviceNotSupported() {
+            CommonMessages.deviceIsNotSupported(MetricsActivity.this);
+        }
+
+        @Override
+        public void onConnectionTimeout() {
+
+        }
+    }
+}
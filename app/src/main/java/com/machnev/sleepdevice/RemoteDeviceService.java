@@ -0,0 +1,17 @@
+package com.machnev.sleepdevice;
+
+/**
+ * {@link DeviceService} in its own :ble process, so the Bluetooth callbacks and the recording
+ * do not share a heap and garbage collections with the activities. Clients read the samples
+ * from shared memory and only send control messages.
+ *
+ * Used instead of DeviceService when {@link DeviceServiceBinding#setSeparateProcess} is on.
+ */
+public class RemoteDeviceService extends DeviceService {
+
+    @Override
+    protected boolean isSeparateProcess() {
+        // Every client is in another process, they all get the messenger.
+        return true;
+    }
+}
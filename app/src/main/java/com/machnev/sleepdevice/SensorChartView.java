@@ -0,0 +1,276 @@
+package com.machnev.sleepdevice;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import com.machnev.sleepdevice.core.Lttb;
+import com.machnev.sleepdevice.core.SampleBatch;
+import com.machnev.sleepdevice.core.SampleRingBuffer;
+
+/**
+ * Live chart of the sensor values.
+ *
+ * Samples are kept in a {@link SampleRingBuffer} as large as the history of the service. The
+ * visible range is downsampled with {@link Lttb} to one point per pixel column and the points
+ * are kept until the user pans or zooms, the size changes or new samples fill another column.
+ * Until then the newest sample only extends the cached line. Drag to pan, pinch to zoom,
+ * double tap to follow the latest samples again. Must be used on the main thread.
+ */
+public class SensorChartView extends View implements Choreographer.FrameCallback {
+
+    public static final long DEFAULT_SPAN = 5 * 60 * 1000;
+    private static final long MIN_SPAN = 10 * 1000;
+    private static final long MAX_SPAN = 24 * 60 * 60 * 1000;
+
+    private final SampleRingBuffer samples = new SampleRingBuffer(DeviceService.HISTORY_CAPACITY);
+    private final long[] visibleTimestamps = new long[samples.capacity()];
+    private final float[] visibleValues = new float[samples.capacity()];
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    private long[] pointTimestamps = new long[0];
+    private float[] pointValues = new float[0];
+    private float[] lines = new float[0];
+    private int lineCount;
+
+    // Output of the last downsampling, valid until the viewport changes.
+    private int points;
+    private float minValue;
+    private float maxValue;
+    private long downsampledEnd;
+    private boolean pointsValid;
+
+    private long lastTimestamp = Long.MIN_VALUE;
+    private float lastValue;
+    private long span = DEFAULT_SPAN;
+    private long end;
+    private boolean following = true;
+
+    private boolean framePending;
+    private boolean dirty;
+
+    public SensorChartView(Context context) {
+        this(context, null);
+    }
+
+    public SensorChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        linePaint.setColor(Color.BLUE);
+        linePaint.setStrokeWidth(3);
+        linePaint.setStyle(Paint.Style.STROKE);
+        scaleDetector = new ScaleGestureDetector(context, new ZoomListener());
+        gestureDetector = new GestureDetector(context, new PanListener());
+    }
+
+    public void append(SampleBatch batch) {
+        append(batch.timestamps, batch.values, batch.count());
+    }
+
+    /**
+     * Appends the samples newer than the ones already shown, so history sent again after a
+     * reconnect is not duplicated.
+     */
+    public void append(long[] timestamps, float[] values, int count) {
+        boolean visible = false;
+        for(int i = 0; i < count; i++) {
+            long timestamp = timestamps[i];
+            if(timestamp <= lastTimestamp) {
+                continue;
+            }
+            samples.append(timestamp, values[i], (byte) 0);
+            lastTimestamp = timestamp;
+            lastValue = values[i];
+            visible |= timestamp > end - span && timestamp <= end;
+        }
+        if(following) {
+            if(lastTimestamp != Long.MIN_VALUE) {
+                end = lastTimestamp;
+            }
+            requestFrame();
+        } else if(visible) {
+            invalidatePoints();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        framePending = false;
+        if(!dirty) {
+            return;
+        }
+        dirty = false;
+        if(!pointsValid || following && (lastTimestamp - downsampledEnd >= span / columns()
+                || lastValue < minValue || lastValue > maxValue)) {
+            downsample();
+        }
+        layoutLines();
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if(lineCount > 0) {
+            canvas.drawLines(lines, 0, lineCount, linePaint);
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        int columns = Math.max(0, w - getPaddingLeft() - getPaddingRight());
+        if(columns != pointTimestamps.length) {
+            pointTimestamps = new long[columns];
+            pointValues = new float[columns];
+            // One more point for the newest sample after the downsampled ones.
+            lines = new float[columns * 4];
+        }
+        invalidatePoints();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        requestFrame();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if(framePending) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            framePending = false;
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    private void invalidatePoints() {
+        pointsValid = false;
+        requestFrame();
+    }
+
+    private void requestFrame() {
+        dirty = true;
+        if(!framePending) {
+            framePending = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    private void downsample() {
+        pointsValid = true;
+        points = 0;
+        int columns = pointTimestamps.length;
+        if(columns < 2 || lastTimestamp == Long.MIN_VALUE) {
+            return;
+        }
+
+        int count = samples.readRange(end - span, end + 1, visibleTimestamps, visibleValues, null);
+        points = Lttb.downsample(visibleTimestamps, visibleValues, count, columns, pointTimestamps, pointValues);
+        downsampledEnd = end;
+        minValue = Float.POSITIVE_INFINITY;
+        maxValue = Float.NEGATIVE_INFINITY;
+        for(int i = 0; i < points; i++) {
+            minValue = Math.min(minValue, pointValues[i]);
+            maxValue = Math.max(maxValue, pointValues[i]);
+        }
+    }
+
+    private void layoutLines() {
+        lineCount = 0;
+        boolean tail = following && lastTimestamp > downsampledEnd;
+        if(points + (tail ? 1 : 0) < 2) {
+            return;
+        }
+
+        long from = end - span;
+        float range = maxValue > minValue ? maxValue - minValue : 1;
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float width = pointTimestamps.length;
+        float height = Math.max(1, getHeight() - getPaddingTop() - getPaddingBottom());
+        float previousX = 0;
+        float previousY = 0;
+        for(int i = 0; i < points; i++) {
+            float x = left + (pointTimestamps[i] - from) * width / span;
+            float y = top + (maxValue - pointValues[i]) * height / range;
+            if(i > 0) {
+                lines[lineCount++] = previousX;
+                lines[lineCount++] = previousY;
+                lines[lineCount++] = x;
+                lines[lineCount++] = y;
+            }
+            previousX = x;
+            previousY = y;
+        }
+        if(tail) {
+            lines[lineCount++] = previousX;
+            lines[lineCount++] = previousY;
+            lines[lineCount++] = left + width;
+            lines[lineCount++] = top + (maxValue - lastValue) * height / range;
+        }
+    }
+
+    private float columns() {
+        return Math.max(1, pointTimestamps.length);
+    }
+
+    private class PanListener extends GestureDetector.SimpleOnGestureListener {
+        @Override
+        public boolean onDown(MotionEvent e) {
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+            end += (long) (distanceX * span / columns());
+            following = end >= lastTimestamp;
+            if(following) {
+                end = lastTimestamp;
+            }
+            invalidatePoints();
+            return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(MotionEvent e) {
+            following = true;
+            end = lastTimestamp;
+            invalidatePoints();
+            return true;
+        }
+    }
+
+    private class ZoomListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            long newSpan = (long) (span / detector.getScaleFactor());
+            newSpan = Math.max(MIN_SPAN, Math.min(MAX_SPAN, newSpan));
+            if(!following) {
+                // Keep the time under the fingers in place.
+                float focus = (detector.getFocusX() - getPaddingLeft()) / columns();
+                long focusTime = end - span + (long) (focus * span);
+                end = focusTime + (long) ((1 - focus) * newSpan);
+            }
+            span = newSpan;
+            invalidatePoints();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.machnev.sleepdevice;
+
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import com.machnev.sleepdevice.core.WakeLockBudget;
+import com.machnev.sleepdevice.core.metrics.PowerMetrics;
+
+/**
+ * Low power overnight mode of {@link DeviceService}, shared by all its sessions.
+ *
+ * While it is on and none of its clients is visible, a session buffers the samples and
+ * processes and records them every {@link DeviceService#SLEEP_MODE_INTERVAL}, holding the
+ * partial wake lock for the batch. The time the lock is held is capped by a
+ * {@link WakeLockBudget}.
+ */
+class SleepMode {
+
+    private final PowerManager.WakeLock wakeLock;
+    private final WakeLockBudget budget;
+    private final PowerMetrics metrics = new PowerMetrics(SystemClock.elapsedRealtime());
+
+    private volatile boolean enabled;
+
+    private long acquiredAt;
+    private long granted;
+
+    /**
+     * @param wakeLock not reference counted, may be null
+     */
+    SleepMode(PowerManager.WakeLock wakeLock, WakeLockBudget budget) {
+        this.wakeLock = wakeLock;
+        this.budget = budget;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        metrics.setMode(enabled ? PowerMetrics.MODE_SLEEP : PowerMetrics.MODE_NORMAL, SystemClock.elapsedRealtime());
+    }
+
+    PowerMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Acquires the wake lock for a batch, unless the budget of this hour is used up.
+     *
+     * @return whether {@link #releaseWakeLock()} has to be called
+     */
+    synchronized boolean acquireWakeLock() {
+        if(wakeLock == null || granted > 0) {
+            return false;
+        }
+        long now = SystemClock.elapsedRealtime();
+        granted = budget.grant(now);
+        if(granted <= 0) {
+            return false;
+        }
+        // The timeout releases the lock even if the batch never finishes.
+        wakeLock.acquire(granted);
+        acquiredAt = now;
+        return true;
+    }
+
+    synchronized void releaseWakeLock() {
+        if(granted <= 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long held = Math.min(now - acquiredAt, granted);
+        if(wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        budget.charge(now, held);
+        metrics.onWakeLockReleased(held);
+        granted = 0;
+    }
+}
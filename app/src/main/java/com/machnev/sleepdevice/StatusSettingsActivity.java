@@ -9,15 +9,27 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.machnev.sleepdevice.core.CalibrationCapture;
+import com.machnev.sleepdevice.core.SampleBatch;
+import com.machnev.sleepdevice.core.SleepSummary;
+import com.machnev.sleepdevice.core.metrics.ConnectionLatencyReport;
+import com.machnev.sleepdevice.core.metrics.MetricsReport;
+import com.machnev.sleepdevice.core.report.NightReport;
+
 public class StatusSettingsActivity extends Activity {
 
     public static final String DEVICE_ADDRESS = "com.machnev.sleepdevice.StatusSettingsActivity.DEVICE_ADDRESS";
 
     public static final String ON_BED = "com.machnev.sleepdevice.StatusSettingsActivity.ON_BED";
     public static final String NOT_ON_BED = "com.machnev.sleepdevice.StatusSettingsActivity.NOT_ON_BED";
+    /**
+     * Number of sensor values captured for each calibration step.
+     */
+    public static final String CAPTURE_WINDOW = "com.machnev.sleepdevice.StatusSettingsActivity.CAPTURE_WINDOW";
 
     private TextView currentValueText;
     private TextView messageText;
+    private TextView captureStatusText;
     private Button okButton;
 
     private String deviceAddress;
@@ -27,6 +39,10 @@ public class StatusSettingsActivity extends Activity {
     private Float notOnBedValue;
     private Float onBedValue;
 
+    private CalibrationCapture notOnBedCapture;
+    private CalibrationCapture onBedCapture;
+    private CalibrationCapture capture;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -41,6 +57,10 @@ public class StatusSettingsActivity extends Activity {
             Intent startingIntent = getIntent();
             deviceAddress = startingIntent.getStringExtra(DEVICE_ADDRESS);
         }
+
+        int window = getIntent().getIntExtra(CAPTURE_WINDOW, CalibrationCapture.DEFAULT_WINDOW);
+        notOnBedCapture = new CalibrationCapture(window, CalibrationCapture.DEFAULT_MAX_SPREAD, CalibrationCapture.DEFAULT_MAX_OUTLIERS);
+        onBedCapture = new CalibrationCapture(window, CalibrationCapture.DEFAULT_MAX_SPREAD, CalibrationCapture.DEFAULT_MAX_OUTLIERS);
     }
 
     @Override
@@ -68,6 +88,7 @@ public class StatusSettingsActivity extends Activity {
     {
         configureCurrentValueText();
         configureMessageText();
+        configureCaptureStatusText();
         configureOkButton();
     }
 
@@ -80,6 +101,10 @@ public class StatusSettingsActivity extends Activity {
         messageText = findViewById(R.id.message_text);
     }
 
+    private void configureCaptureStatusText() {
+        captureStatusText = findViewById(R.id.capture_status);
+    }
+
     private void configureOkButton()
     {
         okButton = findViewById(R.id.ok_button);
@@ -88,27 +113,77 @@ public class StatusSettingsActivity extends Activity {
             @Override
             public void onClick(View v) {
                 if(notOnBedValue == null) {
-                    notOnBedValue = currentValue;
-                    messageText.setText("Lie on bed and click OK");
+                    startCapture(notOnBedCapture);
                 } else if (onBedValue == null) {
-                    onBedValue = currentValue;
-
-                    serviceBinding.setStatusSettings(onBedValue, notOnBedValue);
-
-                    Intent intent = new Intent();
-                    intent.putExtra(ON_BED, onBedValue);
-                    intent.putExtra(NOT_ON_BED, notOnBedValue);
-                    setResult(RESULT_OK, intent);
-                    finish();
+                    startCapture(onBedCapture);
                 }
             }
         });
     }
 
+    private void startCapture(CalibrationCapture capture) {
+        capture.reset();
+        this.capture = capture;
+        okButton.setEnabled(false);
+        messageText.setText("Hold still");
+        showCaptureStatus();
+    }
+
+    private void addCaptureValues(float[] values, int count) {
+        if(capture == null) {
+            return;
+        }
+        boolean complete = false;
+        for(int i = 0; i < count && !complete; i++) {
+            complete = capture.add(values[i]);
+        }
+        showCaptureStatus();
+        if(complete) {
+            onCaptureComplete();
+        }
+    }
+
+    private void showCaptureStatus() {
+        captureStatusText.setText(String.format("%d/%d: %.1f ± %.1f, deviation %.1f, outliers %d, %s",
+                capture.count(), capture.window(), capture.median(), capture.spread(),
+                capture.standardDeviation(), capture.outliers(), capture.isStable() ? "stable" : "unstable"));
+    }
+
+    private void onCaptureComplete() {
+        CalibrationCapture completed = capture;
+        capture = null;
+        okButton.setEnabled(true);
+
+        if(!completed.isStable()) {
+            messageText.setText("The value was not stable, hold still and click OK again");
+        } else if(notOnBedValue == null) {
+            notOnBedValue = completed.median();
+            messageText.setText("Lie on bed and click OK");
+        } else if(!completed.isSeparatedFrom(notOnBedCapture)) {
+            messageText.setText("The value is too close to the one without you, lie on bed and click OK again");
+        } else {
+            onBedValue = completed.median();
+
+            serviceBinding.setStatusSettings(onBedValue, notOnBedValue);
+
+            Intent intent = new Intent();
+            intent.putExtra(ON_BED, onBedValue);
+            intent.putExtra(NOT_ON_BED, notOnBedValue);
+            setResult(RESULT_OK, intent);
+            finish();
+        }
+    }
+
     private class DeviceServiceCallbacks implements DeviceServiceBinding.DeviceServiceCallbacks {
 
         @Override
-        public void onReceivedSensorValue(float value) {
+        public void onReceivedSensorBatch(SampleBatch batch) {
+            showSensorValue(batch.last());
+            // Called on the main thread, the batch is reused afterwards.
+            addCaptureValues(batch.values, batch.count());
+        }
+
+        private void showSensorValue(final float value) {
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
@@ -123,6 +198,33 @@ public class StatusSettingsActivity extends Activity {
 
         }
 
+        @Override
+        public void onReceivedHistory(long[] timestamps, float[] values, byte[] statuses) {
+            if(values != null && values.length > 0) {
+                showSensorValue(values[values.length - 1]);
+            }
+        }
+
+        @Override
+        public void onReceivedLatencyReport(ConnectionLatencyReport report) {
+
+        }
+
+        @Override
+        public void onReceivedMetrics(MetricsReport report) {
+
+        }
+
+        @Override
+        public void onReceivedSleepEpoch(SleepSummary summary) {
+
+        }
+
+        @Override
+        public void onReceivedNightReport(NightReport report) {
+
+        }
+
         @Override
         public void onStatusSet() {
             Toast.makeText(StatusSettingsActivity.this, "Status values set", Toast.LENGTH_SHORT);
@@ -0,0 +1,83 @@
+package com.machnev.sleepdevice.core;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * Reads the advertising data of a scan record: a sequence of length, type, data structures.
+ */
+public class AdvertisementParser {
+
+    private static final int TYPE_INCOMPLETE_128_BIT_UUIDS = 0x06;
+    private static final int TYPE_COMPLETE_128_BIT_UUIDS = 0x07;
+    private static final int TYPE_SHORT_LOCAL_NAME = 0x08;
+    private static final int TYPE_COMPLETE_LOCAL_NAME = 0x09;
+
+    private static final int UUID_128_SIZE = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * @return whether the record advertises the 128 bit service UUID
+     */
+    public static boolean hasServiceUuid(byte[] record, UUID uuid) {
+        if(record == null) {
+            return false;
+        }
+
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        int offset = 0;
+        while (offset < record.length) {
+            int length = record[offset] & 0xff;
+            if(length == 0 || offset + 1 + length > record.length) {
+                break;
+            }
+            int type = record[offset + 1] & 0xff;
+            if(type == TYPE_INCOMPLETE_128_BIT_UUIDS || type == TYPE_COMPLETE_128_BIT_UUIDS) {
+                for(int i = offset + 2; i + UUID_128_SIZE <= offset + 1 + length; i += UUID_128_SIZE) {
+                    // UUIDs are advertised least significant byte first.
+                    if(readLong(record, i + 8) == most && readLong(record, i) == least) {
+                        return true;
+                    }
+                }
+            }
+            offset += 1 + length;
+        }
+        return false;
+    }
+
+    /**
+     * @return the advertised local name, null if there is none
+     */
+    public static String localName(byte[] record) {
+        if(record == null) {
+            return null;
+        }
+
+        String shortName = null;
+        int offset = 0;
+        while (offset < record.length) {
+            int length = record[offset] & 0xff;
+            if(length == 0 || offset + 1 + length > record.length) {
+                break;
+            }
+            int type = record[offset + 1] & 0xff;
+            if(type == TYPE_COMPLETE_LOCAL_NAME) {
+                return new String(record, offset + 2, length - 1, UTF_8);
+            }
+            if(type == TYPE_SHORT_LOCAL_NAME) {
+                shortName = new String(record, offset + 2, length - 1, UTF_8);
+            }
+            offset += 1 + length;
+        }
+        return shortName;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for(int i = 7; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
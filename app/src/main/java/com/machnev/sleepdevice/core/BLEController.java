@@ -1,42 +1,46 @@
 package com.machnev.sleepdevice.core;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.sql.Time;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
+import com.machnev.sleepdevice.core.metrics.ConnectionTimeline;
+import com.machnev.sleepdevice.core.metrics.PipelineMetrics;
+import com.machnev.sleepdevice.core.transport.BleTransport;
 
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.machnev.sleepdevice.core.transport.SleepDeviceProfile.CHARACTERISTIC_NOT_ON_BED_VALUE;
+import static com.machnev.sleepdevice.core.transport.SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE;
+import static com.machnev.sleepdevice.core.transport.SleepDeviceProfile.CHARACTERISTIC_SENSOR_VALUE;
+import static com.machnev.sleepdevice.core.transport.SleepDeviceProfile.CLIENT_CHARACTERISTIC_CONFIG;
+import static com.machnev.sleepdevice.core.transport.SleepDeviceProfile.SERVICE_UUID;
+
+/**
+ * Talks to a sleep device over a {@link BleTransport}: reads and writes the status settings,
+ * enables sensor notifications and keeps the connection up.
+ *
+ * Notifications are enabled as soon as the services are discovered and the last known status
+ * settings of the device are used right away. The settings are then read from the device in
+ * the background and reported again only if they differ.
+ */
 public class BLEController
 {
-    private static final UUID SERVICE_UUID = UUID.fromString("a22b1352-4007-11e8-b467-0ed5f89f718b");
-    private static final UUID CHARACTERISTIC_SENSOR_VALUE = UUID.fromString("a22b15dc-4007-11e8-b467-0ed5f89f718b");
-    private static final UUID CHARACTERISTIC_ON_BED_VALUE = UUID.fromString("a22b1730-4007-11e8-b467-0ed5f89f718b");
-    private static final UUID CHARACTERISTIC_NOT_ON_BED_VALUE = UUID.fromString("a22b1852-4007-11e8-b467-0ed5f89f718b");
-
-    private static final int CONNECTION_TIMEOUT = 10000;
+    private static final String TAG = BLEController.class.getName();
+    // Per-sample logging is off the hot path unless explicitly enabled for debugging.
+    private static final boolean LOG_SAMPLES = false;
 
-    private TimerTask couldNotConnectTimeoutTask;
-
-    private final BluetoothAdapter bluetoothAdapter;
-    private final String deviceAddr;
-    private final Context context;
-    private final GattCallback callback = new GattCallback();
+    private final BleTransport transport;
+    private final TransportCallback callback = new TransportCallback();
     private final IDeviceListener listener;
+    private final GattOperationQueue operations;
+    private final ReconnectManager reconnect;
+    private final ConnectionTimeline timeline;
+    private final PipelineMetrics metrics;
+    private final StatusSettingsCache settingsCache;
 
-    private BluetoothGatt gatt;
+    private boolean transportOpen;
+    private volatile boolean awaitingFirstSample;
 
     private boolean isOnBedInitialized;
     private float onBedValue;
@@ -44,50 +48,85 @@ public class BLEController
     private boolean isNotInBedInitialized;
     private float notOnBedValue;
 
-    public BLEController(BluetoothAdapter bluetoothAdapter, String deviceAddr, Context context, IDeviceListener listener) {
-        this.bluetoothAdapter = bluetoothAdapter;
-        this.deviceAddr = deviceAddr;
-        this.context = context;
+    /**
+     * @param timeline receives the connection phases, timestamps are {@link SystemClock#elapsedRealtime()}
+     */
+    public BLEController(BleTransport transport, ScheduledExecutorService scheduler, ConnectionTimeline timeline,
+                         IDeviceListener listener) {
+        this(transport, scheduler, timeline, new PipelineMetrics(), listener);
+    }
+
+    /**
+     * @param metrics counts the notifications and connections of this controller
+     */
+    public BLEController(BleTransport transport, ScheduledExecutorService scheduler, ConnectionTimeline timeline,
+                         PipelineMetrics metrics, IDeviceListener listener) {
+        this(transport, scheduler, timeline, metrics, new NoStatusSettingsCache(), listener);
+    }
+
+    /**
+     * @param settingsCache keeps the last status settings read from or written to the device
+     */
+    public BLEController(BleTransport transport, ScheduledExecutorService scheduler, ConnectionTimeline timeline,
+                         PipelineMetrics metrics, StatusSettingsCache settingsCache, IDeviceListener listener) {
+        this.transport = transport;
+        this.timeline = timeline;
+        this.metrics = metrics;
+        this.settingsCache = settingsCache;
         this.listener = listener;
+        this.operations = new GattOperationQueue(scheduler);
+        this.reconnect = new ReconnectManager(scheduler, new TransportConnector());
     }
 
     public void setStatusValues(float onBedValue, float notOnBedValue) {
         callback.writeStatusSettings(onBedValue, notOnBedValue);
     }
 
+    /**
+     * Connects to the device and keeps reconnecting whenever the link is lost, until {@link #disconnect()}.
+     */
     public void connect()
     {
-        if(gatt == null) {
-            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddr);
-            gatt = device.connectGatt(context, false, callback);
-        } else {
-            gatt.connect();
+        if(!transportOpen) {
+            transport.open(callback);
+            transportOpen = true;
         }
-
-        couldNotConnectTimeoutTask = new TimerTask() {
-            @Override
-            public void run() {
-                log("COuld not connect?!");
-                couldNotConnect();
+        if(!isOnBedInitialized()) {
+            float[] cached = settingsCache.load();
+            if(cached != null) {
+                setStatusSettings(cached[0], cached[1]);
+                log("Cached status settings: " + onBedValue + ", " + notOnBedValue);
             }
-        };
-        new Timer().schedule(couldNotConnectTimeoutTask, CONNECTION_TIMEOUT);
-        log("Connecting to " + gatt.getDevice().getName());
+        }
+        reconnect.onAdapterStateChanged(transport.isAvailable());
+        reconnect.start();
+        log("Connecting to " + transport.describe());
     }
 
     public void disconnect()
     {
-        gatt.disconnect();
-        gatt.close();
-        log("Disconnecting " + gatt.getDevice().getName());
+        reconnect.stop();
+        if(transportOpen) {
+            transport.release();
+            transportOpen = false;
+        }
+
+        operations.clear();
+
+        log("Disconnecting " + transport.describe());
+        transport.disconnect();
+        transport.close();
     }
 
     public boolean isOnBedInitialized() {
         return isOnBedInitialized && isNotInBedInitialized;
     }
 
-    public boolean isOnBed(float value) {
-        return Math.abs(onBedValue - value) < Math.abs(notOnBedValue - value);
+    private void setStatusSettings(float onBedValue, float notOnBedValue) {
+        this.onBedValue = onBedValue;
+        this.notOnBedValue = notOnBedValue;
+        isOnBedInitialized = true;
+        isNotInBedInitialized = true;
     }
 
     protected void notifyValueListeners(float value) {
@@ -120,8 +159,8 @@ public class BLEController
     }
 
     protected void couldNotConnect() {
+        // Reported once per outage, the reconnect manager keeps trying.
         notifyCouldNotConnect();
-        disconnect();
     }
 
 
@@ -140,202 +179,313 @@ public class BLEController
         public void couldNotConnect();
     }
 
-    private void log(String message) {
-        Log.i(BLEController.class.getName(), message);
-    }
+    /**
+     * Status settings of one device kept between connections.
+     */
+    public static interface StatusSettingsCache {
 
-    private class GattCallback extends BluetoothGattCallback {
+        /**
+         * @return the on bed and the not on bed value, null if nothing is cached
+         */
+        public float[] load();
 
-        private BluetoothGattService service;
-        private BluetoothGattCharacteristic currentValueCharacteristic;
+        public void save(float onBedValue, float notOnBedValue);
+    }
 
-        private boolean readingStatusSettingsCharacteristics;
+    private void log(String message) {
+        Log.i(TAG, message);
+    }
 
-        private boolean writingStatusSettingsCharacteristics;
-        private float onBedValueToWrite;
-        private float notOnBedValueToWrite;
+    private void markPhase(int phase) {
+        timeline.mark(phase, SystemClock.elapsedRealtime());
+    }
 
+    private class TransportCallback implements BleTransport.Callback {
 
-        private BluetoothGattCharacteristic onBedValueCharacteristic;
-        private BluetoothGattCharacteristic notOnBedValueCharacteristic;
+        private volatile boolean servicesReady;
+        private volatile boolean notificationsEnabled;
+        // Status settings are read one after another on the operation queue.
+        private byte[] onBedRead;
+        private boolean settingsRestored;
 
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if(newState == BluetoothGatt.STATE_CONNECTED) {
-                couldNotConnectTimeoutTask.cancel();
-                notifyDeviceConnected();
-                log("Connected to " + gatt.getDevice().getName() + " status");
-                log("Discover services: " + gatt.discoverServices());
-            } else if (newState == BluetoothGatt.STATE_CONNECTING) {
-                log("Connecting to " + gatt.getDevice().getName() + " status");
-            } else if(newState == BluetoothGatt.STATE_DISCONNECTING) {
-                log("Disconnecting: " + gatt.getDevice().getName()+ " status");
-            }
-            else if(newState == BluetoothGatt.STATE_DISCONNECTED) {
+        public void onConnected() {
+            reconnect.onConnected();
+            metrics.onConnected();
+            markPhase(ConnectionTimeline.PHASE_CONNECTED);
+            notifyDeviceConnected();
+            log("Connected to " + transport.describe());
+            log("Discover services: " + transport.discoverServices());
+        }
+
+        @Override
+        public void onDisconnected() {
+            notificationsEnabled = false;
+            servicesReady = false;
+            operations.clear();
+            boolean wasConnected = reconnect.isConnected();
+            reconnect.onDisconnected();
+            if(wasConnected) {
                 notifyDeviceDisconnected();
-                log("Disconnected: " + gatt.getDevice().getName() + " status");
             }
-            log("Connection status changed. New status: " + newState);
+            log("Disconnected: " + transport.describe());
         }
 
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+        public void onAvailabilityChanged(boolean available) {
+            reconnect.onAdapterStateChanged(available);
+        }
 
-            if(status == BluetoothGatt.GATT_SUCCESS) {
-                service = gatt.getService(SERVICE_UUID);
-                if(service == null) {
+        @Override
+        public void onServicesDiscovered(boolean success) {
+            if(success) {
+                if(!transport.hasCharacteristics(SERVICE_UUID, CHARACTERISTIC_SENSOR_VALUE,
+                        CHARACTERISTIC_ON_BED_VALUE, CHARACTERISTIC_NOT_ON_BED_VALUE)) {
                     deviceNotSupported();
+                    return;
                 }
 
-                currentValueCharacteristic = service.getCharacteristic(CHARACTERISTIC_SENSOR_VALUE);
-                if(currentValueCharacteristic == null) {
-                    deviceNotSupported();
-                }
-                onBedValueCharacteristic = service.getCharacteristic(CHARACTERISTIC_ON_BED_VALUE);
-                if(onBedValueCharacteristic == null) {
-                    deviceNotSupported();
+                servicesReady = true;
+                settingsRestored = false;
+                markPhase(ConnectionTimeline.PHASE_SERVICES_DISCOVERED);
+                enableNotifications();
+                if(isOnBedInitialized()) {
+                    notifyNewStatusSettings();
                 }
-                notOnBedValueCharacteristic = service.getCharacteristic(CHARACTERISTIC_NOT_ON_BED_VALUE);
-                if(notOnBedValueCharacteristic == null) {
-                    deviceNotSupported();
-                }
-
-                readStatusSettings();
+                readStatusSettings(false);
 
             } else {
                 log("Error discovering services");
             }
-            super.onServicesDiscovered(gatt, status);
         }
 
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-
-            if(CHARACTERISTIC_SENSOR_VALUE.equals(characteristic.getUuid())) {
-                float value = getFloat(characteristic);
-                log("Characteristic " + characteristic.getUuid() + " changed. New value: " + value);
+        public void onCharacteristicChanged(UUID characteristic, byte[] bytes) {
+
+            if(CHARACTERISTIC_SENSOR_VALUE.equals(characteristic)) {
+                long decodeStart = System.nanoTime();
+                boolean isFloat = SampleDecoder.isFloat(bytes);
+                float value = isFloat ? SampleDecoder.decodeFloat(bytes) : 0;
+                metrics.onNotification(bytes != null ? bytes.length : 0, System.nanoTime() - decodeStart);
+
+                if(isFloat) {
+                    if(awaitingFirstSample) {
+                        awaitingFirstSample = false;
+                        markPhase(ConnectionTimeline.PHASE_FIRST_SAMPLE);
+                    }
+                    if(LOG_SAMPLES) {
+                        log("Characteristic " + characteristic + " changed. New value: " + value);
+                    }
 
-                notifyValueListeners(value);
+                    notifyValueListeners(value);
+                }
             }
+        }
 
-            super.onCharacteristicChanged(gatt, characteristic);
+        @Override
+        public void onCharacteristicRead(UUID characteristic, boolean success, byte[] value) {
+            operations.onCompleted(GattOperationQueue.READ_CHARACTERISTIC, characteristic, success, value);
         }
 
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            if(CHARACTERISTIC_ON_BED_VALUE.equals(characteristic.getUuid())) {
-                if(!isZeros(characteristic.getValue())) {
-                    isOnBedInitialized = true;
-                    float value = getFloat(characteristic);
-                    log("OnBed characteristic value: " + value);
-                    onBedValue = value;
-                }
+        public void onCharacteristicWrite(UUID characteristic, boolean success) {
+            operations.onCompleted(GattOperationQueue.WRITE_CHARACTERISTIC, characteristic, success, null);
+        }
 
-                if(readingStatusSettingsCharacteristics) {
-                    readNotOnBed();
+        @Override
+        public void onDescriptorWrite(UUID descriptor, boolean success) {
+            operations.onCompleted(GattOperationQueue.WRITE_DESCRIPTOR, descriptor, success, null);
+        }
+
+        /**
+         * @param written whether the settings were just written, they are reported even if unchanged
+         */
+        public void readStatusSettings(final boolean written) {
+            operations.enqueue(new ReadCharacteristic(CHARACTERISTIC_ON_BED_VALUE, new GattOperationQueue.OperationCallback() {
+                @Override
+                public void onOperationComplete(boolean success, byte[] value) {
+                    if(success) {
+                        markPhase(ConnectionTimeline.PHASE_ON_BED_READ);
+                    }
+                    onBedRead = success ? value : null;
                 }
-            }
-            if(CHARACTERISTIC_NOT_ON_BED_VALUE.equals(characteristic.getUuid())) {
-                if(!isZeros(characteristic.getValue())) {
-                    isNotInBedInitialized = true;
-                    float value = getFloat(characteristic);
-                    log("NotOnBed characteristic value: " + value);
-                    notOnBedValue = value;
-
-                    if(readingStatusSettingsCharacteristics) {
-                        readingStatusSettingsCharacteristics = false;
-                        notifyNewStatusSettings();
-
-                        log("Set characteristic notification: " + gatt.setCharacteristicNotification(currentValueCharacteristic, true));
-                        BluetoothGattDescriptor descriptor = currentValueCharacteristic.getDescriptor(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"));
-                        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                        gatt.writeDescriptor(descriptor);
+            }));
+            operations.enqueue(new ReadCharacteristic(CHARACTERISTIC_NOT_ON_BED_VALUE, new GattOperationQueue.OperationCallback() {
+                @Override
+                public void onOperationComplete(boolean success, byte[] value) {
+                    if(success) {
+                        markPhase(ConnectionTimeline.PHASE_NOT_ON_BED_READ);
+                    }
+                    if(success && onBedRead != null) {
+                        verifyStatusSettings(onBedRead, value, written);
+                    } else {
+                        log("Could not read status settings");
                     }
+                    onBedRead = null;
                 }
+            }));
+        }
+
+        private void verifyStatusSettings(byte[] onBed, byte[] notOnBed, boolean written) {
+            if(isZeros(onBed) || isZeros(notOnBed)) {
+                // A device that lost its settings gets the cached ones back, once per connection.
+                if(isOnBedInitialized() && !settingsRestored) {
+                    settingsRestored = true;
+                    log("Device has no status settings, restoring " + onBedValue + ", " + notOnBedValue);
+                    writeStatusSettings(onBedValue, notOnBedValue);
+                }
+                return;
             }
 
-            super.onCharacteristicRead(gatt, characteristic, status);
+            float onBedDevice = SampleDecoder.decodeFloat(onBed);
+            float notOnBedDevice = SampleDecoder.decodeFloat(notOnBed);
+            log("Status settings on device: " + onBedDevice + ", " + notOnBedDevice);
+            boolean changed = !isOnBedInitialized() || onBedDevice != onBedValue || notOnBedDevice != notOnBedValue;
+            if(changed) {
+                setStatusSettings(onBedDevice, notOnBedDevice);
+                settingsCache.save(onBedDevice, notOnBedDevice);
+            }
+            if(changed || written) {
+                notifyNewStatusSettings();
+            }
         }
 
-        @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            if(CHARACTERISTIC_ON_BED_VALUE.equals(characteristic.getUuid())) {
-                if(writingStatusSettingsCharacteristics) {
-                    writeNotOnBed();
-                }
+        public void writeStatusSettings(float onBedValue, float notOnBedValue) {
+            if(!servicesReady) {
+                log("Status settings written before services were discovered");
+                return;
             }
-            if(CHARACTERISTIC_NOT_ON_BED_VALUE.equals(characteristic.getUuid())) {
-                if(writingStatusSettingsCharacteristics) {
-                    writingStatusSettingsCharacteristics = false;
-                    readStatusSettings();
-                }
+
+            operations.enqueue(new WriteCharacteristic(CHARACTERISTIC_ON_BED_VALUE, toBytes(onBedValue), new LogFailureCallback("Write on bed value")));
+            operations.enqueue(new WriteCharacteristic(CHARACTERISTIC_NOT_ON_BED_VALUE, toBytes(notOnBedValue), new LogFailureCallback("Write not on bed value")));
+            readStatusSettings(true);
+        }
+
+        private void enableNotifications() {
+            if(notificationsEnabled) {
+                return;
             }
+            notificationsEnabled = true;
+
+            operations.enqueue(new EnableNotifications(CHARACTERISTIC_SENSOR_VALUE, new GattOperationQueue.OperationCallback() {
+                @Override
+                public void onOperationComplete(boolean success, byte[] value) {
+                    if(success) {
+                        markPhase(ConnectionTimeline.PHASE_NOTIFICATIONS_ENABLED);
+                    } else {
+                        log("Could not enable notifications");
+                        notificationsEnabled = false;
+                    }
+                }
+            }));
+        }
 
-            super.onCharacteristicWrite(gatt, characteristic, status);
+        private byte[] toBytes(float f) {
+            return SampleDecoder.encodeFloat(f);
         }
 
+        private boolean isZeros(byte[] bytes) {
+            return SampleDecoder.isZeros(bytes);
+        }
+    }
+
+    private class TransportConnector implements ReconnectManager.Connector {
         @Override
-        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            String value = new String(descriptor.getValue());
-            log("Descriptor " + descriptor.getUuid() + " value: " + value);
+        public boolean connect(boolean reuseHandle) {
+            long now = SystemClock.elapsedRealtime();
+            // Every reconnect after a completed connection gets its own timeline.
+            if(timeline.isMarked(ConnectionTimeline.PHASE_FIRST_SAMPLE)) {
+                timeline.start(now);
+            }
+            timeline.mark(ConnectionTimeline.PHASE_GATT_CONNECT, now);
+            awaitingFirstSample = true;
+            metrics.onConnectAttempt();
 
-            super.onDescriptorRead(gatt, descriptor, status);
+            log((reuseHandle ? "Reconnecting to " : "Opening new connection to ") + transport.describe());
+            return transport.connect(reuseHandle);
         }
 
-        public void readStatusSettings() {
-            readingStatusSettingsCharacteristics = true;
-            startReadStatusSettings();
+        @Override
+        public void cancel() {
+            transport.disconnect();
         }
 
-        public void writeStatusSettings(float onBedValue, float notOnBedValue) {
-            this.onBedValueToWrite = onBedValue;
-            this.notOnBedValueToWrite = notOnBedValue;
-            writingStatusSettingsCharacteristics = true;
-            startWriteStatusSettings();
+        @Override
+        public void close() {
+            transport.close();
         }
 
-        private void startReadStatusSettings() {
-            readOnBed();
+        @Override
+        public void onAttemptFailed(int failedAttempts) {
+            log("Could not connect, attempt " + failedAttempts);
+            if(failedAttempts == 1) {
+                couldNotConnect();
+            }
         }
+    }
 
-        private void readOnBed() {
-            gatt.readCharacteristic(onBedValueCharacteristic);
+    private class ReadCharacteristic extends GattOperationQueue.Operation {
+        private ReadCharacteristic(UUID characteristic, GattOperationQueue.OperationCallback callback) {
+            super(GattOperationQueue.READ_CHARACTERISTIC, characteristic, callback);
         }
 
-        private void readNotOnBed() {
-            gatt.readCharacteristic(notOnBedValueCharacteristic);
+        @Override
+        protected boolean execute() {
+            return transport.readCharacteristic(SERVICE_UUID, getUuid());
         }
+    }
+
+    private class WriteCharacteristic extends GattOperationQueue.Operation {
+        private final byte[] value;
 
-        private void startWriteStatusSettings() {
-            writeOnBed();
+        private WriteCharacteristic(UUID characteristic, byte[] value, GattOperationQueue.OperationCallback callback) {
+            super(GattOperationQueue.WRITE_CHARACTERISTIC, characteristic, callback);
+            this.value = value;
         }
 
-        private void writeOnBed() {
-            onBedValueCharacteristic.setValue(toBytes(onBedValueToWrite));
-            gatt.writeCharacteristic(onBedValueCharacteristic);
+        @Override
+        protected boolean execute() {
+            return transport.writeCharacteristic(SERVICE_UUID, getUuid(), value);
         }
+    }
+
+    private class EnableNotifications extends GattOperationQueue.Operation {
+        private final UUID characteristic;
 
-        private void writeNotOnBed() {
-            notOnBedValueCharacteristic.setValue(toBytes(notOnBedValueToWrite));
-            gatt.writeCharacteristic(notOnBedValueCharacteristic);
+        private EnableNotifications(UUID characteristic, GattOperationQueue.OperationCallback callback) {
+            super(GattOperationQueue.WRITE_DESCRIPTOR, CLIENT_CHARACTERISTIC_CONFIG, callback);
+            this.characteristic = characteristic;
         }
 
+        @Override
+        protected boolean execute() {
+            return transport.enableNotifications(SERVICE_UUID, characteristic);
+        }
+    }
 
-        private float getFloat(BluetoothGattCharacteristic characteristic) {
-            byte[] byteValue = characteristic.getValue();
-            return ByteBuffer.wrap(byteValue).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+    private static class NoStatusSettingsCache implements StatusSettingsCache {
+        @Override
+        public float[] load() {
+            return null;
         }
 
-        private byte[] toBytes(float f) {
-            return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(f).array();
+        @Override
+        public void save(float onBedValue, float notOnBedValue) {
         }
+    }
 
-        private boolean isZeros(byte[] bytes) {
-            boolean result = true;
-            for(byte b : bytes) {
-                result &= (b == 0);
+    private class LogFailureCallback implements GattOperationQueue.OperationCallback {
+        private final String operation;
+
+        private LogFailureCallback(String operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void onOperationComplete(boolean success, byte[] value) {
+            if(!success) {
+                log(operation + " failed");
             }
-            return  result;
         }
     }
 }
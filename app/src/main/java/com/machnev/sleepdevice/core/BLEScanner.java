@@ -1,61 +1,214 @@
 package com.machnev.sleepdevice.core;
 
+import android.annotation.TargetApi;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothManager;
-import android.util.Log;
-import android.widget.Toast;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 
-import com.machnev.sleepdevice.DeviceListActivity;
+import com.machnev.sleepdevice.core.transport.SleepDeviceProfile;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * Scans for sleep devices and reports each one as soon as it is seen.
+ *
+ * Only devices advertising the sleep device service are reported. The scan stops
+ * {@link #SETTLE_PERIOD} after the first device was found, which leaves time for the other
+ * devices in the room to show up, and after {@link #SCAN_PERIOD} at the latest.
+ * Must be used from the main thread, listeners are called on it too.
+ */
 public class BLEScanner
 {
-    public static final long SLEEP_PERIOD = 10000;
+    public static final long SCAN_PERIOD = 10000;
+    public static final long SETTLE_PERIOD = 750;
 
     private final BluetoothAdapter bluetoothAdapter;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ScanResultTable results = new ScanResultTable();
+    private final Runnable finishTask = new FinishTask();
+
+    private ScanListener listener;
+    private Scan scan;
+    private boolean found;
 
     public BLEScanner(BluetoothAdapter bluetoothAdapter) {
         this.bluetoothAdapter = bluetoothAdapter;
     }
 
-    public void scan(final ScanEndedCallback callback)
+    public void scan(ScanListener listener)
     {
-        new Thread(new Runnable() {
+        stop();
+
+        this.listener = listener;
+        results.clear();
+        found = false;
+        scan = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? new FilteredScan() : new LegacyScan();
+        if(!scan.start()) {
+            scan = null;
+            listener.onException(new IllegalStateException("Could not start scanning"));
+            return;
+        }
+        handler.postDelayed(finishTask, SCAN_PERIOD);
+    }
+
+    /**
+     * Stops scanning without reporting the end of the scan.
+     */
+    public void stop() {
+        if(scan != null) {
+            scan.stop();
+            scan = null;
+        }
+        handler.removeCallbacks(finishTask);
+    }
+
+    public boolean isScanning() {
+        return scan != null;
+    }
+
+    private void onDeviceSeen(final Scan source, final String address, final String name, final int rssi) {
+        final long timestamp = SystemClock.elapsedRealtime();
+        handler.post(new Runnable() {
             @Override
             public void run() {
-                LeScanCallback  leCallback = new LeScanCallback();
-                bluetoothAdapter.startLeScan(leCallback);
+                if(scan != source) {
+                    return;
+                }
 
-                try {
-                    Thread.sleep(SLEEP_PERIOD);
-                } catch (InterruptedException e) {
-                    callback.onException(e);
+                listener.onDeviceFound(results.update(address, name, rssi, timestamp));
+                if(!found) {
+                    found = true;
+                    handler.removeCallbacks(finishTask);
+                    handler.postDelayed(finishTask, SETTLE_PERIOD);
                 }
+            }
+        });
+    }
 
-                bluetoothAdapter.stopLeScan(leCallback);
-                callback.onScanningResult(leCallback.devices);
+    private void onScanFailed(final Scan source, final int errorCode) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(scan == source) {
+                    stop();
+                    listener.onException(new IllegalStateException("Scan failed with error " + errorCode));
+                }
             }
-        }).start();
+        });
     }
 
-    public static interface ScanEndedCallback
+    public static interface ScanListener
     {
-        public void onScanningResult(Collection<BluetoothDevice> devices);
+        /**
+         * Called for every advertisement of a device, {@link ScanResultTable.Entry#isNew()}
+         * is true for the first one.
+         */
+        public void onDeviceFound(ScanResultTable.Entry device);
+
+        /**
+         * @param devices all devices found, strongest signal first
+         */
+        public void onScanFinished(List<ScanResultTable.Entry> devices);
 
         public void onException(Exception e);
     }
 
-    private class LeScanCallback implements BluetoothAdapter.LeScanCallback {
+    private class FinishTask implements Runnable {
+        @Override
+        public void run() {
+            stop();
+            listener.onScanFinished(results.snapshot());
+        }
+    }
+
+    private static interface Scan {
+        public boolean start();
+
+        public void stop();
+    }
+
+    /**
+     * Lets the controller filter by service UUID, so other devices in range never wake up the app.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private class FilteredScan extends ScanCallback implements Scan {
+        private BluetoothLeScanner scanner;
 
-        public final Collection<BluetoothDevice> devices = new ArrayList<>();
+        @Override
+        public boolean start() {
+            scanner = bluetoothAdapter.getBluetoothLeScanner();
+            if(scanner == null) {
+                return false;
+            }
+
+            ScanFilter filter = new ScanFilter.Builder()
+                    .setServiceUuid(new ParcelUuid(SleepDeviceProfile.SERVICE_UUID))
+                    .build();
+            ScanSettings settings = new ScanSettings.Builder()
+                    .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                    .build();
+            scanner.startScan(Collections.singletonList(filter), settings, this);
+            return true;
+        }
+
+        @Override
+        public void stop() {
+            // The scanner is gone when the adapter was turned off meanwhile.
+            if(bluetoothAdapter.isEnabled()) {
+                scanner.stopScan(this);
+            }
+        }
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            BluetoothDevice device = result.getDevice();
+            String name = result.getScanRecord() != null ? result.getScanRecord().getDeviceName() : null;
+            onDeviceSeen(this, device.getAddress(), name != null ? name : device.getName(), result.getRssi());
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for(ScanResult result : results) {
+                onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            BLEScanner.this.onScanFailed(this, errorCode);
+        }
+    }
+
+    /**
+     * Filters advertisements in software, startLeScan with UUIDs does not match 128 bit UUIDs
+     * on many devices.
+     */
+    private class LegacyScan implements Scan, BluetoothAdapter.LeScanCallback {
+        @Override
+        public boolean start() {
+            return bluetoothAdapter.startLeScan(this);
+        }
+
+        @Override
+        public void stop() {
+            bluetoothAdapter.stopLeScan(this);
+        }
 
         @Override
-        public void onLeScan(final BluetoothDevice device, int rssi, byte[] scanRecord) {
-            if(!devices.contains(device)) {
-                devices.add(device);
+        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+            if(AdvertisementParser.hasServiceUuid(scanRecord, SleepDeviceProfile.SERVICE_UUID)) {
+                String name = AdvertisementParser.localName(scanRecord);
+                onDeviceSeen(this, device.getAddress(), name != null ? name : device.getName(), rssi);
             }
         }
     }
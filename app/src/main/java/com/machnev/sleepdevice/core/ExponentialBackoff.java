@@ -0,0 +1,56 @@
+package com.machnev.sleepdevice.core;
+
+import java.util.Random;
+
+/**
+ * Retry delays that double with every attempt up to a limit. Each delay is picked at random
+ * from the upper half of the current range, so devices that dropped at the same moment do not
+ * retry in lockstep while the delays still grow.
+ */
+public class ExponentialBackoff {
+
+    public static final long DEFAULT_INITIAL_DELAY = 500;
+    public static final long DEFAULT_MAX_DELAY = 30000;
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final Random random;
+
+    private int attempt;
+    private long range;
+
+    public ExponentialBackoff() {
+        this(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, new Random());
+    }
+
+    public ExponentialBackoff(long initialDelay, long maxDelay, Random random) {
+        if(initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid delays: " + initialDelay + ", " + maxDelay);
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.random = random;
+        this.range = initialDelay;
+    }
+
+    /**
+     * @return delay in milliseconds before the next attempt
+     */
+    public long nextDelay() {
+        long half = range / 2;
+        long delay = range - half + (long) (random.nextDouble() * (half + 1));
+
+        attempt++;
+        range = Math.min(maxDelay, range * 2);
+        return delay;
+    }
+
+    public int attempts() {
+        return attempt;
+    }
+
+    public void reset() {
+        attempt = 0;
+        range = initialDelay;
+    }
+}
@@ -0,0 +1,217 @@
+package com.machnev.sleepdevice.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs GATT operations one at a time, in the order they were enqueued.
+ *
+ * Android allows only one outstanding GATT operation, so every read and write goes through
+ * this queue. The next operation starts when the GATT callback reports completion of the
+ * current one through {@link #onCompleted}. An operation that is refused, fails or gets no
+ * callback within the timeout is retried, and reported as failed after the last attempt.
+ */
+public class GattOperationQueue {
+
+    public static final int READ_CHARACTERISTIC = 0;
+    public static final int WRITE_CHARACTERISTIC = 1;
+    public static final int WRITE_DESCRIPTOR = 2;
+
+    public static final long DEFAULT_TIMEOUT = 3000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long RETRY_DELAY = 100;
+
+    private final ScheduledExecutorService scheduler;
+    private final long timeout;
+    private final int maxAttempts;
+
+    private final Queue<Operation> pending = new ArrayDeque<>();
+    private Operation current;
+    private int attempts;
+    private long attemptId;
+    private ScheduledFuture<?> timeoutTask;
+
+    public GattOperationQueue(ScheduledExecutorService scheduler) {
+        this(scheduler, DEFAULT_TIMEOUT, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public GattOperationQueue(ScheduledExecutorService scheduler, long timeout, int maxAttempts) {
+        this.scheduler = scheduler;
+        this.timeout = timeout;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void enqueue(Operation operation) {
+        synchronized (this) {
+            pending.add(operation);
+        }
+        startNext();
+    }
+
+    public synchronized int size() {
+        return pending.size() + (current != null ? 1 : 0);
+    }
+
+    /**
+     * Reports a GATT callback. Callbacks that do not match the running operation,
+     * for example late ones for an attempt that already timed out, are ignored.
+     */
+    public void onCompleted(int type, UUID uuid, boolean success, byte[] value) {
+        Operation completed;
+        synchronized (this) {
+            if(current == null || current.type != type || !current.uuid.equals(uuid)) {
+                return;
+            }
+            if(!success && attempts < maxAttempts) {
+                retry(0);
+                return;
+            }
+            completed = finishCurrent();
+        }
+
+        completed.callback.onOperationComplete(success, value);
+        startNext();
+    }
+
+    /**
+     * Drops all operations, for example when the connection is lost. They are reported as failed.
+     */
+    public void clear() {
+        List<Operation> dropped = new ArrayList<>();
+        synchronized (this) {
+            if(current != null) {
+                dropped.add(finishCurrent());
+            }
+            dropped.addAll(pending);
+            pending.clear();
+        }
+
+        for(Operation operation : dropped) {
+            operation.callback.onOperationComplete(false, null);
+        }
+    }
+
+    private void startNext() {
+        synchronized (this) {
+            if(current != null || pending.isEmpty()) {
+                return;
+            }
+            current = pending.poll();
+            attempts = 0;
+            attempt();
+        }
+    }
+
+    private void attempt() {
+        attempts++;
+        final long id = ++attemptId;
+        timeoutTask = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimeout(id);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        if(!current.execute()) {
+            // The stack refused the operation, usually because it is still busy.
+            timeoutTask.cancel(false);
+            if(attempts < maxAttempts) {
+                retry(RETRY_DELAY);
+            } else {
+                failLater(id);
+            }
+        }
+    }
+
+    private void retry(long delay) {
+        timeoutTask.cancel(false);
+        final long id = ++attemptId;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (GattOperationQueue.this) {
+                    if(current != null && attemptId == id) {
+                        attempt();
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void failLater(final long id) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                onTimeout(id);
+            }
+        });
+    }
+
+    private void onTimeout(long id) {
+        Operation failed;
+        synchronized (this) {
+            if(current == null || attemptId != id) {
+                return;
+            }
+            if(attempts < maxAttempts) {
+                retry(0);
+                return;
+            }
+            failed = finishCurrent();
+        }
+
+        failed.callback.onOperationComplete(false, null);
+        startNext();
+    }
+
+    private Operation finishCurrent() {
+        Operation finished = current;
+        current = null;
+        attemptId++;
+        if(timeoutTask != null) {
+            timeoutTask.cancel(false);
+            timeoutTask = null;
+        }
+        return finished;
+    }
+
+    public static abstract class Operation {
+        private final int type;
+        private final UUID uuid;
+        private final OperationCallback callback;
+
+        protected Operation(int type, UUID uuid, OperationCallback callback) {
+            this.type = type;
+            this.uuid = uuid;
+            this.callback = callback;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        /**
+         * Starts the operation on the GATT connection.
+         *
+         * @return false if the operation could not be started
+         */
+        protected abstract boolean execute();
+    }
+
+    public static interface OperationCallback {
+        /**
+         * @param value the value read, null for writes and failures
+         */
+        public void onOperationComplete(boolean success, byte[] value);
+    }
+}
@@ -0,0 +1,236 @@
+package com.machnev.sleepdevice.core;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a connection up until it is stopped.
+ *
+ * A lost link is retried at once, and then with exponential backoff. The first attempts after
+ * a loss reuse the existing connection handle, which reconnects much faster than creating a
+ * new one; later attempts ask for a new handle. While the Bluetooth adapter is off nothing is
+ * attempted, and when it comes back on a fresh connection is started immediately.
+ *
+ * Attempts, timeouts and delays all run on the given scheduler, no threads are created.
+ */
+public class ReconnectManager {
+
+    public static final long DEFAULT_ATTEMPT_TIMEOUT = 10000;
+    public static final int DEFAULT_FAST_ATTEMPTS = 2;
+
+    private final ScheduledExecutorService scheduler;
+    private final Connector connector;
+    private final ExponentialBackoff backoff;
+    private final long attemptTimeout;
+    private final int fastAttempts;
+
+    private boolean running;
+    private boolean adapterEnabled = true;
+    private boolean connected;
+    private boolean connecting;
+    private boolean handleValid;
+    private int failedAttempts;
+    private long generation;
+    private ScheduledFuture<?> pendingTask;
+
+    public ReconnectManager(ScheduledExecutorService scheduler, Connector connector) {
+        this(scheduler, connector, new ExponentialBackoff(), DEFAULT_ATTEMPT_TIMEOUT, DEFAULT_FAST_ATTEMPTS);
+    }
+
+    /**
+     * @param fastAttempts number of attempts after a loss that reuse the existing handle
+     */
+    public ReconnectManager(ScheduledExecutorService scheduler, Connector connector, ExponentialBackoff backoff,
+                            long attemptTimeout, int fastAttempts) {
+        this.scheduler = scheduler;
+        this.connector = connector;
+        this.backoff = backoff;
+        this.attemptTimeout = attemptTimeout;
+        this.fastAttempts = fastAttempts;
+    }
+
+    public synchronized void start() {
+        if(running) {
+            return;
+        }
+        running = true;
+        failedAttempts = 0;
+        backoff.reset();
+        scheduleAttempt(0);
+    }
+
+    /**
+     * Stops reconnecting. The caller is responsible for closing the connection.
+     */
+    public synchronized void stop() {
+        running = false;
+        connected = false;
+        connecting = false;
+        handleValid = false;
+        cancelPending();
+    }
+
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    public synchronized int failedAttempts() {
+        return failedAttempts;
+    }
+
+    public void onConnected() {
+        synchronized (this) {
+            if(!running) {
+                return;
+            }
+            connected = true;
+            connecting = false;
+            handleValid = true;
+            failedAttempts = 0;
+            backoff.reset();
+            cancelPending();
+        }
+    }
+
+    public void onDisconnected() {
+        synchronized (this) {
+            if(!running || !adapterEnabled) {
+                return;
+            }
+            if(connected) {
+                // The link was lost, try to get it back at once.
+                connected = false;
+                scheduleAttempt(0);
+            } else if(connecting) {
+                attemptFailed();
+            }
+        }
+    }
+
+    public void onAdapterStateChanged(boolean enabled) {
+        boolean closeHandle;
+        synchronized (this) {
+            if(adapterEnabled == enabled) {
+                return;
+            }
+            adapterEnabled = enabled;
+            // Handles do not survive the adapter being switched off.
+            closeHandle = !enabled && running;
+            if(!enabled) {
+                connected = false;
+                connecting = false;
+                handleValid = false;
+                cancelPending();
+            } else if(running && !connected) {
+                failedAttempts = 0;
+                backoff.reset();
+                scheduleAttempt(0);
+            }
+        }
+
+        if(closeHandle) {
+            connector.close();
+        }
+    }
+
+    private void scheduleAttempt(long delay) {
+        cancelPending();
+        final long id = generation;
+        pendingTask = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt(id);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt(final long id) {
+        boolean reuseHandle;
+        synchronized (this) {
+            if(id != generation || !running || !adapterEnabled || connected) {
+                return;
+            }
+            connecting = true;
+            reuseHandle = handleValid && failedAttempts < fastAttempts;
+            pendingTask = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onTimeout(id);
+                }
+            }, attemptTimeout, TimeUnit.MILLISECONDS);
+        }
+
+        boolean started = connector.connect(reuseHandle);
+        boolean stopped;
+        synchronized (this) {
+            stopped = !running;
+            if(id == generation) {
+                if(started) {
+                    handleValid = true;
+                } else {
+                    attemptFailed();
+                }
+            }
+        }
+
+        if(stopped) {
+            // Stopped while connecting, the handle just opened is not going to be closed by anyone else.
+            connector.close();
+        }
+    }
+
+    private void onTimeout(long id) {
+        synchronized (this) {
+            if(id != generation || !connecting) {
+                return;
+            }
+            attemptFailed();
+        }
+        connector.cancel();
+    }
+
+    private void attemptFailed() {
+        connecting = false;
+        failedAttempts++;
+        final int attempts = failedAttempts;
+        // Queued before the retry, so the failure is reported first even if the delay is zero.
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                connector.onAttemptFailed(attempts);
+            }
+        });
+        scheduleAttempt(backoff.nextDelay());
+    }
+
+    private void cancelPending() {
+        generation++;
+        if(pendingTask != null) {
+            pendingTask.cancel(false);
+            pendingTask = null;
+        }
+    }
+
+    public static interface Connector {
+        /**
+         * Starts connecting. Completion is reported through {@link ReconnectManager#onConnected()}.
+         *
+         * @param reuseHandle whether the existing handle should be reused instead of creating a new one
+         * @return false if the attempt could not be started
+         */
+        public boolean connect(boolean reuseHandle);
+
+        /**
+         * Abandons an attempt that timed out.
+         */
+        public void cancel();
+
+        /**
+         * Closes the handle, it will not be reused.
+         */
+        public void close();
+
+        public void onAttemptFailed(int failedAttempts);
+    }
+}
@@ -0,0 +1,102 @@
+package com.machnev.sleepdevice.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rows of the device list in the order the devices were found, so that a row does not jump
+ * around while its signal strength changes.
+ *
+ * Every update tells what changed, which lets the list redraw only the affected row.
+ * Each address keeps its id for the lifetime of the list, even if it is removed and found again.
+ */
+public class ScanResultList {
+
+    public static final int UNCHANGED = 0;
+    public static final int INSERTED = 1;
+    public static final int CHANGED = 2;
+
+    private final List<ScanResultTable.Entry> rows = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Map<String, Long> ids = new HashMap<>();
+    private long nextId;
+
+    /**
+     * Adds the device or replaces the row with the same address.
+     * @return {@link #INSERTED}, {@link #CHANGED} or {@link #UNCHANGED} if nothing visible changed
+     */
+    public int update(ScanResultTable.Entry entry) {
+        Integer position = positions.get(entry.address);
+        if(position == null) {
+            positions.put(entry.address, rows.size());
+            rows.add(entry);
+            if(!ids.containsKey(entry.address)) {
+                ids.put(entry.address, nextId++);
+            }
+            return INSERTED;
+        }
+
+        ScanResultTable.Entry old = rows.set(position, entry);
+        return sameContent(old, entry) ? UNCHANGED : CHANGED;
+    }
+
+    /**
+     * Removes the rows of devices missing in the given ones.
+     * @return the number of removed rows
+     */
+    public int retain(Collection<ScanResultTable.Entry> entries) {
+        Set<String> addresses = new HashSet<>();
+        for(ScanResultTable.Entry entry : entries) {
+            addresses.add(entry.address);
+        }
+
+        int removed = 0;
+        Iterator<ScanResultTable.Entry> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+            if(!addresses.contains(iterator.next().address)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        if(removed > 0) {
+            positions.clear();
+            for(int i = 0; i < rows.size(); i++) {
+                positions.put(rows.get(i).address, i);
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public ScanResultTable.Entry get(int position) {
+        return rows.get(position);
+    }
+
+    public long getId(int position) {
+        return ids.get(rows.get(position).address);
+    }
+
+    /**
+     * @return the position of the device, -1 if it is not in the list
+     */
+    public int indexOf(String address) {
+        Integer position = positions.get(address);
+        return position != null ? position : -1;
+    }
+
+    private static boolean sameContent(ScanResultTable.Entry left, ScanResultTable.Entry right) {
+        if(left.getRssi() != right.getRssi()) {
+            return false;
+        }
+        return left.getName() == null ? right.getName() == null : left.getName().equals(right.getName());
+    }
+}
@@ -0,0 +1,122 @@
+package com.machnev.sleepdevice.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Devices seen during a scan, one entry per address with the latest signal strength.
+ */
+public class ScanResultTable {
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * @param name the name, null keeps the name seen before
+     * @return a copy of the entry of the device, {@link Entry#isNew()} tells whether it was seen for the first time
+     */
+    public synchronized Entry update(String address, String name, int rssi, long timestamp) {
+        Entry entry = entries.get(address);
+        if(entry == null) {
+            entry = new Entry(address, name, rssi, timestamp);
+            entries.put(address, entry);
+            return new Entry(entry);
+        }
+
+        entry.update(name, rssi, timestamp);
+        return new Entry(entry);
+    }
+
+    public synchronized Entry get(String address) {
+        Entry entry = entries.get(address);
+        return entry != null ? new Entry(entry) : null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return copies of the entries, strongest signal first
+     */
+    public synchronized List<Entry> snapshot() {
+        List<Entry> copy = new ArrayList<>(entries.size());
+        for(Entry entry : entries.values()) {
+            copy.add(new Entry(entry));
+        }
+        Collections.sort(copy, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry left, Entry right) {
+                return Integer.compare(right.rssi, left.rssi);
+            }
+        });
+        return copy;
+    }
+
+    public static class Entry {
+        public final String address;
+        private String name;
+        private int rssi;
+        private final long firstSeen;
+        private long lastSeen;
+        private int sightings;
+
+        private Entry(String address, String name, int rssi, long timestamp) {
+            this.address = address;
+            this.name = name;
+            this.rssi = rssi;
+            this.firstSeen = timestamp;
+            this.lastSeen = timestamp;
+            this.sightings = 1;
+        }
+
+        private Entry(Entry other) {
+            this.address = other.address;
+            this.name = other.name;
+            this.rssi = other.rssi;
+            this.firstSeen = other.firstSeen;
+            this.lastSeen = other.lastSeen;
+            this.sightings = other.sightings;
+        }
+
+        private void update(String name, int rssi, long timestamp) {
+            if(name != null) {
+                this.name = name;
+            }
+            this.rssi = rssi;
+            this.lastSeen = Math.max(lastSeen, timestamp);
+            this.sightings++;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getRssi() {
+            return rssi;
+        }
+
+        public long getFirstSeen() {
+            return firstSeen;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        public int getSightings() {
+            return sightings;
+        }
+
+        public boolean isNew() {
+            return sightings == 1;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Messages sent to one client of the service, recorded by whichever thread sends them.
+ */
+public class ClientMetrics {
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final ConcurrentHistogram sendTime = new ConcurrentHistogram();
+
+    public void onSent(long nanos) {
+        sent.incrementAndGet();
+        sendTime.record(nanos / 1000);
+    }
+
+    public void onFailed() {
+        failed.incrementAndGet();
+    }
+
+    public long sent() {
+        return sent.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * @return microseconds each successful send took
+     */
+    public LatencyHistogram sendTime() {
+        return sendTime.snapshot();
+    }
+}
@@ -0,0 +1,43 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link LatencyHistogram} buckets that any number of threads record into without locking.
+ * Values may be in any unit, they only have to be the same for all records.
+ *
+ * A snapshot taken while values are recorded may miss the latest of them, it never
+ * counts a value twice.
+ */
+public class ConcurrentHistogram {
+
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(LatencyHistogram.bucket(value));
+        sum.addAndGet(value);
+
+        long current = max.get();
+        while(value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public LatencyHistogram snapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long bucketCount = counts.get(i);
+            if(bucketCount != 0) {
+                histogram.add(i, bucketCount);
+            }
+        }
+        histogram.addTotals(sum.get(), max.get());
+        return histogram;
+    }
+}
@@ -0,0 +1,63 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import java.util.Locale;
+
+/**
+ * Percentiles of every connection phase, as plain arrays indexed by phase so that they can
+ * be sent to clients in a Bundle. Times are in milliseconds.
+ */
+public class ConnectionLatencyReport {
+
+    public final long[] counts;
+    // Time since the previous phase.
+    public final long[] medians;
+    public final long[] p90;
+    public final long[] p99;
+    // Time since the connect request.
+    public final long[] totalMedians;
+    public final long[] totalP90;
+
+    public ConnectionLatencyReport(long[] counts, long[] medians, long[] p90, long[] p99,
+                                   long[] totalMedians, long[] totalP90) {
+        this.counts = counts;
+        this.medians = medians;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.totalMedians = totalMedians;
+        this.totalP90 = totalP90;
+    }
+
+    public static ConnectionLatencyReport of(ConnectionTimeline timeline) {
+        int phases = ConnectionTimeline.PHASE_COUNT;
+        ConnectionLatencyReport report = new ConnectionLatencyReport(new long[phases], new long[phases],
+                new long[phases], new long[phases], new long[phases], new long[phases]);
+
+        LatencyHistogram sincePrevious = new LatencyHistogram();
+        LatencyHistogram sinceStart = new LatencyHistogram();
+        for(int i = 0; i < phases; i++) {
+            timeline.histograms(i, sincePrevious, sinceStart);
+            report.counts[i] = sincePrevious.count();
+            report.medians[i] = sincePrevious.percentile(50);
+            report.p90[i] = sincePrevious.percentile(90);
+            report.p99[i] = sincePrevious.percentile(99);
+            report.totalMedians[i] = sinceStart.percentile(50);
+            report.totalP90[i] = sinceStart.percentile(90);
+        }
+        return report;
+    }
+
+    public int phases() {
+        return counts.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("phase: count, p50/p90/p99 since previous, p50/p90 total\n");
+        for(int i = 0; i < phases(); i++) {
+            builder.append(String.format(Locale.US, "%s: %d, %d/%d/%d ms, %d/%d ms%n",
+                    ConnectionTimeline.phaseName(i), counts[i], medians[i], p90[i], p99[i],
+                    totalMedians[i], totalP90[i]));
+        }
+        return builder.toString();
+    }
+}
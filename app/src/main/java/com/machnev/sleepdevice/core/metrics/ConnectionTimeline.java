@@ -0,0 +1,174 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Breaks the time from a connect request to the first sample on screen into phases.
+ *
+ * A timeline is started with the time of the request and every phase is marked with a
+ * timestamp from the same monotonic clock. The first mark of a phase in a timeline is recorded
+ * into two histograms: the time since the previous marked phase and the time since the start.
+ * The histograms accumulate over all connections and can be saved to and loaded from a file.
+ */
+public class ConnectionTimeline {
+
+    public static final int PHASE_SERVICE_STARTED = 0;
+    public static final int PHASE_GATT_CONNECT = 1;
+    public static final int PHASE_CONNECTED = 2;
+    public static final int PHASE_SERVICES_DISCOVERED = 3;
+    public static final int PHASE_ON_BED_READ = 4;
+    public static final int PHASE_NOT_ON_BED_READ = 5;
+    public static final int PHASE_NOTIFICATIONS_ENABLED = 6;
+    public static final int PHASE_FIRST_SAMPLE = 7;
+    public static final int PHASE_FIRST_RENDER = 8;
+    public static final int PHASE_COUNT = 9;
+
+    private static final String[] PHASE_NAMES = {
+            "service started",
+            "connectGatt",
+            "connected",
+            "services discovered",
+            "on bed read",
+            "not on bed read",
+            "notifications enabled",
+            "first sample",
+            "first render"
+    };
+
+    private static final int MAGIC = 0x4c41544e;
+    private static final int VERSION = 1;
+
+    private final LatencyHistogram[] sincePrevious = new LatencyHistogram[PHASE_COUNT];
+    private final LatencyHistogram[] sinceStart = new LatencyHistogram[PHASE_COUNT];
+
+    private boolean started;
+    private long startTimestamp;
+    private long lastTimestamp;
+    private int marked;
+    private boolean dirty;
+
+    public ConnectionTimeline() {
+        for(int i = 0; i < PHASE_COUNT; i++) {
+            sincePrevious[i] = new LatencyHistogram();
+            sinceStart[i] = new LatencyHistogram();
+        }
+    }
+
+    public static String phaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * Starts a new timeline, phases marked in the previous one may be marked again.
+     */
+    public synchronized void start(long timestamp) {
+        started = true;
+        startTimestamp = timestamp;
+        lastTimestamp = timestamp;
+        marked = 0;
+    }
+
+    /**
+     * @return false if no timeline is running or the phase was already marked in it
+     */
+    public synchronized boolean mark(int phase, long timestamp) {
+        int bit = 1 << phase;
+        if(!started || (marked & bit) != 0) {
+            return false;
+        }
+        marked |= bit;
+
+        sincePrevious[phase].record(timestamp - lastTimestamp);
+        sinceStart[phase].record(timestamp - startTimestamp);
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        dirty = true;
+        return true;
+    }
+
+    public synchronized boolean isMarked(int phase) {
+        return started && (marked & (1 << phase)) != 0;
+    }
+
+    /**
+     * Copies the histograms of a phase into the given ones.
+     */
+    public synchronized void histograms(int phase, LatencyHistogram sincePrevious, LatencyHistogram sinceStart) {
+        sincePrevious.clear();
+        sincePrevious.add(this.sincePrevious[phase]);
+        sinceStart.clear();
+        sinceStart.add(this.sinceStart[phase]);
+    }
+
+    /**
+     * Saves the histograms if anything was recorded since the last save.
+     * The file is replaced atomically.
+     */
+    public void save(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        synchronized (this) {
+            if(!dirty) {
+                return;
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(PHASE_COUNT);
+                for(int i = 0; i < PHASE_COUNT; i++) {
+                    sincePrevious[i].write(out);
+                    sinceStart[i].write(out);
+                }
+            } finally {
+                out.close();
+            }
+            if(!temporary.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            dirty = false;
+        }
+    }
+
+    /**
+     * Loads histograms saved earlier. A missing file leaves the histograms empty.
+     */
+    public void load(File file) throws IOException {
+        if(!file.exists()) {
+            return;
+        }
+
+        LatencyHistogram[] previous = new LatencyHistogram[PHASE_COUNT];
+        LatencyHistogram[] start = new LatencyHistogram[PHASE_COUNT];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a latency file: " + file);
+            }
+            // Phases missing from older files are left empty.
+            int phases = Math.min(in.readInt(), PHASE_COUNT);
+            for(int i = 0; i < PHASE_COUNT; i++) {
+                previous[i] = new LatencyHistogram();
+                start[i] = new LatencyHistogram();
+                if(i < phases) {
+                    previous[i].read(in);
+                    start[i].read(in);
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        synchronized (this) {
+            for(int i = 0; i < PHASE_COUNT; i++) {
+                sincePrevious[i].add(previous[i]);
+                sinceStart[i].add(start[i]);
+            }
+        }
+    }
+}
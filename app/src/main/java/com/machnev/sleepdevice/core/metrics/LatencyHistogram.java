@@ -0,0 +1,158 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Histogram of millisecond latencies with a fixed number of buckets.
+ *
+ * Values below 16 ms have a bucket each, larger values fall into eight buckets per power of two,
+ * so any reported percentile is within 12.5% of the recorded value. Values above about
+ * an hour share the last bucket.
+ */
+public class LatencyHistogram {
+
+    public static final int BUCKET_COUNT = 160;
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BITS = 4;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long max;
+
+    public void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public long mean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return upper bound of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return i < BUCKET_COUNT - 1 ? Math.min(max, upperBound(i)) : max;
+            }
+        }
+        return max;
+    }
+
+    public void add(LatencyHistogram other) {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    void add(int bucket, long bucketCount) {
+        counts[bucket] += bucketCount;
+        count += bucketCount;
+    }
+
+    void addTotals(long sum, long max) {
+        this.sum += sum;
+        this.max = Math.max(this.max, max);
+    }
+
+    public void clear() {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    void write(DataOutput out) throws IOException {
+        int used = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            if(counts[i] != 0) {
+                used++;
+            }
+        }
+
+        out.writeLong(count);
+        out.writeLong(sum);
+        out.writeLong(max);
+        out.writeShort(used);
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            if(counts[i] != 0) {
+                out.writeShort(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    void read(DataInput in) throws IOException {
+        clear();
+        count = in.readLong();
+        sum = in.readLong();
+        max = in.readLong();
+        int used = in.readUnsignedShort();
+        long total = 0;
+        for(int i = 0; i < used; i++) {
+            int bucket = in.readUnsignedShort();
+            long bucketCount = in.readLong();
+            if(bucket >= BUCKET_COUNT || bucketCount < 0) {
+                throw new IOException("Corrupted histogram");
+            }
+            counts[bucket] = bucketCount;
+            total += bucketCount;
+        }
+        if(total != count) {
+            throw new IOException("Corrupted histogram");
+        }
+    }
+
+    static int bucket(long value) {
+        if(value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        int bucket = LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    static long upperBound(int bucket) {
+        if(bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+}
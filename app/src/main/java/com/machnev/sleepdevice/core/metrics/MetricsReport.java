@@ -0,0 +1,148 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Runtime metrics of one device and the service, as plain arrays so that they can be sent
+ * to clients in a Bundle. Counters are totals since the session started, rates are taken
+ * between two reports.
+ */
+public class MetricsReport {
+
+    public static final int NOTIFICATIONS = 0;
+    public static final int BYTES_RECEIVED = 1;
+    public static final int CONNECT_ATTEMPTS = 2;
+    public static final int CONNECTIONS = 3;
+    // Connections after the first one.
+    public static final int RECONNECTS = 4;
+    public static final int COUNTER_COUNT = 5;
+
+    // Histograms are summarized in arrays indexed by these.
+    public static final int COUNT = 0;
+    public static final int MEAN = 1;
+    public static final int P50 = 2;
+    public static final int P90 = 3;
+    public static final int P99 = 4;
+    public static final int MAX = 5;
+    public static final int SUMMARY_SIZE = 6;
+
+    // Every client takes CLIENT_SIZE values of clients: sent and failed messages, then the send time summary.
+    public static final int CLIENT_SENT = 0;
+    public static final int CLIENT_FAILED = 1;
+    public static final int CLIENT_SEND_TIME = 2;
+    public static final int CLIENT_SIZE = CLIENT_SEND_TIME + SUMMARY_SIZE;
+
+    // SystemClock.elapsedRealtime() when the report was taken.
+    public final long timestamp;
+    public final long[] counters;
+    // Nanoseconds.
+    public final long[] decodeTime;
+    // Milliseconds requests waited in the queue of the service.
+    public final long[] queueDelay;
+    // Send times in microseconds.
+    public final long[] clients;
+    // PowerMetrics report of the service, empty if there is none.
+    public final long[] power;
+
+    public MetricsReport(long timestamp, long[] counters, long[] decodeTime, long[] queueDelay, long[] clients) {
+        this(timestamp, counters, decodeTime, queueDelay, clients, new long[0]);
+    }
+
+    public MetricsReport(long timestamp, long[] counters, long[] decodeTime, long[] queueDelay, long[] clients,
+                         long[] power) {
+        this.timestamp = timestamp;
+        this.counters = counters;
+        this.decodeTime = decodeTime;
+        this.queueDelay = queueDelay;
+        this.clients = clients;
+        this.power = power != null ? power : new long[0];
+    }
+
+    public static MetricsReport of(long timestamp, PipelineMetrics pipeline, LatencyHistogram queueDelay,
+                                   Collection<ClientMetrics> clients) {
+        return of(timestamp, pipeline, queueDelay, clients, null);
+    }
+
+    /**
+     * @param power may be null
+     */
+    public static MetricsReport of(long timestamp, PipelineMetrics pipeline, LatencyHistogram queueDelay,
+                                   Collection<ClientMetrics> clients, PowerMetrics power) {
+        long[] clientValues = new long[clients.size() * CLIENT_SIZE];
+        int offset = 0;
+        for(ClientMetrics client : clients) {
+            clientValues[offset + CLIENT_SENT] = client.sent();
+            clientValues[offset + CLIENT_FAILED] = client.failed();
+            long[] sendTime = summarize(client.sendTime());
+            System.arraycopy(sendTime, 0, clientValues, offset + CLIENT_SEND_TIME, SUMMARY_SIZE);
+            offset += CLIENT_SIZE;
+        }
+        return new MetricsReport(timestamp, pipeline.counters(), summarize(pipeline.decodeTime()),
+                summarize(queueDelay), clientValues, power != null ? power.report(timestamp) : null);
+    }
+
+    public static long[] summarize(LatencyHistogram histogram) {
+        long[] summary = new long[SUMMARY_SIZE];
+        summary[COUNT] = histogram.count();
+        summary[MEAN] = histogram.mean();
+        summary[P50] = histogram.percentile(50);
+        summary[P90] = histogram.percentile(90);
+        summary[P99] = histogram.percentile(99);
+        summary[MAX] = histogram.max();
+        return summary;
+    }
+
+    public int clientCount() {
+        return clients.length / CLIENT_SIZE;
+    }
+
+    /**
+     * @return change of the counter per second since the previous report, 0 without one
+     */
+    public double rate(MetricsReport previous, int counter) {
+        long elapsed = previous != null ? timestamp - previous.timestamp : 0;
+        if(elapsed <= 0) {
+            return 0;
+        }
+        return (counters[counter] - previous.counters[counter]) * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return toString(null);
+    }
+
+    public String toString(MetricsReport previous) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "notifications: %d, %.1f/s%n",
+                counters[NOTIFICATIONS], rate(previous, NOTIFICATIONS)));
+        builder.append(String.format(Locale.US, "bytes received: %d, %.1f/s%n",
+                counters[BYTES_RECEIVED], rate(previous, BYTES_RECEIVED)));
+        builder.append(String.format(Locale.US, "connections: %d of %d attempts, %d reconnects%n",
+                counters[CONNECTIONS], counters[CONNECT_ATTEMPTS], counters[RECONNECTS]));
+        appendSummary(builder, "decode", decodeTime, 0, "ns");
+        appendSummary(builder, "queue delay", queueDelay, 0, "ms");
+        for(int i = 0; i < clientCount(); i++) {
+            int offset = i * CLIENT_SIZE;
+            builder.append(String.format(Locale.US, "client %d: %d sent, %d failed%n",
+                    i, clients[offset + CLIENT_SENT], clients[offset + CLIENT_FAILED]));
+            appendSummary(builder, "  send", clients, offset + CLIENT_SEND_TIME, "us");
+        }
+        for(int mode = 0; mode * PowerMetrics.COUNTER_COUNT < power.length; mode++) {
+            int offset = mode * PowerMetrics.COUNTER_COUNT;
+            builder.append(String.format(Locale.US, "%s mode, %d min: per hour %d wakeups, %d ms processing, %d messages, wake lock %d times %d ms%n",
+                    mode == PowerMetrics.MODE_SLEEP ? "sleep" : "normal", power[offset + PowerMetrics.MODE_TIME] / 60000,
+                    power[offset + PowerMetrics.WAKEUPS], power[offset + PowerMetrics.PROCESSING_TIME] / 1000,
+                    power[offset + PowerMetrics.MESSAGES], power[offset + PowerMetrics.WAKE_LOCKS],
+                    power[offset + PowerMetrics.WAKE_LOCK_TIME]));
+        }
+        return builder.toString();
+    }
+
+    private static void appendSummary(StringBuilder builder, String name, long[] values, int offset, String unit) {
+        builder.append(String.format(Locale.US, "%s: %d, mean %d, p50/p90/p99/max %d/%d/%d/%d %s%n",
+                name, values[offset + COUNT], values[offset + MEAN], values[offset + P50],
+                values[offset + P90], values[offset + P99], values[offset + MAX], unit));
+    }
+}
@@ -0,0 +1,51 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the sample path of one device, indexed by the counters of {@link MetricsReport}.
+ * Updated from the Bluetooth callback thread without locking.
+ */
+public class PipelineMetrics {
+
+    private final AtomicLongArray counters = new AtomicLongArray(MetricsReport.COUNTER_COUNT);
+    private final ConcurrentHistogram decodeTime = new ConcurrentHistogram();
+
+    /**
+     * @param decodeNanos time spent decoding the notification
+     */
+    public void onNotification(int bytes, long decodeNanos) {
+        counters.incrementAndGet(MetricsReport.NOTIFICATIONS);
+        counters.addAndGet(MetricsReport.BYTES_RECEIVED, bytes);
+        decodeTime.record(decodeNanos);
+    }
+
+    public void onConnectAttempt() {
+        counters.incrementAndGet(MetricsReport.CONNECT_ATTEMPTS);
+    }
+
+    public void onConnected() {
+        if(counters.getAndIncrement(MetricsReport.CONNECTIONS) > 0) {
+            counters.incrementAndGet(MetricsReport.RECONNECTS);
+        }
+    }
+
+    public long get(int counter) {
+        return counters.get(counter);
+    }
+
+    public long[] counters() {
+        long[] values = new long[MetricsReport.COUNTER_COUNT];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = counters.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * @return nanoseconds spent decoding each notification
+     */
+    public LatencyHistogram decodeTime() {
+        return decodeTime.snapshot();
+    }
+}
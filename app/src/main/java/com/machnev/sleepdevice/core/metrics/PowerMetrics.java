@@ -0,0 +1,102 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Work of the service per hour, kept apart for the normal and the sleep mode so the two can
+ * be compared. Counters go to the mode that is current when they are recorded.
+ */
+public class PowerMetrics {
+
+    public static final int MODE_NORMAL = 0;
+    public static final int MODE_SLEEP = 1;
+    public static final int MODE_COUNT = 2;
+
+    // Milliseconds spent in the mode, the other counters are per hour of it.
+    public static final int MODE_TIME = 0;
+    // Times the sample pipeline ran: once per notification, or once per batch in sleep mode.
+    public static final int WAKEUPS = 1;
+    // Microseconds spent handling samples, buffering included.
+    public static final int PROCESSING_TIME = 2;
+    // Messages sent to clients.
+    public static final int MESSAGES = 3;
+    public static final int WAKE_LOCKS = 4;
+    // Milliseconds the wake lock was held.
+    public static final int WAKE_LOCK_TIME = 5;
+    public static final int COUNTER_COUNT = 6;
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    // Indexed by mode * COUNTER_COUNT + counter, PROCESSING_TIME in nanoseconds.
+    private final AtomicLongArray counters = new AtomicLongArray(MODE_COUNT * COUNTER_COUNT);
+    private final long[] modeTime = new long[MODE_COUNT];
+    private volatile int mode = MODE_NORMAL;
+    private long modeSince;
+
+    /**
+     * @param now {@link android.os.SystemClock#elapsedRealtime()}, as for every other call
+     */
+    public PowerMetrics(long now) {
+        this.modeSince = now;
+    }
+
+    public synchronized void setMode(int mode, long now) {
+        modeTime[this.mode] += now - modeSince;
+        modeSince = now;
+        this.mode = mode;
+    }
+
+    public int mode() {
+        return mode;
+    }
+
+    /**
+     * @param processingNanos time spent in this run of the pipeline
+     */
+    public void onWakeup(long processingNanos) {
+        int offset = mode * COUNTER_COUNT;
+        counters.incrementAndGet(offset + WAKEUPS);
+        counters.addAndGet(offset + PROCESSING_TIME, processingNanos);
+    }
+
+    /**
+     * Processing that did not run the pipeline, like buffering a sample.
+     */
+    public void onProcessing(long processingNanos) {
+        counters.addAndGet(mode * COUNTER_COUNT + PROCESSING_TIME, processingNanos);
+    }
+
+    public void onMessage() {
+        counters.incrementAndGet(mode * COUNTER_COUNT + MESSAGES);
+    }
+
+    public void onWakeLockReleased(long heldMillis) {
+        int offset = mode * COUNTER_COUNT;
+        counters.incrementAndGet(offset + WAKE_LOCKS);
+        counters.addAndGet(offset + WAKE_LOCK_TIME, heldMillis);
+    }
+
+    /**
+     * @return for each mode the time spent in it and the other counters per hour of it,
+     * indexed by mode * COUNTER_COUNT + counter
+     */
+    public synchronized long[] report(long now) {
+        long[] values = new long[MODE_COUNT * COUNTER_COUNT];
+        for(int mode = 0; mode < MODE_COUNT; mode++) {
+            long time = modeTime[mode] + (mode == this.mode ? now - modeSince : 0);
+            int offset = mode * COUNTER_COUNT;
+            values[offset + MODE_TIME] = time;
+            if(time <= 0) {
+                continue;
+            }
+            for(int counter = WAKEUPS; counter < COUNTER_COUNT; counter++) {
+                long value = counters.get(offset + counter);
+                if(counter == PROCESSING_TIME) {
+                    value /= 1000;
+                }
+                values[offset + counter] = (long) ((double) value * HOUR / time);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,208 @@
+package com.machnev.sleepdevice.core.transport;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import java.util.UUID;
+
+/**
+ * {@link BleTransport} over the Android GATT client.
+ */
+public class AndroidGattTransport implements BleTransport {
+
+    private static final String TAG = AndroidGattTransport.class.getName();
+
+    private final BluetoothAdapter bluetoothAdapter;
+    private final String deviceAddr;
+    private final Context context;
+    private final GattCallback gattCallback = new GattCallback();
+    private final BroadcastReceiver adapterStateReceiver = new AdapterStateReceiver();
+
+    private volatile Callback callback;
+    private volatile BluetoothGatt gatt;
+    private boolean receiverRegistered;
+
+    public AndroidGattTransport(BluetoothAdapter bluetoothAdapter, String deviceAddr, Context context) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.deviceAddr = deviceAddr;
+        this.context = context;
+    }
+
+    @Override
+    public void open(Callback callback) {
+        this.callback = callback;
+        if(!receiverRegistered) {
+            context.registerReceiver(adapterStateReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
+            receiverRegistered = true;
+        }
+    }
+
+    @Override
+    public void release() {
+        if(receiverRegistered) {
+            context.unregisterReceiver(adapterStateReceiver);
+            receiverRegistered = false;
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return bluetoothAdapter.isEnabled();
+    }
+
+    @Override
+    public boolean connect(boolean reuseHandle) {
+        BluetoothGatt current = gatt;
+        if(reuseHandle && current != null) {
+            return current.connect();
+        }
+
+        if(current != null) {
+            current.close();
+        }
+        BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddr);
+        gatt = device.connectGatt(context, false, gattCallback);
+        return gatt != null;
+    }
+
+    @Override
+    public void disconnect() {
+        BluetoothGatt current = gatt;
+        if(current != null) {
+            current.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+        BluetoothGatt current = gatt;
+        gatt = null;
+        if(current != null) {
+            current.close();
+        }
+    }
+
+    @Override
+    public boolean discoverServices() {
+        BluetoothGatt current = gatt;
+        return current != null && current.discoverServices();
+    }
+
+    @Override
+    public boolean hasCharacteristics(UUID service, UUID... characteristics) {
+        BluetoothGatt current = gatt;
+        BluetoothGattService gattService = current != null ? current.getService(service) : null;
+        if(gattService == null) {
+            return false;
+        }
+        for(UUID characteristic : characteristics) {
+            if(gattService.getCharacteristic(characteristic) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGatt current = gatt;
+        BluetoothGattCharacteristic gattCharacteristic = find(current, service, characteristic);
+        return gattCharacteristic != null && current.readCharacteristic(gattCharacteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+        BluetoothGatt current = gatt;
+        BluetoothGattCharacteristic gattCharacteristic = find(current, service, characteristic);
+        if(gattCharacteristic == null) {
+            return false;
+        }
+        gattCharacteristic.setValue(value);
+        return current.writeCharacteristic(gattCharacteristic);
+    }
+
+    @Override
+    public boolean enableNotifications(UUID service, UUID characteristic) {
+        BluetoothGatt current = gatt;
+        BluetoothGattCharacteristic gattCharacteristic = find(current, service, characteristic);
+        if(gattCharacteristic == null) {
+            return false;
+        }
+        BluetoothGattDescriptor descriptor = gattCharacteristic.getDescriptor(SleepDeviceProfile.CLIENT_CHARACTERISTIC_CONFIG);
+        if(descriptor == null || !current.setCharacteristicNotification(gattCharacteristic, true)) {
+            return false;
+        }
+        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        return current.writeDescriptor(descriptor);
+    }
+
+    @Override
+    public String describe() {
+        return deviceAddr;
+    }
+
+    private static BluetoothGattCharacteristic find(BluetoothGatt gatt, UUID service, UUID characteristic) {
+        BluetoothGattService gattService = gatt != null ? gatt.getService(service) : null;
+        return gattService != null ? gattService.getCharacteristic(characteristic) : null;
+    }
+
+    private class GattCallback extends BluetoothGattCallback {
+
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            Log.i(TAG, deviceAddr + " connection state " + newState + ", status " + status);
+            if(newState == BluetoothGatt.STATE_CONNECTED) {
+                callback.onConnected();
+            } else if(newState == BluetoothGatt.STATE_DISCONNECTED) {
+                callback.onDisconnected();
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            callback.onServicesDiscovered(status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            callback.onCharacteristicChanged(characteristic.getUuid(), characteristic.getValue());
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            callback.onCharacteristicRead(characteristic.getUuid(), status == BluetoothGatt.GATT_SUCCESS, characteristic.getValue());
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            callback.onCharacteristicWrite(characteristic.getUuid(), status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            callback.onDescriptorWrite(descriptor.getUuid(), status == BluetoothGatt.GATT_SUCCESS);
+        }
+    }
+
+    private class AdapterStateReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR);
+            if(state == BluetoothAdapter.STATE_ON) {
+                callback.onAvailabilityChanged(true);
+            } else if(state == BluetoothAdapter.STATE_TURNING_OFF || state == BluetoothAdapter.STATE_OFF) {
+                callback.onAvailabilityChanged(false);
+            }
+        }
+    }
+}
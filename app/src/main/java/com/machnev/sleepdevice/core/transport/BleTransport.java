@@ -0,0 +1,84 @@
+package com.machnev.sleepdevice.core.transport;
+
+import java.util.UUID;
+
+/**
+ * Link to one BLE device, as used by {@link com.machnev.sleepdevice.core.BLEController}.
+ *
+ * Like Android GATT, operations only start the work and report completion through the
+ * {@link Callback}, on a thread of the transport. Only one read or write may be outstanding at a time.
+ */
+public interface BleTransport {
+
+    /**
+     * Starts reporting to the callback, including changes of {@link #isAvailable()}.
+     */
+    public void open(Callback callback);
+
+    /**
+     * Stops reporting availability changes. The connection must be closed separately.
+     */
+    public void release();
+
+    /**
+     * @return false while the radio is off and no connection can be made
+     */
+    public boolean isAvailable();
+
+    /**
+     * @param reuseHandle reconnect with the existing connection handle if there is one
+     * @return false if the attempt could not be started
+     */
+    public boolean connect(boolean reuseHandle);
+
+    /**
+     * Drops the link or cancels the attempt in progress, the handle stays usable for reconnects.
+     */
+    public void disconnect();
+
+    /**
+     * Releases the connection handle, no callbacks follow.
+     */
+    public void close();
+
+    public boolean discoverServices();
+
+    /**
+     * @return whether the discovered services contain the service with all the characteristics
+     */
+    public boolean hasCharacteristics(UUID service, UUID... characteristics);
+
+    public boolean readCharacteristic(UUID service, UUID characteristic);
+
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value);
+
+    /**
+     * Enables notifications of the characteristic, completion is reported as a write of
+     * {@link SleepDeviceProfile#CLIENT_CHARACTERISTIC_CONFIG}.
+     */
+    public boolean enableNotifications(UUID service, UUID characteristic);
+
+    /**
+     * @return a name of the device for logs
+     */
+    public String describe();
+
+    public static interface Callback {
+
+        public void onConnected();
+
+        public void onDisconnected();
+
+        public void onServicesDiscovered(boolean success);
+
+        public void onCharacteristicRead(UUID characteristic, boolean success, byte[] value);
+
+        public void onCharacteristicWrite(UUID characteristic, boolean success);
+
+        public void onDescriptorWrite(UUID descriptor, boolean success);
+
+        public void onCharacteristicChanged(UUID characteristic, byte[] value);
+
+        public void onAvailabilityChanged(boolean available);
+    }
+}
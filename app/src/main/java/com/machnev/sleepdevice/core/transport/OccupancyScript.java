@@ -0,0 +1,96 @@
+package com.machnev.sleepdevice.core.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Scripted occupancy of a simulated bed: a sequence of on-bed and not-on-bed periods, repeated
+ * unless {@link #once()} is set. The sensor reads the level of the current state plus gaussian noise.
+ */
+public class OccupancyScript {
+
+    private final float notOnBedLevel;
+    private final float onBedLevel;
+    private final float noise;
+
+    private final List<Long> durations = new ArrayList<>();
+    private final List<Boolean> states = new ArrayList<>();
+    private long length;
+    private boolean looping = true;
+
+    /**
+     * @param noise standard deviation of the sensor values
+     */
+    public OccupancyScript(float notOnBedLevel, float onBedLevel, float noise) {
+        this.notOnBedLevel = notOnBedLevel;
+        this.onBedLevel = onBedLevel;
+        this.noise = noise;
+    }
+
+    public OccupancyScript onBed(long durationMillis) {
+        return then(true, durationMillis);
+    }
+
+    public OccupancyScript notOnBed(long durationMillis) {
+        return then(false, durationMillis);
+    }
+
+    /**
+     * Keeps the last state once the script has ended.
+     */
+    public OccupancyScript once() {
+        looping = false;
+        return this;
+    }
+
+    public float getNotOnBedLevel() {
+        return notOnBedLevel;
+    }
+
+    public float getOnBedLevel() {
+        return onBedLevel;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @param timeMillis time since the notifications started
+     */
+    public boolean isOnBed(long timeMillis) {
+        if(length == 0) {
+            return false;
+        }
+        if(timeMillis >= length) {
+            if(!looping) {
+                return states.get(states.size() - 1);
+            }
+            timeMillis %= length;
+        }
+
+        for(int i = 0; i < durations.size(); i++) {
+            timeMillis -= durations.get(i);
+            if(timeMillis < 0) {
+                return states.get(i);
+            }
+        }
+        return states.get(states.size() - 1);
+    }
+
+    public float value(long timeMillis, Random random) {
+        float level = isOnBed(timeMillis) ? onBedLevel : notOnBedLevel;
+        return noise > 0 ? level + (float) random.nextGaussian() * noise : level;
+    }
+
+    private OccupancyScript then(boolean onBed, long durationMillis) {
+        if(durationMillis <= 0) {
+            throw new IllegalArgumentException("Duration must be positive: " + durationMillis);
+        }
+        durations.add(durationMillis);
+        states.add(onBed);
+        length += durationMillis;
+        return this;
+    }
+}
@@ -0,0 +1,503 @@
+package com.machnev.sleepdevice.core.transport;
+
+import com.machnev.sleepdevice.core.SampleDecoder;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sleep device simulated in the JVM, with the same service and characteristics as the real one.
+ *
+ * Sensor values follow an {@link OccupancyScript}. The notification rate, the latency of every
+ * response, the share of lost notifications and periodic link losses are configurable, so the
+ * whole pipeline above the transport can be driven without a phone, at rates well beyond the
+ * hardware. Like Android GATT, only one read or write may be outstanding and further ones are refused.
+ *
+ * Callbacks run on the given scheduler. Configuration changes apply to the next connection.
+ */
+public class SimulatedSleepDevice implements BleTransport {
+
+    public static final double DEFAULT_NOTIFICATION_RATE = 10;
+
+    // Faster rates send several notifications per timer tick.
+    private static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ScheduledExecutorService scheduler;
+    private final OccupancyScript script;
+    private final Random random;
+
+    private double notificationRate = DEFAULT_NOTIFICATION_RATE;
+    private long latency;
+    private double packetLoss;
+    private long disconnectInterval;
+    private boolean supported = true;
+    private boolean powered = true;
+    private boolean inRange = true;
+
+    private Callback callback;
+    private boolean open;
+    private boolean connecting;
+    private boolean connected;
+    private boolean busy;
+    // Changes whenever the link goes up or down, so that tasks of an earlier link do nothing.
+    private long link;
+    private ScheduledFuture<?> notificationTask;
+    private ScheduledFuture<?> disconnectTask;
+    private long linkSamples;
+    private double pendingSamples;
+
+    private byte[] onBedValue;
+    private byte[] notOnBedValue;
+
+    private long notificationsSent;
+    private long notificationsLost;
+    private int connections;
+
+    /**
+     * The device starts calibrated with the levels of the script.
+     */
+    public SimulatedSleepDevice(ScheduledExecutorService scheduler, OccupancyScript script, Random random) {
+        this.scheduler = scheduler;
+        this.script = script;
+        this.random = random;
+        this.onBedValue = SampleDecoder.encodeFloat(script.getOnBedLevel());
+        this.notOnBedValue = SampleDecoder.encodeFloat(script.getNotOnBedLevel());
+    }
+
+    public synchronized void setNotificationRate(double perSecond) {
+        if(perSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + perSecond);
+        }
+        this.notificationRate = perSecond;
+    }
+
+    /**
+     * @param latency delay of every response and notification, in milliseconds
+     */
+    public synchronized void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param packetLoss probability of a notification getting lost, from 0 to 1
+     */
+    public synchronized void setPacketLoss(double packetLoss) {
+        this.packetLoss = packetLoss;
+    }
+
+    /**
+     * @param disconnectInterval time after which every connection is lost, 0 to keep connections
+     */
+    public synchronized void setDisconnectInterval(long disconnectInterval) {
+        this.disconnectInterval = disconnectInterval;
+    }
+
+    /**
+     * @param supported false to advertise a different service, as a foreign device would
+     */
+    public synchronized void setSupported(boolean supported) {
+        this.supported = supported;
+    }
+
+    /**
+     * Overrides the stored settings, zeros act as an uncalibrated device.
+     */
+    public synchronized void setStatusSettings(float onBed, float notOnBed) {
+        onBedValue = SampleDecoder.encodeFloat(onBed);
+        notOnBedValue = SampleDecoder.encodeFloat(notOnBed);
+    }
+
+    public synchronized float getOnBedSetting() {
+        return SampleDecoder.decodeFloat(onBedValue);
+    }
+
+    public synchronized float getNotOnBedSetting() {
+        return SampleDecoder.decodeFloat(notOnBedValue);
+    }
+
+    /**
+     * Switches the simulated radio, like turning the Bluetooth adapter on or off.
+     */
+    public void setPowered(boolean powered) {
+        boolean report;
+        synchronized (this) {
+            if(this.powered == powered) {
+                return;
+            }
+            this.powered = powered;
+            report = open;
+            if(!powered) {
+                dropLink();
+                if(connecting) {
+                    connecting = false;
+                    link++;
+                }
+            }
+        }
+        if(report) {
+            deliverAvailability(powered);
+        }
+    }
+
+    /**
+     * Moves the device out of range, which loses the link and leaves connect attempts pending,
+     * or back in range.
+     */
+    public void setInRange(boolean inRange) {
+        synchronized (this) {
+            this.inRange = inRange;
+            if(!inRange) {
+                // A connect attempt stays pending until the device is back.
+                dropLink();
+            } else if(connecting) {
+                scheduleConnected(link);
+            }
+        }
+    }
+
+    /**
+     * Loses the link now, as if the device went out of range for a moment.
+     */
+    public synchronized void dropConnection() {
+        dropLink();
+    }
+
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    public synchronized long notificationsSent() {
+        return notificationsSent;
+    }
+
+    public synchronized long notificationsLost() {
+        return notificationsLost;
+    }
+
+    public synchronized int connections() {
+        return connections;
+    }
+
+    @Override
+    public synchronized void open(Callback callback) {
+        this.callback = callback;
+        this.open = true;
+    }
+
+    @Override
+    public synchronized void release() {
+        open = false;
+    }
+
+    @Override
+    public synchronized boolean isAvailable() {
+        return powered;
+    }
+
+    @Override
+    public synchronized boolean connect(boolean reuseHandle) {
+        if(!powered) {
+            return false;
+        }
+        if(connected || connecting) {
+            return true;
+        }
+        connecting = true;
+        link++;
+        if(inRange) {
+            scheduleConnected(link);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if(connected) {
+            dropLink();
+        } else if(connecting) {
+            connecting = false;
+            link++;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        connecting = false;
+        connected = false;
+        busy = false;
+        link++;
+        cancelTasks();
+    }
+
+    @Override
+    public synchronized boolean discoverServices() {
+        if(!connected) {
+            return false;
+        }
+        final long current = link;
+        later(new Runnable() {
+            @Override
+            public void run() {
+                if(isLink(current)) {
+                    callback.onServicesDiscovered(true);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean hasCharacteristics(UUID service, UUID... characteristics) {
+        if(!supported || !SleepDeviceProfile.SERVICE_UUID.equals(service)) {
+            return false;
+        }
+        for(UUID characteristic : characteristics) {
+            if(!isKnown(characteristic)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean readCharacteristic(UUID service, final UUID characteristic) {
+        if(!startOperation(service, characteristic)) {
+            return false;
+        }
+        final byte[] value = Arrays.copyOf(storedValue(characteristic), SampleDecoder.FLOAT_SIZE);
+        final long current = link;
+        later(new Runnable() {
+            @Override
+            public void run() {
+                if(finishOperation(current)) {
+                    callback.onCharacteristicRead(characteristic, true, value);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean writeCharacteristic(UUID service, final UUID characteristic, byte[] value) {
+        if(SleepDeviceProfile.CHARACTERISTIC_SENSOR_VALUE.equals(characteristic)
+                || !startOperation(service, characteristic)) {
+            return false;
+        }
+        if(SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE.equals(characteristic)) {
+            onBedValue = Arrays.copyOf(value, value.length);
+        } else {
+            notOnBedValue = Arrays.copyOf(value, value.length);
+        }
+        final long current = link;
+        later(new Runnable() {
+            @Override
+            public void run() {
+                if(finishOperation(current)) {
+                    callback.onCharacteristicWrite(characteristic, true);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean enableNotifications(UUID service, UUID characteristic) {
+        if(!SleepDeviceProfile.CHARACTERISTIC_SENSOR_VALUE.equals(characteristic)
+                || !startOperation(service, characteristic)) {
+            return false;
+        }
+        final long current = link;
+        later(new Runnable() {
+            @Override
+            public void run() {
+                if(finishOperation(current)) {
+                    startNotifications(current);
+                    callback.onDescriptorWrite(SleepDeviceProfile.CLIENT_CHARACTERISTIC_CONFIG, true);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public String describe() {
+        return "simulated sleep device";
+    }
+
+    private boolean isKnown(UUID characteristic) {
+        return SleepDeviceProfile.CHARACTERISTIC_SENSOR_VALUE.equals(characteristic)
+                || SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE.equals(characteristic)
+                || SleepDeviceProfile.CHARACTERISTIC_NOT_ON_BED_VALUE.equals(characteristic);
+    }
+
+    private byte[] storedValue(UUID characteristic) {
+        if(SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE.equals(characteristic)) {
+            return onBedValue;
+        }
+        if(SleepDeviceProfile.CHARACTERISTIC_NOT_ON_BED_VALUE.equals(characteristic)) {
+            return notOnBedValue;
+        }
+        return new byte[SampleDecoder.FLOAT_SIZE];
+    }
+
+    private boolean startOperation(UUID service, UUID characteristic) {
+        if(!connected || busy || !hasCharacteristics(service, characteristic)) {
+            return false;
+        }
+        busy = true;
+        return true;
+    }
+
+    private synchronized boolean finishOperation(long forLink) {
+        if(link != forLink) {
+            return false;
+        }
+        busy = false;
+        return true;
+    }
+
+    private synchronized boolean isLink(long forLink) {
+        return link == forLink;
+    }
+
+    private void scheduleConnected(final long forLink) {
+        later(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SimulatedSleepDevice.this) {
+                    if(link != forLink || !connecting || !inRange) {
+                        return;
+                    }
+                    connecting = false;
+                    connected = true;
+                    connections++;
+                    if(disconnectInterval > 0) {
+                        disconnectTask = scheduler.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                synchronized (SimulatedSleepDevice.this) {
+                                    if(link == forLink) {
+                                        dropLink();
+                                    }
+                                }
+                            }
+                        }, disconnectInterval, TimeUnit.MILLISECONDS);
+                    }
+                }
+                callback.onConnected();
+            }
+        });
+    }
+
+    private void startNotifications(long forLink) {
+        synchronized (this) {
+            if(link != forLink || notificationTask != null) {
+                return;
+            }
+            linkSamples = 0;
+            pendingSamples = 0;
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / notificationRate);
+            final long tick = Math.max(interval, MIN_TICK_NANOS);
+            final double perTick = notificationRate * tick / TimeUnit.SECONDS.toNanos(1);
+            notificationTask = scheduler.scheduleAtFixedRate(new NotificationTask(forLink, notificationRate, perTick, packetLoss),
+                    TimeUnit.MILLISECONDS.toNanos(latency), tick, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void dropLink() {
+        cancelTasks();
+        busy = false;
+        if(!connected) {
+            return;
+        }
+        connected = false;
+        link++;
+        final long current = link;
+        later(new Runnable() {
+            @Override
+            public void run() {
+                if(isLink(current)) {
+                    callback.onDisconnected();
+                }
+            }
+        });
+    }
+
+    private void cancelTasks() {
+        if(notificationTask != null) {
+            notificationTask.cancel(false);
+            notificationTask = null;
+        }
+        if(disconnectTask != null) {
+            disconnectTask.cancel(false);
+            disconnectTask = null;
+        }
+    }
+
+    private void deliverAvailability(final boolean available) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onAvailabilityChanged(available);
+            }
+        });
+    }
+
+    private void later(Runnable task) {
+        if(latency > 0) {
+            scheduler.schedule(task, latency, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.execute(task);
+        }
+    }
+
+    private class NotificationTask implements Runnable {
+        private final long forLink;
+        private final double rate;
+        private final double perTick;
+        private final double loss;
+
+        private NotificationTask(long forLink, double rate, double perTick, double loss) {
+            this.forLink = forLink;
+            this.rate = rate;
+            this.perTick = perTick;
+            this.loss = loss;
+        }
+
+        @Override
+        public void run() {
+            int count;
+            long first;
+            synchronized (SimulatedSleepDevice.this) {
+                if(link != forLink) {
+                    return;
+                }
+                pendingSamples += perTick;
+                count = (int) pendingSamples;
+                pendingSamples -= count;
+                first = linkSamples;
+                linkSamples += count;
+            }
+
+            int sent = 0;
+            for(int i = 0; i < count; i++) {
+                if(loss > 0 && random.nextDouble() < loss) {
+                    continue;
+                }
+                long time = (long) ((first + i) * 1000 / rate);
+                callback.onCharacteristicChanged(SleepDeviceProfile.CHARACTERISTIC_SENSOR_VALUE,
+                        SampleDecoder.encodeFloat(script.value(time, random)));
+                sent++;
+            }
+
+            synchronized (SimulatedSleepDevice.this) {
+                notificationsSent += sent;
+                notificationsLost += count - sent;
+            }
+        }
+    }
+}
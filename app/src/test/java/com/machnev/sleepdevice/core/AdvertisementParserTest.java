@@ -0,0 +1,90 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class AdvertisementParserTest {
+
+    private static final UUID SERVICE = UUID.fromString("a22b1352-4007-11e8-b467-0ed5f89f718b");
+
+    @Test
+    public void findsServiceUuidAmongOtherStructures() {
+        byte[] record = concat(
+                new byte[] {2, 0x01, 0x06},
+                uuidStructure(0x06, UUID.fromString("00000000-0000-1000-8000-00805f9b34fb")),
+                uuidStructure(0x07, SERVICE),
+                new byte[] {5, 0x09, 'B', 'e', 'd', '1'},
+                new byte[] {0, 0, 0});
+
+        assertTrue(AdvertisementParser.hasServiceUuid(record, SERVICE));
+        assertEquals("Bed1", AdvertisementParser.localName(record));
+    }
+
+    @Test
+    public void rejectsOtherAndMalformedRecords() {
+        byte[] other = uuidStructure(0x07, UUID.fromString("a22b1352-4007-11e8-b467-0ed5f89f718c"));
+        assertFalse(AdvertisementParser.hasServiceUuid(other, SERVICE));
+        assertFalse(AdvertisementParser.hasServiceUuid(null, SERVICE));
+
+        byte[] truncated = uuidStructure(0x07, SERVICE);
+        truncated[0] = 30;
+        assertFalse(AdvertisementParser.hasServiceUuid(truncated, SERVICE));
+        assertNull(AdvertisementParser.localName(truncated));
+    }
+
+    @Test
+    public void prefersCompleteLocalName() {
+        byte[] record = concat(new byte[] {3, 0x08, 'B', 'e'}, new byte[] {4, 0x09, 'B', 'e', 'd'});
+        assertEquals("Bed", AdvertisementParser.localName(record));
+        assertEquals("Be", AdvertisementParser.localName(new byte[] {3, 0x08, 'B', 'e'}));
+    }
+
+    @Test
+    public void tableKeepsOneEntryPerAddress() {
+        ScanResultTable table = new ScanResultTable();
+        assertTrue(table.update("A", "Bed", -80, 10).isNew());
+        assertTrue(table.update("B", null, -50, 20).isNew());
+
+        ScanResultTable.Entry entry = table.update("A", null, -40, 30);
+        assertFalse(entry.isNew());
+        assertEquals("Bed", entry.getName());
+        assertEquals(-40, entry.getRssi());
+        assertEquals(10, entry.getFirstSeen());
+        assertEquals(30, entry.getLastSeen());
+        assertEquals(2, entry.getSightings());
+
+        List<ScanResultTable.Entry> snapshot = table.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals("A", snapshot.get(0).address);
+        assertEquals("B", snapshot.get(1).address);
+    }
+
+    private static byte[] uuidStructure(int type, UUID uuid) {
+        byte[] structure = new byte[18];
+        structure[0] = 17;
+        structure[1] = (byte) type;
+        for(int i = 0; i < 8; i++) {
+            structure[2 + i] = (byte) (uuid.getLeastSignificantBits() >>> (8 * i));
+            structure[10 + i] = (byte) (uuid.getMostSignificantBits() >>> (8 * i));
+        }
+        return structure;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for(byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int offset = 0;
+        for(byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+}
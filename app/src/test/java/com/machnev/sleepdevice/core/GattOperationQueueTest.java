@@ -0,0 +1,112 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+
+    private static final UUID FIRST = UUID.randomUUID();
+    private static final UUID SECOND = UUID.randomUUID();
+
+    private ScheduledExecutorService scheduler;
+    private List<String> events;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        events = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void runsOneOperationAtATimeInOrder() {
+        GattOperationQueue queue = new GattOperationQueue(scheduler, 10000, 1);
+        queue.enqueue(new RecordingOperation(GattOperationQueue.READ_CHARACTERISTIC, FIRST, true, null));
+        queue.enqueue(new RecordingOperation(GattOperationQueue.WRITE_CHARACTERISTIC, SECOND, true, null));
+        assertEquals(Collections.singletonList("execute " + FIRST), events);
+
+        queue.onCompleted(GattOperationQueue.WRITE_CHARACTERISTIC, SECOND, true, null);
+        assertEquals(1, events.size());
+
+        queue.onCompleted(GattOperationQueue.READ_CHARACTERISTIC, FIRST, true, new byte[] {1});
+        assertEquals("complete " + FIRST + " true", events.get(1));
+        assertEquals("execute " + SECOND, events.get(2));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void retriesAfterTimeoutAndReportsFailure() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        GattOperationQueue queue = new GattOperationQueue(scheduler, 20, 3);
+        queue.enqueue(new RecordingOperation(GattOperationQueue.WRITE_DESCRIPTOR, FIRST, true, done));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(4, events.size());
+        assertEquals("execute " + FIRST, events.get(2));
+        assertEquals("complete " + FIRST + " false", events.get(3));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void retriesRefusedOperation() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        GattOperationQueue queue = new GattOperationQueue(scheduler, 10000, 2);
+        queue.enqueue(new RecordingOperation(GattOperationQueue.READ_CHARACTERISTIC, FIRST, false, done));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, events.size());
+        assertEquals("complete " + FIRST + " false", events.get(2));
+    }
+
+    @Test
+    public void clearFailsPendingOperations() {
+        GattOperationQueue queue = new GattOperationQueue(scheduler, 10000, 1);
+        queue.enqueue(new RecordingOperation(GattOperationQueue.READ_CHARACTERISTIC, FIRST, true, null));
+        queue.enqueue(new RecordingOperation(GattOperationQueue.READ_CHARACTERISTIC, SECOND, true, null));
+        queue.clear();
+
+        assertEquals(3, events.size());
+        assertEquals("complete " + FIRST + " false", events.get(1));
+        assertEquals("complete " + SECOND + " false", events.get(2));
+        assertEquals(0, queue.size());
+    }
+
+    private class RecordingOperation extends GattOperationQueue.Operation {
+        private final boolean accepted;
+
+        private RecordingOperation(int type, final UUID uuid, boolean accepted, final CountDownLatch done) {
+            super(type, uuid, new GattOperationQueue.OperationCallback() {
+                @Override
+                public void onOperationComplete(boolean success, byte[] value) {
+                    events.add("complete " + uuid + " " + success);
+                    if(done != null) {
+                        done.countDown();
+                    }
+                }
+            });
+            this.accepted = accepted;
+        }
+
+        @Override
+        protected boolean execute() {
+            events.add("execute " + getUuid());
+            return accepted;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class ReconnectManagerTest {
+
+    private ScheduledExecutorService scheduler;
+    private List<String> events;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        events = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void backoffGrowsWithJitterUpToLimit() {
+        ExponentialBackoff backoff = new ExponentialBackoff(100, 1000, new Random(1));
+        long[] ranges = {100, 200, 400, 800, 1000, 1000};
+        for(long range : ranges) {
+            long delay = backoff.nextDelay();
+            assertTrue(delay + " for " + range, delay >= range / 2 && delay <= range);
+        }
+        assertEquals(6, backoff.attempts());
+
+        backoff.reset();
+        assertTrue(backoff.nextDelay() <= 100);
+    }
+
+    @Test
+    public void reconnectsAtOnceReusingHandleAfterLoss() throws InterruptedException {
+        RecordingConnector connector = new RecordingConnector(true);
+        ReconnectManager manager = newManager(connector, 10000);
+        manager.start();
+        awaitEvents(1);
+        manager.onConnected();
+        assertTrue(manager.isConnected());
+
+        manager.onDisconnected();
+        awaitEvents(2);
+        assertEquals("connect full", events.get(0));
+        assertEquals("connect reuse", events.get(1));
+    }
+
+    @Test
+    public void fallsBackToNewHandleAfterFailedFastAttempts() throws InterruptedException {
+        RecordingConnector connector = new RecordingConnector(true);
+        ReconnectManager manager = newManager(connector, 20);
+        // Connects at once, the short timeout must not race the first attempt.
+        connector.connectedManager = manager;
+        manager.start();
+        awaitEvents(1);
+        assertTrue(manager.isConnected());
+        manager.onDisconnected();
+
+        // Each attempt times out: connect, cancel, failed.
+        awaitEvents(1 + 3 * 3);
+        manager.stop();
+        assertEquals("connect reuse", events.get(1));
+        assertEquals("cancel", events.get(2));
+        assertEquals("connect reuse", events.get(4));
+        assertEquals("connect full", events.get(7));
+        assertTrue(events.contains("failed 3"));
+    }
+
+    @Test
+    public void waitsForAdapterAndStartsFreshConnection() throws InterruptedException {
+        RecordingConnector connector = new RecordingConnector(true);
+        ReconnectManager manager = newManager(connector, 10000);
+        manager.onAdapterStateChanged(false);
+        manager.start();
+        Thread.sleep(50);
+        assertTrue(events.isEmpty());
+
+        manager.onAdapterStateChanged(true);
+        awaitEvents(1);
+        manager.onConnected();
+
+        manager.onAdapterStateChanged(false);
+        assertEquals("close", events.get(1));
+        assertFalse(manager.isConnected());
+
+        manager.onAdapterStateChanged(true);
+        awaitEvents(3);
+        assertEquals("connect full", events.get(2));
+    }
+
+    @Test
+    public void refusedAttemptIsRetriedWithBackoff() throws InterruptedException {
+        RecordingConnector connector = new RecordingConnector(false);
+        ReconnectManager manager = newManager(connector, 10000);
+        manager.start();
+        awaitEvents(4);
+        manager.stop();
+
+        assertEquals("connect full", events.get(0));
+        assertEquals("failed 1", events.get(1));
+        assertEquals("connect full", events.get(2));
+        assertEquals("failed 2", events.get(3));
+    }
+
+    private ReconnectManager newManager(RecordingConnector connector, long attemptTimeout) {
+        ExponentialBackoff backoff = new ExponentialBackoff(1, 4, new Random(1));
+        return new ReconnectManager(scheduler, connector, backoff, attemptTimeout, 2);
+    }
+
+    private void awaitEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (events.size() < count) {
+            assertTrue("Expected " + count + " events: " + events, System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private class RecordingConnector implements ReconnectManager.Connector {
+        private final boolean accept;
+        private ReconnectManager connectedManager;
+
+        private RecordingConnector(boolean accept) {
+            this.accept = accept;
+        }
+
+        @Override
+        public boolean connect(boolean reuseHandle) {
+            if(connectedManager != null) {
+                connectedManager.onConnected();
+                connectedManager = null;
+            }
+            events.add(reuseHandle ? "connect reuse" : "connect full");
+            return accept;
+        }
+
+        @Override
+        public void cancel() {
+            events.add("cancel");
+        }
+
+        @Override
+        public void close() {
+            events.add("close");
+        }
+
+        @Override
+        public void onAttemptFailed(int failedAttempts) {
+            events.add("failed " + failedAttempts);
+        }
+    }
+}
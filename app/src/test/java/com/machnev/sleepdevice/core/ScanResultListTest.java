@@ -0,0 +1,52 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ScanResultListTest {
+
+    @Test
+    public void reportsInsertsAndVisibleChangesOnly() {
+        ScanResultTable table = new ScanResultTable();
+        ScanResultList list = new ScanResultList();
+
+        assertEquals(ScanResultList.INSERTED, list.update(table.update("A", "Bed", -70, 1)));
+        assertEquals(ScanResultList.INSERTED, list.update(table.update("B", "Bed 2", -40, 2)));
+        assertEquals(ScanResultList.UNCHANGED, list.update(table.update("A", null, -70, 3)));
+        assertEquals(ScanResultList.CHANGED, list.update(table.update("A", null, -60, 4)));
+
+        // Rows keep the order in which devices were found.
+        assertEquals(2, list.size());
+        assertEquals("A", list.get(0).address);
+        assertEquals(-60, list.get(0).getRssi());
+        assertEquals(1, list.indexOf("B"));
+    }
+
+    @Test
+    public void idsStayWithAddressAcrossRemovals() {
+        ScanResultTable table = new ScanResultTable();
+        ScanResultList list = new ScanResultList();
+        ScanResultTable.Entry a = table.update("A", null, -70, 1);
+        ScanResultTable.Entry b = table.update("B", null, -70, 1);
+        ScanResultTable.Entry c = table.update("C", null, -70, 1);
+        list.update(a);
+        list.update(b);
+        list.update(c);
+        long idB = list.getId(1);
+        long idC = list.getId(2);
+
+        assertEquals(1, list.retain(Arrays.asList(b, c)));
+        assertEquals(idB, list.getId(0));
+        assertEquals(idC, list.getId(1));
+        assertEquals(-1, list.indexOf("A"));
+        assertEquals(1, list.indexOf("C"));
+
+        list.update(a);
+        assertNotEquals(idB, list.getId(2));
+        assertNotEquals(idC, list.getId(2));
+        assertEquals(0, list.retain(Arrays.asList(a, b, c)));
+    }
+}
@@ -0,0 +1,96 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ConnectionTimelineTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("latency", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void bucketsStayWithinRelativeError() {
+        for(long value = 0; value < 5000000; value = value * 2 + 7) {
+            int bucket = LatencyHistogram.bucket(value);
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue(value + " <= " + upper, value <= upper);
+            assertTrue(value + " ~ " + upper, upper - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void reportsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 1; i <= 100; i++) {
+            histogram.record(i * 10);
+        }
+
+        assertEquals(100, histogram.count());
+        assertEquals(505, histogram.mean());
+        assertEquals(1000, histogram.max());
+        assertEquals(500, histogram.percentile(50), 500 / 8);
+        assertEquals(900, histogram.percentile(90), 900 / 8);
+        assertEquals(1000, histogram.percentile(100));
+        assertEquals(0, new LatencyHistogram().percentile(50));
+    }
+
+    @Test
+    public void recordsEachPhaseOncePerTimeline() {
+        ConnectionTimeline timeline = new ConnectionTimeline();
+        assertFalse(timeline.mark(ConnectionTimeline.PHASE_CONNECTED, 10));
+
+        timeline.start(1000);
+        assertTrue(timeline.mark(ConnectionTimeline.PHASE_GATT_CONNECT, 1100));
+        assertTrue(timeline.mark(ConnectionTimeline.PHASE_CONNECTED, 1400));
+        assertFalse(timeline.mark(ConnectionTimeline.PHASE_CONNECTED, 1500));
+        assertTrue(timeline.isMarked(ConnectionTimeline.PHASE_CONNECTED));
+
+        timeline.start(5000);
+        assertFalse(timeline.isMarked(ConnectionTimeline.PHASE_CONNECTED));
+        assertTrue(timeline.mark(ConnectionTimeline.PHASE_CONNECTED, 5004));
+
+        ConnectionLatencyReport report = ConnectionLatencyReport.of(timeline);
+        assertEquals(2, report.counts[ConnectionTimeline.PHASE_CONNECTED]);
+        assertEquals(1, report.counts[ConnectionTimeline.PHASE_GATT_CONNECT]);
+        assertEquals(100, report.medians[ConnectionTimeline.PHASE_GATT_CONNECT], 100 / 8);
+        assertEquals(4, report.medians[ConnectionTimeline.PHASE_CONNECTED]);
+        assertEquals(400, report.totalP90[ConnectionTimeline.PHASE_CONNECTED], 400 / 8);
+    }
+
+    @Test
+    public void persistsHistograms() throws IOException {
+        ConnectionTimeline timeline = new ConnectionTimeline();
+        timeline.start(0);
+        timeline.mark(ConnectionTimeline.PHASE_SERVICE_STARTED, 30);
+        timeline.mark(ConnectionTimeline.PHASE_FIRST_SAMPLE, 2500);
+        timeline.save(file);
+
+        ConnectionTimeline loaded = new ConnectionTimeline();
+        loaded.load(file);
+        loaded.start(0);
+        loaded.mark(ConnectionTimeline.PHASE_FIRST_SAMPLE, 3000);
+
+        ConnectionLatencyReport report = ConnectionLatencyReport.of(loaded);
+        assertEquals(1, report.counts[ConnectionTimeline.PHASE_SERVICE_STARTED]);
+        assertEquals(30, report.medians[ConnectionTimeline.PHASE_SERVICE_STARTED], 30 / 8);
+        assertEquals(2, report.counts[ConnectionTimeline.PHASE_FIRST_SAMPLE]);
+        assertEquals(3000, report.totalP90[ConnectionTimeline.PHASE_FIRST_SAMPLE]);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+}
@@ -0,0 +1,85 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PipelineMetricsTest {
+
+    @Test
+    public void concurrentHistogramMatchesLatencyHistogram() {
+        ConcurrentHistogram concurrent = new ConcurrentHistogram();
+        LatencyHistogram expected = new LatencyHistogram();
+        for(int i = 0; i < 1000; i++) {
+            long value = (i * 37) % 5000;
+            concurrent.record(value);
+            expected.record(value);
+        }
+
+        LatencyHistogram snapshot = concurrent.snapshot();
+        assertEquals(expected.count(), snapshot.count());
+        assertEquals(expected.mean(), snapshot.mean());
+        assertEquals(expected.max(), snapshot.max());
+        assertEquals(expected.percentile(50), snapshot.percentile(50));
+        assertEquals(expected.percentile(99), snapshot.percentile(99));
+    }
+
+    @Test
+    public void countsFromManyThreads() throws InterruptedException {
+        final PipelineMetrics metrics = new PipelineMetrics();
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < 10000; i++) {
+                        metrics.onNotification(4, i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, metrics.get(MetricsReport.NOTIFICATIONS));
+        assertEquals(160000, metrics.get(MetricsReport.BYTES_RECEIVED));
+        assertEquals(40000, metrics.decodeTime().count());
+        assertEquals(9999, metrics.decodeTime().max());
+    }
+
+    @Test
+    public void reportsReconnectsAndRates() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.onConnectAttempt();
+        metrics.onConnected();
+        metrics.onConnectAttempt();
+        metrics.onConnectAttempt();
+        metrics.onConnected();
+
+        ClientMetrics client = new ClientMetrics();
+        client.onSent(2000);
+        client.onFailed();
+
+        LatencyHistogram queueDelay = new LatencyHistogram();
+        MetricsReport first = MetricsReport.of(1000, metrics, queueDelay, Arrays.asList(client));
+        assertEquals(3, first.counters[MetricsReport.CONNECT_ATTEMPTS]);
+        assertEquals(2, first.counters[MetricsReport.CONNECTIONS]);
+        assertEquals(1, first.counters[MetricsReport.RECONNECTS]);
+        assertEquals(1, first.clientCount());
+        assertEquals(1, first.clients[MetricsReport.CLIENT_FAILED]);
+        assertEquals(2, first.clients[MetricsReport.CLIENT_SEND_TIME + MetricsReport.MAX]);
+
+        for(int i = 0; i < 50; i++) {
+            metrics.onNotification(4, 100);
+        }
+        MetricsReport second = MetricsReport.of(1500, metrics, queueDelay, Collections.<ClientMetrics>emptyList());
+        assertEquals(100, second.rate(first, MetricsReport.NOTIFICATIONS), 0.001);
+        assertEquals(0, second.rate(null, MetricsReport.NOTIFICATIONS), 0);
+        assertTrue(second.toString(first).contains("notifications: 50, 100.0/s"));
+    }
+}
@@ -0,0 +1,46 @@
+package com.machnev.sleepdevice.core.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PowerMetricsTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void countsPerHourOfEachMode() {
+        PowerMetrics metrics = new PowerMetrics(0);
+        for(int i = 0; i < 600; i++) {
+            metrics.onWakeup(50000);
+            metrics.onMessage();
+        }
+        metrics.setMode(PowerMetrics.MODE_SLEEP, 30 * MINUTE);
+        metrics.onWakeup(2000000);
+        metrics.onProcessing(1000000);
+        metrics.onWakeLockReleased(40);
+
+        long[] report = metrics.report(60 * MINUTE);
+        int normal = PowerMetrics.MODE_NORMAL * PowerMetrics.COUNTER_COUNT;
+        int sleep = PowerMetrics.MODE_SLEEP * PowerMetrics.COUNTER_COUNT;
+        assertEquals(30 * MINUTE, report[normal + PowerMetrics.MODE_TIME]);
+        assertEquals(1200, report[normal + PowerMetrics.WAKEUPS]);
+        assertEquals(1200, report[normal + PowerMetrics.MESSAGES]);
+        assertEquals(60000, report[normal + PowerMetrics.PROCESSING_TIME]);
+
+        assertEquals(30 * MINUTE, report[sleep + PowerMetrics.MODE_TIME]);
+        assertEquals(2, report[sleep + PowerMetrics.WAKEUPS]);
+        assertEquals(6000, report[sleep + PowerMetrics.PROCESSING_TIME]);
+        assertEquals(2, report[sleep + PowerMetrics.WAKE_LOCKS]);
+        assertEquals(80, report[sleep + PowerMetrics.WAKE_LOCK_TIME]);
+    }
+
+    @Test
+    public void modeWithoutTimeReportsNothing() {
+        PowerMetrics metrics = new PowerMetrics(0);
+        metrics.onWakeup(1000);
+        long[] report = metrics.report(0);
+        assertEquals(0, report[PowerMetrics.WAKEUPS]);
+        assertEquals(0, report[PowerMetrics.COUNTER_COUNT + PowerMetrics.WAKEUPS]);
+    }
+}
@@ -0,0 +1,329 @@
+package com.machnev.sleepdevice.core.transport;
+
+import com.machnev.sleepdevice.core.BLEController;
+import com.machnev.sleepdevice.core.SampleDecoder;
+import com.machnev.sleepdevice.core.metrics.ConnectionTimeline;
+import com.machnev.sleepdevice.core.metrics.PipelineMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SimulatedSleepDeviceTest {
+
+    private ScheduledExecutorService scheduler;
+    private List<String> events;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        events = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void scriptLoopsOrHoldsLastState() {
+        OccupancyScript script = new OccupancyScript(10, 100, 0).notOnBed(1000).onBed(3000);
+        assertFalse(script.isOnBed(999));
+        assertTrue(script.isOnBed(1000));
+        assertFalse(script.isOnBed(4500));
+        assertEquals(100, script.value(5000, new Random(1)), 0);
+
+        script.once();
+        assertTrue(script.isOnBed(4500));
+        assertFalse(new OccupancyScript(10, 100, 0).isOnBed(0));
+    }
+
+    @Test
+    public void servesProfileAndRefusesConcurrentOperations() throws InterruptedException {
+        SimulatedSleepDevice device = newDevice();
+        // Keeps the write outstanding while the read is tried.
+        device.setLatency(50);
+        device.open(new RecordingCallback());
+        assertTrue(device.connect(false));
+        awaitEvent("connected");
+
+        assertTrue(device.hasCharacteristics(SleepDeviceProfile.SERVICE_UUID, SleepDeviceProfile.CHARACTERISTIC_SENSOR_VALUE,
+                SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE, SleepDeviceProfile.CHARACTERISTIC_NOT_ON_BED_VALUE));
+        assertFalse(device.hasCharacteristics(UUID.randomUUID()));
+
+        assertTrue(device.writeCharacteristic(SleepDeviceProfile.SERVICE_UUID, SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE,
+                SampleDecoder.encodeFloat(150)));
+        assertFalse(device.readCharacteristic(SleepDeviceProfile.SERVICE_UUID, SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE));
+        awaitEvent("write " + SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE);
+        assertTrue(device.readCharacteristic(SleepDeviceProfile.SERVICE_UUID, SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE));
+        awaitEvent("read 150.0");
+
+        assertTrue(device.enableNotifications(SleepDeviceProfile.SERVICE_UUID, SleepDeviceProfile.CHARACTERISTIC_SENSOR_VALUE));
+        awaitEvent("value 10.0");
+
+        device.dropConnection();
+        awaitEvent("disconnected");
+        assertFalse(device.isConnected());
+        assertFalse(device.readCharacteristic(SleepDeviceProfile.SERVICE_UUID, SleepDeviceProfile.CHARACTERISTIC_ON_BED_VALUE));
+    }
+
+    @Test
+    public void losesConfiguredShareOfNotifications() throws InterruptedException {
+        SimulatedSleepDevice device = newDevice();
+        device.setNotificationRate(20000);
+        device.setPacketLoss(0.5);
+        device.open(new RecordingCallback());
+        device.connect(false);
+        awaitEvent("connected");
+        device.enableNotifications(SleepDeviceProfile.SERVICE_UUID, SleepDeviceProfile.CHARACTERISTIC_SENSOR_VALUE);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (device.notificationsSent() + device.notificationsLost() < 2000) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        device.close();
+        double lost = (double) device.notificationsLost() / (device.notificationsSent() + device.notificationsLost());
+        assertEquals(0.5, lost, 0.1);
+    }
+
+    @Test
+    public void drivesControllerThroughLinkLosses() throws InterruptedException {
+        SimulatedSleepDevice device = newDevice();
+        device.setNotificationRate(5000);
+        device.setLatency(1);
+        device.setDisconnectInterval(100);
+
+        final AtomicInteger values = new AtomicInteger();
+        final AtomicInteger disconnects = new AtomicInteger();
+        final List<Float> settings = Collections.synchronizedList(new ArrayList<Float>());
+        BLEController controller = new BLEController(device, scheduler, new ConnectionTimeline(), new BLEController.IDeviceListener() {
+            @Override
+            public void onValueChanged(float newValue) {
+                values.incrementAndGet();
+            }
+
+            @Override
+            public void onNewStatusSettings(float onBedValue, float notOnBedValue) {
+                settings.add(onBedValue);
+                settings.add(notOnBedValue);
+            }
+
+            @Override
+            public void onConnected() {
+            }
+
+            @Override
+            public void onDisconnected() {
+                disconnects.incrementAndGet();
+            }
+
+            @Override
+            public void deviceNotSupported() {
+                fail("Device not supported");
+            }
+
+            @Override
+            public void couldNotConnect() {
+            }
+        });
+        controller.connect();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (device.connections() < 3 || values.get() < 500) {
+            assertTrue("Connections " + device.connections() + ", values " + values.get(), System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        controller.disconnect();
+
+        assertTrue(disconnects.get() >= 2);
+        assertEquals(100, settings.get(0), 0);
+        assertEquals(10, settings.get(1), 0);
+        assertTrue(controller.isOnBedInitialized());
+    }
+
+    @Test
+    public void enablesNotificationsOnUncalibratedDevice() throws InterruptedException {
+        SimulatedSleepDevice device = newDevice();
+        device.setNotificationRate(1000);
+        device.setStatusSettings(0, 0);
+        RecordingListener listener = new RecordingListener();
+        BLEController controller = new BLEController(device, scheduler, new ConnectionTimeline(), new PipelineMetrics(),
+                new MemorySettingsCache(null), listener);
+        controller.connect();
+
+        awaitValues(listener, 10);
+        controller.disconnect();
+        assertTrue(listener.settings.isEmpty());
+        assertFalse(controller.isOnBedInitialized());
+    }
+
+    @Test
+    public void usesCachedSettingsUntilDeviceDiffers() throws InterruptedException {
+        SimulatedSleepDevice device = newDevice();
+        device.setLatency(5);
+        MemorySettingsCache cache = new MemorySettingsCache(new float[] {150, 20});
+        RecordingListener listener = new RecordingListener();
+        BLEController controller = new BLEController(device, scheduler, new ConnectionTimeline(), new PipelineMetrics(),
+                cache, listener);
+        controller.connect();
+
+        awaitSettings(listener, 4);
+        controller.disconnect();
+        assertEquals(Arrays.asList(150f, 20f, 100f, 10f), listener.settings);
+        assertArrayEquals(new float[] {100, 10}, cache.settings, 0);
+    }
+
+    @Test
+    public void restoresCachedSettingsOnResetDevice() throws InterruptedException {
+        SimulatedSleepDevice device = newDevice();
+        device.setStatusSettings(0, 0);
+        RecordingListener listener = new RecordingListener();
+        BLEController controller = new BLEController(device, scheduler, new ConnectionTimeline(), new PipelineMetrics(),
+                new MemorySettingsCache(new float[] {150, 20}), listener);
+        controller.connect();
+
+        awaitSettings(listener, 4);
+        controller.disconnect();
+        assertEquals(150, device.getOnBedSetting(), 0);
+        assertEquals(20, device.getNotOnBedSetting(), 0);
+        assertEquals(Arrays.asList(150f, 20f, 150f, 20f), listener.settings);
+    }
+
+    private SimulatedSleepDevice newDevice() {
+        OccupancyScript script = new OccupancyScript(10, 100, 0).notOnBed(60000);
+        return new SimulatedSleepDevice(scheduler, script, new Random(1));
+    }
+
+    private void awaitValues(RecordingListener listener, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.values.get() < count) {
+            assertTrue("Values " + listener.values.get(), System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitSettings(RecordingListener listener, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.settings.size() < count) {
+            assertTrue("Settings " + listener.settings, System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitEvent(String event) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!events.contains(event)) {
+            assertTrue("Expected " + event + ": " + events, System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static class RecordingListener implements BLEController.IDeviceListener {
+        private final AtomicInteger values = new AtomicInteger();
+        private final List<Float> settings = Collections.synchronizedList(new ArrayList<Float>());
+
+        @Override
+        public void onValueChanged(float newValue) {
+            values.incrementAndGet();
+        }
+
+        @Override
+        public void onNewStatusSettings(float onBedValue, float notOnBedValue) {
+            settings.add(onBedValue);
+            settings.add(notOnBedValue);
+        }
+
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        @Override
+        public void deviceNotSupported() {
+            fail("Device not supported");
+        }
+
+        @Override
+        public void couldNotConnect() {
+        }
+    }
+
+    private static class MemorySettingsCache implements BLEController.StatusSettingsCache {
+        private volatile float[] settings;
+
+        private MemorySettingsCache(float[] settings) {
+            this.settings = settings;
+        }
+
+        @Override
+        public float[] load() {
+            return settings;
+        }
+
+        @Override
+        public void save(float onBedValue, float notOnBedValue) {
+            settings = new float[] {onBedValue, notOnBedValue};
+        }
+    }
+
+    private class RecordingCallback implements BleTransport.Callback {
+        @Override
+        public void onConnected() {
+            events.add("connected");
+        }
+
+        @Override
+        public void onDisconnected() {
+            events.add("disconnected");
+        }
+
+        @Override
+        public void onServicesDiscovered(boolean success) {
+            events.add("discovered " + success);
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, boolean success, byte[] value) {
+            events.add("read " + SampleDecoder.decodeFloat(value));
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, boolean success) {
+            events.add("write " + characteristic);
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID descriptor, boolean success) {
+            events.add("descriptor " + descriptor);
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+            String event = "value " + SampleDecoder.decodeFloat(value);
+            if(!events.contains(event)) {
+                events.add(event);
+            }
+        }
+
+        @Override
+        public void onAvailabilityChanged(boolean available) {
+            events.add("available " + available);
+        }
+    }
+}
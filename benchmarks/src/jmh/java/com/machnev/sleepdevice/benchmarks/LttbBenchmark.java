@@ -0,0 +1,48 @@
+package com.machnev.sleepdevice.benchmarks;
+
+import com.machnev.sleepdevice.core.Lttb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downsampling of the visible range to the columns of a phone screen, the work
+ * SensorChartView does in a frame while panning or zooming. 3000 samples are the default 5
+ * minutes at 10 Hz, 262144 the whole history, a bit over 7 hours.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class LttbBenchmark {
+
+    @Param({"3000", "262144"})
+    public int samples;
+
+    @Param({"1080"})
+    public int columns;
+
+    private SyntheticNight night;
+    private long[] outTimestamps;
+    private float[] outValues;
+
+    @Setup
+    public void setUp() {
+        night = new SyntheticNight(samples, 7);
+        outTimestamps = new long[columns];
+        outValues = new float[columns];
+    }
+
+    @Benchmark
+    public float downsample() {
+        int count = Lttb.downsample(night.timestamps, night.values, samples, columns, outTimestamps, outValues);
+        return outValues[count - 1];
+    }
+}
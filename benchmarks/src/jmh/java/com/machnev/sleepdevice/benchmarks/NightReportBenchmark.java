@@ -0,0 +1,88 @@
+package com.machnev.sleepdevice.benchmarks;
+
+import com.machnev.sleepdevice.core.recording.SegmentWriter;
+import com.machnev.sleepdevice.core.recording.SessionRecorder;
+import com.machnev.sleepdevice.core.report.NightReport;
+import com.machnev.sleepdevice.core.report.NightReportGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report of a full 10 hour night recorded the way SessionRecorder does it: one block per
+ * second of samples, segments rolled at the default segment size. The cache is bypassed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class NightReportBenchmark {
+
+    private static final int SAMPLES = 10 * 3600 * 10;
+    private static final int BLOCK = 10;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private File root;
+    private File session;
+    private ForkJoinPool pool;
+    private NightReportGenerator generator;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticNight night = new SyntheticNight(SAMPLES, 7);
+        root = Files.createTempDirectory("night").toFile();
+        session = new File(root, String.valueOf(night.timestamps[0]));
+        if(!session.mkdirs()) {
+            throw new IOException("Could not create " + session);
+        }
+
+        int segment = 0;
+        SegmentWriter writer = SegmentWriter.create(new File(session, segment + ".seg"), segment);
+        for(int from = 0; from < SAMPLES; from += BLOCK) {
+            writer.append(Arrays.copyOfRange(night.timestamps, from, from + BLOCK),
+                    Arrays.copyOfRange(night.values, from, from + BLOCK),
+                    Arrays.copyOfRange(night.statuses, from, from + BLOCK), BLOCK);
+            if(writer.size() >= SessionRecorder.DEFAULT_SEGMENT_SIZE) {
+                writer.seal();
+                writer.close();
+                segment++;
+                writer = SegmentWriter.create(new File(session, segment + ".seg"), segment);
+            }
+        }
+        writer.seal();
+        writer.close();
+
+        pool = new ForkJoinPool(parallelism);
+        generator = new NightReportGenerator(pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+        for(File file : session.listFiles()) {
+            file.delete();
+        }
+        session.delete();
+        root.delete();
+    }
+
+    @Benchmark
+    public NightReport generate() throws IOException {
+        return generator.generate(session);
+    }
+}
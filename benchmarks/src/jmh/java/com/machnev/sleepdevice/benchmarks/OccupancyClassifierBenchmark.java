@@ -0,0 +1,63 @@
+package com.machnev.sleepdevice.benchmarks;
+
+import com.machnev.sleepdevice.core.OccupancyClassifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classifying samples into on bed and not on bed, per sample and in batches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class OccupancyClassifierBenchmark {
+
+    private static final int SAMPLES = 65536;
+    private static final int BATCH = 1024;
+
+    private SyntheticNight night;
+    private OccupancyClassifier classifier;
+    private int next;
+
+    private long[] transitionTimestamps;
+    private byte[] transitionStatuses;
+
+    @Setup
+    public void setUp() {
+        // Several transitions within the samples, so both branches of the hysteresis run.
+        night = new SyntheticNight(SAMPLES, 1);
+        for(int i = 0; i < SAMPLES; i++) {
+            if((i / 4096) % 2 == 1) {
+                night.values[i] += SyntheticNight.ON_BED_LEVEL - SyntheticNight.NOT_ON_BED_LEVEL;
+            }
+        }
+        classifier = new OccupancyClassifier();
+        classifier.configure(SyntheticNight.ON_BED_LEVEL, SyntheticNight.NOT_ON_BED_LEVEL);
+        transitionTimestamps = new long[BATCH];
+        transitionStatuses = new byte[BATCH];
+    }
+
+    @Benchmark
+    public boolean update() {
+        int i = next;
+        next = (i + 1) & (SAMPLES - 1);
+        return classifier.update(night.timestamps[i], night.values[i]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int updateBatch() {
+        int offset = next;
+        next = (offset + BATCH) & (SAMPLES - 1);
+        return classifier.update(night.timestamps, night.values, offset, BATCH, transitionTimestamps, transitionStatuses);
+    }
+}
@@ -0,0 +1,41 @@
+package com.machnev.sleepdevice.benchmarks;
+
+import com.machnev.sleepdevice.core.SampleDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a sensor notification, done for every sample received.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SampleDecoderBenchmark {
+
+    private byte[] notification;
+    private float value;
+
+    @Setup
+    public void setUp() {
+        notification = SampleDecoder.encodeFloat(1234.5f);
+        value = 1234.5f;
+    }
+
+    @Benchmark
+    public float decodeFloat() {
+        return SampleDecoder.isFloat(notification) ? SampleDecoder.decodeFloat(notification) : 0;
+    }
+
+    @Benchmark
+    public byte[] encodeFloat() {
+        return SampleDecoder.encodeFloat(value);
+    }
+}
@@ -0,0 +1,151 @@
+package com.machnev.sleepdevice.benchmarks;
+
+import com.machnev.sleepdevice.core.SampleBatch;
+import com.machnev.sleepdevice.core.SampleHandoff;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivery of one batch from the fan-out thread to a client thread and back, for the two paths
+ * of DeviceServiceBinding.
+ *
+ * Android classes are not available here, so the message path is modelled on what
+ * DeviceSession and DeviceServiceBinding do for a client in the same process: the arrays are
+ * copied into a new Bundle, here a HashMap, the pooled Message is queued on the client's
+ * Looper and the client builds a new SampleBatch from the Bundle. The local path is the real
+ * SampleHandoff. The client thread blocks on its queue like a Looper does. Run with the GC
+ * profiler to compare the allocation per batch.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SampleDeliveryBenchmark {
+
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    @Param({"1", "16"})
+    public int batchSize;
+
+    private ClientLooper looper;
+    private SampleBatch batch;
+    private SampleHandoff handoff;
+    private ModelMessage message;
+    private long expected;
+
+    private volatile long delivered;
+    private float consumed;
+
+    @Setup
+    public void setUp() {
+        batch = new SampleBatch(batchSize);
+        for(int i = 0; i < batchSize; i++) {
+            batch.timestamps[i] = 1520000000000L + i * 100;
+            batch.values[i] = 350 + i;
+        }
+        batch.setCount(batchSize);
+
+        looper = new ClientLooper();
+        looper.start();
+        handoff = new SampleHandoff(looper, new SampleHandoff.Consumer() {
+            @Override
+            public void onSamples(SampleBatch batch) {
+                consume(batch);
+            }
+        });
+        message = new ModelMessage();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        looper.interrupt();
+        looper.join();
+    }
+
+    @Benchmark
+    public void messenger() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("address", ADDRESS);
+        data.put("timestamps", Arrays.copyOf(batch.timestamps, batch.count()));
+        data.put("values", Arrays.copyOf(batch.values, batch.count()));
+        data.put("min", batch.min());
+        data.put("max", batch.max());
+        message.data = data;
+        looper.execute(message);
+        awaitDelivery();
+    }
+
+    @Benchmark
+    public void localHandoff() {
+        handoff.offer(batch);
+        awaitDelivery();
+    }
+
+    private void consume(SampleBatch batch) {
+        consumed += batch.last();
+        delivered++;
+    }
+
+    private void awaitDelivery() {
+        expected++;
+        while (delivered < expected) {
+            Thread.yield();
+        }
+    }
+
+    private class ModelMessage implements Runnable {
+        private Map<String, Object> data;
+
+        @Override
+        public void run() {
+            if(!ADDRESS.equals(data.get("address"))) {
+                return;
+            }
+            float[] values = (float[]) data.get("values");
+            consume(new SampleBatch((long[]) data.get("timestamps"), values, null, values.length));
+            data = null;
+        }
+    }
+
+    private static class ClientLooper extends Thread implements Executor {
+        private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(64);
+
+        private ClientLooper() {
+            super("ClientLooper");
+            setDaemon(true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if(!queue.offer(command)) {
+                throw new IllegalStateException("Client queue is full");
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    queue.take().run();
+                }
+            } catch (InterruptedException e) {
+                // Benchmark finished.
+            }
+        }
+    }
+}
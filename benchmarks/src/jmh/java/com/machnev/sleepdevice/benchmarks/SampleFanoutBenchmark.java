@@ -0,0 +1,75 @@
+package com.machnev.sleepdevice.benchmarks;
+
+import com.machnev.sleepdevice.core.SampleBatch;
+import com.machnev.sleepdevice.core.SampleFanout;
+import com.machnev.sleepdevice.core.SampleRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of the fan-out: the samples of a frame are appended, then every client gets its batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SampleFanoutBenchmark {
+
+    private static final int CAPACITY = 36000;
+    private static final long FRAME_INTERVAL = 16;
+
+    @Param({"1", "4"})
+    public int clients;
+
+    @Param({"1", "64"})
+    public int samplesPerFrame;
+
+    private SampleRingBuffer buffer;
+    private SampleFanout<Integer> fanout;
+    private BlackholeSink sink;
+    private long now;
+    private long timestamp;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        buffer = new SampleRingBuffer(CAPACITY);
+        sink = new BlackholeSink(blackhole);
+        fanout = new SampleFanout<>(buffer, sink);
+        for(int i = 0; i < clients; i++) {
+            fanout.subscribe(i, FRAME_INTERVAL, now);
+        }
+    }
+
+    @Benchmark
+    public long frame() {
+        for(int i = 0; i < samplesPerFrame; i++) {
+            timestamp++;
+            buffer.append(timestamp, 1000 + i, (byte) 1);
+        }
+        now += FRAME_INTERVAL;
+        return fanout.flush(now);
+    }
+
+    private static class BlackholeSink implements SampleFanout.BatchSink<Integer> {
+        private final Blackhole blackhole;
+
+        private BlackholeSink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onBatch(Integer client, SampleBatch batch) {
+            blackhole.consume(batch.max());
+            blackhole.consume(batch.values);
+        }
+    }
+}
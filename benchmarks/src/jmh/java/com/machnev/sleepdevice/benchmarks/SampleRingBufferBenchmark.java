@@ -0,0 +1,62 @@
+package com.machnev.sleepdevice.benchmarks;
+
+import com.machnev.sleepdevice.core.SampleRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending a sample to the history and reading the last samples back, as a history request does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SampleRingBufferBenchmark {
+
+    private static final int CAPACITY = 36000;
+
+    @Param({"64", "4096"})
+    public int readCount;
+
+    private SampleRingBuffer buffer;
+    private long timestamp;
+    private float value;
+
+    private long[] timestamps;
+    private float[] values;
+    private byte[] statuses;
+
+    @Setup
+    public void setUp() {
+        buffer = new SampleRingBuffer(CAPACITY);
+        SyntheticNight night = new SyntheticNight(CAPACITY, 1);
+        for(int i = 0; i < CAPACITY; i++) {
+            buffer.append(night.timestamps[i], night.values[i], night.statuses[i]);
+        }
+        timestamp = night.timestamps[CAPACITY - 1];
+        value = night.values[CAPACITY - 1];
+        timestamps = new long[readCount];
+        values = new float[readCount];
+        statuses = new byte[readCount];
+    }
+
+    @Benchmark
+    public long append() {
+        timestamp += 100;
+        buffer.append(timestamp, value, (byte) 1);
+        return buffer.writeSequence();
+    }
+
+    @Benchmark
+    public int readLast() {
+        return buffer.readLast(readCount, timestamps, values, statuses);
+    }
+}
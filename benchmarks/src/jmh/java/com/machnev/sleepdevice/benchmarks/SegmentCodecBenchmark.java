@@ -0,0 +1,56 @@
+package com.machnev.sleepdevice.benchmarks;
+
+import com.machnev.sleepdevice.core.recording.SegmentCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding one full block of a recorded session, reported per sample.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SegmentCodecBenchmark {
+
+    // The largest block SessionRecorder writes.
+    private static final int BLOCK = 4096;
+
+    private final SegmentCodec codec = new SegmentCodec();
+    private SyntheticNight night;
+    private byte[] encoded;
+
+    private long[] timestamps;
+    private float[] values;
+    private byte[] statuses;
+
+    @Setup
+    public void setUp() {
+        night = new SyntheticNight(BLOCK, 3);
+        encoded = new byte[SegmentCodec.maxEncodedSize(BLOCK)];
+        codec.encode(night.timestamps, night.values, night.statuses, BLOCK, encoded, 0);
+        timestamps = new long[BLOCK];
+        values = new float[BLOCK];
+        statuses = new byte[BLOCK];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int encode() {
+        return codec.encode(night.timestamps, night.values, night.statuses, BLOCK, encoded, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int decode() {
+        return codec.decode(encoded, 0, BLOCK, timestamps, values, statuses);
+    }
+}
@@ -0,0 +1,39 @@
+package com.machnev.sleepdevice.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Synthetic night at 10 Hz with jittered timestamps and a slowly changing pressure with noise,
+ * switching between not on bed and on bed every 50 minutes.
+ */
+class SyntheticNight {
+
+    static final float NOT_ON_BED_LEVEL = 350;
+    static final float ON_BED_LEVEL = 1800;
+
+    final long[] timestamps;
+    final float[] values;
+    final byte[] statuses;
+    final int count;
+
+    SyntheticNight(int count, long seed) {
+        Random random = new Random(seed);
+        this.count = count;
+        timestamps = new long[count];
+        values = new float[count];
+        statuses = new byte[count];
+
+        long timestamp = 1520000000000L;
+        double level = NOT_ON_BED_LEVEL;
+        for(int i = 0; i < count; i++) {
+            timestamp += 100 + random.nextInt(5) - 2;
+            if(i % 30000 == 0) {
+                level = level > 1000 ? NOT_ON_BED_LEVEL : ON_BED_LEVEL;
+            }
+            double value = level + 20 * Math.sin(i / 50.0) + random.nextGaussian() * 0.3;
+            timestamps[i] = timestamp;
+            values[i] = Math.round(value * 10) / 10f;
+            statuses[i] = (byte) (level > 1000 ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.machnev.sleepdevice.core;
+
+/**
+ * Robust statistics of a window of sensor values captured for one calibration step.
+ *
+ * The median and the quartiles are P-square estimates and the variance is Welford's running
+ * variance, so no values are stored. A value outside the far out Tukey fences of the quartiles
+ * seen so far is counted as an outlier and left out of the quantiles, so that spikes do not
+ * move them, while the variance still includes it. The capture is stable when the robust spread, the
+ * interquartile range scaled to a standard deviation, is small compared to the median and
+ * few values were outliers.
+ *
+ * Must be used from a single thread.
+ */
+public class CalibrationCapture {
+
+    public static final int DEFAULT_WINDOW = 100;
+    public static final float DEFAULT_MAX_SPREAD = 0.03f;
+    public static final float DEFAULT_MAX_OUTLIERS = 0.05f;
+
+    // Interquartile range of a normal distribution in standard deviations.
+    private static final double IQR_TO_SIGMA = 1.349;
+    // Tukey's far out fence in interquartile ranges.
+    private static final double FENCE = 3;
+    // Values the quartiles need before outliers are counted.
+    private static final int WARM_UP = 10;
+    // Levels closer than this many robust spreads can not be told apart.
+    private static final float MIN_SEPARATION = 6;
+
+    private final int window;
+    private final float maxSpread;
+    private final float maxOutliers;
+
+    private final P2Quantile lowerQuartile = new P2Quantile(0.25);
+    private final P2Quantile median = new P2Quantile(0.5);
+    private final P2Quantile upperQuartile = new P2Quantile(0.75);
+    private int count;
+    private double mean;
+    private double squares;
+    private int outliers;
+
+    public CalibrationCapture() {
+        this(DEFAULT_WINDOW, DEFAULT_MAX_SPREAD, DEFAULT_MAX_OUTLIERS);
+    }
+
+    /**
+     * @param window values in the capture
+     * @param maxSpread largest robust spread of a stable capture, as a fraction of the median
+     * @param maxOutliers largest share of outliers in a stable capture
+     */
+    public CalibrationCapture(int window, float maxSpread, float maxOutliers) {
+        if(window < WARM_UP) {
+            throw new IllegalArgumentException("Window must be at least " + WARM_UP + ": " + window);
+        }
+        this.window = window;
+        this.maxSpread = maxSpread;
+        this.maxOutliers = maxOutliers;
+    }
+
+    public void reset() {
+        lowerQuartile.reset();
+        median.reset();
+        upperQuartile.reset();
+        count = 0;
+        mean = 0;
+        squares = 0;
+        outliers = 0;
+    }
+
+    /**
+     * Adds a value unless the window is already full.
+     *
+     * @return true if the value completed the window
+     */
+    public boolean add(float value) {
+        if(count >= window) {
+            return false;
+        }
+        boolean outlier = false;
+        if(count >= WARM_UP) {
+            double low = lowerQuartile.value();
+            double high = upperQuartile.value();
+            double fence = (high - low) * FENCE;
+            outlier = value < low - fence || value > high + fence;
+        }
+        if(outlier) {
+            outliers++;
+        } else {
+            lowerQuartile.add(value);
+            median.add(value);
+            upperQuartile.add(value);
+        }
+
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        squares += delta * (value - mean);
+        return count == window;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int window() {
+        return window;
+    }
+
+    public boolean isComplete() {
+        return count >= window;
+    }
+
+    public float median() {
+        return (float) median.value();
+    }
+
+    public float mean() {
+        return (float) mean;
+    }
+
+    public float standardDeviation() {
+        return count > 1 ? (float) Math.sqrt(squares / (count - 1)) : 0;
+    }
+
+    /**
+     * @return interquartile range scaled to the standard deviation of a normal distribution
+     */
+    public float spread() {
+        if(count == 0) {
+            return 0;
+        }
+        return (float) ((upperQuartile.value() - lowerQuartile.value()) / IQR_TO_SIGMA);
+    }
+
+    public int outliers() {
+        return outliers;
+    }
+
+    public boolean isStable() {
+        if(count == 0) {
+            return false;
+        }
+        return spread() <= maxSpread * Math.abs(median()) && outliers <= maxOutliers * count;
+    }
+
+    /**
+     * @return true if the levels of both captures are far apart compared to their spread
+     */
+    public boolean isSeparatedFrom(CalibrationCapture other) {
+        float separation = Math.abs(median() - other.median());
+        return separation > 0 && separation > MIN_SEPARATION * Math.max(spread(), other.spread());
+    }
+}
@@ -0,0 +1,82 @@
+package com.machnev.sleepdevice.core;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling of a line.
+ *
+ * The first and the last point are kept. The points between are split into buckets and from
+ * every bucket the point that forms the largest triangle with the point kept from the
+ * previous bucket and the average of the next bucket is kept. Peaks survive, unlike with
+ * plain decimation or averaging.
+ */
+public class Lttb {
+
+    private Lttb() {
+    }
+
+    /**
+     * Writes at most threshold points of the first count input points to the output arrays.
+     * If count is not above threshold, or threshold is below 3, the first points are copied
+     * as they are.
+     *
+     * @param x timestamps in increasing order
+     * @return number of points written
+     */
+    public static int downsample(long[] x, float[] y, int count, int threshold, long[] outX, float[] outY) {
+        int limit = Math.min(outX.length, outY.length);
+        threshold = Math.min(threshold, limit);
+        if(count <= threshold || threshold < 3) {
+            int copied = Math.min(count, limit);
+            System.arraycopy(x, 0, outX, 0, copied);
+            System.arraycopy(y, 0, outY, 0, copied);
+            return copied;
+        }
+
+        // Relative to the first point, doubles keep millisecond precision for years.
+        long origin = x[0];
+        double every = (double) (count - 2) / (threshold - 2);
+        int a = 0;
+        int written = 0;
+        outX[written] = x[0];
+        outY[written] = y[0];
+        written++;
+
+        for(int i = 0; i < threshold - 2; i++) {
+            int nextStart = (int) ((i + 1) * every) + 1;
+            int nextEnd = Math.min((int) ((i + 2) * every) + 1, count);
+            double averageX = 0;
+            double averageY = 0;
+            for(int j = nextStart; j < nextEnd; j++) {
+                averageX += x[j] - origin;
+                averageY += y[j];
+            }
+            int nextCount = nextEnd - nextStart;
+            averageX /= nextCount;
+            averageY /= nextCount;
+
+            int start = (int) (i * every) + 1;
+            int end = nextStart;
+            double pointX = x[a] - origin;
+            double pointY = y[a];
+            double maxArea = -1;
+            int selected = start;
+            for(int j = start; j < end; j++) {
+                // Twice the area, only the comparison matters.
+                double area = Math.abs((pointX - averageX) * (y[j] - pointY)
+                        - (pointX - (x[j] - origin)) * (averageY - pointY));
+                if(area > maxArea) {
+                    maxArea = area;
+                    selected = j;
+                }
+            }
+
+            outX[written] = x[selected];
+            outY[written] = y[selected];
+            written++;
+            a = selected;
+        }
+
+        outX[written] = x[count - 1];
+        outY[written] = y[count - 1];
+        return written + 1;
+    }
+}
@@ -0,0 +1,129 @@
+package com.machnev.sleepdevice.core;
+
+/**
+ * Streaming on bed / not on bed classifier with hysteresis and a minimum dwell time.
+ *
+ * Values are placed on a scale where the not on bed calibration value is 0 and the on bed
+ * value is 1. The state switches to on bed above {@code 0.5 + hysteresis} and back below
+ * {@code 0.5 - hysteresis}, and only after the signal stayed past the threshold for the
+ * dwell time. Updates report whether the state changed, so callers can emit transitions only.
+ *
+ * Must be updated from a single thread; {@link #status()} may be read from any thread.
+ */
+public class OccupancyClassifier {
+
+    public static final int STATUS_NOT_INITIALIZED = -1;
+    public static final int STATUS_NOT_ON_BED = 0;
+    public static final int STATUS_ON_BED = 1;
+
+    public static final float DEFAULT_HYSTERESIS = 0.1f;
+    public static final long DEFAULT_MIN_DWELL_TIME = 2000;
+
+    private final float hysteresis;
+    private final long minDwellTime;
+
+    private boolean configured;
+    private float notOnBedValue;
+    private float scale;
+
+    private volatile int status = STATUS_NOT_INITIALIZED;
+    private int candidate = STATUS_NOT_INITIALIZED;
+    private long candidateSince;
+
+    public OccupancyClassifier() {
+        this(DEFAULT_HYSTERESIS, DEFAULT_MIN_DWELL_TIME);
+    }
+
+    /**
+     * @param hysteresis half width of the band around the midpoint, as a fraction of the
+     *                   distance between the calibration values, from 0 to 0.5
+     * @param minDwellTime milliseconds the signal has to stay past a threshold before the state changes
+     */
+    public OccupancyClassifier(float hysteresis, long minDwellTime) {
+        if(hysteresis < 0 || hysteresis >= 0.5f) {
+            throw new IllegalArgumentException("Hysteresis must be in [0, 0.5): " + hysteresis);
+        }
+        this.hysteresis = hysteresis;
+        this.minDwellTime = minDwellTime;
+    }
+
+    /**
+     * Sets calibration values. The state is reset and decided again by the next sample.
+     */
+    public void configure(float onBedValue, float notOnBedValue) {
+        float span = onBedValue - notOnBedValue;
+        configured = span != 0 && !Float.isNaN(span) && !Float.isInfinite(span);
+        this.notOnBedValue = notOnBedValue;
+        this.scale = configured ? 1 / span : 0;
+        status = STATUS_NOT_INITIALIZED;
+        candidate = STATUS_NOT_INITIALIZED;
+    }
+
+    public boolean isConfigured() {
+        return configured;
+    }
+
+    public int status() {
+        return status;
+    }
+
+    /**
+     * @return true if the state changed
+     */
+    public boolean update(long timestamp, float value) {
+        if(!configured) {
+            return false;
+        }
+
+        float position = (value - notOnBedValue) * scale;
+        int current = status;
+        if(current == STATUS_NOT_INITIALIZED) {
+            status = position >= 0.5f ? STATUS_ON_BED : STATUS_NOT_ON_BED;
+            candidate = STATUS_NOT_INITIALIZED;
+            return true;
+        }
+
+        int target;
+        if(position >= 0.5f + hysteresis) {
+            target = STATUS_ON_BED;
+        } else if(position <= 0.5f - hysteresis) {
+            target = STATUS_NOT_ON_BED;
+        } else {
+            target = current;
+        }
+
+        if(target == current) {
+            candidate = STATUS_NOT_INITIALIZED;
+            return false;
+        }
+        if(candidate != target) {
+            candidate = target;
+            candidateSince = timestamp;
+        }
+        if(timestamp - candidateSince >= minDwellTime) {
+            status = target;
+            candidate = STATUS_NOT_INITIALIZED;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Classifies a batch of samples and writes only the transitions.
+     * The transition arrays must have room for {@code count} entries.
+     *
+     * @return number of transitions written
+     */
+    public int update(long[] timestamps, float[] values, int offset, int count,
+                      long[] transitionTimestamps, byte[] transitionStatuses) {
+        int transitions = 0;
+        for(int i = offset; i < offset + count; i++) {
+            if(update(timestamps[i], values[i])) {
+                transitionTimestamps[transitions] = timestamps[i];
+                transitionStatuses[transitions] = (byte) status;
+                transitions++;
+            }
+        }
+        return transitions;
+    }
+}
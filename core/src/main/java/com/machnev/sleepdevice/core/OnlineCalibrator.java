@@ -0,0 +1,158 @@
+package com.machnev.sleepdevice.core;
+
+/**
+ * Online two-cluster estimate of the on bed and not on bed sensor levels.
+ *
+ * Every value joins the nearer of the two centroids, which follows it with an exponentially
+ * weighted mean, so both centroids track slow drift of the mattress and the sensor. Values in
+ * the middle band between the centroids, a person lying down or getting up, are ignored.
+ *
+ * A new calibration is proposed only when both clusters saw enough values, the clusters are
+ * clearly apart compared to their spread, and a centroid moved away from the applied
+ * calibration by more than the margin, so that the device is not written needlessly.
+ *
+ * Must be used from a single thread.
+ */
+public class OnlineCalibrator {
+
+    public static final float DEFAULT_MARGIN = 0.1f;
+    public static final float DEFAULT_WEIGHT = 0.001f;
+    public static final int DEFAULT_MIN_SAMPLES = 600;
+
+    // Share of the distance between the centroids on each side of the midpoint that is ignored.
+    private static final float MIDDLE_BAND = 0.1f;
+    // Clusters closer than this many standard deviations are noise of a single level.
+    private static final float MIN_SEPARATION = 6;
+
+    private final float weight;
+    private final int minSamples;
+    private float margin;
+
+    private boolean started;
+    private final Cluster notOnBed = new Cluster();
+    private final Cluster onBed = new Cluster();
+
+    private boolean applied;
+    private float appliedOnBed;
+    private float appliedNotOnBed;
+
+    public OnlineCalibrator() {
+        this(DEFAULT_MARGIN, DEFAULT_WEIGHT, DEFAULT_MIN_SAMPLES);
+    }
+
+    /**
+     * @param margin drift of a centroid that makes a new calibration, as a fraction of the
+     *               distance between the applied calibration values
+     * @param weight weight of every new value in its centroid
+     * @param minSamples values each cluster needs after seeding before a calibration is proposed
+     */
+    public OnlineCalibrator(float margin, float weight, int minSamples) {
+        if(weight <= 0 || weight > 1) {
+            throw new IllegalArgumentException("Weight must be in (0, 1]: " + weight);
+        }
+        setMargin(margin);
+        this.weight = weight;
+        this.minSamples = minSamples;
+    }
+
+    public void setMargin(float margin) {
+        if(margin <= 0) {
+            throw new IllegalArgumentException("Margin must be positive: " + margin);
+        }
+        this.margin = margin;
+    }
+
+    /**
+     * Restarts both clusters at the given levels, used for manual calibration.
+     */
+    public void seed(float onBedValue, float notOnBedValue) {
+        onBed.reset(onBedValue);
+        notOnBed.reset(notOnBedValue);
+        started = true;
+    }
+
+    public boolean isSeeded() {
+        return started;
+    }
+
+    /**
+     * Sets the calibration the device currently uses, drift is measured from it.
+     */
+    public void setApplied(float onBedValue, float notOnBedValue) {
+        applied = true;
+        appliedOnBed = onBedValue;
+        appliedNotOnBed = notOnBedValue;
+    }
+
+    public void update(float value) {
+        if(!started) {
+            seed(value, value);
+            return;
+        }
+
+        float low = notOnBed.mean;
+        float high = onBed.mean;
+        float band = Math.abs(high - low) * MIDDLE_BAND;
+        float middle = (low + high) / 2;
+        if(Math.abs(value - middle) < band) {
+            return;
+        }
+        // The on bed level is the higher one unless the calibration says otherwise.
+        boolean higherOnBed = high >= low;
+        if((value >= middle) == higherOnBed) {
+            onBed.add(value, weight);
+        } else {
+            notOnBed.add(value, weight);
+        }
+    }
+
+    public float onBedValue() {
+        return onBed.mean;
+    }
+
+    public float notOnBedValue() {
+        return notOnBed.mean;
+    }
+
+    /**
+     * @return true if the centroids are trustworthy and drifted from the applied calibration by more than the margin
+     */
+    public boolean shouldRecalibrate() {
+        if(onBed.samples < minSamples || notOnBed.samples < minSamples) {
+            return false;
+        }
+        float separation = Math.abs(onBed.mean - notOnBed.mean);
+        float spread = (float) Math.sqrt(Math.max(onBed.variance, notOnBed.variance));
+        if(separation == 0 || separation < MIN_SEPARATION * spread) {
+            return false;
+        }
+        if(!applied) {
+            return true;
+        }
+        float allowed = Math.abs(appliedOnBed - appliedNotOnBed) * margin;
+        return Math.abs(onBed.mean - appliedOnBed) > allowed || Math.abs(notOnBed.mean - appliedNotOnBed) > allowed;
+    }
+
+    private static class Cluster {
+        private float mean;
+        private float variance;
+        private int samples;
+
+        private void reset(float value) {
+            mean = value;
+            variance = 0;
+            samples = 0;
+        }
+
+        private void add(float value, float weight) {
+            // Newly seeded clusters follow their first values faster.
+            float rate = Math.max(weight, 1f / (samples + 1));
+            float delta = value - mean;
+            mean += rate * delta;
+            variance = (1 - rate) * (variance + rate * delta * delta);
+            if(samples < Integer.MAX_VALUE) {
+                samples++;
+            }
+        }
+    }
+}
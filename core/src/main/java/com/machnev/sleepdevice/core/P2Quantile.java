@@ -0,0 +1,120 @@
+package com.machnev.sleepdevice.core;
+
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of a single quantile with the P-square algorithm of Jain and Chlamtac.
+ *
+ * Keeps five markers, the minimum, the maximum, the quantile and two points halfway to it,
+ * and moves them with piecewise parabolic interpolation as values arrive, so the memory
+ * does not depend on the number of values.
+ *
+ * Must be used from a single thread.
+ */
+public class P2Quantile {
+
+    private static final int MARKERS = 5;
+
+    private final double quantile;
+    private final double[] heights = new double[MARKERS];
+    private final int[] positions = new int[MARKERS];
+    private final double[] desired = new double[MARKERS];
+    private final double[] increments;
+    private int count;
+
+    /**
+     * @param quantile quantile to estimate, in (0, 1)
+     */
+    public P2Quantile(double quantile) {
+        if(quantile <= 0 || quantile >= 1) {
+            throw new IllegalArgumentException("Quantile must be in (0, 1): " + quantile);
+        }
+        this.quantile = quantile;
+        this.increments = new double[] {0, quantile / 2, quantile, (1 + quantile) / 2, 1};
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public void add(double value) {
+        if(count < MARKERS) {
+            heights[count++] = value;
+            if(count == MARKERS) {
+                Arrays.sort(heights);
+                for(int i = 0; i < MARKERS; i++) {
+                    positions[i] = i;
+                }
+                desired[0] = 0;
+                desired[1] = 2 * quantile;
+                desired[2] = 4 * quantile;
+                desired[3] = 2 + 2 * quantile;
+                desired[4] = 4;
+            }
+            return;
+        }
+        count++;
+
+        int cell;
+        if(value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if(value >= heights[MARKERS - 1]) {
+            heights[MARKERS - 1] = value;
+            cell = MARKERS - 2;
+        } else {
+            cell = 0;
+            while (value >= heights[cell + 1]) {
+                cell++;
+            }
+        }
+        for(int i = cell + 1; i < MARKERS; i++) {
+            positions[i]++;
+        }
+        for(int i = 0; i < MARKERS; i++) {
+            desired[i] += increments[i];
+        }
+
+        for(int i = 1; i < MARKERS - 1; i++) {
+            double offset = desired[i] - positions[i];
+            if((offset >= 1 && positions[i + 1] - positions[i] > 1)
+                    || (offset <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int step = offset > 0 ? 1 : -1;
+                double height = parabolic(i, step);
+                if(heights[i - 1] < height && height < heights[i + 1]) {
+                    heights[i] = height;
+                } else {
+                    heights[i] += step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i]);
+                }
+                positions[i] += step;
+            }
+        }
+    }
+
+    /**
+     * @return the estimated quantile, NaN before the first value
+     */
+    public double value() {
+        if(count == 0) {
+            return Double.NaN;
+        }
+        if(count < MARKERS) {
+            double[] sorted = Arrays.copyOf(heights, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.round(quantile * (count - 1))];
+        }
+        return heights[2];
+    }
+
+    private double parabolic(int i, int step) {
+        double below = positions[i] - positions[i - 1];
+        double above = positions[i + 1] - positions[i];
+        return heights[i] + step / (double) (positions[i + 1] - positions[i - 1])
+                * ((below + step) * (heights[i + 1] - heights[i]) / above
+                + (above - step) * (heights[i] - heights[i - 1]) / below);
+    }
+}
@@ -0,0 +1,70 @@
+package com.machnev.sleepdevice.core;
+
+/**
+ * Samples of one fan-out window together with the minimum, maximum and last value.
+ */
+public class SampleBatch {
+
+    public final long[] timestamps;
+    public final float[] values;
+    public final byte[] statuses;
+
+    private int count;
+    private float min;
+    private float max;
+
+    public SampleBatch(int capacity) {
+        this(new long[capacity], new float[capacity], new byte[capacity], 0);
+    }
+
+    public SampleBatch(long[] timestamps, float[] values, byte[] statuses, int count) {
+        this.timestamps = timestamps;
+        this.values = values;
+        this.statuses = statuses;
+        setCount(count);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public float min() {
+        return min;
+    }
+
+    public float max() {
+        return max;
+    }
+
+    public float last() {
+        return values[count - 1];
+    }
+
+    public long lastTimestamp() {
+        return timestamps[count - 1];
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Sets the number of valid samples and recomputes the statistics of the window.
+     */
+    public void setCount(int count) {
+        this.count = count;
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for(int i = 0; i < count; i++) {
+            float value = values[i];
+            if(value < min) {
+                min = value;
+            }
+            if(value > max) {
+                max = value;
+            }
+        }
+        this.min = min;
+        this.max = max;
+    }
+}
@@ -0,0 +1,55 @@
+package com.machnev.sleepdevice.core;
+
+/**
+ * Decodes device values straight from characteristic bytes.
+ * Values are little-endian 4 byte floats. Decoding does not allocate.
+ */
+public final class SampleDecoder {
+
+    public static final int FLOAT_SIZE = 4;
+
+    private SampleDecoder() {
+    }
+
+    public static float decodeFloat(byte[] bytes) {
+        return decodeFloat(bytes, 0);
+    }
+
+    public static float decodeFloat(byte[] bytes, int offset) {
+        int bits = (bytes[offset] & 0xff)
+                | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+        return Float.intBitsToFloat(bits);
+    }
+
+    public static byte[] encodeFloat(float value) {
+        byte[] bytes = new byte[FLOAT_SIZE];
+        encodeFloat(value, bytes, 0);
+        return bytes;
+    }
+
+    public static void encodeFloat(float value, byte[] dest, int offset) {
+        int bits = Float.floatToRawIntBits(value);
+        dest[offset] = (byte) bits;
+        dest[offset + 1] = (byte) (bits >>> 8);
+        dest[offset + 2] = (byte) (bits >>> 16);
+        dest[offset + 3] = (byte) (bits >>> 24);
+    }
+
+    public static boolean isFloat(byte[] bytes) {
+        return bytes != null && bytes.length >= FLOAT_SIZE;
+    }
+
+    public static boolean isZeros(byte[] bytes) {
+        if(bytes == null) {
+            return true;
+        }
+        for(int i = 0; i < bytes.length; i++) {
+            if(bytes[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
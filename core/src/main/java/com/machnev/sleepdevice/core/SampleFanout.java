@@ -0,0 +1,116 @@
+package com.machnev.sleepdevice.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delivers the samples appended to a {@link SampleRingBuffer} to subscribers in batches.
+ *
+ * Every subscriber has its own flush interval. {@link #flush(long)} sends each subscriber
+ * that is due everything appended since its previous batch, so a subscriber gets at most one
+ * batch per interval no matter how fast samples arrive. The writer of the ring buffer is
+ * never blocked.
+ */
+public class SampleFanout<C> {
+
+    public static final int MAX_BATCH_SIZE = 1024;
+
+    private final SampleRingBuffer source;
+    private final BatchSink<C> sink;
+    private final List<Subscription<C>> subscriptions = new ArrayList<>();
+    private final SampleBatch batch = new SampleBatch(MAX_BATCH_SIZE);
+
+    public SampleFanout(SampleRingBuffer source, BatchSink<C> sink) {
+        this.source = source;
+        this.sink = sink;
+    }
+
+    /**
+     * Subscribes to samples appended from now on. The first batch is sent at the first flush.
+     */
+    public synchronized void subscribe(C client, long interval, long now) {
+        unsubscribe(client);
+        subscriptions.add(new Subscription<>(client, interval, source.writeSequence(), now));
+    }
+
+    public synchronized void unsubscribe(C client) {
+        for(int i = 0; i < subscriptions.size(); i++) {
+            if(subscriptions.get(i).client.equals(client)) {
+                subscriptions.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips all but the newest maxSamples samples pending for each subscriber, so a subscriber
+     * that was not flushed for a long time gets one batch instead of the whole backlog.
+     */
+    public synchronized void limitBacklog(int maxSamples) {
+        long first = source.writeSequence() - maxSamples;
+        for(int i = 0; i < subscriptions.size(); i++) {
+            Subscription<C> subscription = subscriptions.get(i);
+            if(subscription.nextSequence < first) {
+                subscription.nextSequence = first;
+            }
+        }
+    }
+
+    public synchronized boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Sends batches to the subscribers that are due.
+     *
+     * @return the time of the next flush needed for samples that are already pending,
+     * or {@link Long#MAX_VALUE} if nothing is pending
+     */
+    public synchronized long flush(long now) {
+        long end = source.writeSequence();
+        long nextFlush = Long.MAX_VALUE;
+        for(int i = 0; i < subscriptions.size(); i++) {
+            Subscription<C> subscription = subscriptions.get(i);
+            if(subscription.nextSequence >= end) {
+                continue;
+            }
+            if(now < subscription.dueTime) {
+                nextFlush = Math.min(nextFlush, subscription.dueTime);
+                continue;
+            }
+
+            while (subscription.nextSequence < end) {
+                long to = Math.min(end, subscription.nextSequence + MAX_BATCH_SIZE);
+                int count = source.readSequence(subscription.nextSequence, to, batch.timestamps, batch.values, batch.statuses);
+                subscription.nextSequence = to;
+                if(count > 0) {
+                    batch.setCount(count);
+                    sink.onBatch(subscription.client, batch);
+                }
+            }
+            subscription.dueTime = now + subscription.interval;
+        }
+        return nextFlush;
+    }
+
+    public static interface BatchSink<C> {
+        /**
+         * The batch is reused after the call returns.
+         */
+        public void onBatch(C client, SampleBatch batch);
+    }
+
+    private static class Subscription<C> {
+        private final C client;
+        private final long interval;
+        private long nextSequence;
+        private long dueTime;
+
+        private Subscription(C client, long interval, long nextSequence, long dueTime) {
+            this.client = client;
+            this.interval = interval;
+            this.nextSequence = nextSequence;
+            this.dueTime = dueTime;
+        }
+    }
+}
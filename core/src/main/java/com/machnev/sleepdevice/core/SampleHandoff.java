@@ -0,0 +1,124 @@
+package com.machnev.sleepdevice.core;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Hands sample batches from the fan-out thread to a consumer running on another executor,
+ * typically a Handler of the client's Looper, without allocating.
+ *
+ * Offered samples are appended to a pending batch and at most one delivery task is queued or
+ * running on the executor at a time. The task swaps the pending batch with the delivered one,
+ * so the consumer reads a batch the producer no longer writes. If the consumer falls behind by
+ * more than the capacity, the oldest pending samples are dropped.
+ */
+public class SampleHandoff {
+
+    private final Executor executor;
+    private final Consumer consumer;
+    private final Runnable deliver = new DeliverTask();
+
+    private SampleBatch pending;
+    private SampleBatch delivered;
+    private boolean scheduled;
+    private boolean closed;
+    private long dropped;
+
+    public SampleHandoff(Executor executor, Consumer consumer) {
+        this(executor, consumer, SampleFanout.MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param capacity samples kept while the consumer has not taken them
+     */
+    public SampleHandoff(Executor executor, Consumer consumer, int capacity) {
+        this.executor = executor;
+        this.consumer = consumer;
+        this.pending = new SampleBatch(capacity);
+        this.delivered = new SampleBatch(capacity);
+    }
+
+    /**
+     * Copies the samples of the batch, it may be reused after the call returns.
+     */
+    public void offer(SampleBatch batch) {
+        boolean schedule;
+        synchronized (this) {
+            if(closed) {
+                return;
+            }
+            int capacity = pending.values.length;
+            int count = pending.count();
+            int incoming = batch.count();
+            int skip = Math.max(0, incoming - capacity);
+            int overflow = Math.max(0, count + incoming - skip - capacity);
+            if(overflow > 0) {
+                System.arraycopy(pending.timestamps, overflow, pending.timestamps, 0, count - overflow);
+                System.arraycopy(pending.values, overflow, pending.values, 0, count - overflow);
+                System.arraycopy(pending.statuses, overflow, pending.statuses, 0, count - overflow);
+                count -= overflow;
+            }
+            dropped += skip + overflow;
+
+            int copied = incoming - skip;
+            System.arraycopy(batch.timestamps, skip, pending.timestamps, count, copied);
+            System.arraycopy(batch.values, skip, pending.values, count, copied);
+            if(batch.statuses != null) {
+                System.arraycopy(batch.statuses, skip, pending.statuses, count, copied);
+            }
+            pending.setCount(count + copied);
+
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if(schedule) {
+            executor.execute(deliver);
+        }
+    }
+
+    /**
+     * Stops delivering, samples offered or pending from now on are discarded.
+     */
+    public synchronized void close() {
+        closed = true;
+        pending.setCount(0);
+    }
+
+    public synchronized long dropped() {
+        return dropped;
+    }
+
+    public static interface Consumer {
+        /**
+         * Called on the executor. The batch is reused after the call returns.
+         */
+        public void onSamples(SampleBatch batch);
+    }
+
+    private class DeliverTask implements Runnable {
+        @Override
+        public void run() {
+            SampleBatch batch;
+            synchronized (SampleHandoff.this) {
+                if(closed || pending.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+                batch = pending;
+                pending = delivered;
+                delivered = batch;
+            }
+            // Offers go to the other batch, and no other delivery runs until this one is done.
+            consumer.onSamples(batch);
+            batch.setCount(0);
+
+            boolean reschedule;
+            synchronized (SampleHandoff.this) {
+                reschedule = !closed && !pending.isEmpty();
+                scheduled = reschedule;
+            }
+            if(reschedule) {
+                executor.execute(this);
+            }
+        }
+    }
+}
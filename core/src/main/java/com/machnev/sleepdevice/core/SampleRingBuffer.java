@@ -0,0 +1,195 @@
+package com.machnev.sleepdevice.core;
+
+/**
+ * Fixed capacity history of samples kept in primitive arrays.
+ *
+ * There must be a single writer calling {@link #append}, any number of threads may read.
+ * A reader copies samples out and then drops the ones the writer overwrote meanwhile,
+ * so readers never block the writer and never see torn samples.
+ */
+public class SampleRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+
+    private final long[] timestamps;
+    private final float[] values;
+    private final byte[] statuses;
+
+    // Number of samples ever appended. Written only by the writer, publishes array contents.
+    private volatile long writeSequence;
+
+    public SampleRingBuffer(int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = roundUpToPowerOfTwo(Math.max(2, capacity));
+        this.mask = this.capacity - 1;
+        this.timestamps = new long[this.capacity];
+        this.values = new float[this.capacity];
+        this.statuses = new byte[this.capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return (int) Math.min(writeSequence, capacity - 1);
+    }
+
+    public long writeSequence() {
+        return writeSequence;
+    }
+
+    public void append(long timestamp, float value, byte status) {
+        long sequence = writeSequence;
+        if(sequence > 0) {
+            // Keep timestamps non-decreasing so that range reads can use binary search.
+            long previous = timestamps[(int) ((sequence - 1) & mask)];
+            if(timestamp < previous) {
+                timestamp = previous;
+            }
+        }
+
+        int index = (int) (sequence & mask);
+        timestamps[index] = timestamp;
+        values[index] = value;
+        statuses[index] = status;
+        writeSequence = sequence + 1;
+    }
+
+    /**
+     * Copies up to {@code count} most recent samples, oldest first.
+     * Destination arrays may be null if the caller is not interested in them.
+     *
+     * @return number of copied samples
+     */
+    public int readLast(int count, long[] timestampsDest, float[] valuesDest, byte[] statusesDest) {
+        count = Math.min(count, destinationLength(timestampsDest, valuesDest, statusesDest));
+        long end = writeSequence;
+        long start = Math.max(end - count, firstAvailable(end));
+        return copy(start, end, timestampsDest, valuesDest, statusesDest);
+    }
+
+    /**
+     * Copies samples with {@code fromTimestamp <= timestamp < toTimestamp}, oldest first,
+     * limited by the length of the destination arrays.
+     *
+     * @return number of copied samples
+     */
+    public int readRange(long fromTimestamp, long toTimestamp,
+                         long[] timestampsDest, float[] valuesDest, byte[] statusesDest) {
+        long end = writeSequence;
+        long first = firstAvailable(end);
+
+        long start = lowerBound(first, end, fromTimestamp);
+        long stop = lowerBound(start, end, toTimestamp);
+        int limit = destinationLength(timestampsDest, valuesDest, statusesDest);
+        if(stop - start > limit) {
+            stop = start + limit;
+        }
+        return copy(start, stop, timestampsDest, valuesDest, statusesDest);
+    }
+
+    /**
+     * Copies samples with {@code fromSequence <= sequence < toSequence}, limited by the length
+     * of the destination arrays. If the writer already overwrote some of them only the newest
+     * are copied, so for a range within {@link #writeSequence()} that fits the destination
+     * the copied samples always end at {@code toSequence}.
+     *
+     * @return number of copied samples
+     */
+    public int readSequence(long fromSequence, long toSequence,
+                            long[] timestampsDest, float[] valuesDest, byte[] statusesDest) {
+        long end = Math.min(toSequence, writeSequence);
+        long start = Math.max(fromSequence, firstAvailable(writeSequence));
+        int limit = destinationLength(timestampsDest, valuesDest, statusesDest);
+        if(end - start > limit) {
+            end = start + limit;
+        }
+        return copy(start, end, timestampsDest, valuesDest, statusesDest);
+    }
+
+    private long lowerBound(long from, long to, long timestamp) {
+        long low = from;
+        long high = to;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if(timestamps[(int) (middle & mask)] < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int copy(long start, long end, long[] timestampsDest, float[] valuesDest, byte[] statusesDest) {
+        int count = (int) (end - start);
+        if(count <= 0) {
+            return 0;
+        }
+
+        int from = (int) (start & mask);
+        int firstPart = Math.min(count, capacity - from);
+        int secondPart = count - firstPart;
+        if(timestampsDest != null) {
+            System.arraycopy(timestamps, from, timestampsDest, 0, firstPart);
+            System.arraycopy(timestamps, 0, timestampsDest, firstPart, secondPart);
+        }
+        if(valuesDest != null) {
+            System.arraycopy(values, from, valuesDest, 0, firstPart);
+            System.arraycopy(values, 0, valuesDest, firstPart, secondPart);
+        }
+        if(statusesDest != null) {
+            System.arraycopy(statuses, from, statusesDest, 0, firstPart);
+            System.arraycopy(statuses, 0, statusesDest, firstPart, secondPart);
+        }
+
+        // Samples the writer may have overwritten while copying are dropped from the head.
+        long overwritten = firstAvailable(writeSequence) - start;
+        if(overwritten <= 0) {
+            return count;
+        }
+        if(overwritten >= count) {
+            return 0;
+        }
+        int dropped = (int) overwritten;
+        int kept = count - dropped;
+        if(timestampsDest != null) {
+            System.arraycopy(timestampsDest, dropped, timestampsDest, 0, kept);
+        }
+        if(valuesDest != null) {
+            System.arraycopy(valuesDest, dropped, valuesDest, 0, kept);
+        }
+        if(statusesDest != null) {
+            System.arraycopy(statusesDest, dropped, statusesDest, 0, kept);
+        }
+        return kept;
+    }
+
+    private long firstAvailable(long end) {
+        // The writer may be in the middle of overwriting the slot of sequence end - capacity.
+        return Math.max(0, end - capacity + 1);
+    }
+
+    private static int destinationLength(long[] timestampsDest, float[] valuesDest, byte[] statusesDest) {
+        int length = Integer.MAX_VALUE;
+        if(timestampsDest != null) {
+            length = Math.min(length, timestampsDest.length);
+        }
+        if(valuesDest != null) {
+            length = Math.min(length, valuesDest.length);
+        }
+        if(statusesDest != null) {
+            length = Math.min(length, statusesDest.length);
+        }
+        return length == Integer.MAX_VALUE ? 0 : length;
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+}
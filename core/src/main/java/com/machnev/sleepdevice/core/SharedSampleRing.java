@@ -0,0 +1,183 @@
+package com.machnev.sleepdevice.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ring of samples in a buffer shared between processes, usually shared memory. One process
+ * appends, any number of processes read through their own {@link Cursor}.
+ *
+ * Java has no fences for buffers, so the stores of the writer may become visible to another
+ * process in any order. The header holds the number of samples ever appended and its
+ * complement. Every slot holds the sequence number of its sample and a checksum of the
+ * sequence and the sample. A reader accepts a slot only if both match, a slot that does not
+ * match yet is read again by the next poll. Only a slot holding a complete later sample
+ * counts as lost.
+ */
+public class SharedSampleRing {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int MAGIC = 0x53524e48;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    static final int SEQUENCE_OFFSET = 8;
+    static final int SEQUENCE_CHECK_OFFSET = 16;
+    private static final int HEADER_SIZE = 64;
+
+    static final int STAMP = 0;
+    private static final int TIMESTAMP = 8;
+    static final int VALUE = 16;
+    private static final int STATUS = 20;
+    static final int CHECK = 24;
+    private static final int SLOT_SIZE = 32;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private long sequence;
+
+    private SharedSampleRing(ByteBuffer buffer, int capacity, long sequence) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.sequence = sequence;
+    }
+
+    public static int sizeFor(int capacity) {
+        return HEADER_SIZE + capacity * SLOT_SIZE;
+    }
+
+    /**
+     * Starts an empty ring in the buffer, for the process that appends. Readers must get the
+     * buffer afterwards, through a binder call.
+     */
+    public static SharedSampleRing create(ByteBuffer buffer, int capacity) {
+        if(capacity <= 0 || buffer.capacity() < sizeFor(capacity)) {
+            throw new IllegalArgumentException("Buffer of " + buffer.capacity() + " bytes can not hold " + capacity + " samples");
+        }
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putLong(SEQUENCE_OFFSET, 0);
+        buffer.putLong(SEQUENCE_CHECK_OFFSET, ~0L);
+        for(int i = 0; i < capacity; i++) {
+            buffer.putLong(HEADER_SIZE + i * SLOT_SIZE + STAMP, -1);
+        }
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        return new SharedSampleRing(buffer, capacity, 0);
+    }
+
+    /**
+     * Opens a ring created by another process, for reading.
+     */
+    public static SharedSampleRing open(ByteBuffer buffer) {
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IllegalArgumentException("Not a sample ring");
+        }
+        int capacity = buffer.getInt(CAPACITY_OFFSET);
+        if(capacity <= 0 || buffer.capacity() < sizeFor(capacity)) {
+            throw new IllegalArgumentException("Sample ring of " + capacity + " samples is truncated");
+        }
+        return new SharedSampleRing(buffer, capacity, -1);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Must be called from a single thread of the creating process.
+     */
+    public void append(long timestamp, float value, byte status) {
+        long current = sequence;
+        int offset = slotOffset(current);
+        buffer.putLong(offset + STAMP, current);
+        buffer.putLong(offset + TIMESTAMP, timestamp);
+        buffer.putFloat(offset + VALUE, value);
+        buffer.putInt(offset + STATUS, status);
+        buffer.putLong(offset + CHECK, check(current, timestamp, Float.floatToRawIntBits(value), status));
+        sequence = current + 1;
+        buffer.putLong(SEQUENCE_OFFSET, sequence);
+        buffer.putLong(SEQUENCE_CHECK_OFFSET, ~sequence);
+    }
+
+    /**
+     * @return the number of samples ever appended, -1 while it is being updated
+     */
+    public long writeSequence() {
+        long value = buffer.getLong(SEQUENCE_OFFSET);
+        return buffer.getLong(SEQUENCE_CHECK_OFFSET) == ~value ? value : -1;
+    }
+
+    /**
+     * @return a cursor that reads the samples appended from now on
+     */
+    public Cursor cursor() {
+        long next;
+        while ((next = writeSequence()) < 0) {
+            Thread.yield();
+        }
+        return new Cursor(next);
+    }
+
+    int slotOffset(long sequence) {
+        return HEADER_SIZE + (int) (sequence % capacity) * SLOT_SIZE;
+    }
+
+    private static long check(long sequence, long timestamp, int valueBits, int status) {
+        long hash = sequence * 0x9E3779B97F4A7C15L + timestamp;
+        hash = (hash ^ (hash >>> 32)) * 0xC2B2AE3D27D4EB4FL + (((long) valueBits << 32) | (status & 0xffffffffL));
+        hash = (hash ^ (hash >>> 29)) * 0x165667B19E3779F9L;
+        return hash ^ (hash >>> 32);
+    }
+
+    public class Cursor {
+        private long next;
+        private long lost;
+
+        private Cursor(long next) {
+            this.next = next;
+        }
+
+        /**
+         * Reads the samples appended since the previous poll, as many as fit in the batch.
+         *
+         * @return the number of samples read
+         */
+        public int poll(SampleBatch batch) {
+            long end = writeSequence();
+            if(end - next > capacity) {
+                lost += end - capacity - next;
+                next = end - capacity;
+            }
+
+            int count = 0;
+            while (next < end && count < batch.values.length) {
+                int offset = slotOffset(next);
+                long stamp = buffer.getLong(offset + STAMP);
+                long timestamp = buffer.getLong(offset + TIMESTAMP);
+                float value = buffer.getFloat(offset + VALUE);
+                int status = buffer.getInt(offset + STATUS);
+                boolean complete = buffer.getLong(offset + CHECK) == check(stamp, timestamp, Float.floatToRawIntBits(value), status);
+                if(complete && stamp == next) {
+                    batch.timestamps[count] = timestamp;
+                    batch.values[count] = value;
+                    batch.statuses[count] = (byte) status;
+                    count++;
+                } else if(complete && stamp > next) {
+                    // Overwritten by a writer that went around the ring.
+                    lost++;
+                } else {
+                    // Not visible yet or being written, read it again next time.
+                    break;
+                }
+                next++;
+            }
+            batch.setCount(count);
+            return count;
+        }
+
+        /**
+         * @return samples overwritten before this cursor read them
+         */
+        public long lost() {
+            return lost;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.machnev.sleepdevice.core;
+
+/**
+ * Streaming movement and sleep analysis of the sensor values of one night.
+ *
+ * Samples are summarized per second: a second is moving when the values within it spread by
+ * more than the movement threshold, or its mean moved by more than that from the previous
+ * second. Seconds are grouped into 30 second epochs, an epoch is sleep when the person is in
+ * bed and the movement score, the moving seconds of the epoch plus half the previous score,
+ * stays below the sleep threshold. Everything else is wake.
+ *
+ * Every update is O(1) and nothing is allocated after construction. Must be updated from
+ * a single thread.
+ */
+public class SleepEpochAnalyzer {
+
+    public static final int EPOCH_WAKE = 0;
+    public static final int EPOCH_SLEEP = 1;
+
+    public static final long EPOCH_LENGTH = 30000;
+    public static final long SECOND_LENGTH = 1000;
+    // Epochs the restlessness index is taken over, five minutes.
+    public static final int RESTLESSNESS_EPOCHS = 10;
+
+    public static final float DEFAULT_MOVEMENT_THRESHOLD = 0.02f;
+    public static final float DEFAULT_SLEEP_SCORE = 3;
+
+    private final float movementThreshold;
+    private final float sleepScore;
+
+    private boolean configured;
+    private float threshold;
+
+    // The current second.
+    private boolean secondStarted;
+    private long secondStart;
+    private int secondSamples;
+    private double secondMean;
+    private double secondM2;
+    private boolean secondOnBed;
+
+    private boolean previousSecond;
+    private long previousSecondStart;
+    private double previousSecondMean;
+    private boolean previousMoving;
+
+    // The current epoch.
+    private boolean epochStarted;
+    private long epochStart;
+    private int epochSeconds;
+    private int epochOnBedSeconds;
+    private int epochMovingSeconds;
+    private double epochVariance;
+
+    private final int[] recentSeconds = new int[RESTLESSNESS_EPOCHS];
+    private final int[] recentMovingSeconds = new int[RESTLESSNESS_EPOCHS];
+    private int recentIndex;
+    private int recentSecondsSum;
+    private int recentMovingSum;
+
+    private float score;
+    private int lastEpoch = EPOCH_WAKE;
+    private float lastEpochVariance;
+    private int lastEpochMovingSeconds;
+
+    private int epochs;
+    private int movements;
+    private int awakenings;
+    private long timeInBed;
+    private long sleepTime;
+    private long firstInBed = -1;
+    private long sleepLatency = -1;
+
+    public SleepEpochAnalyzer() {
+        this(DEFAULT_MOVEMENT_THRESHOLD, DEFAULT_SLEEP_SCORE);
+    }
+
+    /**
+     * @param movementThreshold spread of the values that counts as movement, as a fraction of
+     *                          the distance between the calibration values
+     * @param sleepScore movement score below which an epoch in bed is sleep
+     */
+    public SleepEpochAnalyzer(float movementThreshold, float sleepScore) {
+        if(movementThreshold <= 0) {
+            throw new IllegalArgumentException("Movement threshold must be positive: " + movementThreshold);
+        }
+        this.movementThreshold = movementThreshold;
+        this.sleepScore = sleepScore;
+    }
+
+    /**
+     * Sets calibration values. Totals are kept, samples are ignored until this is called.
+     */
+    public void configure(float onBedValue, float notOnBedValue) {
+        float span = Math.abs(onBedValue - notOnBedValue);
+        configured = span != 0 && !Float.isNaN(span) && !Float.isInfinite(span);
+        threshold = configured ? span * movementThreshold : 0;
+    }
+
+    public boolean isConfigured() {
+        return configured;
+    }
+
+    /**
+     * @param onBed status of the occupancy classifier for this sample
+     * @return true if an epoch ended before this sample, see {@link #lastEpoch()}
+     */
+    public boolean update(long timestamp, float value, boolean onBed) {
+        if(!configured) {
+            return false;
+        }
+
+        if(secondStarted && (timestamp >= secondStart + SECOND_LENGTH || timestamp < secondStart)) {
+            closeSecond();
+        }
+
+        boolean epochEnded = false;
+        if(epochStarted && (timestamp >= epochStart + EPOCH_LENGTH || timestamp < epochStart)) {
+            epochEnded = closeEpoch();
+        }
+        if(!epochStarted) {
+            // Epochs stay on the grid of the first one, epochs without samples are skipped.
+            if(epochs > 0 && timestamp >= epochStart) {
+                epochStart += (timestamp - epochStart) / EPOCH_LENGTH * EPOCH_LENGTH;
+            } else {
+                epochStart = timestamp;
+            }
+            epochStarted = true;
+        }
+
+        if(!secondStarted) {
+            secondStart = timestamp - (timestamp - epochStart) % SECOND_LENGTH;
+            secondStarted = true;
+        }
+        secondSamples++;
+        double delta = value - secondMean;
+        secondMean += delta / secondSamples;
+        secondM2 += delta * (value - secondMean);
+        secondOnBed = onBed;
+
+        return epochEnded;
+    }
+
+    /**
+     * Starts a new night.
+     */
+    public void reset() {
+        secondStarted = false;
+        secondSamples = 0;
+        secondMean = 0;
+        secondM2 = 0;
+        previousSecond = false;
+        previousMoving = false;
+        epochStarted = false;
+        clearEpoch();
+        for(int i = 0; i < RESTLESSNESS_EPOCHS; i++) {
+            recentSeconds[i] = 0;
+            recentMovingSeconds[i] = 0;
+        }
+        recentIndex = 0;
+        recentSecondsSum = 0;
+        recentMovingSum = 0;
+        score = 0;
+        lastEpoch = EPOCH_WAKE;
+        lastEpochVariance = 0;
+        lastEpochMovingSeconds = 0;
+        epochs = 0;
+        movements = 0;
+        awakenings = 0;
+        timeInBed = 0;
+        sleepTime = 0;
+        firstInBed = -1;
+        sleepLatency = -1;
+    }
+
+    /**
+     * @return {@link #EPOCH_WAKE} or {@link #EPOCH_SLEEP}
+     */
+    public int lastEpoch() {
+        return lastEpoch;
+    }
+
+    /**
+     * @return mean variance of the values within a second during the last epoch
+     */
+    public float lastEpochVariance() {
+        return lastEpochVariance;
+    }
+
+    public int lastEpochMovingSeconds() {
+        return lastEpochMovingSeconds;
+    }
+
+    /**
+     * @return share of the seconds in bed that were moving during the last {@link #RESTLESSNESS_EPOCHS} epochs
+     */
+    public float restlessness() {
+        return recentSecondsSum > 0 ? (float) recentMovingSum / recentSecondsSum : 0;
+    }
+
+    public int epochs() {
+        return epochs;
+    }
+
+    /**
+     * @return movements in bed, a movement being a run of moving seconds
+     */
+    public int movements() {
+        return movements;
+    }
+
+    /**
+     * @return wake epochs following sleep ones
+     */
+    public int awakenings() {
+        return awakenings;
+    }
+
+    public long timeInBed() {
+        return timeInBed;
+    }
+
+    public long sleepTime() {
+        return sleepTime;
+    }
+
+    /**
+     * @return milliseconds from the first epoch in bed to the first sleep epoch, -1 before falling asleep
+     */
+    public long sleepLatency() {
+        return sleepLatency;
+    }
+
+    private void closeSecond() {
+        double variance = secondSamples > 0 ? secondM2 / secondSamples : 0;
+        boolean moving = false;
+        if(secondOnBed) {
+            boolean adjacent = previousSecond && secondStart - previousSecondStart == SECOND_LENGTH;
+            moving = Math.sqrt(variance) > threshold
+                    || (adjacent && Math.abs(secondMean - previousSecondMean) > threshold);
+            if(moving && !previousMoving) {
+                movements++;
+            }
+            epochOnBedSeconds++;
+            if(moving) {
+                epochMovingSeconds++;
+            }
+        }
+        epochSeconds++;
+        epochVariance += variance;
+
+        previousSecond = true;
+        previousSecondStart = secondStart;
+        previousSecondMean = secondMean;
+        previousMoving = moving;
+
+        secondStarted = false;
+        secondSamples = 0;
+        secondMean = 0;
+        secondM2 = 0;
+    }
+
+    private boolean closeEpoch() {
+        epochStarted = false;
+        if(epochSeconds == 0) {
+            return false;
+        }
+
+        recentSecondsSum += epochOnBedSeconds - recentSeconds[recentIndex];
+        recentMovingSum += epochMovingSeconds - recentMovingSeconds[recentIndex];
+        recentSeconds[recentIndex] = epochOnBedSeconds;
+        recentMovingSeconds[recentIndex] = epochMovingSeconds;
+        recentIndex = (recentIndex + 1) % RESTLESSNESS_EPOCHS;
+
+        // In bed for most of the epoch.
+        boolean inBed = epochOnBedSeconds * 2 > epochSeconds;
+        score = epochMovingSeconds + score / 2;
+        int epoch = inBed && score < sleepScore ? EPOCH_SLEEP : EPOCH_WAKE;
+
+        if(inBed) {
+            if(firstInBed < 0) {
+                firstInBed = epochStart;
+            }
+            timeInBed += epochOnBedSeconds * SECOND_LENGTH;
+        }
+        if(epoch == EPOCH_SLEEP) {
+            if(sleepLatency < 0) {
+                sleepLatency = epochStart - firstInBed;
+            }
+            sleepTime += epochSeconds * SECOND_LENGTH;
+        } else if(lastEpoch == EPOCH_SLEEP) {
+            awakenings++;
+        }
+
+        lastEpoch = epoch;
+        lastEpochVariance = (float) (epochVariance / epochSeconds);
+        lastEpochMovingSeconds = epochMovingSeconds;
+        epochs++;
+        clearEpoch();
+        return true;
+    }
+
+    private void clearEpoch() {
+        epochSeconds = 0;
+        epochOnBedSeconds = 0;
+        epochMovingSeconds = 0;
+        epochVariance = 0;
+    }
+}
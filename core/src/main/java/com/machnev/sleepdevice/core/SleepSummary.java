@@ -0,0 +1,58 @@
+package com.machnev.sleepdevice.core;
+
+import java.util.Locale;
+
+/**
+ * State of a {@link SleepEpochAnalyzer} after an epoch, with the totals in a plain array so
+ * that it can be sent to clients in a Bundle. Times are in milliseconds.
+ */
+public class SleepSummary {
+
+    public static final int TIME_IN_BED = 0;
+    public static final int SLEEP_TIME = 1;
+    // -1 before falling asleep.
+    public static final int SLEEP_LATENCY = 2;
+    public static final int AWAKENINGS = 3;
+    public static final int MOVEMENTS = 4;
+    public static final int EPOCHS = 5;
+    public static final int TOTAL_COUNT = 6;
+
+    // SleepEpochAnalyzer.EPOCH_WAKE or EPOCH_SLEEP.
+    public final int epoch;
+    public final float restlessness;
+    public final long[] totals;
+
+    public SleepSummary(int epoch, float restlessness, long[] totals) {
+        this.epoch = epoch;
+        this.restlessness = restlessness;
+        this.totals = totals;
+    }
+
+    public static SleepSummary of(SleepEpochAnalyzer analyzer) {
+        long[] totals = new long[TOTAL_COUNT];
+        totals[TIME_IN_BED] = analyzer.timeInBed();
+        totals[SLEEP_TIME] = analyzer.sleepTime();
+        totals[SLEEP_LATENCY] = analyzer.sleepLatency();
+        totals[AWAKENINGS] = analyzer.awakenings();
+        totals[MOVEMENTS] = analyzer.movements();
+        totals[EPOCHS] = analyzer.epochs();
+        return new SleepSummary(analyzer.lastEpoch(), analyzer.restlessness(), totals);
+    }
+
+    public boolean isAsleep() {
+        return epoch == SleepEpochAnalyzer.EPOCH_SLEEP;
+    }
+
+    @Override
+    public String toString() {
+        String latency = totals[SLEEP_LATENCY] >= 0 ? minutes(totals[SLEEP_LATENCY]) : "-";
+        return String.format(Locale.US, "%s, %s in bed, %s asleep, fell asleep in %s, %d awakenings, restlessness %.0f%%",
+                isAsleep() ? "Asleep" : "Awake", minutes(totals[TIME_IN_BED]), minutes(totals[SLEEP_TIME]),
+                latency, totals[AWAKENINGS], restlessness * 100);
+    }
+
+    private static String minutes(long millis) {
+        long minutes = millis / 60000;
+        return String.format(Locale.US, "%dh %02dm", minutes / 60, minutes % 60);
+    }
+}
@@ -0,0 +1,72 @@
+package com.machnev.sleepdevice.core;
+
+/**
+ * Caps the time a wake lock is held per hour.
+ *
+ * Every acquisition asks for a grant, the longest it may hold the lock, and is charged for
+ * the time it actually held it. Once the budget of the current hour is used up no more
+ * grants are given until the next hour starts.
+ */
+public class WakeLockBudget {
+
+    public static final long HOUR = 60 * 60 * 1000;
+
+    private final long budget;
+    private final long maxHold;
+
+    private long hourStart = Long.MIN_VALUE;
+    private long used;
+    private long denied;
+
+    /**
+     * @param budget milliseconds the lock may be held per hour
+     * @param maxHold milliseconds a single acquisition may hold the lock
+     */
+    public WakeLockBudget(long budget, long maxHold) {
+        this.budget = budget;
+        this.maxHold = maxHold;
+    }
+
+    /**
+     * @return milliseconds the lock may be held from now, 0 if the budget is used up
+     */
+    public synchronized long grant(long now) {
+        roll(now);
+        long granted = Math.min(maxHold, budget - used);
+        if(granted <= 0) {
+            denied++;
+            return 0;
+        }
+        return granted;
+    }
+
+    /**
+     * @param held milliseconds the lock was held, at most what was granted
+     */
+    public synchronized void charge(long now, long held) {
+        roll(now);
+        used += held;
+    }
+
+    /**
+     * @return milliseconds used in the current hour
+     */
+    public synchronized long used(long now) {
+        roll(now);
+        return used;
+    }
+
+    /**
+     * @return grants refused because the budget was used up
+     */
+    public synchronized long denied() {
+        return denied;
+    }
+
+    private void roll(long now) {
+        if(hourStart == Long.MIN_VALUE || now - hourStart >= HOUR) {
+            hourStart = now;
+            used = 0;
+        }
+    }
+}
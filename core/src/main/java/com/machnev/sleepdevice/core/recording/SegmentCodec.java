@@ -0,0 +1,298 @@
+package com.machnev.sleepdevice.core.recording;
+
+/**
+ * Columnar encoding of a block of samples.
+ *
+ * <ul>
+ * <li>Timestamps: the first one, then delta-of-delta, as zig-zag varints.</li>
+ * <li>Values: fixed-point deltas as zig-zag varints when every value is exactly a decimal
+ * with at most {@link #MAX_SCALE_EXPONENT} digits after the point, otherwise XOR with the
+ * previous value, bit packed by leading and trailing zeros.</li>
+ * <li>Statuses: 2 bits per sample, or raw bytes for unknown statuses.</li>
+ * </ul>
+ *
+ * Encoding is lossless. An instance keeps its scratch state in fields, so it does not
+ * allocate, and must not be shared between threads.
+ */
+public final class SegmentCodec {
+
+    static final int MAX_SCALE_EXPONENT = 3;
+    static final int VALUES_XOR = 0xff;
+    static final int STATUSES_PACKED = 0;
+    static final int STATUSES_RAW = 1;
+
+    private static final double[] SCALES = {1, 10, 100, 1000};
+
+    private byte[] buffer;
+    private int position;
+    private long bits;
+    private int bitCount;
+
+    /**
+     * Upper bound of the encoded size of {@code count} samples.
+     */
+    public static int maxEncodedSize(int count) {
+        // Varint timestamps take at most 10 bytes, XOR values at most 44 bits, statuses 1 byte.
+        return 16 + count * (10 + 6 + 1);
+    }
+
+    /**
+     * @return offset right after the encoded data
+     */
+    public int encode(long[] timestamps, float[] values, byte[] statuses, int count, byte[] out, int offset) {
+        buffer = out;
+        position = offset;
+        if(count > 0) {
+            encodeTimestamps(timestamps, count);
+            encodeValues(values, count);
+            encodeStatuses(statuses, count);
+        }
+        buffer = null;
+        return position;
+    }
+
+    /**
+     * @return offset right after the decoded data
+     */
+    public int decode(byte[] in, int offset, int count, long[] timestamps, float[] values, byte[] statuses) {
+        buffer = in;
+        position = offset;
+        if(count > 0) {
+            decodeTimestamps(timestamps, count);
+            decodeValues(values, count);
+            decodeStatuses(statuses, count);
+        }
+        buffer = null;
+        return position;
+    }
+
+    private void encodeTimestamps(long[] timestamps, int count) {
+        writeVarLong(zigZag(timestamps[0]));
+        long previousDelta = 0;
+        for(int i = 1; i < count; i++) {
+            long delta = timestamps[i] - timestamps[i - 1];
+            writeVarLong(zigZag(delta - previousDelta));
+            previousDelta = delta;
+        }
+    }
+
+    private void decodeTimestamps(long[] timestamps, int count) {
+        long timestamp = unZigZag(readVarLong());
+        timestamps[0] = timestamp;
+        long delta = 0;
+        for(int i = 1; i < count; i++) {
+            delta += unZigZag(readVarLong());
+            timestamp += delta;
+            timestamps[i] = timestamp;
+        }
+    }
+
+    private void encodeValues(float[] values, int count) {
+        int exponent = fixedPointExponent(values, count);
+        if(exponent >= 0) {
+            buffer[position++] = (byte) exponent;
+            double scale = SCALES[exponent];
+            long previous = 0;
+            for(int i = 0; i < count; i++) {
+                long quantized = Math.round(values[i] * scale);
+                writeVarLong(zigZag(quantized - previous));
+                previous = quantized;
+            }
+        } else {
+            buffer[position++] = (byte) VALUES_XOR;
+            encodeXor(values, count);
+        }
+    }
+
+    private void decodeValues(float[] values, int count) {
+        int mode = buffer[position++] & 0xff;
+        if(mode == VALUES_XOR) {
+            decodeXor(values, count);
+        } else {
+            double scale = SCALES[mode];
+            long quantized = 0;
+            for(int i = 0; i < count; i++) {
+                quantized += unZigZag(readVarLong());
+                values[i] = (float) (quantized / scale);
+            }
+        }
+    }
+
+    private static int fixedPointExponent(float[] values, int count) {
+        for(int exponent = 0; exponent <= MAX_SCALE_EXPONENT; exponent++) {
+            if(isFixedPoint(values, count, SCALES[exponent])) {
+                return exponent;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isFixedPoint(float[] values, int count, double scale) {
+        for(int i = 0; i < count; i++) {
+            float value = values[i];
+            if(!(Math.abs(value) < 1e12)) {
+                return false;
+            }
+            long quantized = Math.round(value * scale);
+            if(Float.floatToRawIntBits((float) (quantized / scale)) != Float.floatToRawIntBits(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void encodeXor(float[] values, int count) {
+        bits = 0;
+        bitCount = 0;
+
+        int previous = Float.floatToRawIntBits(values[0]);
+        writeBits(previous, 32);
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for(int i = 1; i < count; i++) {
+            int current = Float.floatToRawIntBits(values[i]);
+            int xor = current ^ previous;
+            previous = current;
+            if(xor == 0) {
+                writeBits(0, 1);
+                continue;
+            }
+
+            int leading = Integer.numberOfLeadingZeros(xor);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+            if(previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                writeBits(2, 2);
+                writeBits(xor >>> previousTrailing, 32 - previousLeading - previousTrailing);
+            } else {
+                int length = 32 - leading - trailing;
+                writeBits(3, 2);
+                writeBits(leading, 5);
+                writeBits(length - 1, 5);
+                writeBits(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+
+        if(bitCount > 0) {
+            buffer[position++] = (byte) (bits << (8 - bitCount));
+        }
+    }
+
+    private void decodeXor(float[] values, int count) {
+        bits = 0;
+        bitCount = 0;
+
+        int previous = (int) readBits(32);
+        values[0] = Float.intBitsToFloat(previous);
+        int leading = 0;
+        int trailing = 0;
+        for(int i = 1; i < count; i++) {
+            if(readBits(1) != 0) {
+                if(readBits(1) != 0) {
+                    leading = (int) readBits(5);
+                    int length = (int) readBits(5) + 1;
+                    trailing = 32 - leading - length;
+                }
+                int xor = (int) readBits(32 - leading - trailing) << trailing;
+                previous ^= xor;
+            }
+            values[i] = Float.intBitsToFloat(previous);
+        }
+        // Remaining bits of the last byte are padding.
+    }
+
+    private void encodeStatuses(byte[] statuses, int count) {
+        boolean packable = true;
+        for(int i = 0; i < count; i++) {
+            int status = statuses[i];
+            if(status < -1 || status > 1) {
+                packable = false;
+                break;
+            }
+        }
+
+        if(!packable) {
+            buffer[position++] = (byte) STATUSES_RAW;
+            System.arraycopy(statuses, 0, buffer, position, count);
+            position += count;
+            return;
+        }
+
+        buffer[position++] = (byte) STATUSES_PACKED;
+        int packed = 0;
+        for(int i = 0; i < count; i++) {
+            packed |= (statuses[i] + 1) << ((i & 3) << 1);
+            if((i & 3) == 3) {
+                buffer[position++] = (byte) packed;
+                packed = 0;
+            }
+        }
+        if((count & 3) != 0) {
+            buffer[position++] = (byte) packed;
+        }
+    }
+
+    private void decodeStatuses(byte[] statuses, int count) {
+        int mode = buffer[position++];
+        if(mode == STATUSES_RAW) {
+            System.arraycopy(buffer, position, statuses, 0, count);
+            position += count;
+            return;
+        }
+
+        for(int i = 0; i < count; i += 4) {
+            int packed = buffer[position++];
+            int end = Math.min(count, i + 4);
+            for(int j = i; j < end; j++) {
+                statuses[j] = (byte) (((packed >>> ((j & 3) << 1)) & 3) - 1);
+            }
+        }
+    }
+
+    private void writeBits(long value, int count) {
+        bits = (bits << count) | (value & ((1L << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            buffer[position++] = (byte) (bits >>> bitCount);
+        }
+    }
+
+    private long readBits(int count) {
+        while (bitCount < count) {
+            bits = (bits << 8) | (buffer[position++] & 0xff);
+            bitCount += 8;
+        }
+        bitCount -= count;
+        return (bits >>> bitCount) & ((1L << count) - 1);
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[position++];
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
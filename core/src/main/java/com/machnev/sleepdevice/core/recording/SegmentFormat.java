@@ -0,0 +1,50 @@
+package com.machnev.sleepdevice.core.recording;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of recorded segment files.
+ *
+ * A segment starts with a header (magic, version, segment index) followed by blocks.
+ * Each block is one group commit: block magic, sample count, payload length, CRC32 of
+ * the payload and the payload itself, encoded by {@link SegmentCodec}. A block that is
+ * cut short or fails its checksum marks the end of the valid data in the segment.
+ *
+ * A sealed segment ends with a footer: footer magic, entry count, one entry per block
+ * (first timestamp, last timestamp, offset, sample count) and a CRC32 of the entries,
+ * followed by a trailer with the footer offset and the trailer magic.
+ */
+final class SegmentFormat {
+
+    static final int MAGIC = 0x53445347;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+
+    static final int BLOCK_MAGIC = 0x424c4b31;
+    static final int BLOCK_HEADER_SIZE = 16;
+    static final int MAX_BLOCK_SAMPLES = 4096;
+    static final int MAX_PAYLOAD_SIZE = SegmentCodec.maxEncodedSize(MAX_BLOCK_SAMPLES);
+
+    static final int FOOTER_MAGIC = 0x46545231;
+    static final int FOOTER_HEADER_SIZE = 8;
+    static final int FOOTER_ENTRY_SIZE = 8 + 8 + 8 + 4;
+    static final int TRAILER_MAGIC = 0x53445345;
+    static final int TRAILER_SIZE = 8 + 4 + 4;
+
+    private SegmentFormat() {
+    }
+
+    static void writeHeader(ByteBuffer buffer, long segmentIndex) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(segmentIndex);
+    }
+
+    static boolean isValidHeader(ByteBuffer buffer) {
+        return buffer.getInt() == MAGIC && buffer.getInt() == VERSION;
+    }
+
+    static int footerSize(int entries) {
+        return FOOTER_HEADER_SIZE + entries * FOOTER_ENTRY_SIZE + TRAILER_SIZE;
+    }
+}
@@ -0,0 +1,110 @@
+package com.machnev.sleepdevice.core.recording;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Time index of the blocks of one segment, stored in the segment footer.
+ */
+final class SegmentIndex {
+
+    private long[] firstTimestamps = new long[16];
+    private long[] lastTimestamps = new long[16];
+    private long[] offsets = new long[16];
+    private int[] counts = new int[16];
+    private int size;
+
+    void add(long firstTimestamp, long lastTimestamp, long offset, int count) {
+        if(size == offsets.length) {
+            int capacity = size * 2;
+            firstTimestamps = Arrays.copyOf(firstTimestamps, capacity);
+            lastTimestamps = Arrays.copyOf(lastTimestamps, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        firstTimestamps[size] = firstTimestamp;
+        lastTimestamps[size] = lastTimestamp;
+        offsets[size] = offset;
+        counts[size] = count;
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long firstTimestamp(int entry) {
+        return firstTimestamps[entry];
+    }
+
+    long lastTimestamp(int entry) {
+        return lastTimestamps[entry];
+    }
+
+    long offset(int entry) {
+        return offsets[entry];
+    }
+
+    int count(int entry) {
+        return counts[entry];
+    }
+
+    /**
+     * @return first entry whose last timestamp is not before {@code timestamp}, or {@link #size()}
+     */
+    int find(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if(lastTimestamps[middle] < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    void write(ByteBuffer buffer, long footerOffset) {
+        buffer.putInt(SegmentFormat.FOOTER_MAGIC);
+        buffer.putInt(size);
+        int entriesStart = buffer.position();
+        for(int i = 0; i < size; i++) {
+            buffer.putLong(firstTimestamps[i]);
+            buffer.putLong(lastTimestamps[i]);
+            buffer.putLong(offsets[i]);
+            buffer.putInt(counts[i]);
+        }
+        buffer.putLong(footerOffset);
+        buffer.putInt((int) checksum(buffer, entriesStart, size));
+        buffer.putInt(SegmentFormat.TRAILER_MAGIC);
+    }
+
+    /**
+     * Reads the entries of a footer whose header was already consumed.
+     *
+     * @return false if the entries do not match the checksum
+     */
+    boolean read(ByteBuffer buffer, int entries, long expectedChecksum) {
+        if(checksum(buffer, buffer.position(), entries) != expectedChecksum) {
+            return false;
+        }
+        clear();
+        for(int i = 0; i < entries; i++) {
+            add(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getInt());
+        }
+        return true;
+    }
+
+    private static long checksum(ByteBuffer buffer, int start, int entries) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, entries * SegmentFormat.FOOTER_ENTRY_SIZE);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,233 @@
+package com.machnev.sleepdevice.core.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a segment block by block. Reading stops at the first incomplete or corrupted block,
+ * {@link #validLength()} is then the size the segment can be truncated to.
+ * Sealed segments can be positioned by time through their footer index.
+ */
+public class SegmentReader implements Closeable {
+
+    private final FileChannel channel;
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(SegmentFormat.BLOCK_HEADER_SIZE);
+    private final byte[] payloadBytes = new byte[SegmentFormat.MAX_PAYLOAD_SIZE];
+    private final ByteBuffer payload = ByteBuffer.wrap(payloadBytes);
+    private final SegmentCodec codec = new SegmentCodec();
+    private final SegmentIndex index = new SegmentIndex();
+    private final CRC32 crc = new CRC32();
+
+    private final long[] timestamps = new long[SegmentFormat.MAX_BLOCK_SAMPLES];
+    private final float[] values = new float[SegmentFormat.MAX_BLOCK_SAMPLES];
+    private final byte[] statuses = new byte[SegmentFormat.MAX_BLOCK_SAMPLES];
+    private int count;
+
+    private boolean sealed;
+    private long dataEnd = Long.MAX_VALUE;
+    private long position;
+    private long blockOffset;
+    private long validLength;
+
+    private SegmentReader(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public static SegmentReader open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        SegmentReader reader = new SegmentReader(channel);
+        try {
+            reader.readHeader();
+            reader.readFooter();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SegmentFormat.HEADER_SIZE);
+        if(!readFully(header, 0) || !SegmentFormat.isValidHeader(header)) {
+            throw new IOException("Not a segment file");
+        }
+        position = SegmentFormat.HEADER_SIZE;
+        validLength = position;
+    }
+
+    private void readFooter() throws IOException {
+        long fileSize = channel.size();
+        if(fileSize < SegmentFormat.HEADER_SIZE + SegmentFormat.footerSize(0)) {
+            return;
+        }
+
+        ByteBuffer trailer = ByteBuffer.allocate(SegmentFormat.TRAILER_SIZE);
+        if(!readFully(trailer, fileSize - SegmentFormat.TRAILER_SIZE)) {
+            return;
+        }
+        long footerOffset = trailer.getLong();
+        long checksum = trailer.getInt() & 0xffffffffL;
+        if(trailer.getInt() != SegmentFormat.TRAILER_MAGIC
+                || footerOffset < SegmentFormat.HEADER_SIZE || footerOffset >= fileSize) {
+            return;
+        }
+
+        long footerSize = fileSize - footerOffset;
+        long entries = (footerSize - SegmentFormat.footerSize(0)) / SegmentFormat.FOOTER_ENTRY_SIZE;
+        if(entries < 0 || entries > Integer.MAX_VALUE || SegmentFormat.footerSize((int) entries) != footerSize) {
+            return;
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate((int) footerSize);
+        if(!readFully(footer, footerOffset)
+                || footer.getInt() != SegmentFormat.FOOTER_MAGIC || footer.getInt() != entries) {
+            return;
+        }
+        if(index.read(footer, (int) entries, checksum)) {
+            sealed = true;
+            dataEnd = footerOffset;
+        }
+    }
+
+    /**
+     * Reads the next block.
+     *
+     * @return false at the end of the valid data
+     */
+    public boolean nextBlock() throws IOException {
+        count = 0;
+        if(position >= dataEnd) {
+            return false;
+        }
+
+        blockHeader.clear();
+        if(!readFully(blockHeader, position)) {
+            return false;
+        }
+        int magic = blockHeader.getInt();
+        int blockCount = blockHeader.getInt();
+        int length = blockHeader.getInt();
+        long checksum = blockHeader.getInt() & 0xffffffffL;
+        if(magic != SegmentFormat.BLOCK_MAGIC
+                || blockCount <= 0 || blockCount > SegmentFormat.MAX_BLOCK_SAMPLES
+                || length <= 0 || length > SegmentFormat.MAX_PAYLOAD_SIZE) {
+            return false;
+        }
+
+        payload.clear();
+        payload.limit(length);
+        if(!readFully(payload, position + SegmentFormat.BLOCK_HEADER_SIZE)) {
+            return false;
+        }
+        crc.reset();
+        crc.update(payloadBytes, 0, length);
+        if(crc.getValue() != checksum) {
+            return false;
+        }
+
+        if(codec.decode(payloadBytes, 0, blockCount, timestamps, values, statuses) != length) {
+            return false;
+        }
+        count = blockCount;
+        blockOffset = position;
+        position += SegmentFormat.BLOCK_HEADER_SIZE + length;
+        validLength = position;
+        return true;
+    }
+
+    /**
+     * Positions the reader so that the next block is the first one that has samples
+     * at or after {@code timestamp}. Uses the footer index when the segment is sealed.
+     */
+    public void seek(long timestamp) throws IOException {
+        if(sealed) {
+            int entry = index.find(timestamp);
+            position = entry < index.size() ? index.offset(entry) : dataEnd;
+            return;
+        }
+
+        position = SegmentFormat.HEADER_SIZE;
+        while (nextBlock()) {
+            if(timestamps[count - 1] >= timestamp) {
+                position = blockOffset;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Positions a sealed segment so that the next block is the indexed block {@code block}.
+     */
+    public void seekBlock(int block) {
+        if(!sealed) {
+            throw new IllegalStateException("Only sealed segments are indexed");
+        }
+        position = block < index.size() ? index.offset(block) : dataEnd;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * Number of blocks in the footer index, 0 if the segment is not sealed.
+     */
+    public int indexedBlocks() {
+        return index.size();
+    }
+
+    public long indexedFirstTimestamp(int block) {
+        return index.firstTimestamp(block);
+    }
+
+    public long indexedLastTimestamp(int block) {
+        return index.lastTimestamp(block);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long[] timestamps() {
+        return timestamps;
+    }
+
+    public float[] values() {
+        return values;
+    }
+
+    public byte[] statuses() {
+        return statuses;
+    }
+
+    public long blockOffset() {
+        return blockOffset;
+    }
+
+    public long validLength() {
+        return validLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean readFully(ByteBuffer buffer, long offset) throws IOException {
+        long current = offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, current);
+            if(read < 0) {
+                return false;
+            }
+            current += read;
+        }
+        buffer.flip();
+        return true;
+    }
+}
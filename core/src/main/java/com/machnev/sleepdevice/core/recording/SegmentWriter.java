@@ -0,0 +1,142 @@
+package com.machnev.sleepdevice.core.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Appends blocks of samples to a segment. Every {@link #append} is a single write
+ * of one checksummed block followed by a sync, so a crash loses at most the block
+ * that was being written. {@link #seal()} writes the time index footer.
+ */
+public class SegmentWriter implements Closeable {
+
+    private final FileChannel channel;
+    private final byte[] block = new byte[SegmentFormat.BLOCK_HEADER_SIZE + SegmentFormat.MAX_PAYLOAD_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(block);
+    private final SegmentCodec codec = new SegmentCodec();
+    private final SegmentIndex index;
+    private final CRC32 crc = new CRC32();
+
+    private long size;
+    private boolean sealed;
+
+    private SegmentWriter(FileChannel channel, long size, SegmentIndex index) {
+        this.channel = channel;
+        this.size = size;
+        this.index = index;
+    }
+
+    public static SegmentWriter create(File file, long segmentIndex) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(SegmentFormat.HEADER_SIZE);
+            SegmentFormat.writeHeader(header, segmentIndex);
+            header.flip();
+            writeFully(channel, header, 0);
+            channel.force(true);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new SegmentWriter(channel, SegmentFormat.HEADER_SIZE, new SegmentIndex());
+    }
+
+    /**
+     * Opens an existing segment for appending. Anything after the last valid block,
+     * such as a block torn by a crash or the footer of a sealed segment, is truncated.
+     */
+    public static SegmentWriter recover(File file, long segmentIndex) throws IOException {
+        SegmentIndex index = new SegmentIndex();
+        long validLength;
+        try {
+            SegmentReader reader = SegmentReader.open(file);
+            try {
+                while (reader.nextBlock()) {
+                    long[] timestamps = reader.timestamps();
+                    index.add(timestamps[0], timestamps[reader.count() - 1], reader.blockOffset(), reader.count());
+                }
+                validLength = reader.validLength();
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return create(file, segmentIndex);
+        }
+
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        if(channel.size() > validLength) {
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        return new SegmentWriter(channel, validLength, index);
+    }
+
+    public void append(long[] timestamps, float[] values, byte[] statuses, int count) throws IOException {
+        if(sealed) {
+            throw new IllegalStateException("Segment is sealed");
+        }
+        if(count <= 0) {
+            return;
+        }
+        if(count > SegmentFormat.MAX_BLOCK_SAMPLES) {
+            throw new IllegalArgumentException("Too many samples in one block: " + count);
+        }
+
+        int end = codec.encode(timestamps, values, statuses, count, block, SegmentFormat.BLOCK_HEADER_SIZE);
+        int length = end - SegmentFormat.BLOCK_HEADER_SIZE;
+        crc.reset();
+        crc.update(block, SegmentFormat.BLOCK_HEADER_SIZE, length);
+
+        buffer.clear();
+        buffer.putInt(SegmentFormat.BLOCK_MAGIC);
+        buffer.putInt(count);
+        buffer.putInt(length);
+        buffer.putInt((int) crc.getValue());
+        buffer.position(0);
+        buffer.limit(end);
+
+        writeFully(channel, buffer, size);
+        channel.force(false);
+        index.add(timestamps[0], timestamps[count - 1], size, count);
+        size += end;
+    }
+
+    /**
+     * Writes the footer. Nothing can be appended to a sealed segment.
+     */
+    public void seal() throws IOException {
+        if(sealed) {
+            return;
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate(SegmentFormat.footerSize(index.size()));
+        index.write(footer, size);
+        footer.flip();
+        writeFully(channel, footer, size);
+        channel.force(true);
+        size += footer.limit();
+        sealed = true;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            current += channel.write(buffer, current);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.machnev.sleepdevice.core.recording;
+
+import com.machnev.sleepdevice.core.SampleRingBuffer;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the samples appended to a {@link SampleRingBuffer} into segment files.
+ *
+ * The recorder never touches the thread that appends samples. Its own thread drains the
+ * buffer periodically and writes everything collected since the last flush as one block.
+ * Each session is a directory of numbered segments which are sealed with a time index
+ * when they are complete. A session that was not stopped cleanly is resumed on the next
+ * start, and only its last segment has to be recovered.
+ */
+public class SessionRecorder {
+
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final long DEFAULT_SEGMENT_SIZE = 1 << 18;
+
+    static final String SEGMENT_EXTENSION = ".seg";
+    static final String CLOSED_MARKER = "closed";
+
+    private final SampleRingBuffer source;
+    private final File rootDirectory;
+    private final ErrorCallback errorCallback;
+    private long flushInterval;
+    private final long segmentSize;
+
+    private final long[] timestamps = new long[SegmentFormat.MAX_BLOCK_SAMPLES];
+    private final float[] values = new float[SegmentFormat.MAX_BLOCK_SAMPLES];
+    private final byte[] statuses = new byte[SegmentFormat.MAX_BLOCK_SAMPLES];
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> flushTask;
+
+    // Accessed only from the recorder thread.
+    private File sessionDirectory;
+    private SegmentWriter writer;
+    private long segmentIndex;
+    private long nextSequence;
+
+    private volatile long recordedSamples;
+    private volatile long droppedSamples;
+
+    public SessionRecorder(SampleRingBuffer source, File rootDirectory, ErrorCallback errorCallback) {
+        this(source, rootDirectory, errorCallback, DEFAULT_FLUSH_INTERVAL, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public SessionRecorder(SampleRingBuffer source, File rootDirectory, ErrorCallback errorCallback,
+                           long flushInterval, long segmentSize) {
+        this.source = source;
+        this.rootDirectory = rootDirectory;
+        this.errorCallback = errorCallback;
+        this.flushInterval = flushInterval;
+        this.segmentSize = segmentSize;
+    }
+
+    public synchronized boolean isRecording() {
+        return executor != null;
+    }
+
+    /**
+     * Starts recording samples appended from now on. Opening or recovering the session
+     * happens on the recorder thread.
+     */
+    public synchronized void start() {
+        if(executor != null) {
+            return;
+        }
+
+        final long startSequence = source.writeSequence();
+        executor = Executors.newSingleThreadScheduledExecutor(new RecorderThreadFactory());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                nextSequence = startSequence;
+                try {
+                    openSession(System.currentTimeMillis());
+                } catch (IOException e) {
+                    errorCallback.onRecordingError(e);
+                }
+            }
+        });
+        scheduleFlush();
+    }
+
+    /**
+     * Longer intervals write bigger blocks and wake the recorder thread less often. The
+     * source must hold the samples of a whole interval.
+     */
+    public synchronized void setFlushInterval(long flushInterval) {
+        if(flushInterval == this.flushInterval) {
+            return;
+        }
+        this.flushInterval = flushInterval;
+        if(executor != null) {
+            flushTask.cancel(false);
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        flushTask = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops recording. Pending samples are flushed and the session is closed on the recorder thread.
+     */
+    public synchronized void stop() {
+        if(executor == null) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                closeSession();
+            }
+        });
+        executor.shutdown();
+        executor = null;
+    }
+
+    public long recordedSamples() {
+        return recordedSamples;
+    }
+
+    public long droppedSamples() {
+        return droppedSamples;
+    }
+
+    public File getRootDirectory() {
+        return rootDirectory;
+    }
+
+    void flush() {
+        if(writer == null) {
+            return;
+        }
+
+        try {
+            long end = source.writeSequence();
+            while (nextSequence < end) {
+                long to = Math.min(end, nextSequence + SegmentFormat.MAX_BLOCK_SAMPLES);
+                int count = source.readSequence(nextSequence, to, timestamps, values, statuses);
+                droppedSamples += to - nextSequence - count;
+                nextSequence = to;
+
+                writer.append(timestamps, values, statuses, count);
+                recordedSamples += count;
+                if(writer.size() >= segmentSize) {
+                    rollSegment();
+                }
+            }
+        } catch (IOException e) {
+            errorCallback.onRecordingError(e);
+        }
+    }
+
+    private void openSession(long now) throws IOException {
+        File[] sessions = listSessions(rootDirectory);
+        File last = sessions.length > 0 ? sessions[sessions.length - 1] : null;
+
+        if(last != null && !new File(last, CLOSED_MARKER).exists()) {
+            sessionDirectory = last;
+            File[] segments = listSegments(last);
+            if(segments.length > 0) {
+                File lastSegment = segments[segments.length - 1];
+                segmentIndex = segmentIndex(lastSegment);
+                writer = SegmentWriter.recover(lastSegment, segmentIndex);
+                return;
+            }
+        } else {
+            sessionDirectory = new File(rootDirectory, String.valueOf(now));
+            if(!sessionDirectory.mkdirs() && !sessionDirectory.isDirectory()) {
+                throw new IOException("Could not create " + sessionDirectory);
+            }
+        }
+
+        segmentIndex = 0;
+        writer = SegmentWriter.create(segmentFile(sessionDirectory, segmentIndex), segmentIndex);
+    }
+
+    private void rollSegment() throws IOException {
+        writer.seal();
+        writer.close();
+        segmentIndex++;
+        writer = SegmentWriter.create(segmentFile(sessionDirectory, segmentIndex), segmentIndex);
+    }
+
+    private void closeSession() {
+        if(writer == null) {
+            return;
+        }
+
+        try {
+            writer.seal();
+            writer.close();
+            if(!new File(sessionDirectory, CLOSED_MARKER).createNewFile()) {
+                throw new IOException("Could not close session " + sessionDirectory);
+            }
+        } catch (IOException e) {
+            errorCallback.onRecordingError(e);
+        } finally {
+            writer = null;
+            sessionDirectory = null;
+        }
+    }
+
+    /**
+     * Session directories under the root, oldest first.
+     */
+    public static File[] listSessions(File rootDirectory) {
+        File[] sessions = rootDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && isNumber(file.getName());
+            }
+        });
+        if(sessions == null) {
+            return new File[0];
+        }
+        Arrays.sort(sessions, new NumericNameComparator(""));
+        return sessions;
+    }
+
+    /**
+     * Segment files of a session, in recording order.
+     */
+    public static File[] listSegments(File sessionDirectory) {
+        File[] segments = sessionDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile() && name.endsWith(SEGMENT_EXTENSION)
+                        && isNumber(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+            }
+        });
+        if(segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments, new NumericNameComparator(SEGMENT_EXTENSION));
+        return segments;
+    }
+
+    public static boolean isClosed(File sessionDirectory) {
+        return new File(sessionDirectory, CLOSED_MARKER).exists();
+    }
+
+    private static File segmentFile(File sessionDirectory, long index) {
+        return new File(sessionDirectory, index + SEGMENT_EXTENSION);
+    }
+
+    private static long segmentIndex(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+    }
+
+    private static boolean isNumber(String name) {
+        if(name.isEmpty() || name.length() > 18) {
+            return false;
+        }
+        for(int i = 0; i < name.length(); i++) {
+            if(!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static interface ErrorCallback {
+        public void onRecordingError(IOException e);
+    }
+
+    private static class NumericNameComparator implements Comparator<File> {
+        private final String suffix;
+
+        private NumericNameComparator(String suffix) {
+            this.suffix = suffix;
+        }
+
+        @Override
+        public int compare(File left, File right) {
+            return Long.compare(number(left), number(right));
+        }
+
+        private long number(File file) {
+            String name = file.getName();
+            return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+        }
+    }
+
+    private static class RecorderThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SessionRecorder");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
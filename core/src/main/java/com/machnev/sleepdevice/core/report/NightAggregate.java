@@ -0,0 +1,158 @@
+package com.machnev.sleepdevice.core.report;
+
+import java.util.Arrays;
+
+/**
+ * Partial aggregate of a contiguous run of recorded samples. Aggregates of adjacent runs
+ * merge associatively, so a night can be split anywhere and its parts processed in any
+ * grouping: merging the parts in time order gives the same result as one pass over all samples,
+ * up to the rounding of the activity sums.
+ *
+ * Per-epoch sums are indexed by the epoch since the origin, the start of the session.
+ */
+class NightAggregate {
+
+    static final long EPOCH_LENGTH = 30000;
+    // Longer gaps between samples are missing data and count neither in nor out of bed.
+    static final long MAX_GAP = 10000;
+    // Three days, later samples fall into the last epoch.
+    static final int MAX_EPOCHS = 8640;
+
+    private static final byte STATUS_ON_BED = 1;
+
+    private final long origin;
+
+    private long samples;
+    private long firstTimestamp;
+    private float firstValue;
+    private byte firstStatus;
+    private long lastTimestamp;
+    private float lastValue;
+    private byte lastStatus;
+
+    private int bedExits;
+    private long[] inBed = new long[0];
+    private double[] activity = new double[0];
+    private int epochs;
+
+    NightAggregate(long origin) {
+        this.origin = origin;
+    }
+
+    void add(long[] timestamps, float[] values, byte[] statuses, int count) {
+        for(int i = 0; i < count; i++) {
+            add(timestamps[i], values[i], statuses[i]);
+        }
+    }
+
+    void add(long timestamp, float value, byte status) {
+        if(samples == 0) {
+            firstTimestamp = timestamp;
+            firstValue = value;
+            firstStatus = status;
+        } else {
+            step(lastTimestamp, lastValue, lastStatus, timestamp, value, status);
+        }
+        lastTimestamp = timestamp;
+        lastValue = value;
+        lastStatus = status;
+        samples++;
+    }
+
+    /**
+     * Appends {@code next}, which must directly follow the samples of this aggregate.
+     */
+    void merge(NightAggregate next) {
+        if(next.samples == 0) {
+            return;
+        }
+        if(samples == 0) {
+            firstTimestamp = next.firstTimestamp;
+            firstValue = next.firstValue;
+            firstStatus = next.firstStatus;
+        } else {
+            step(lastTimestamp, lastValue, lastStatus, next.firstTimestamp, next.firstValue, next.firstStatus);
+        }
+
+        ensureEpochs(next.epochs);
+        for(int i = 0; i < next.epochs; i++) {
+            inBed[i] += next.inBed[i];
+            activity[i] += next.activity[i];
+        }
+        bedExits += next.bedExits;
+        lastTimestamp = next.lastTimestamp;
+        lastValue = next.lastValue;
+        lastStatus = next.lastStatus;
+        samples += next.samples;
+    }
+
+    long samples() {
+        return samples;
+    }
+
+    long firstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int bedExits() {
+        return bedExits;
+    }
+
+    int epochs() {
+        return epochs;
+    }
+
+    /**
+     * @return milliseconds in bed during the epoch
+     */
+    long inBed(int epoch) {
+        return inBed[epoch];
+    }
+
+    /**
+     * @return sum of the changes between values in bed during the epoch
+     */
+    double activity(int epoch) {
+        return activity[epoch];
+    }
+
+    private void step(long fromTimestamp, float fromValue, byte fromStatus, long toTimestamp, float toValue, byte toStatus) {
+        boolean fromOnBed = fromStatus == STATUS_ON_BED;
+        boolean toOnBed = toStatus == STATUS_ON_BED;
+        if(fromOnBed && !toOnBed) {
+            bedExits++;
+        }
+
+        long gap = toTimestamp - fromTimestamp;
+        if(gap < 0 || gap > MAX_GAP || !fromOnBed) {
+            return;
+        }
+        int epoch = epoch(fromTimestamp);
+        ensureEpochs(epoch + 1);
+        inBed[epoch] += gap;
+        if(toOnBed) {
+            activity[epoch] += Math.abs(toValue - fromValue);
+        }
+    }
+
+    private int epoch(long timestamp) {
+        long epoch = (timestamp - origin) / EPOCH_LENGTH;
+        return (int) Math.max(0, Math.min(epoch, MAX_EPOCHS - 1));
+    }
+
+    private void ensureEpochs(int count) {
+        if(count <= epochs) {
+            return;
+        }
+        if(count > inBed.length) {
+            int capacity = Math.min(MAX_EPOCHS, Math.max(count, inBed.length * 2));
+            inBed = Arrays.copyOf(inBed, capacity);
+            activity = Arrays.copyOf(activity, capacity);
+        }
+        epochs = count;
+    }
+}
@@ -0,0 +1,154 @@
+package com.machnev.sleepdevice.core.report;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Morning report of one recorded night, with the totals in a plain array so that it can be
+ * sent to clients in a Bundle. Times are in milliseconds.
+ *
+ * An epoch in bed counts as sleep unless its movement is well above the typical movement
+ * of the night, the median of the epochs in bed.
+ */
+public class NightReport {
+
+    public static final int START = 0;
+    public static final int END = 1;
+    public static final int TIME_IN_BED = 2;
+    public static final int SLEEP_TIME = 3;
+    public static final int BED_EXITS = 4;
+    public static final int SAMPLES = 5;
+    public static final int TIMELINE_START = 6;
+    public static final int TOTAL_COUNT = 7;
+
+    public static final long TIMELINE_INTERVAL = 5 * 60000;
+    // Epochs moving more than this times the median are awake.
+    public static final double RESTLESS_FACTOR = 3;
+
+    private static final int EPOCHS_PER_INTERVAL = (int) (TIMELINE_INTERVAL / NightAggregate.EPOCH_LENGTH);
+
+    public final long[] totals;
+    // Movement per minute in bed of every TIMELINE_INTERVAL from TIMELINE_START, 0 when out of bed.
+    public final float[] movement;
+
+    public NightReport(long[] totals, float[] movement) {
+        this.totals = totals;
+        this.movement = movement;
+    }
+
+    static NightReport of(long origin, NightAggregate night) {
+        int epochs = night.epochs();
+        double[] rates = new double[epochs];
+        int inBedEpochs = 0;
+        for(int i = 0; i < epochs; i++) {
+            if(isInBed(night, i)) {
+                rates[inBedEpochs++] = rate(night, i);
+            }
+        }
+        double threshold = RESTLESS_FACTOR * median(rates, inBedEpochs);
+
+        long timeInBed = 0;
+        long sleepTime = 0;
+        for(int i = 0; i < epochs; i++) {
+            timeInBed += night.inBed(i);
+            if(isInBed(night, i) && rate(night, i) <= threshold) {
+                sleepTime += night.inBed(i);
+            }
+        }
+
+        float[] movement = new float[(epochs + EPOCHS_PER_INTERVAL - 1) / EPOCHS_PER_INTERVAL];
+        for(int interval = 0; interval < movement.length; interval++) {
+            long inBed = 0;
+            double activity = 0;
+            for(int i = interval * EPOCHS_PER_INTERVAL; i < Math.min(epochs, (interval + 1) * EPOCHS_PER_INTERVAL); i++) {
+                inBed += night.inBed(i);
+                activity += night.activity(i);
+            }
+            movement[interval] = inBed > 0 ? (float) (activity * 60000 / inBed) : 0;
+        }
+
+        long[] totals = new long[TOTAL_COUNT];
+        totals[START] = night.firstTimestamp();
+        totals[END] = night.lastTimestamp();
+        totals[TIME_IN_BED] = timeInBed;
+        totals[SLEEP_TIME] = sleepTime;
+        totals[BED_EXITS] = night.bedExits();
+        totals[SAMPLES] = night.samples();
+        totals[TIMELINE_START] = origin;
+        return new NightReport(totals, movement);
+    }
+
+    /**
+     * @return share of the time in bed spent asleep, from 0 to 1
+     */
+    public float sleepEfficiency() {
+        return totals[TIME_IN_BED] > 0 ? (float) totals[SLEEP_TIME] / totals[TIME_IN_BED] : 0;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(totals.length);
+        for(long total : totals) {
+            out.writeLong(total);
+        }
+        out.writeInt(movement.length);
+        for(float value : movement) {
+            out.writeFloat(value);
+        }
+    }
+
+    static NightReport read(DataInput in) throws IOException {
+        int totalCount = in.readInt();
+        if(totalCount != TOTAL_COUNT) {
+            throw new IOException("Unexpected report size " + totalCount);
+        }
+        long[] totals = new long[totalCount];
+        for(int i = 0; i < totalCount; i++) {
+            totals[i] = in.readLong();
+        }
+        int intervals = in.readInt();
+        if(intervals < 0 || intervals > NightAggregate.MAX_EPOCHS) {
+            throw new IOException("Unexpected timeline size " + intervals);
+        }
+        float[] movement = new float[intervals];
+        for(int i = 0; i < intervals; i++) {
+            movement[i] = in.readFloat();
+        }
+        return new NightReport(totals, movement);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%s in bed, %s asleep, sleep efficiency %.0f%%, %d bed exits%n",
+                minutes(totals[TIME_IN_BED]), minutes(totals[SLEEP_TIME]), sleepEfficiency() * 100, totals[BED_EXITS]));
+        builder.append("Movement per 5 minutes:");
+        for(float value : movement) {
+            builder.append(String.format(Locale.US, " %.0f", value));
+        }
+        return builder.toString();
+    }
+
+    private static boolean isInBed(NightAggregate night, int epoch) {
+        return night.inBed(epoch) * 2 >= NightAggregate.EPOCH_LENGTH;
+    }
+
+    private static double rate(NightAggregate night, int epoch) {
+        return night.activity(epoch) / night.inBed(epoch);
+    }
+
+    private static double median(double[] values, int count) {
+        if(count == 0) {
+            return 0;
+        }
+        Arrays.sort(values, 0, count);
+        return values[count / 2];
+    }
+
+    private static String minutes(long millis) {
+        long minutes = millis / 60000;
+        return String.format(Locale.US, "%dh %02dm", minutes / 60, minutes % 60);
+    }
+}
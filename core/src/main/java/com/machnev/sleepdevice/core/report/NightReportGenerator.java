@@ -0,0 +1,196 @@
+package com.machnev.sleepdevice.core.report;
+
+import com.machnev.sleepdevice.core.recording.SegmentReader;
+import com.machnev.sleepdevice.core.recording.SessionRecorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Computes {@link NightReport}s from recorded sessions.
+ *
+ * The segments of a session are split into ranges of blocks, sealed segments through their
+ * index, and every range is aggregated on the executor. The partial aggregates are merged
+ * in time order. The report is cached in the session directory and only generated again
+ * when the segments of the session changed.
+ */
+public class NightReportGenerator {
+
+    static final String REPORT_FILE = "night.report";
+    static final int LEAF_BLOCKS = 256;
+
+    private static final int REPORT_MAGIC = 0x4e525031;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ExecutorService executor;
+
+    public NightReportGenerator(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the cached report of the session, generated first if the session changed
+     */
+    public NightReport report(File sessionDirectory) throws IOException {
+        File[] segments = SessionRecorder.listSegments(sessionDirectory);
+        long signature = signature(sessionDirectory, segments);
+
+        File cache = new File(sessionDirectory, REPORT_FILE);
+        NightReport cached = readCache(cache, signature);
+        if(cached != null) {
+            return cached;
+        }
+
+        NightReport report = generate(sessionDirectory, segments);
+        writeCache(cache, signature, report);
+        return report;
+    }
+
+    /**
+     * Generates the report of the session without looking at the cache.
+     */
+    public NightReport generate(File sessionDirectory) throws IOException {
+        return generate(sessionDirectory, SessionRecorder.listSegments(sessionDirectory));
+    }
+
+    private NightReport generate(File sessionDirectory, File[] segments) throws IOException {
+        long origin = origin(sessionDirectory);
+
+        List<Callable<NightAggregate>> ranges = new ArrayList<>();
+        for(File segment : segments) {
+            SegmentReader reader = SegmentReader.open(segment);
+            int blocks = reader.isSealed() ? reader.indexedBlocks() : -1;
+            reader.close();
+
+            if(blocks < 0) {
+                ranges.add(new BlockRange(segment, origin, -1, -1));
+            }
+            for(int from = 0; from < blocks; from += LEAF_BLOCKS) {
+                ranges.add(new BlockRange(segment, origin, from, Math.min(blocks, from + LEAF_BLOCKS)));
+            }
+        }
+
+        NightAggregate night = new NightAggregate(origin);
+        try {
+            for(Future<NightAggregate> part : executor.invokeAll(ranges)) {
+                night.merge(part.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Report of " + sessionDirectory + " interrupted");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return NightReport.of(origin, night);
+    }
+
+    private static long origin(File sessionDirectory) throws IOException {
+        try {
+            return Long.parseLong(sessionDirectory.getName());
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a session directory: " + sessionDirectory);
+        }
+    }
+
+    private static long signature(File sessionDirectory, File[] segments) {
+        CRC32 crc = new CRC32();
+        StringBuilder builder = new StringBuilder();
+        builder.append(SessionRecorder.isClosed(sessionDirectory));
+        for(File segment : segments) {
+            builder.append(';').append(segment.getName())
+                    .append(',').append(segment.length())
+                    .append(',').append(segment.lastModified());
+        }
+        crc.update(builder.toString().getBytes(UTF_8));
+        return crc.getValue();
+    }
+
+    private static NightReport readCache(File cache, long signature) {
+        if(!cache.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)));
+            try {
+                if(in.readInt() != REPORT_MAGIC || in.readLong() != signature) {
+                    return null;
+                }
+                return NightReport.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // A broken cache is generated again.
+            return null;
+        }
+    }
+
+    private static void writeCache(File cache, long signature, NightReport report) throws IOException {
+        File temporary = new File(cache.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(REPORT_MAGIC);
+            out.writeLong(signature);
+            report.write(out);
+        } finally {
+            out.close();
+        }
+        if(!temporary.renameTo(cache)) {
+            throw new IOException("Could not write " + cache);
+        }
+    }
+
+    private static class BlockRange implements Callable<NightAggregate> {
+        private final File segment;
+        private final long origin;
+        private final int fromBlock;
+        private final int toBlock;
+
+        /**
+         * @param fromBlock first indexed block, -1 to read the whole segment
+         */
+        private BlockRange(File segment, long origin, int fromBlock, int toBlock) {
+            this.segment = segment;
+            this.origin = origin;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        public NightAggregate call() throws IOException {
+            NightAggregate aggregate = new NightAggregate(origin);
+            SegmentReader reader = SegmentReader.open(segment);
+            try {
+                int blocks = Integer.MAX_VALUE;
+                if(fromBlock >= 0) {
+                    reader.seekBlock(fromBlock);
+                    blocks = toBlock - fromBlock;
+                }
+                for(int i = 0; i < blocks && reader.nextBlock(); i++) {
+                    aggregate.add(reader.timestamps(), reader.values(), reader.statuses(), reader.count());
+                }
+            } finally {
+                reader.close();
+            }
+            return aggregate;
+        }
+    }
+}
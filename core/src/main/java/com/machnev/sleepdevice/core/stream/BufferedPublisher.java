@@ -0,0 +1,223 @@
+package com.machnev.sleepdevice.core.stream;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Hot publisher that sends every emitted item to all current subscribers.
+ *
+ * Items a subscriber has not requested yet wait in a queue of its own. When a subscriber falls
+ * behind by more than the capacity, its oldest items are dropped, so a slow subscriber costs
+ * bounded memory and never blocks {@link #emit(Object)} or the other subscribers.
+ */
+public class BufferedPublisher<T> implements Publisher<T> {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final CopyOnWriteArrayList<Emission> emissions = new CopyOnWriteArrayList<>();
+
+    private boolean terminated;
+    private Throwable error;
+    private long dropped;
+
+    public BufferedPublisher() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity items kept for each subscriber until it requests them
+     */
+    public BufferedPublisher(int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, was " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        Emission emission = new Emission(subscriber);
+        boolean terminated;
+        Throwable error;
+        synchronized (this) {
+            terminated = this.terminated;
+            error = this.error;
+            if(!terminated) {
+                emissions.add(emission);
+            }
+        }
+        subscriber.onSubscribe(emission);
+        if(terminated) {
+            emission.terminate(error);
+        }
+    }
+
+    /**
+     * Sends the item to the subscribers, from any thread but one at a time.
+     */
+    public void emit(T item) {
+        for(Emission emission : emissions) {
+            emission.offer(item);
+        }
+    }
+
+    public void complete() {
+        terminate(null);
+    }
+
+    public void error(Throwable error) {
+        terminate(error);
+    }
+
+    /**
+     * @return items dropped for subscribers that fell behind, including former subscribers
+     */
+    public long dropped() {
+        long dropped;
+        synchronized (this) {
+            dropped = this.dropped;
+        }
+        for(Emission emission : emissions) {
+            dropped += emission.dropped();
+        }
+        return dropped;
+    }
+
+    public boolean hasSubscribers() {
+        return !emissions.isEmpty();
+    }
+
+    private void terminate(Throwable error) {
+        synchronized (this) {
+            if(terminated) {
+                return;
+            }
+            terminated = true;
+            this.error = error;
+        }
+        for(Emission emission : emissions) {
+            emission.terminate(error);
+        }
+    }
+
+    private void remove(Emission emission) {
+        synchronized (this) {
+            if(emissions.remove(emission)) {
+                dropped += emission.dropped();
+            }
+        }
+    }
+
+    private class Emission implements Subscription {
+        private final Subscriber<? super T> subscriber;
+        private final ArrayDeque<T> queue = new ArrayDeque<>();
+
+        private long requested;
+        private long dropped;
+        private boolean draining;
+        private boolean done;
+        private boolean cancelled;
+        private Throwable error;
+
+        private Emission(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0) {
+                terminate(new IllegalArgumentException("Requested " + n + " items"));
+                return;
+            }
+            synchronized (this) {
+                requested = Streams.addDemand(requested, n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                queue.clear();
+            }
+            remove(this);
+        }
+
+        private void offer(T item) {
+            synchronized (this) {
+                if(cancelled || done) {
+                    return;
+                }
+                if(queue.size() == capacity) {
+                    queue.poll();
+                    dropped++;
+                }
+                queue.add(item);
+            }
+            drain();
+        }
+
+        private void terminate(Throwable error) {
+            synchronized (this) {
+                if(done) {
+                    return;
+                }
+                done = true;
+                this.error = error;
+            }
+            drain();
+        }
+
+        private synchronized long dropped() {
+            return dropped;
+        }
+
+        private void drain() {
+            synchronized (this) {
+                // The thread already draining picks up whatever changed, also from onNext.
+                if(draining) {
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                T item = null;
+                boolean finish = false;
+                Throwable error;
+                synchronized (this) {
+                    error = this.error;
+                    if(cancelled) {
+                        draining = false;
+                        return;
+                    }
+                    if(requested > 0 && !queue.isEmpty()) {
+                        item = queue.poll();
+                        if(requested != Long.MAX_VALUE) {
+                            requested--;
+                        }
+                    } else if(done && (queue.isEmpty() || error != null)) {
+                        finish = true;
+                        cancelled = true;
+                        queue.clear();
+                    } else {
+                        draining = false;
+                        return;
+                    }
+                }
+
+                if(finish) {
+                    remove(this);
+                    if(error != null) {
+                        subscriber.onError(error);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                subscriber.onNext(item);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.machnev.sleepdevice.core.stream;
+
+/**
+ * Source of items for {@link Subscriber}s, shaped like java.util.concurrent.Flow.Publisher,
+ * which is not available on the Android versions the app supports.
+ */
+public interface Publisher<T> {
+
+    /**
+     * The subscriber gets {@link Subscriber#onSubscribe(Subscription)} first and items only
+     * as far as it requested them.
+     */
+    public void subscribe(Subscriber<? super T> subscriber);
+}
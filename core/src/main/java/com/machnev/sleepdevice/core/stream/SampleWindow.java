@@ -0,0 +1,69 @@
+package com.machnev.sleepdevice.core.stream;
+
+import com.machnev.sleepdevice.core.SampleBatch;
+
+import java.util.List;
+
+/**
+ * Statistics of the samples of consecutive batches, see {@link Streams#window}.
+ */
+public class SampleWindow implements Streams.Timestamped {
+
+    public static final Streams.Aggregator<SampleBatch, SampleWindow> AGGREGATOR = new Streams.Aggregator<SampleBatch, SampleWindow>() {
+        @Override
+        public SampleWindow aggregate(List<SampleBatch> window) {
+            return of(window);
+        }
+    };
+
+    public final long from;
+    public final long to;
+    public final int count;
+    public final float min;
+    public final float max;
+    public final float mean;
+
+    public SampleWindow(long from, long to, int count, float min, float max, float mean) {
+        this.from = from;
+        this.to = to;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+    }
+
+    /**
+     * @param batches in time order, with at least one sample
+     */
+    public static SampleWindow of(List<SampleBatch> batches) {
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        int count = 0;
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        double sum = 0;
+        for(int i = 0; i < batches.size(); i++) {
+            SampleBatch batch = batches.get(i);
+            if(batch.isEmpty()) {
+                continue;
+            }
+            from = Math.min(from, batch.timestamps[0]);
+            to = batch.lastTimestamp();
+            count += batch.count();
+            min = Math.min(min, batch.min());
+            max = Math.max(max, batch.max());
+            for(int j = 0; j < batch.count(); j++) {
+                sum += batch.values[j];
+            }
+        }
+        return new SampleWindow(from, to, count, min, max, (float) (sum / count));
+    }
+
+    /**
+     * The end of the window, so windows can be throttled too.
+     */
+    @Override
+    public long timestamp() {
+        return to;
+    }
+}
@@ -0,0 +1,412 @@
+package com.machnev.sleepdevice.core.stream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Operators on {@link Publisher}s. Each returns a publisher that subscribes to its source
+ * once for every subscriber and passes the demand of the subscriber upstream.
+ */
+public class Streams {
+
+    private Streams() {
+    }
+
+    /**
+     * Skips items equal to the previous one, so a stream of states becomes a stream of
+     * transitions.
+     */
+    public static <T> Publisher<T> distinctUntilChanged(final Publisher<T> source) {
+        return new Publisher<T>() {
+            @Override
+            public void subscribe(Subscriber<? super T> subscriber) {
+                source.subscribe(new DistinctSubscriber<T>(subscriber));
+            }
+        };
+    }
+
+    /**
+     * Passes the first item of every interval and skips the others, by the time of the items.
+     *
+     * @param interval in the unit of {@link Timestamped#timestamp()}
+     */
+    public static <T extends Timestamped> Publisher<T> throttle(final Publisher<T> source, final long interval) {
+        return new Publisher<T>() {
+            @Override
+            public void subscribe(Subscriber<? super T> subscriber) {
+                source.subscribe(new ThrottleSubscriber<T>(subscriber, interval));
+            }
+        };
+    }
+
+    /**
+     * Aggregates every size items into one. An incomplete last window is aggregated when the
+     * source completes.
+     */
+    public static <T, R> Publisher<R> window(final Publisher<T> source, final int size, final Aggregator<? super T, ? extends R> aggregator) {
+        if(size <= 0) {
+            throw new IllegalArgumentException("Window size must be positive, was " + size);
+        }
+        return new Publisher<R>() {
+            @Override
+            public void subscribe(Subscriber<? super R> subscriber) {
+                source.subscribe(new WindowSubscriber<T, R>(subscriber, size, aggregator));
+            }
+        };
+    }
+
+    /**
+     * Calls the subscriber on the executor, for example a Handler of the main thread.
+     *
+     * At most bufferSize items are requested from the source before the subscriber took them,
+     * and at most one task is queued on the executor, however fast the source is.
+     */
+    public static <T> Publisher<T> observeOn(final Publisher<T> source, final Executor executor, final int bufferSize) {
+        if(bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive, was " + bufferSize);
+        }
+        return new Publisher<T>() {
+            @Override
+            public void subscribe(Subscriber<? super T> subscriber) {
+                source.subscribe(new ObserveOnSubscriber<T>(subscriber, executor, bufferSize));
+            }
+        };
+    }
+
+    /**
+     * Subscribes with unbounded demand, ignoring completion and errors.
+     *
+     * @return the subscription, to cancel it
+     */
+    public static <T> Subscription forEach(Publisher<T> source, final Consumer<? super T> consumer) {
+        ForEachSubscriber<T> subscriber = new ForEachSubscriber<>(consumer);
+        source.subscribe(subscriber);
+        return subscriber;
+    }
+
+    static long addDemand(long requested, long n) {
+        long sum = requested + n;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    public static interface Timestamped {
+        public long timestamp();
+    }
+
+    public static interface Aggregator<T, R> {
+        /**
+         * The list is reused after the call returns.
+         */
+        public R aggregate(List<T> window);
+    }
+
+    public static interface Consumer<T> {
+        public void accept(T item);
+    }
+
+    private abstract static class OperatorSubscriber<T, R> implements Subscriber<T>, Subscription {
+        protected final Subscriber<? super R> downstream;
+        protected Subscription upstream;
+
+        private OperatorSubscriber(Subscriber<? super R> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            downstream.onError(error);
+        }
+
+        @Override
+        public void onComplete() {
+            downstream.onComplete();
+        }
+
+        @Override
+        public void request(long n) {
+            upstream.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            upstream.cancel();
+        }
+    }
+
+    private static class DistinctSubscriber<T> extends OperatorSubscriber<T, T> {
+        private T last;
+        private boolean hasLast;
+
+        private DistinctSubscriber(Subscriber<? super T> downstream) {
+            super(downstream);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if(hasLast && (item == null ? last == null : item.equals(last))) {
+                // The skipped item used up demand the subscriber still has.
+                upstream.request(1);
+                return;
+            }
+            last = item;
+            hasLast = true;
+            downstream.onNext(item);
+        }
+    }
+
+    private static class ThrottleSubscriber<T extends Timestamped> extends OperatorSubscriber<T, T> {
+        private final long interval;
+        private long nextTimestamp = Long.MIN_VALUE;
+
+        private ThrottleSubscriber(Subscriber<? super T> downstream, long interval) {
+            super(downstream);
+            this.interval = interval;
+        }
+
+        @Override
+        public void onNext(T item) {
+            long timestamp = item.timestamp();
+            if(timestamp < nextTimestamp) {
+                upstream.request(1);
+                return;
+            }
+            nextTimestamp = timestamp + interval;
+            downstream.onNext(item);
+        }
+    }
+
+    private static class WindowSubscriber<T, R> extends OperatorSubscriber<T, R> {
+        private final int size;
+        private final Aggregator<? super T, ? extends R> aggregator;
+        private final List<T> window;
+
+        private WindowSubscriber(Subscriber<? super R> downstream, int size, Aggregator<? super T, ? extends R> aggregator) {
+            super(downstream);
+            this.size = size;
+            this.aggregator = aggregator;
+            this.window = new ArrayList<>(size);
+        }
+
+        @Override
+        public void onNext(T item) {
+            window.add(item);
+            if(window.size() == size) {
+                emitWindow();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            // Demand for the incomplete window was requested with its items.
+            if(!window.isEmpty()) {
+                emitWindow();
+            }
+            downstream.onComplete();
+        }
+
+        @Override
+        public void request(long n) {
+            upstream.request(n > Long.MAX_VALUE / size ? Long.MAX_VALUE : n * size);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void emitWindow() {
+            R aggregate = ((Aggregator<T, ? extends R>) aggregator).aggregate(window);
+            window.clear();
+            downstream.onNext(aggregate);
+        }
+    }
+
+    private static class ObserveOnSubscriber<T> implements Subscriber<T>, Subscription, Runnable {
+        private final Subscriber<? super T> downstream;
+        private final Executor executor;
+        private final int bufferSize;
+        private final ArrayDeque<T> queue;
+
+        private Subscription upstream;
+        private long requested;
+        private boolean scheduled;
+        private boolean done;
+        private boolean cancelled;
+        private Throwable error;
+
+        private ObserveOnSubscriber(Subscriber<? super T> downstream, Executor executor, int bufferSize) {
+            this.downstream = downstream;
+            this.executor = executor;
+            this.bufferSize = bufferSize;
+            this.queue = new ArrayDeque<>(bufferSize);
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            upstream = subscription;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    downstream.onSubscribe(ObserveOnSubscriber.this);
+                }
+            });
+            subscription.request(bufferSize);
+        }
+
+        @Override
+        public void onNext(T item) {
+            synchronized (this) {
+                if(cancelled) {
+                    return;
+                }
+                if(queue.size() == bufferSize) {
+                    // Only a source ignoring the demand gets here.
+                    queue.poll();
+                }
+                queue.add(item);
+            }
+            schedule();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            synchronized (this) {
+                this.error = error;
+                done = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                done = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                requested = addDemand(requested, n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                queue.clear();
+            }
+            upstream.cancel();
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if(scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            long emitted = 0;
+            while (true) {
+                T item = null;
+                boolean finish = false;
+                Throwable error;
+                synchronized (this) {
+                    error = this.error;
+                    if(cancelled) {
+                        scheduled = false;
+                        return;
+                    }
+                    if(requested > 0 && !queue.isEmpty()) {
+                        item = queue.poll();
+                        if(requested != Long.MAX_VALUE) {
+                            requested--;
+                        }
+                    } else if(done && (queue.isEmpty() || error != null)) {
+                        finish = true;
+                        cancelled = true;
+                        queue.clear();
+                    } else {
+                        scheduled = false;
+                        break;
+                    }
+                }
+
+                if(finish) {
+                    if(error != null) {
+                        downstream.onError(error);
+                    } else {
+                        downstream.onComplete();
+                    }
+                    return;
+                }
+                downstream.onNext(item);
+                emitted++;
+            }
+            // Room was made in the buffer, ask the source to fill it.
+            if(emitted > 0) {
+                upstream.request(emitted);
+            }
+        }
+    }
+
+    private static class ForEachSubscriber<T> implements Subscriber<T>, Subscription {
+        private final Consumer<? super T> consumer;
+        private volatile Subscription upstream;
+        private volatile boolean cancelled;
+
+        private ForEachSubscriber(Consumer<? super T> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            upstream = subscription;
+            if(cancelled) {
+                subscription.cancel();
+            } else {
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            if(!cancelled) {
+                consumer.accept(item);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Subscription subscription = upstream;
+            if(subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.machnev.sleepdevice.core.stream;
+
+/**
+ * Receives the items of a {@link Publisher}. The calls for one subscription never overlap.
+ */
+public interface Subscriber<T> {
+
+    public void onSubscribe(Subscription subscription);
+
+    public void onNext(T item);
+
+    public void onError(Throwable error);
+
+    public void onComplete();
+}
@@ -0,0 +1,17 @@
+package com.machnev.sleepdevice.core.stream;
+
+/**
+ * Link between a {@link Publisher} and one of its {@link Subscriber}s.
+ */
+public interface Subscription {
+
+    /**
+     * Allows the publisher to send up to n more items, {@link Long#MAX_VALUE} for no limit.
+     */
+    public void request(long n);
+
+    /**
+     * Stops the items. Some may still arrive while the publisher notices.
+     */
+    public void cancel();
+}
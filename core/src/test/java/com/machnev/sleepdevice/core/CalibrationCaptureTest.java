@@ -0,0 +1,101 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CalibrationCaptureTest {
+
+    private final Random random = new Random(17);
+
+    @Test
+    public void quantileMatchesSortedValues() {
+        P2Quantile median = new P2Quantile(0.5);
+        P2Quantile upper = new P2Quantile(0.9);
+        double[] values = new double[5000];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * 1000;
+            median.add(values[i]);
+            upper.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values[2500], median.value(), 10);
+        assertEquals(values[4500], upper.value(), 10);
+    }
+
+    @Test
+    public void quantileOfFewValues() {
+        P2Quantile median = new P2Quantile(0.5);
+        assertTrue(Double.isNaN(median.value()));
+        median.add(3);
+        median.add(1);
+        median.add(2);
+        assertEquals(2, median.value(), 0);
+    }
+
+    @Test
+    public void steadySignalIsStable() {
+        CalibrationCapture capture = new CalibrationCapture();
+        boolean complete = false;
+        for(int i = 0; i < CalibrationCapture.DEFAULT_WINDOW; i++) {
+            complete = capture.add(1800 + (float) random.nextGaussian() * 5);
+        }
+
+        assertTrue(complete);
+        assertTrue(capture.isComplete());
+        assertFalse(capture.add(0));
+        assertEquals(CalibrationCapture.DEFAULT_WINDOW, capture.count());
+        assertEquals(1800, capture.median(), 3);
+        assertEquals(5, capture.standardDeviation(), 2);
+        assertTrue(capture.isStable());
+    }
+
+    @Test
+    public void medianIgnoresSpikes() {
+        CalibrationCapture capture = new CalibrationCapture();
+        for(int i = 0; i < CalibrationCapture.DEFAULT_WINDOW; i++) {
+            float value = 350 + (float) random.nextGaussian() * 2;
+            capture.add(i % 40 == 20 ? 5000 : value);
+        }
+
+        assertEquals(2, capture.outliers());
+        assertEquals(350, capture.median(), 2);
+        assertTrue(capture.standardDeviation() > 100);
+        assertTrue(capture.isStable());
+    }
+
+    @Test
+    public void movingSignalIsRejected() {
+        CalibrationCapture capture = new CalibrationCapture();
+        for(int i = 0; i < CalibrationCapture.DEFAULT_WINDOW; i++) {
+            // Lying down during the capture.
+            capture.add(i < 50 ? 350 : 1800);
+        }
+        assertFalse(capture.isStable());
+
+        capture.reset();
+        for(int i = 0; i < CalibrationCapture.DEFAULT_WINDOW; i++) {
+            capture.add(i % 5 == 0 ? 3000 : 1800 + (float) random.nextGaussian() * 5);
+        }
+        assertFalse(capture.isStable());
+    }
+
+    @Test
+    public void separatedLevels() {
+        CalibrationCapture notOnBed = new CalibrationCapture();
+        CalibrationCapture onBed = new CalibrationCapture();
+        CalibrationCapture nearby = new CalibrationCapture();
+        for(int i = 0; i < CalibrationCapture.DEFAULT_WINDOW; i++) {
+            notOnBed.add(350 + (float) random.nextGaussian() * 5);
+            onBed.add(1800 + (float) random.nextGaussian() * 5);
+            nearby.add(360 + (float) random.nextGaussian() * 5);
+        }
+
+        assertTrue(onBed.isSeparatedFrom(notOnBed));
+        assertFalse(nearby.isSeparatedFrom(notOnBed));
+    }
+}
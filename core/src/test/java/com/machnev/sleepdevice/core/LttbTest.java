@@ -0,0 +1,62 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LttbTest {
+
+    @Test
+    public void keepsEndpointsAndPeaks() {
+        int count = 1000;
+        long[] x = new long[count];
+        float[] y = new float[count];
+        for(int i = 0; i < count; i++) {
+            x[i] = 1520000000000L + i * 100;
+            y[i] = i % 10;
+        }
+        y[537] = 500;
+        y[811] = -300;
+
+        long[] outX = new long[50];
+        float[] outY = new float[50];
+        assertEquals(50, Lttb.downsample(x, y, count, 50, outX, outY));
+        assertEquals(x[0], outX[0]);
+        assertEquals(x[count - 1], outX[49]);
+
+        boolean peak = false;
+        boolean dip = false;
+        for(int i = 1; i < 50; i++) {
+            assertTrue(outX[i] > outX[i - 1]);
+            peak |= outY[i] == 500;
+            dip |= outY[i] == -300;
+        }
+        assertTrue(peak);
+        assertTrue(dip);
+    }
+
+    @Test
+    public void copiesShortInput() {
+        long[] x = {1, 2, 3};
+        float[] y = {4, 5, 6};
+        long[] outX = new long[10];
+        float[] outY = new float[10];
+        assertEquals(3, Lttb.downsample(x, y, 3, 10, outX, outY));
+        assertEquals(6, outY[2], 0);
+    }
+
+    @Test
+    public void limitedByOutputLength() {
+        int count = 100;
+        long[] x = new long[count];
+        float[] y = new float[count];
+        for(int i = 0; i < count; i++) {
+            x[i] = i;
+            y[i] = i;
+        }
+        long[] outX = new long[10];
+        float[] outY = new float[10];
+        assertEquals(10, Lttb.downsample(x, y, count, 1000, outX, outY));
+        assertEquals(99, outX[9]);
+    }
+}
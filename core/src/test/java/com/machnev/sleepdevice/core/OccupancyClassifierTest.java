@@ -0,0 +1,81 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OccupancyClassifierTest {
+
+    @Test
+    public void notConfigured_neverChanges() {
+        OccupancyClassifier classifier = new OccupancyClassifier();
+        assertFalse(classifier.update(0, 100));
+        assertEquals(OccupancyClassifier.STATUS_NOT_INITIALIZED, classifier.status());
+    }
+
+    @Test
+    public void firstSample_decidesByNearestValue() {
+        OccupancyClassifier classifier = new OccupancyClassifier();
+        classifier.configure(1000, 200);
+        assertTrue(classifier.update(0, 700));
+        assertEquals(OccupancyClassifier.STATUS_ON_BED, classifier.status());
+    }
+
+    @Test
+    public void signalNearMidpoint_doesNotFlap() {
+        OccupancyClassifier classifier = new OccupancyClassifier(0.1f, 0);
+        classifier.configure(1000, 200);
+        classifier.update(0, 300);
+
+        int transitions = 0;
+        for(int i = 1; i < 1000; i++) {
+            if(classifier.update(i, i % 2 == 0 ? 580 : 620)) {
+                transitions++;
+            }
+        }
+        assertEquals(0, transitions);
+        assertEquals(OccupancyClassifier.STATUS_NOT_ON_BED, classifier.status());
+    }
+
+    @Test
+    public void changesOnlyAfterDwellTime() {
+        OccupancyClassifier classifier = new OccupancyClassifier(0.1f, 2000);
+        classifier.configure(1000, 200);
+        classifier.update(0, 200);
+
+        assertFalse(classifier.update(1000, 900));
+        assertFalse(classifier.update(2000, 200));
+        assertFalse(classifier.update(3000, 900));
+        assertFalse(classifier.update(4900, 900));
+        assertTrue(classifier.update(5000, 900));
+        assertEquals(OccupancyClassifier.STATUS_ON_BED, classifier.status());
+    }
+
+    @Test
+    public void invertedCalibration() {
+        OccupancyClassifier classifier = new OccupancyClassifier(0.1f, 0);
+        classifier.configure(100, 900);
+        classifier.update(0, 850);
+        assertEquals(OccupancyClassifier.STATUS_NOT_ON_BED, classifier.status());
+        assertTrue(classifier.update(1, 150));
+        assertEquals(OccupancyClassifier.STATUS_ON_BED, classifier.status());
+    }
+
+    @Test
+    public void batch_writesTransitionsOnly() {
+        OccupancyClassifier classifier = new OccupancyClassifier(0.1f, 0);
+        classifier.configure(1000, 200);
+        long[] timestamps = {0, 1, 2, 3, 4, 5};
+        float[] values = {200, 210, 900, 950, 600, 250};
+        long[] transitionTimestamps = new long[6];
+        byte[] transitionStatuses = new byte[6];
+
+        int transitions = classifier.update(timestamps, values, 0, 6, transitionTimestamps, transitionStatuses);
+        assertEquals(3, transitions);
+        assertEquals(0, transitionTimestamps[0]);
+        assertEquals(2, transitionTimestamps[1]);
+        assertEquals(OccupancyClassifier.STATUS_ON_BED, transitionStatuses[1]);
+        assertEquals(5, transitionTimestamps[2]);
+        assertEquals(OccupancyClassifier.STATUS_NOT_ON_BED, transitionStatuses[2]);
+    }
+}
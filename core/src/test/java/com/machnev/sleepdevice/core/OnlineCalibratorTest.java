@@ -0,0 +1,79 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OnlineCalibratorTest {
+
+    private final Random random = new Random(11);
+
+    @Test
+    public void singleLevel_neverCalibrates() {
+        OnlineCalibrator calibrator = new OnlineCalibrator();
+        feed(calibrator, 350, 20000);
+        assertFalse(calibrator.shouldRecalibrate());
+    }
+
+    @Test
+    public void learnsBothLevelsWithoutCalibration() {
+        OnlineCalibrator calibrator = new OnlineCalibrator();
+        feed(calibrator, 350, 5000);
+        feed(calibrator, 1800, 8000);
+        feed(calibrator, 350, 1000);
+
+        assertTrue(calibrator.shouldRecalibrate());
+        assertEquals(1800, calibrator.onBedValue(), 5);
+        assertEquals(350, calibrator.notOnBedValue(), 5);
+    }
+
+    @Test
+    public void calibratesOnlyWhenDriftExceedsMargin() {
+        OnlineCalibrator calibrator = new OnlineCalibrator(0.1f, 0.01f, 100);
+        calibrator.seed(1800, 350);
+        calibrator.setApplied(1800, 350);
+
+        feed(calibrator, 1800, 1000);
+        feed(calibrator, 350, 1000);
+        // Within 10% of the 1450 range.
+        feed(calibrator, 1900, 1000);
+        assertFalse(calibrator.shouldRecalibrate());
+
+        feed(calibrator, 2000, 1000);
+        assertTrue(calibrator.shouldRecalibrate());
+        assertEquals(2000, calibrator.onBedValue(), 5);
+
+        calibrator.setApplied(calibrator.onBedValue(), calibrator.notOnBedValue());
+        assertFalse(calibrator.shouldRecalibrate());
+    }
+
+    @Test
+    public void ignoresValuesBetweenLevels() {
+        OnlineCalibrator calibrator = new OnlineCalibrator(0.1f, 0.01f, 100);
+        calibrator.seed(1800, 350);
+        feed(calibrator, 1075, 1000);
+        assertEquals(1800, calibrator.onBedValue(), 0);
+        assertEquals(350, calibrator.notOnBedValue(), 0);
+    }
+
+    @Test
+    public void followsInvertedCalibration() {
+        OnlineCalibrator calibrator = new OnlineCalibrator(0.1f, 0.01f, 100);
+        calibrator.seed(200, 1000);
+        calibrator.setApplied(200, 1000);
+        feed(calibrator, 50, 1000);
+        feed(calibrator, 1000, 1000);
+
+        assertTrue(calibrator.shouldRecalibrate());
+        assertEquals(50, calibrator.onBedValue(), 2);
+        assertEquals(1000, calibrator.notOnBedValue(), 2);
+    }
+
+    private void feed(OnlineCalibrator calibrator, float level, int count) {
+        for(int i = 0; i < count; i++) {
+            calibrator.update(level + (float) random.nextGaussian() * 2);
+        }
+    }
+}
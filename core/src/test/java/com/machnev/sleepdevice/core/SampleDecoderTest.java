@@ -0,0 +1,58 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class SampleDecoderTest {
+
+    private static final int SAMPLES = 1000000;
+
+    @Test
+    public void decodeFloat_matchesByteBuffer() {
+        float[] values = {0f, -0f, 1f, -1.5f, 123.456f, Float.MAX_VALUE, Float.MIN_VALUE, Float.NaN};
+        for(float value : values) {
+            byte[] bytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(value).array();
+            assertEquals(Float.floatToRawIntBits(value), Float.floatToRawIntBits(SampleDecoder.decodeFloat(bytes)));
+            assertArrayEquals(bytes, SampleDecoder.encodeFloat(value));
+        }
+    }
+
+    @Test
+    public void isZeros() {
+        assertTrue(SampleDecoder.isZeros(new byte[4]));
+        assertFalse(SampleDecoder.isZeros(new byte[] {0, 0, 1, 0}));
+    }
+
+    @Test
+    public void decodeFloat_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        byte[] bytes = SampleDecoder.encodeFloat(42.5f);
+
+        // Warm up so that JIT compilation does not count against the measured run.
+        float sum = decodeAll(bytes);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        sum += decodeAll(bytes);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(sum > 0);
+        assertTrue("Allocated " + allocated + " bytes for " + SAMPLES + " samples", allocated < 1024);
+    }
+
+    private float decodeAll(byte[] bytes) {
+        float sum = 0;
+        for(int i = 0; i < SAMPLES; i++) {
+            bytes[0] = (byte) i;
+            if(!SampleDecoder.isZeros(bytes)) {
+                sum += SampleDecoder.decodeFloat(bytes);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,107 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleFanoutTest {
+
+    private SampleRingBuffer buffer;
+    private List<String> clients;
+    private List<float[]> batches;
+    private SampleFanout<String> fanout;
+
+    @Before
+    public void setUp() {
+        buffer = new SampleRingBuffer(4096);
+        clients = new ArrayList<>();
+        batches = new ArrayList<>();
+        fanout = new SampleFanout<>(buffer, new SampleFanout.BatchSink<String>() {
+            @Override
+            public void onBatch(String client, SampleBatch batch) {
+                clients.add(client);
+                batches.add(new float[] {batch.count(), batch.min(), batch.max(), batch.last()});
+            }
+        });
+    }
+
+    @Test
+    public void coalescesSamplesPerInterval() {
+        fanout.subscribe("ui", 16, 0);
+        for(int i = 0; i < 100; i++) {
+            buffer.append(i, i % 7, (byte) 0);
+        }
+
+        assertEquals(Long.MAX_VALUE, fanout.flush(0));
+        assertEquals(1, batches.size());
+        assertArrayEquals(new float[] {100, 0, 6, 99 % 7}, batches.get(0), 0f);
+
+        buffer.append(100, 42, (byte) 0);
+        assertEquals(16, fanout.flush(5));
+        assertEquals(1, batches.size());
+        assertEquals(Long.MAX_VALUE, fanout.flush(16));
+        assertEquals(2, batches.size());
+        assertArrayEquals(new float[] {1, 42, 42, 42}, batches.get(1), 0f);
+    }
+
+    @Test
+    public void subscribersHaveOwnIntervals() {
+        fanout.subscribe("ui", 16, 0);
+        fanout.subscribe("recorder", 1000, 0);
+        buffer.append(0, 1, (byte) 0);
+        fanout.flush(0);
+        assertEquals(2, batches.size());
+
+        for(int frame = 1; frame <= 10; frame++) {
+            buffer.append(frame, frame, (byte) 0);
+            fanout.flush(frame * 16);
+        }
+        assertEquals(12, batches.size());
+        assertEquals("recorder", clients.get(1));
+        assertEquals(1000, fanout.flush(160));
+    }
+
+    @Test
+    public void startsFromCurrentSampleAndStopsOnUnsubscribe() {
+        buffer.append(0, 1, (byte) 0);
+        fanout.subscribe("ui", 16, 0);
+        assertEquals(Long.MAX_VALUE, fanout.flush(0));
+        assertTrue(batches.isEmpty());
+
+        fanout.unsubscribe("ui");
+        buffer.append(1, 2, (byte) 0);
+        fanout.flush(100);
+        assertTrue(batches.isEmpty());
+        assertFalse(fanout.hasSubscribers());
+    }
+
+    @Test
+    public void splitsLargeBacklogIntoBoundedBatches() {
+        fanout.subscribe("ui", 16, 0);
+        for(int i = 0; i < SampleFanout.MAX_BATCH_SIZE * 2 + 10; i++) {
+            buffer.append(i, i, (byte) 0);
+        }
+        fanout.flush(0);
+        assertEquals(3, batches.size());
+        assertEquals(SampleFanout.MAX_BATCH_SIZE, batches.get(0)[0], 0f);
+        assertEquals(10, batches.get(2)[0], 0f);
+    }
+
+    @Test
+    public void limitBacklogKeepsNewestSamples() {
+        fanout.subscribe("ui", 16, 0);
+        for(int i = 0; i < SampleFanout.MAX_BATCH_SIZE * 3; i++) {
+            buffer.append(i, i, (byte) 0);
+        }
+        fanout.limitBacklog(100);
+        fanout.flush(0);
+
+        assertEquals(1, batches.size());
+        assertEquals(100, batches.get(0)[0], 0f);
+        assertEquals(SampleFanout.MAX_BATCH_SIZE * 3 - 1, batches.get(0)[3], 0f);
+    }
+}
@@ -0,0 +1,85 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class SampleHandoffTest {
+
+    private List<Runnable> tasks;
+    private List<float[]> delivered;
+    private SampleHandoff handoff;
+
+    @Before
+    public void setUp() {
+        tasks = new ArrayList<>();
+        delivered = new ArrayList<>();
+        handoff = new SampleHandoff(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, new SampleHandoff.Consumer() {
+            @Override
+            public void onSamples(SampleBatch batch) {
+                float[] values = new float[batch.count()];
+                System.arraycopy(batch.values, 0, values, 0, values.length);
+                delivered.add(values);
+            }
+        }, 4);
+    }
+
+    @Test
+    public void coalescesOffersIntoOneDelivery() {
+        handoff.offer(batch(1, 2));
+        handoff.offer(batch(3));
+        assertEquals(1, tasks.size());
+
+        runTasks();
+        assertEquals(1, delivered.size());
+        assertArrayEquals(new float[] {1, 2, 3}, delivered.get(0), 0);
+
+        handoff.offer(batch(4));
+        runTasks();
+        assertArrayEquals(new float[] {4}, delivered.get(1), 0);
+    }
+
+    @Test
+    public void dropsOldestWhenConsumerFallsBehind() {
+        handoff.offer(batch(1, 2, 3));
+        handoff.offer(batch(4, 5));
+        handoff.offer(batch(6, 7, 8, 9, 10, 11));
+        runTasks();
+
+        assertArrayEquals(new float[] {8, 9, 10, 11}, delivered.get(0), 0);
+        assertEquals(7, handoff.dropped());
+    }
+
+    @Test
+    public void nothingIsDeliveredAfterClose() {
+        handoff.offer(batch(1));
+        handoff.close();
+        handoff.offer(batch(2));
+        runTasks();
+        assertTrue(delivered.isEmpty());
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    private static SampleBatch batch(float... values) {
+        long[] timestamps = new long[values.length];
+        for(int i = 0; i < values.length; i++) {
+            timestamps[i] = (long) values[i];
+        }
+        return new SampleBatch(timestamps, values, null, values.length);
+    }
+}
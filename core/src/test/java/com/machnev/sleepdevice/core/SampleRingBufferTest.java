@@ -0,0 +1,100 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SampleRingBufferTest {
+
+    @Test
+    public void readLast_returnsMostRecentOldestFirst() {
+        SampleRingBuffer buffer = new SampleRingBuffer(8);
+        for(int i = 0; i < 20; i++) {
+            buffer.append(i * 10, i, (byte) (i % 2));
+        }
+
+        long[] timestamps = new long[3];
+        float[] values = new float[3];
+        byte[] statuses = new byte[3];
+        assertEquals(3, buffer.readLast(3, timestamps, values, statuses));
+        assertArrayEquals(new long[] {170, 180, 190}, timestamps);
+        assertArrayEquals(new float[] {17, 18, 19}, values, 0f);
+        assertArrayEquals(new byte[] {1, 0, 1}, statuses);
+    }
+
+    @Test
+    public void readLast_isBoundedByCapacity() {
+        SampleRingBuffer buffer = new SampleRingBuffer(8);
+        for(int i = 0; i < 20; i++) {
+            buffer.append(i, i, (byte) 0);
+        }
+
+        float[] values = new float[100];
+        int read = buffer.readLast(100, null, values, null);
+        assertEquals(buffer.size(), read);
+        assertEquals(19f, values[read - 1], 0f);
+        assertEquals(20 - read, values[0], 0f);
+    }
+
+    @Test
+    public void readRange_selectsByTimestamp() {
+        SampleRingBuffer buffer = new SampleRingBuffer(16);
+        for(int i = 0; i < 10; i++) {
+            buffer.append(1000 + i * 100, i, (byte) 1);
+        }
+
+        long[] timestamps = new long[16];
+        float[] values = new float[16];
+        int read = buffer.readRange(1250, 1600, timestamps, values, null);
+        assertEquals(3, read);
+        assertEquals(1300, timestamps[0]);
+        assertEquals(5f, values[2], 0f);
+    }
+
+    @Test
+    public void append_keepsTimestampsNonDecreasing() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4);
+        buffer.append(100, 1, (byte) 0);
+        buffer.append(50, 2, (byte) 0);
+
+        long[] timestamps = new long[2];
+        buffer.readLast(2, timestamps, null, null);
+        assertArrayEquals(new long[] {100, 100}, timestamps);
+    }
+
+    @Test
+    public void concurrentReaders_neverSeeTornSamples() throws InterruptedException {
+        final SampleRingBuffer buffer = new SampleRingBuffer(64);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long[] timestamps = new long[64];
+                float[] values = new float[64];
+                while (running.get()) {
+                    int read = buffer.readLast(64, timestamps, values, null);
+                    for(int i = 0; i < read; i++) {
+                        if(timestamps[i] != (long) values[i] || (i > 0 && timestamps[i] != timestamps[i - 1] + 1)) {
+                            failure.set("Inconsistent sample at " + i + ": " + timestamps[i] + " / " + values[i]);
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        for(int i = 0; i < 2000000; i++) {
+            buffer.append(i, i, (byte) 0);
+        }
+        running.set(false);
+        reader.join();
+
+        assertNull(failure.get());
+    }
+}
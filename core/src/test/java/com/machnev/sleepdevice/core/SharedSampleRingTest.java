@@ -0,0 +1,171 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SharedSampleRingTest {
+
+    @Test
+    public void readerSeesSamplesAppendedAfterItsCursor() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedSampleRing.sizeFor(8));
+        SharedSampleRing writer = SharedSampleRing.create(buffer, 8);
+        writer.append(1, 10, (byte) 0);
+
+        SharedSampleRing.Cursor cursor = SharedSampleRing.open(buffer.duplicate()).cursor();
+        writer.append(2, 20, (byte) 1);
+        writer.append(3, 30, (byte) 1);
+
+        SampleBatch batch = new SampleBatch(4);
+        assertEquals(2, cursor.poll(batch));
+        assertEquals(2, batch.timestamps[0]);
+        assertEquals(30, batch.values[1], 0);
+        assertEquals(1, batch.statuses[1]);
+        assertEquals(0, cursor.poll(batch));
+    }
+
+    @Test
+    public void slowReaderLosesOverwrittenSamples() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedSampleRing.sizeFor(8));
+        SharedSampleRing writer = SharedSampleRing.create(buffer, 8);
+        SharedSampleRing.Cursor cursor = SharedSampleRing.open(buffer).cursor();
+        for(int i = 0; i < 20; i++) {
+            writer.append(i, i, (byte) 0);
+        }
+
+        SampleBatch batch = new SampleBatch(5);
+        assertEquals(5, cursor.poll(batch));
+        assertEquals(12, batch.timestamps[0]);
+        assertEquals(12, cursor.lost());
+        assertEquals(3, cursor.poll(batch));
+        assertEquals(19, batch.last(), 0);
+    }
+
+    @Test
+    public void slotNotVisibleYetIsReadLater() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedSampleRing.sizeFor(8));
+        SharedSampleRing writer = SharedSampleRing.create(buffer, 8);
+        SharedSampleRing.Cursor cursor = SharedSampleRing.open(buffer).cursor();
+        writer.append(1, 10, (byte) 1);
+
+        // The header is visible before the slot.
+        int offset = writer.slotOffset(0);
+        buffer.putLong(offset + SharedSampleRing.STAMP, -1);
+        SampleBatch batch = new SampleBatch(4);
+        assertEquals(0, cursor.poll(batch));
+        assertEquals(0, cursor.lost());
+
+        buffer.putLong(offset + SharedSampleRing.STAMP, 0);
+        assertEquals(1, cursor.poll(batch));
+        assertEquals(10, batch.values[0], 0);
+    }
+
+    @Test
+    public void slotWithStaleDataIsNotAccepted() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedSampleRing.sizeFor(2));
+        SharedSampleRing writer = SharedSampleRing.create(buffer, 2);
+        writer.append(1, 10, (byte) 1);
+        writer.append(2, 20, (byte) 1);
+        SharedSampleRing.Cursor cursor = SharedSampleRing.open(buffer).cursor();
+        writer.append(3, 30, (byte) 0);
+
+        // The new stamp and checksum are visible, the value is still the one of sample 0.
+        int offset = writer.slotOffset(2);
+        buffer.putFloat(offset + SharedSampleRing.VALUE, 10);
+        SampleBatch batch = new SampleBatch(4);
+        assertEquals(0, cursor.poll(batch));
+        assertEquals(0, cursor.lost());
+
+        buffer.putFloat(offset + SharedSampleRing.VALUE, 30);
+        assertEquals(1, cursor.poll(batch));
+        assertEquals(3, batch.timestamps[0]);
+        assertEquals(0, batch.statuses[0]);
+    }
+
+    @Test
+    public void tornHeaderIsNotRead() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedSampleRing.sizeFor(8));
+        SharedSampleRing writer = SharedSampleRing.create(buffer, 8);
+        SharedSampleRing.Cursor cursor = SharedSampleRing.open(buffer).cursor();
+        writer.append(1, 10, (byte) 1);
+        writer.append(2, 20, (byte) 1);
+
+        // The count of the first append with the complement of the second.
+        buffer.putLong(SharedSampleRing.SEQUENCE_OFFSET, 1);
+        assertEquals(-1, writer.writeSequence());
+        assertEquals(0, cursor.poll(new SampleBatch(4)));
+
+        buffer.putLong(SharedSampleRing.SEQUENCE_OFFSET, 2);
+        assertEquals(2, cursor.poll(new SampleBatch(4)));
+    }
+
+    @Test
+    public void onlyCompleteLaterSampleCountsAsLost() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedSampleRing.sizeFor(2));
+        SharedSampleRing writer = SharedSampleRing.create(buffer, 2);
+        SharedSampleRing.Cursor cursor = SharedSampleRing.open(buffer).cursor();
+        writer.append(1, 10, (byte) 1);
+        writer.append(2, 20, (byte) 1);
+        // Sample 2 overwrites sample 0 before the cursor reads it.
+        writer.append(3, 30, (byte) 1);
+        int offset = writer.slotOffset(0);
+        long header = buffer.getLong(SharedSampleRing.SEQUENCE_OFFSET);
+        long headerCheck = buffer.getLong(SharedSampleRing.SEQUENCE_CHECK_OFFSET);
+        // The header of sample 1 is visible, slot 0 already holds sample 2.
+        buffer.putLong(SharedSampleRing.SEQUENCE_OFFSET, 2);
+        buffer.putLong(SharedSampleRing.SEQUENCE_CHECK_OFFSET, ~2L);
+
+        SampleBatch batch = new SampleBatch(4);
+        assertEquals(1, cursor.poll(batch));
+        assertEquals(2, batch.timestamps[0]);
+        assertEquals(1, cursor.lost());
+
+        // A torn overwrite is neither read nor lost.
+        buffer.putLong(SharedSampleRing.SEQUENCE_OFFSET, header);
+        buffer.putLong(SharedSampleRing.SEQUENCE_CHECK_OFFSET, headerCheck);
+        buffer.putLong(offset + SharedSampleRing.CHECK, 0);
+        assertEquals(0, cursor.poll(batch));
+        assertEquals(1, cursor.lost());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesUninitializedBuffer() {
+        SharedSampleRing.open(ByteBuffer.allocate(SharedSampleRing.sizeFor(8)));
+    }
+
+    @Test
+    public void concurrentReaderNeverSeesTornSamples() throws InterruptedException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedSampleRing.sizeFor(64));
+        final SharedSampleRing writer = SharedSampleRing.create(buffer, 64);
+        SharedSampleRing.Cursor cursor = SharedSampleRing.open(buffer.duplicate()).cursor();
+        final int samples = 200000;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for(int i = 0; i < samples; i++) {
+                    writer.append(i, i * 2, (byte) (i & 1));
+                }
+            }
+        });
+        thread.start();
+
+        SampleBatch batch = new SampleBatch(16);
+        long read = 0;
+        long previous = -1;
+        while (thread.isAlive() || read + cursor.lost() < samples) {
+            int count = cursor.poll(batch);
+            for(int i = 0; i < count; i++) {
+                long timestamp = batch.timestamps[i];
+                assertTrue(timestamp > previous);
+                assertEquals(timestamp * 2, batch.values[i], 0);
+                assertEquals(timestamp & 1, batch.statuses[i]);
+                previous = timestamp;
+            }
+            read += count;
+        }
+        thread.join();
+        assertEquals(samples, read + cursor.lost());
+    }
+}
@@ -0,0 +1,97 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SleepEpochAnalyzerTest {
+
+    private static final long MINUTE = 60000;
+    // 10 samples per second.
+    private static final long SAMPLE_INTERVAL = 100;
+
+    private long time;
+
+    @Test
+    public void notConfigured_ignoresSamples() {
+        SleepEpochAnalyzer analyzer = new SleepEpochAnalyzer();
+        for(long t = 0; t < 5 * MINUTE; t += SAMPLE_INTERVAL) {
+            assertFalse(analyzer.update(t, 100, true));
+        }
+        assertEquals(0, analyzer.epochs());
+    }
+
+    @Test
+    public void scoresNight() {
+        SleepEpochAnalyzer analyzer = new SleepEpochAnalyzer();
+        analyzer.configure(100, 10);
+
+        feed(analyzer, 5 * MINUTE, false, false);
+        feed(analyzer, 10 * MINUTE, true, true);
+        assertEquals(SleepEpochAnalyzer.EPOCH_WAKE, analyzer.lastEpoch());
+        assertEquals(1, analyzer.restlessness(), 0.001);
+        assertEquals(-1, analyzer.sleepLatency());
+
+        feed(analyzer, 30 * MINUTE, true, false);
+        assertEquals(SleepEpochAnalyzer.EPOCH_SLEEP, analyzer.lastEpoch());
+        assertEquals(0, analyzer.lastEpochMovingSeconds());
+        // The movement score decays below the threshold after four quiet epochs.
+        assertEquals(12 * MINUTE, analyzer.sleepLatency());
+
+        feed(analyzer, 3 * MINUTE, true, true);
+        assertEquals(SleepEpochAnalyzer.EPOCH_WAKE, analyzer.lastEpoch());
+        assertTrue(analyzer.lastEpochVariance() > 50);
+        feed(analyzer, 10 * MINUTE, true, false);
+        analyzer.update(time, 100, true);
+
+        assertEquals(116, analyzer.epochs());
+        assertEquals(53 * MINUTE, analyzer.timeInBed());
+        assertEquals(36 * MINUTE, analyzer.sleepTime());
+        assertEquals(1, analyzer.awakenings());
+        assertEquals(2, analyzer.movements());
+        assertEquals(0, analyzer.restlessness(), 0);
+    }
+
+    @Test
+    public void skipsEpochsWithoutSamples() {
+        SleepEpochAnalyzer analyzer = new SleepEpochAnalyzer();
+        analyzer.configure(100, 10);
+
+        feed(analyzer, MINUTE, true, false);
+        time += 10 * MINUTE;
+        feed(analyzer, MINUTE, true, false);
+        analyzer.update(time, 100, true);
+
+        assertEquals(4, analyzer.epochs());
+        assertEquals(2 * MINUTE, analyzer.timeInBed());
+    }
+
+    @Test
+    public void summarizesTotals() {
+        SleepEpochAnalyzer analyzer = new SleepEpochAnalyzer();
+        analyzer.configure(100, 10);
+        feed(analyzer, 10 * MINUTE, true, false);
+        analyzer.update(time, 100, true);
+
+        SleepSummary summary = SleepSummary.of(analyzer);
+        assertTrue(summary.isAsleep());
+        assertEquals(10 * MINUTE, summary.totals[SleepSummary.TIME_IN_BED]);
+        assertEquals(0, summary.totals[SleepSummary.SLEEP_LATENCY]);
+        assertTrue(summary.toString().startsWith("Asleep, 0h 10m in bed"));
+
+        analyzer.reset();
+        assertEquals(0, SleepSummary.of(analyzer).totals[SleepSummary.EPOCHS]);
+        assertEquals(-1, analyzer.sleepLatency());
+    }
+
+    private void feed(SleepEpochAnalyzer analyzer, long duration, boolean onBed, boolean moving) {
+        long end = time + duration;
+        for(int i = 0; time < end; time += SAMPLE_INTERVAL, i++) {
+            float value = onBed ? 100 : 10;
+            if(moving) {
+                value += i % 2 == 0 ? 10 : -10;
+            }
+            analyzer.update(time, value, onBed);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.machnev.sleepdevice.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WakeLockBudgetTest {
+
+    @Test
+    public void grantsAreCappedByHoldAndBudget() {
+        WakeLockBudget budget = new WakeLockBudget(12000, 5000);
+        assertEquals(5000, budget.grant(0));
+        budget.charge(10, 5000);
+        assertEquals(5000, budget.grant(30000));
+        budget.charge(30000, 5000);
+        assertEquals(2000, budget.grant(60000));
+        budget.charge(60000, 2000);
+
+        assertEquals(0, budget.grant(90000));
+        assertEquals(1, budget.denied());
+        assertEquals(12000, budget.used(90000));
+    }
+
+    @Test
+    public void budgetRenewsEveryHour() {
+        WakeLockBudget budget = new WakeLockBudget(1000, 1000);
+        budget.grant(0);
+        budget.charge(0, 1000);
+        assertEquals(0, budget.grant(WakeLockBudget.HOUR - 1));
+        assertEquals(1000, budget.grant(WakeLockBudget.HOUR));
+    }
+}
@@ -0,0 +1,161 @@
+package com.machnev.sleepdevice.core.recording;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SegmentCodecTest {
+
+    // Timestamp, value and status as the uncompressed wire and storage format keeps them.
+    private static final int RAW_SAMPLE_SIZE = 8 + 4 + 1;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip_fixedPointValues() {
+        Night night = new Night(4096, 1);
+        assertRoundTrip(night.timestamps, night.values, night.statuses, night.count);
+    }
+
+    @Test
+    public void roundTrip_arbitraryFloats() {
+        Random random = new Random(7);
+        int count = 1000;
+        long[] timestamps = new long[count];
+        float[] values = new float[count];
+        byte[] statuses = new byte[count];
+        long timestamp = 1520000000000L;
+        for(int i = 0; i < count; i++) {
+            timestamp += random.nextInt(200);
+            timestamps[i] = timestamp;
+            values[i] = Float.intBitsToFloat(random.nextInt());
+            statuses[i] = (byte) (random.nextInt(3) - 1);
+        }
+        values[3] = Float.NaN;
+        values[4] = -0f;
+        values[5] = values[6] = values[7];
+        assertRoundTrip(timestamps, values, statuses, count);
+    }
+
+    @Test
+    public void roundTrip_unknownStatuses() {
+        long[] timestamps = {1, 2, 3};
+        float[] values = {0.1f, 0.2f, 0.3f};
+        byte[] statuses = {5, -7, 0};
+        assertRoundTrip(timestamps, values, statuses, 3);
+    }
+
+    @Test
+    public void compressesNightAtLeastFiveTimes() {
+        Night night = new Night(SegmentFormat.MAX_BLOCK_SAMPLES * 10, 2);
+        SegmentCodec codec = new SegmentCodec();
+        byte[] out = new byte[SegmentCodec.maxEncodedSize(SegmentFormat.MAX_BLOCK_SAMPLES)];
+        long encoded = 0;
+        for(int start = 0; start < night.count; start += SegmentFormat.MAX_BLOCK_SAMPLES) {
+            int count = Math.min(SegmentFormat.MAX_BLOCK_SAMPLES, night.count - start);
+            long[] timestamps = new long[count];
+            float[] values = new float[count];
+            byte[] statuses = new byte[count];
+            System.arraycopy(night.timestamps, start, timestamps, 0, count);
+            System.arraycopy(night.values, start, values, 0, count);
+            System.arraycopy(night.statuses, start, statuses, 0, count);
+            encoded += codec.encode(timestamps, values, statuses, count, out, 0);
+        }
+
+        long raw = (long) night.count * RAW_SAMPLE_SIZE;
+        assertTrue("Compressed " + raw + " bytes to " + encoded, raw >= encoded * 5);
+    }
+
+    @Test
+    public void sealedSegment_seeksByTime() throws IOException {
+        File file = new File(folder.getRoot(), "0.seg");
+        SegmentWriter writer = SegmentWriter.create(file, 0);
+        for(int block = 0; block < 10; block++) {
+            long[] timestamps = new long[100];
+            float[] values = new float[100];
+            byte[] statuses = new byte[100];
+            for(int i = 0; i < 100; i++) {
+                timestamps[i] = block * 1000 + i * 10;
+                values[i] = block;
+            }
+            writer.append(timestamps, values, statuses, 100);
+        }
+        writer.seal();
+        writer.close();
+
+        SegmentReader reader = SegmentReader.open(file);
+        assertTrue(reader.isSealed());
+        assertEquals(10, reader.indexedBlocks());
+        reader.seek(7500);
+        assertTrue(reader.nextBlock());
+        assertEquals(7000, reader.timestamps()[0]);
+        reader.seek(100000);
+        assertFalse(reader.nextBlock());
+        reader.close();
+
+        writer = SegmentWriter.recover(file, 0);
+        writer.append(new long[] {20000}, new float[] {1}, new byte[] {1}, 1);
+        writer.close();
+        reader = SegmentReader.open(file);
+        assertFalse(reader.isSealed());
+        reader.seek(15000);
+        assertTrue(reader.nextBlock());
+        assertEquals(20000, reader.timestamps()[0]);
+        reader.close();
+    }
+
+    private static void assertRoundTrip(long[] timestamps, float[] values, byte[] statuses, int count) {
+        SegmentCodec codec = new SegmentCodec();
+        byte[] out = new byte[SegmentCodec.maxEncodedSize(count) + 3];
+        int end = codec.encode(timestamps, values, statuses, count, out, 3);
+
+        long[] decodedTimestamps = new long[count];
+        float[] decodedValues = new float[count];
+        byte[] decodedStatuses = new byte[count];
+        assertEquals(end, codec.decode(out, 3, count, decodedTimestamps, decodedValues, decodedStatuses));
+
+        assertArrayEquals(timestamps, decodedTimestamps);
+        assertArrayEquals(statuses, decodedStatuses);
+        for(int i = 0; i < count; i++) {
+            assertEquals(Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(decodedValues[i]));
+        }
+    }
+
+    /**
+     * Synthetic night at 10 Hz with jittered timestamps and a slowly changing pressure with noise.
+     */
+    static class Night {
+        final long[] timestamps;
+        final float[] values;
+        final byte[] statuses;
+        final int count;
+
+        Night(int count, long seed) {
+            Random random = new Random(seed);
+            this.count = count;
+            timestamps = new long[count];
+            values = new float[count];
+            statuses = new byte[count];
+
+            long timestamp = 1520000000000L;
+            double level = 350;
+            for(int i = 0; i < count; i++) {
+                timestamp += 100 + random.nextInt(5) - 2;
+                if(i % 30000 == 0) {
+                    level = level > 1000 ? 350 : 1800;
+                }
+                double value = level + 20 * Math.sin(i / 50.0) + random.nextGaussian() * 0.3;
+                timestamps[i] = timestamp;
+                values[i] = Math.round(value * 10) / 10f;
+                statuses[i] = (byte) (level > 1000 ? 1 : 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.machnev.sleepdevice.core.recording;
+
+import com.machnev.sleepdevice.core.SampleRingBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class SessionRecorderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.newFolder("sessions");
+    }
+
+    @Test
+    public void recordsAllSamplesInGroupCommits() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(1 << 16);
+        SessionRecorder recorder = new SessionRecorder(buffer, root, new FailingCallback(), 10, 4096);
+        recorder.start();
+        for(int i = 0; i < 10000; i++) {
+            buffer.append(i, i * 0.5f, (byte) (i & 1));
+        }
+        recorder.stop();
+
+        File session = awaitClosedSession();
+        assertTrue(SessionRecorder.listSegments(session).length > 1);
+
+        int expected = 0;
+        for(File segment : SessionRecorder.listSegments(session)) {
+            SegmentReader reader = SegmentReader.open(segment);
+            while (reader.nextBlock()) {
+                for(int i = 0; i < reader.count(); i++) {
+                    assertEquals(expected, reader.timestamps()[i]);
+                    assertEquals(expected * 0.5f, reader.values()[i], 0f);
+                    assertEquals(expected & 1, reader.statuses()[i]);
+                    expected++;
+                }
+            }
+            reader.close();
+        }
+        assertEquals(10000, expected);
+        assertEquals(10000, recorder.recordedSamples());
+        assertEquals(0, recorder.droppedSamples());
+    }
+
+    @Test
+    public void recoverTruncatesTornBlock() throws IOException {
+        File file = new File(root, "0.seg");
+        SegmentWriter writer = SegmentWriter.create(file, 0);
+        writer.append(new long[] {1, 2}, new float[] {1, 2}, new byte[] {0, 1}, 2);
+        long validSize = writer.size();
+        writer.close();
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(validSize);
+        raw.write(new byte[] {0x42, 0x4c, 0x4b, 0x31, 0, 0, 0, 5, 1, 2, 3});
+        raw.close();
+
+        writer = SegmentWriter.recover(file, 0);
+        assertEquals(validSize, writer.size());
+        writer.append(new long[] {3}, new float[] {3}, new byte[] {1}, 1);
+        writer.close();
+
+        SegmentReader reader = SegmentReader.open(file);
+        int blocks = 0;
+        long last = 0;
+        while (reader.nextBlock()) {
+            blocks++;
+            last = reader.timestamps()[reader.count() - 1];
+        }
+        reader.close();
+        assertEquals(2, blocks);
+        assertEquals(3, last);
+        assertEquals(file.length(), reader.validLength());
+    }
+
+    @Test
+    public void resumesSessionThatWasNotClosed() throws Exception {
+        File session = new File(root, "1000");
+        assertTrue(session.mkdirs());
+        SegmentWriter writer = SegmentWriter.create(new File(session, "0.seg"), 0);
+        writer.append(new long[] {1}, new float[] {1}, new byte[] {0}, 1);
+        writer.close();
+
+        SampleRingBuffer buffer = new SampleRingBuffer(16);
+        SessionRecorder recorder = new SessionRecorder(buffer, root, new FailingCallback(), 10, 4096);
+        recorder.start();
+        buffer.append(2, 2, (byte) 0);
+        recorder.stop();
+
+        assertEquals(session, awaitClosedSession());
+        assertEquals(1, SessionRecorder.listSessions(root).length);
+    }
+
+    private File awaitClosedSession() throws InterruptedException {
+        for(int i = 0; i < 500; i++) {
+            File[] sessions = SessionRecorder.listSessions(root);
+            if(sessions.length > 0 && SessionRecorder.isClosed(sessions[sessions.length - 1])) {
+                return sessions[sessions.length - 1];
+            }
+            Thread.sleep(10);
+        }
+        fail("Session was not closed");
+        return null;
+    }
+
+    private static class FailingCallback implements SessionRecorder.ErrorCallback {
+        @Override
+        public void onRecordingError(IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.machnev.sleepdevice.core.report;
+
+import com.machnev.sleepdevice.core.recording.SegmentWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class NightReportGeneratorTest {
+
+    private static final long ORIGIN = 1520000000000L;
+    private static final long MINUTE = 60000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService executor;
+    private File session;
+
+    private long[] timestamps;
+    private float[] values;
+    private byte[] statuses;
+
+    @Before
+    public void setUp() throws IOException {
+        executor = Executors.newFixedThreadPool(4);
+        session = new File(folder.newFolder("sessions"), String.valueOf(ORIGIN));
+        assertTrue(session.mkdirs());
+
+        // 30 minutes out of bed, 3 hours in bed with a restless half hour in the middle,
+        // 10 minutes out and one more hour in bed, at 10 samples per second.
+        int count = (int) ((30 + 180 + 10 + 60) * MINUTE / 100);
+        timestamps = new long[count];
+        values = new float[count];
+        statuses = new byte[count];
+        Random random = new Random(3);
+        for(int i = 0; i < count; i++) {
+            long time = i * 100L;
+            boolean onBed = (time >= 30 * MINUTE && time < 210 * MINUTE) || time >= 220 * MINUTE;
+            boolean restless = time >= 100 * MINUTE && time < 130 * MINUTE;
+            timestamps[i] = ORIGIN + time;
+            values[i] = (onBed ? 1800 : 350) + (float) random.nextGaussian() * (restless ? 40 : 1);
+            statuses[i] = (byte) (onBed ? 1 : 0);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void mergedPartsMatchOnePass() {
+        NightAggregate whole = new NightAggregate(ORIGIN);
+        whole.add(timestamps, values, statuses, timestamps.length);
+
+        Random random = new Random(5);
+        NightAggregate merged = new NightAggregate(ORIGIN);
+        NightAggregate pair = new NightAggregate(ORIGIN);
+        int from = 0;
+        while (from < timestamps.length) {
+            int to = Math.min(timestamps.length, from + 1 + random.nextInt(5000));
+            NightAggregate part = new NightAggregate(ORIGIN);
+            for(int i = from; i < to; i++) {
+                part.add(timestamps[i], values[i], statuses[i]);
+            }
+            // Group some parts before merging them into the total.
+            pair.merge(part);
+            if(random.nextBoolean()) {
+                merged.merge(pair);
+                pair = new NightAggregate(ORIGIN);
+            }
+            from = to;
+        }
+        merged.merge(pair);
+
+        assertEquals(whole.samples(), merged.samples());
+        assertEquals(whole.bedExits(), merged.bedExits());
+        assertEquals(whole.epochs(), merged.epochs());
+        for(int i = 0; i < whole.epochs(); i++) {
+            assertEquals(whole.inBed(i), merged.inBed(i));
+            assertEquals(whole.activity(i), merged.activity(i), 1e-6);
+        }
+    }
+
+    @Test
+    public void reportsRecordedNight() throws IOException {
+        record(true);
+        NightReport report = new NightReportGenerator(executor).generate(session);
+
+        assertEquals(timestamps.length, report.totals[NightReport.SAMPLES]);
+        assertEquals(ORIGIN, report.totals[NightReport.START]);
+        assertEquals(1, report.totals[NightReport.BED_EXITS]);
+        assertEquals(240 * MINUTE, report.totals[NightReport.TIME_IN_BED], 1000);
+        assertEquals(210 * MINUTE, report.totals[NightReport.SLEEP_TIME], MINUTE);
+        assertEquals(0.875f, report.sleepEfficiency(), 0.01f);
+
+        assertEquals(56, report.movement.length);
+        assertEquals(0, report.movement[0], 0);
+        assertTrue(report.movement[22] > 10 * report.movement[10]);
+    }
+
+    @Test
+    public void regeneratesOnlyWhenSessionChanges() throws IOException {
+        SegmentWriter writer = record(false);
+        NightReportGenerator generator = new NightReportGenerator(executor);
+
+        NightReport first = generator.report(session);
+        File cache = new File(session, NightReportGenerator.REPORT_FILE);
+        assertTrue(cache.isFile());
+        assertEquals(first.totals[NightReport.SAMPLES], generator.report(session).totals[NightReport.SAMPLES]);
+
+        long last = timestamps[timestamps.length - 1];
+        writer.append(new long[] {last + 100, last + 200}, new float[] {1800, 1800}, new byte[] {1, 1}, 2);
+        writer.close();
+        assertEquals(timestamps.length + 2, generator.report(session).totals[NightReport.SAMPLES]);
+    }
+
+    /**
+     * Writes blocks of 10 samples into segments of 2000 blocks, the last segment stays open unless sealLast.
+     */
+    private SegmentWriter record(boolean sealLast) throws IOException {
+        int segment = 0;
+        SegmentWriter writer = SegmentWriter.create(new File(session, segment + ".seg"), segment);
+        int blocks = 0;
+        for(int from = 0; from < timestamps.length; from += 10) {
+            int count = Math.min(10, timestamps.length - from);
+            writer.append(slice(timestamps, from, count), slice(values, from, count), slice(statuses, from, count), count);
+            if(++blocks == 2000) {
+                writer.seal();
+                writer.close();
+                segment++;
+                writer = SegmentWriter.create(new File(session, segment + ".seg"), segment);
+                blocks = 0;
+            }
+        }
+        if(sealLast) {
+            writer.seal();
+            writer.close();
+        }
+        return writer;
+    }
+
+    private static long[] slice(long[] array, int from, int count) {
+        long[] slice = new long[count];
+        System.arraycopy(array, from, slice, 0, count);
+        return slice;
+    }
+
+    private static float[] slice(float[] array, int from, int count) {
+        float[] slice = new float[count];
+        System.arraycopy(array, from, slice, 0, count);
+        return slice;
+    }
+
+    private static byte[] slice(byte[] array, int from, int count) {
+        byte[] slice = new byte[count];
+        System.arraycopy(array, from, slice, 0, count);
+        return slice;
+    }
+}
@@ -0,0 +1,87 @@
+package com.machnev.sleepdevice.core.stream;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BufferedPublisherTest {
+
+    @Test
+    public void deliversOnlyRequestedItems() {
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(8);
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(2);
+        publisher.subscribe(subscriber);
+
+        for(int i = 1; i <= 5; i++) {
+            publisher.emit(i);
+        }
+        assertEquals(Arrays.asList(1, 2), subscriber.items);
+
+        subscriber.subscription.request(10);
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), subscriber.items);
+        publisher.emit(6);
+        assertEquals(6, subscriber.items.size());
+    }
+
+    @Test
+    public void slowSubscriberLosesOldestItemsOnly() {
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(3);
+        RecordingSubscriber<Integer> slow = new RecordingSubscriber<>(0);
+        RecordingSubscriber<Integer> fast = new RecordingSubscriber<>(Long.MAX_VALUE);
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+
+        for(int i = 1; i <= 10; i++) {
+            publisher.emit(i);
+        }
+        assertEquals(10, fast.items.size());
+        assertEquals(7, publisher.dropped());
+
+        slow.subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList(8, 9, 10), slow.items);
+    }
+
+    @Test
+    public void completesAfterPendingItems() {
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(8);
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(1);
+        publisher.subscribe(subscriber);
+        publisher.emit(1);
+        publisher.emit(2);
+        publisher.complete();
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(1);
+        assertEquals(Arrays.asList(1, 2), subscriber.items);
+        assertTrue(subscriber.completed);
+        assertFalse(publisher.hasSubscribers());
+
+        RecordingSubscriber<Integer> late = new RecordingSubscriber<>(1);
+        publisher.subscribe(late);
+        assertTrue(late.completed);
+    }
+
+    @Test
+    public void cancelStopsDelivery() {
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(8);
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        publisher.emit(1);
+        subscriber.subscription.cancel();
+        publisher.emit(2);
+
+        assertEquals(Arrays.asList(1), subscriber.items);
+        assertFalse(publisher.hasSubscribers());
+    }
+
+    @Test
+    public void nonPositiveRequestIsAnError() {
+        BufferedPublisher<Integer> publisher = new BufferedPublisher<>(8);
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(0);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+}
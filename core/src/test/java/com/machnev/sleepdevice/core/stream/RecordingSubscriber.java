@@ -0,0 +1,40 @@
+package com.machnev.sleepdevice.core.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class RecordingSubscriber<T> implements Subscriber<T> {
+    final List<T> items = new ArrayList<>();
+    Subscription subscription;
+    Throwable error;
+    boolean completed;
+
+    private final long initialRequest;
+
+    RecordingSubscriber(long initialRequest) {
+        this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        if(initialRequest > 0) {
+            subscription.request(initialRequest);
+        }
+    }
+
+    @Override
+    public void onNext(T item) {
+        items.add(item);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        this.error = error;
+    }
+
+    @Override
+    public void onComplete() {
+        completed = true;
+    }
+}
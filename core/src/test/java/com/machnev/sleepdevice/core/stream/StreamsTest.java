@@ -0,0 +1,158 @@
+package com.machnev.sleepdevice.core.stream;
+
+import com.machnev.sleepdevice.core.SampleBatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class StreamsTest {
+
+    private BufferedPublisher<SampleBatch> samples;
+    private List<Runnable> tasks;
+    private Executor executor;
+
+    @Before
+    public void setUp() {
+        samples = new BufferedPublisher<>(16);
+        tasks = new ArrayList<>();
+        executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+    }
+
+    @Test
+    public void distinctUntilChangedKeepsDemand() {
+        BufferedPublisher<Integer> statuses = new BufferedPublisher<>(16);
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>(2);
+        Streams.distinctUntilChanged(statuses).subscribe(subscriber);
+
+        for(int status : new int[] {0, 0, 0, 1, 1, 0}) {
+            statuses.emit(status);
+        }
+        assertEquals(Arrays.asList(0, 1), subscriber.items);
+        subscriber.subscription.request(1);
+        assertEquals(Arrays.asList(0, 1, 0), subscriber.items);
+    }
+
+    @Test
+    public void throttlePassesFirstItemOfInterval() {
+        BufferedPublisher<SampleWindow> windows = new BufferedPublisher<>(16);
+        RecordingSubscriber<SampleWindow> subscriber = new RecordingSubscriber<>(Long.MAX_VALUE);
+        Streams.throttle(windows, 100).subscribe(subscriber);
+
+        for(long timestamp : new long[] {0, 40, 99, 100, 150, 260}) {
+            windows.emit(new SampleWindow(timestamp, timestamp, 1, 0, 0, 0));
+        }
+        assertEquals(3, subscriber.items.size());
+        assertEquals(100, subscriber.items.get(1).to);
+        assertEquals(260, subscriber.items.get(2).to);
+    }
+
+    @Test
+    public void windowAggregatesAndFlushesOnComplete() {
+        RecordingSubscriber<SampleWindow> subscriber = new RecordingSubscriber<>(1);
+        Streams.window(samples, 3, SampleWindow.AGGREGATOR).subscribe(subscriber);
+
+        for(int i = 0; i < 5; i++) {
+            samples.emit(batch(i, i * 2));
+        }
+        assertEquals(1, subscriber.items.size());
+        SampleWindow first = subscriber.items.get(0);
+        assertEquals(0, first.from);
+        assertEquals(2, first.to);
+        assertEquals(0, first.min, 0);
+        assertEquals(4, first.max, 0);
+        assertEquals(2, first.mean, 0);
+
+        subscriber.subscription.request(1);
+        samples.complete();
+        assertEquals(2, subscriber.items.size());
+        assertEquals(2, subscriber.items.get(1).count);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void observeOnBoundsQueuedWork() {
+        RecordingSubscriber<SampleBatch> subscriber = new RecordingSubscriber<>(Long.MAX_VALUE);
+        Streams.observeOn(samples, executor, 4).subscribe(subscriber);
+        runTasks();
+
+        for(int i = 0; i < 100; i++) {
+            samples.emit(batch(i, i));
+        }
+        // One delivery task, no matter how many samples.
+        assertEquals(1, tasks.size());
+        assertTrue(subscriber.items.isEmpty());
+
+        runTasks();
+        // 4 buffered, the source kept the latest 16 of the rest.
+        assertEquals(20, subscriber.items.size());
+        assertEquals(99, subscriber.items.get(19).lastTimestamp());
+        assertEquals(80, samples.dropped());
+    }
+
+    @Test
+    public void observeOnCompletesOnExecutor() {
+        RecordingSubscriber<SampleBatch> subscriber = new RecordingSubscriber<>(Long.MAX_VALUE);
+        Streams.observeOn(samples, executor, 4).subscribe(subscriber);
+        samples.emit(batch(1, 1));
+        samples.complete();
+        assertFalse(subscriber.completed);
+
+        runTasks();
+        assertEquals(1, subscriber.items.size());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void forEachCanBeCancelled() {
+        final List<SampleBatch> received = new ArrayList<>();
+        Subscription subscription = Streams.forEach(samples, new Streams.Consumer<SampleBatch>() {
+            @Override
+            public void accept(SampleBatch item) {
+                received.add(item);
+            }
+        });
+        samples.emit(batch(1, 1));
+        subscription.cancel();
+        samples.emit(batch(2, 2));
+
+        assertEquals(1, received.size());
+        assertFalse(samples.hasSubscribers());
+    }
+
+    @Test
+    public void windowSpansBatches() {
+        List<SampleBatch> batches = Arrays.asList(
+                new SampleBatch(new long[] {10, 20}, new float[] {1, 5}, null, 2),
+                new SampleBatch(new long[0], new float[0], null, 0),
+                new SampleBatch(new long[] {30}, new float[] {3}, null, 1));
+        SampleWindow window = SampleWindow.of(batches);
+        assertEquals(10, window.from);
+        assertEquals(30, window.to);
+        assertEquals(3, window.count);
+        assertEquals(1, window.min, 0);
+        assertEquals(5, window.max, 0);
+        assertEquals(3, window.mean, 0);
+    }
+
+    private static SampleBatch batch(long timestamp, float value) {
+        return new SampleBatch(new long[] {timestamp}, new float[] {value}, new byte[1], 1);
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+}